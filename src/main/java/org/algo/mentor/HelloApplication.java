@@ -1,12 +1,22 @@
 package org.algo.mentor;
 
 import javafx.application.Application;
+import javafx.application.Platform;
+import javafx.concurrent.Task;
+import javafx.event.Event;
 import javafx.fxml.FXMLLoader;
+import javafx.geometry.Insets;
 import javafx.scene.Scene;
+import javafx.scene.control.Label;
+import javafx.scene.control.ProgressBar;
+import javafx.scene.layout.VBox;
+import javafx.stage.Modality;
 import javafx.stage.Stage;
+import javafx.stage.StageStyle;
 import org.kordamp.bootstrapfx.BootstrapFX;
 import org.algo.mentor.config.AppDirectoryManager;
 import org.algo.mentor.config.DatabaseManager;
+import org.algo.mentor.services.BackupService;
 import org.algo.mentor.util.ScrollSpeedFix;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -15,6 +25,8 @@ import java.io.IOException;
 
 public class HelloApplication extends Application {
     private static final Logger logger = LoggerFactory.getLogger(HelloApplication.class);
+
+    private boolean closing;
     
     @Override
     public void start(Stage stage) throws IOException {
@@ -47,10 +59,62 @@ public class HelloApplication extends Application {
         stage.show();
         
         stage.setOnCloseRequest(event -> {
+            if (closing) {
+                event.consume();
+                return;
+            }
             logger.info("Application shutdown requested");
-            DatabaseManager.closeConnection();
-            logger.info("Application terminated successfully");
+            if (!BackupService.isShutdownBackupDue()) {
+                BackupService.stop();
+                shutdown();
+                return;
+            }
+            // The final backup can take a while on a large database; keep the window painting
+            event.consume();
+            closing = true;
+            backupAndExit(stage);
         });
     }
+
+    private void backupAndExit(Stage owner) {
+        Task<Void> task = new Task<>() {
+            @Override
+            protected Void call() {
+                BackupService.backupOnShutdown(this::updateProgress);
+                return null;
+            }
+        };
+
+        ProgressBar bar = new ProgressBar();
+        bar.setPrefWidth(280);
+        bar.progressProperty().bind(task.progressProperty());
+        VBox box = new VBox(10, new Label("Zaxira nusxa olinmoqda..."), bar);
+        box.setPadding(new Insets(16));
+        Stage dialog = new Stage(StageStyle.UTILITY);
+        dialog.initOwner(owner);
+        dialog.initModality(Modality.WINDOW_MODAL);
+        dialog.setTitle("Mentor");
+        dialog.setScene(new Scene(box));
+        dialog.setOnCloseRequest(Event::consume);
+        dialog.show();
+
+        task.setOnSucceeded(e -> {
+            shutdown();
+            Platform.exit();
+        });
+        task.setOnFailed(e -> {
+            logger.error("Shutdown backup failed", task.getException());
+            shutdown();
+            Platform.exit();
+        });
+        Thread thread = new Thread(task, "shutdown-backup");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static void shutdown() {
+        DatabaseManager.closeConnection();
+        logger.info("Application terminated successfully");
+    }
 }
 
@@ -1,9 +1,102 @@
 package org.algo.mentor;
 
 import javafx.application.Application;
+import org.algo.mentor.config.AppDirectoryManager;
+import org.algo.mentor.config.DatabaseManager;
+import org.algo.mentor.services.SnapshotService;
+import org.algo.mentor.services.StorageService;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
 
 public class    Launcher {
+    private static final String STORAGE_BENCHMARK = "--storage-benchmark";
+    private static final String SNAPSHOT_EXPORT = "--snapshot-export";
+    private static final String SNAPSHOT_IMPORT = "--snapshot-import";
+
     public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals(STORAGE_BENCHMARK)) {
+            System.exit(runStorageBenchmark(args));
+        }
+        if (args.length > 0 && (args[0].equals(SNAPSHOT_EXPORT) || args[0].equals(SNAPSHOT_IMPORT))) {
+            System.exit(runSnapshot(args));
+        }
         Application.launch(HelloApplication.class, args);
     }
+
+    /**
+     * {@code --storage-benchmark <folder> [--apply]}: measures the storage profiles on the
+     * folder's database.db, prints the results and, with {@code --apply}, switches the database
+     * to the recommended profile.
+     */
+    private static int runStorageBenchmark(String[] args) {
+        if (args.length < 2) {
+            System.err.println("Usage: " + STORAGE_BENCHMARK + " <folder with database.db> [--apply]");
+            return 2;
+        }
+        Path folder = Paths.get(args[1]).toAbsolutePath().normalize();
+        Path database = folder.resolve("database.db");
+        if (!Files.exists(database)) {
+            System.err.println("database.db not found in " + folder);
+            return 2;
+        }
+        try {
+            StorageService.BenchmarkResult result = StorageService.benchmark(database, StorageService.DEFAULT_ROUNDS);
+            System.out.printf("%s (%.1f MB)%n", database, result.sizeBytes() / 1024.0 / 1024.0);
+            System.out.printf("%-10s %12s %12s %12s %10s%n", "profile", "reports ms", "commit ms", "batch ms", "score");
+            for (StorageService.ProfileResult r : result.results()) {
+                System.out.printf("%-10s %12.2f %12.3f %12.2f %10.2f%n", r.profile(), r.readMillis(),
+                        r.commitMillis(), r.batchMillis(), r.score());
+            }
+            System.out.println("Recommended: " + result.recommended());
+
+            if (Arrays.asList(args).contains("--apply")) {
+                AppDirectoryManager.setAppDirectory(folder);
+                DatabaseManager.initialize();
+                StorageService.activate(result.recommended());
+                DatabaseManager.closeConnection();
+                System.out.println("Applied " + result.recommended());
+            }
+            return 0;
+        } catch (Exception e) {
+            System.err.println("Storage benchmark failed: " + e.getMessage());
+            return 1;
+        }
+    }
+
+    /**
+     * {@code --snapshot-export <folder> <file>} writes the folder's database.db as a snapshot;
+     * {@code --snapshot-import <file> <folder>} creates database.db in an empty folder from one.
+     */
+    private static int runSnapshot(String[] args) {
+        boolean export = args[0].equals(SNAPSHOT_EXPORT);
+        if (args.length < 3) {
+            System.err.println("Usage: " + SNAPSHOT_EXPORT + " <folder with database.db> <file" + SnapshotService.FILE_SUFFIX + ">");
+            System.err.println("       " + SNAPSHOT_IMPORT + " <file" + SnapshotService.FILE_SUFFIX + "> <folder>");
+            return 2;
+        }
+        try {
+            if (export) {
+                Path database = Paths.get(args[1]).toAbsolutePath().normalize().resolve("database.db");
+                if (!Files.exists(database)) {
+                    System.err.println("database.db not found in " + database.getParent());
+                    return 2;
+                }
+                SnapshotService.ExportResult r = SnapshotService.exportTo(database, Paths.get(args[2]).toAbsolutePath());
+                System.out.printf("%s: %d tables, %d rows, %.1f MB (database.db %.1f MB) in %d ms%n", r.file(), r.tables(), r.rows(),
+                        r.sizeBytes() / 1024.0 / 1024.0, r.databaseBytes() / 1024.0 / 1024.0, r.millis());
+            } else {
+                Path folder = Paths.get(args[2]).toAbsolutePath().normalize();
+                Files.createDirectories(folder);
+                SnapshotService.ImportResult r = SnapshotService.importTo(Paths.get(args[1]).toAbsolutePath(), folder.resolve("database.db"));
+                System.out.printf("%s: %d tables, %d rows in %d ms%n", r.database(), r.tables(), r.rows(), r.millis());
+            }
+            return 0;
+        } catch (Exception e) {
+            System.err.println("Snapshot " + (export ? "export" : "import") + " failed: " + e.getMessage());
+            return 1;
+        }
+    }
 }
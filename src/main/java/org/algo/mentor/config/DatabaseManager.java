@@ -4,11 +4,34 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.sql.*;
+import java.util.List;
+import java.util.Map;
 
 public class DatabaseManager {
     private static final Logger logger = LoggerFactory.getLogger(DatabaseManager.class);
     private static Connection connection;
 
+    /**
+     * The domain tables, parents before children. Their changes are written to {@code change_log},
+     * and {@code sync_meta} gives each of their rows a global id and a version for delta sync.
+     */
+    public static final List<String> DOMAIN_TABLES = List.of("groups", "students", "payments", "lessons",
+            "attendance", "homeworks", "test_sessions", "test_results", "question_sessions", "question_results",
+            "schedules", "monthly_payments", "student_groups");
+
+    /** Membership rows have no id of their own, so {@code change_log} records them by student. */
+    private static final Map<String, String> CHANGE_LOG_KEYS = Map.of("student_groups", "student_id");
+
+    private static final int DEDICATED_BUSY_TIMEOUT_MILLIS = 30_000;
+
+    private static final String NOW_MILLIS = "CAST((julianday('now') - 2440587.5) * 86400000 AS INTEGER)";
+    private static final String NEXT_SYNC_SEQ = "(SELECT COALESCE(MAX(local_seq), 0) + 1 FROM sync_meta)";
+
+    /** The column a table's {@code change_log} row ids refer to: the rowid, or the student for memberships. */
+    public static String changeLogKey(String table) {
+        return CHANGE_LOG_KEYS.getOrDefault(table, "rowid");
+    }
+
     public static void initialize() {
         try {
             logger.info("Starting database initialization");
@@ -17,8 +40,15 @@ public class DatabaseManager {
             logger.debug("Using database URL: {}", databaseUrl);
             connection = DriverManager.getConnection(databaseUrl);
             logger.info("Database connection established successfully");
+            try (Statement stmt = connection.createStatement()) {
+                // Only honoured on a new file, or by the VACUUM in enableIncrementalVacuum
+                stmt.execute("PRAGMA auto_vacuum = INCREMENTAL");
+            }
+            applyStorageProfile(connection);
+            enableForeignKeys(connection);
             createTables();
             updateSchema();
+            enableIncrementalVacuum(connection);
             logger.info("Database initialized successfully");
         } catch (ClassNotFoundException e) {
             logger.error("SQLite JDBC driver not found in classpath", e);
@@ -43,6 +73,8 @@ public class DatabaseManager {
             addColumnIfNotExists(stmt, "lessons", "homework_total_score", "REAL DEFAULT 0");
             addColumnIfNotExists(stmt, "test_sessions", "total_questions", "INTEGER DEFAULT 0");
             addColumnIfNotExists(stmt, "question_sessions", "total_questions", "INTEGER DEFAULT 0");
+            addColumnIfNotExists(stmt, "schedules", "duration_minutes", "INTEGER NOT NULL DEFAULT 90");
+            addColumnIfNotExists(stmt, "schedules", "room", "TEXT");
         } catch (SQLException e) {
             logger.error("Failed to update database schema", e);
         }
@@ -114,6 +146,7 @@ public class DatabaseManager {
                     "homework_total_score REAL DEFAULT 0," +
                     "FOREIGN KEY(group_id) REFERENCES groups(id)" +
                     ")");
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_lessons_group_date ON lessons(group_id, lesson_date)");
 
             stmt.execute("CREATE TABLE IF NOT EXISTS attendance (" +
                     "id INTEGER PRIMARY KEY AUTOINCREMENT," +
@@ -181,6 +214,8 @@ public class DatabaseManager {
                     "group_id INTEGER NOT NULL," +
                     "day_of_week INTEGER NOT NULL," +
                     "lesson_time TEXT NOT NULL," +
+                    "duration_minutes INTEGER NOT NULL DEFAULT 90," +
+                    "room TEXT," +
                     "FOREIGN KEY(group_id) REFERENCES groups(id)," +
                     "UNIQUE(group_id, day_of_week)" +
                     ")");
@@ -195,6 +230,92 @@ public class DatabaseManager {
                     "UNIQUE(student_id, year, month, payment_day)" +
                     ")");
 
+            stmt.execute("CREATE TABLE IF NOT EXISTS group_rollups (" +
+                    "group_id INTEGER NOT NULL," +
+                    "bucket_type TEXT NOT NULL," +
+                    "bucket_start TEXT NOT NULL," +
+                    "lesson_count INTEGER DEFAULT 0," +
+                    "present_count INTEGER DEFAULT 0," +
+                    "attendance_count INTEGER DEFAULT 0," +
+                    "earned REAL DEFAULT 0," +
+                    "possible REAL DEFAULT 0," +
+                    "PRIMARY KEY(group_id, bucket_type, bucket_start)" +
+                    ")");
+
+            stmt.execute("CREATE TABLE IF NOT EXISTS student_rollups (" +
+                    "student_id INTEGER NOT NULL," +
+                    "group_id INTEGER NOT NULL," +
+                    "bucket_type TEXT NOT NULL," +
+                    "bucket_start TEXT NOT NULL," +
+                    "lesson_count INTEGER DEFAULT 0," +
+                    "present_count INTEGER DEFAULT 0," +
+                    "earned REAL DEFAULT 0," +
+                    "possible REAL DEFAULT 0," +
+                    "PRIMARY KEY(student_id, group_id, bucket_type, bucket_start)" +
+                    ")");
+
+            stmt.execute("CREATE TABLE IF NOT EXISTS score_sketches (" +
+                    "source TEXT NOT NULL," +
+                    "session_id INTEGER NOT NULL," +
+                    "lesson_id INTEGER NOT NULL," +
+                    "group_id INTEGER NOT NULL," +
+                    "lesson_date TEXT NOT NULL," +
+                    "topic TEXT," +
+                    "sample_count INTEGER DEFAULT 0," +
+                    "histogram BLOB," +
+                    "digest BLOB," +
+                    "PRIMARY KEY(source, session_id)" +
+                    ")");
+
+            stmt.execute("CREATE TABLE IF NOT EXISTS app_settings (" +
+                    "key TEXT PRIMARY KEY," +
+                    "value TEXT" +
+                    ")");
+
+            stmt.execute("CREATE TABLE IF NOT EXISTS student_risk (" +
+                    "student_id INTEGER NOT NULL," +
+                    "group_id INTEGER NOT NULL," +
+                    "full_name TEXT," +
+                    "group_name TEXT," +
+                    "attendance_rate REAL," +
+                    "performance_rate REAL," +
+                    "recent_attendance_rate REAL," +
+                    "recent_performance_rate REAL," +
+                    "absence_streak INTEGER," +
+                    "unpaid_months INTEGER," +
+                    "score REAL NOT NULL," +
+                    "PRIMARY KEY(student_id, group_id)" +
+                    ")");
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_student_risk_score ON student_risk(score DESC)");
+
+            stmt.execute("CREATE TABLE IF NOT EXISTS change_log (" +
+                    "seq INTEGER PRIMARY KEY AUTOINCREMENT," +
+                    "table_name TEXT NOT NULL," +
+                    "row_id INTEGER NOT NULL," +
+                    "op TEXT NOT NULL," +
+                    "changed_at TEXT NOT NULL DEFAULT CURRENT_TIMESTAMP" +
+                    ")");
+            createChangeLogTriggers(stmt);
+
+            boolean syncMetaExists;
+            try (ResultSet rs = stmt.executeQuery("SELECT 1 FROM sqlite_master WHERE type = 'table' AND name = 'sync_meta'")) {
+                syncMetaExists = rs.next();
+            }
+            stmt.execute("CREATE TABLE IF NOT EXISTS sync_meta (" +
+                    "table_name TEXT NOT NULL," +
+                    "gid TEXT NOT NULL," +
+                    "row_id INTEGER NOT NULL," +
+                    "version INTEGER NOT NULL," +
+                    "site TEXT," +
+                    "deleted INTEGER NOT NULL DEFAULT 0," +
+                    "local_seq INTEGER NOT NULL," +
+                    "PRIMARY KEY(table_name, gid)" +
+                    ")");
+            stmt.execute("CREATE UNIQUE INDEX IF NOT EXISTS idx_sync_meta_row ON sync_meta(table_name, row_id) WHERE deleted = 0");
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_sync_meta_seq ON sync_meta(local_seq)");
+            if (!syncMetaExists) backfillSyncMeta(stmt);
+            createSyncTriggers(stmt);
+
             logger.info("Database tables created successfully");
         } catch (SQLException e) {
             logger.error("Failed to create database tables", e);
@@ -202,6 +323,62 @@ public class DatabaseManager {
         }
     }
 
+    private static void createChangeLogTriggers(Statement stmt) throws SQLException {
+        for (String table : DOMAIN_TABLES) {
+            String key = changeLogKey(table);
+            stmt.execute("CREATE TRIGGER IF NOT EXISTS trg_" + table + "_log_insert AFTER INSERT ON " + table +
+                    " BEGIN INSERT INTO change_log (table_name, row_id, op) VALUES ('" + table + "', NEW." + key + ", 'I'); END");
+            stmt.execute("CREATE TRIGGER IF NOT EXISTS trg_" + table + "_log_update AFTER UPDATE ON " + table +
+                    " BEGIN INSERT INTO change_log (table_name, row_id, op) VALUES ('" + table + "', NEW." + key + ", 'U'); END");
+            stmt.execute("CREATE TRIGGER IF NOT EXISTS trg_" + table + "_log_delete AFTER DELETE ON " + table +
+                    " BEGIN INSERT INTO change_log (table_name, row_id, op) VALUES ('" + table + "', OLD." + key + ", 'D'); END");
+        }
+    }
+
+    /**
+     * Local writes stamp the row's {@code sync_meta} entry with the current time, clear the site
+     * (meaning "this installation") and move it to the end of the local sequence. New rows get a
+     * random global id; a membership's id is made of its student's and group's ids, so the same
+     * membership created on two installations is one row.
+     */
+    private static void createSyncTriggers(Statement stmt) throws SQLException {
+        for (String table : DOMAIN_TABLES) {
+            String gid = "lower(hex(randomblob(16)))";
+            String insert = "INSERT INTO";
+            if (table.equals("student_groups")) {
+                gid = "COALESCE((SELECT gid FROM sync_meta WHERE table_name = 'students' AND row_id = NEW.student_id AND deleted = 0), 'students:' || NEW.student_id)" +
+                        " || '|' || COALESCE((SELECT gid FROM sync_meta WHERE table_name = 'groups' AND row_id = NEW.group_id AND deleted = 0), 'groups:' || NEW.group_id)";
+                // Re-adding a removed membership revives its entry
+                insert = "INSERT OR REPLACE INTO";
+            }
+            stmt.execute("CREATE TRIGGER IF NOT EXISTS trg_" + table + "_sync_insert AFTER INSERT ON " + table +
+                    " BEGIN " + insert + " sync_meta (table_name, gid, row_id, version, local_seq) VALUES ('" + table + "', " +
+                    gid + ", NEW.rowid, " + NOW_MILLIS + ", " + NEXT_SYNC_SEQ + "); END");
+            stmt.execute("CREATE TRIGGER IF NOT EXISTS trg_" + table + "_sync_update AFTER UPDATE ON " + table +
+                    " BEGIN UPDATE sync_meta SET version = " + NOW_MILLIS + ", site = NULL, local_seq = " + NEXT_SYNC_SEQ +
+                    " WHERE table_name = '" + table + "' AND row_id = NEW.rowid AND deleted = 0; END");
+            stmt.execute("CREATE TRIGGER IF NOT EXISTS trg_" + table + "_sync_delete AFTER DELETE ON " + table +
+                    " BEGIN UPDATE sync_meta SET deleted = 1, version = " + NOW_MILLIS + ", site = NULL, local_seq = " + NEXT_SYNC_SEQ +
+                    " WHERE table_name = '" + table + "' AND row_id = OLD.rowid AND deleted = 0; END");
+        }
+    }
+
+    /**
+     * Rows that existed before sync_meta get ids made of table and row id, at version 0 and outside
+     * the local sequence. Two copies of the same database file therefore agree on them and do not
+     * send them to each other.
+     */
+    private static void backfillSyncMeta(Statement stmt) throws SQLException {
+        for (String table : DOMAIN_TABLES) {
+            String gid = table.equals("student_groups")
+                    ? "'students:' || student_id || '|groups:' || group_id"
+                    : "'" + table + ":' || rowid";
+            stmt.execute("INSERT INTO sync_meta (table_name, gid, row_id, version, local_seq) " +
+                    "SELECT '" + table + "', " + gid + ", rowid, 0, 0 FROM " + table);
+        }
+        logger.info("Assigned sync ids to existing rows");
+    }
+
     private static void initializeSampleData() throws SQLException {
         logger.info("Initializing sample data");
 
@@ -216,6 +393,42 @@ public class DatabaseManager {
         logger.info("Sample data initialized successfully");
     }
 
+    /**
+     * Switches an older file to {@code auto_vacuum = INCREMENTAL}, which only a full VACUUM does.
+     * It runs once, here, while this is the only connection and no service has started, so
+     * {@code MaintenanceService} can give free pages back in small steps from then on. A failure
+     * only leaves the file as it was; it is tried again on the next start.
+     */
+    private static void enableIncrementalVacuum(Connection conn) {
+        try (Statement stmt = conn.createStatement()) {
+            try (ResultSet rs = stmt.executeQuery("PRAGMA auto_vacuum")) {
+                if (rs.next() && rs.getInt(1) == 2) return;
+            }
+            long start = System.currentTimeMillis();
+            stmt.execute("VACUUM");
+            logger.info("Switched database to incremental auto_vacuum in {} ms", System.currentTimeMillis() - start);
+        } catch (SQLException e) {
+            logger.warn("Could not switch database to incremental auto_vacuum: {}", e.getMessage());
+        }
+    }
+
+    private static void applyStorageProfile(Connection conn) throws SQLException {
+        StorageProfile profile = StorageProfile.configured(conn);
+        profile.apply(conn);
+        logger.info("Using storage profile {}", profile);
+    }
+
+    /**
+     * SQLite only checks the declared foreign keys when asked to, per connection. Rows are deleted
+     * with their children through {@code CascadeService}; the keys stop anything else from leaving
+     * orphans behind.
+     */
+    private static void enableForeignKeys(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("PRAGMA foreign_keys = ON");
+        }
+    }
+
     public static Connection getConnection() throws SQLException {
         if (connection == null || connection.isClosed()) {
             try {
@@ -223,6 +436,8 @@ public class DatabaseManager {
                 Class.forName("org.sqlite.JDBC");
                 String databaseUrl = AppDirectoryManager.getDatabaseUrl();
                 connection = DriverManager.getConnection(databaseUrl);
+                applyStorageProfile(connection);
+                enableForeignKeys(connection);
                 logger.debug("Database reconnection successful");
             } catch (ClassNotFoundException e) {
                 logger.error("SQLite JDBC driver not found during reconnection", e);
@@ -232,10 +447,35 @@ public class DatabaseManager {
         return connection;
     }
 
+    /**
+     * A new connection to the same file, for long work that must not run on the shared connection
+     * or change its settings. It gets the storage profile and a longer busy timeout, but foreign
+     * keys stay off. The caller closes it.
+     */
+    public static Connection openDedicatedConnection() throws SQLException {
+        Connection conn = DriverManager.getConnection(AppDirectoryManager.getDatabaseUrl());
+        try {
+            StorageProfile.configured(conn).apply(conn);
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute("PRAGMA busy_timeout = " + DEDICATED_BUSY_TIMEOUT_MILLIS);
+            }
+        } catch (SQLException e) {
+            conn.close();
+            throw e;
+        }
+        return conn;
+    }
+
     public static void closeConnection() {
         try {
             if (connection != null && !connection.isClosed()) {
                 logger.info("Closing database connection");
+                try (Statement stmt = connection.createStatement()) {
+                    // Refreshes statistics the session's queries showed to be missing or stale
+                    stmt.execute("PRAGMA optimize");
+                } catch (SQLException e) {
+                    logger.warn("PRAGMA optimize failed: {}", e.getMessage());
+                }
                 connection.close();
                 logger.info("Database connection closed successfully");
             }
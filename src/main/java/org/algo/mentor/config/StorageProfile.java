@@ -0,0 +1,104 @@
+package org.algo.mentor.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * SQLite settings applied to every connection. The profile in use is stored under
+ * {@code storage.profile} in the database's own settings, so it travels with the file.
+ * <ul>
+ *   <li>SAFE: rollback journal and a full sync on every commit, as SQLite does by default. Used
+ *   until another profile is chosen in the settings or with the storage benchmark's
+ *   {@code --apply}.</li>
+ *   <li>BALANCED: WAL, so reports can read while a lesson is saved, with a sync at checkpoints
+ *   only. A power cut can lose the last commits but cannot corrupt the file.</li>
+ *   <li>FAST_READ: BALANCED with a large cache, memory-mapped reads and bigger pages, for large
+ *   databases that are mostly reported on.</li>
+ * </ul>
+ * {@code page_size} only takes effect on a new database or after {@code VACUUM}; see
+ * {@code StorageService.activate}.
+ */
+public enum StorageProfile {
+    SAFE("DELETE", "FULL", 8 * 1024, 0, "DEFAULT", 4096),
+    BALANCED("WAL", "NORMAL", 32 * 1024, 128L << 20, "MEMORY", 4096),
+    FAST_READ("WAL", "NORMAL", 128 * 1024, 512L << 20, "MEMORY", 8192);
+
+    private static final Logger logger = LoggerFactory.getLogger(StorageProfile.class);
+
+    public static final String SETTING_KEY = "storage.profile";
+    public static final StorageProfile DEFAULT = SAFE;
+
+    private final String journalMode;
+    private final String synchronous;
+    private final int cacheKib;
+    private final long mmapBytes;
+    private final String tempStore;
+    private final int pageSize;
+
+    StorageProfile(String journalMode, String synchronous, int cacheKib, long mmapBytes, String tempStore, int pageSize) {
+        this.journalMode = journalMode;
+        this.synchronous = synchronous;
+        this.cacheKib = cacheKib;
+        this.mmapBytes = mmapBytes;
+        this.tempStore = tempStore;
+        this.pageSize = pageSize;
+    }
+
+    public String getJournalMode() {
+        return journalMode;
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /** Applies the profile to a writable connection. */
+    public void apply(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            // Only honoured while the file has no pages yet
+            stmt.execute("PRAGMA page_size = " + pageSize);
+            stmt.execute("PRAGMA journal_mode = " + journalMode);
+            stmt.execute("PRAGMA synchronous = " + synchronous);
+        }
+        applyReadSettings(conn);
+    }
+
+    /** The per-connection part of the profile, which also works on read-only connections. */
+    public void applyReadSettings(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            // A negative cache_size is in KiB rather than pages
+            stmt.execute("PRAGMA cache_size = -" + cacheKib);
+            stmt.execute("PRAGMA mmap_size = " + mmapBytes);
+            stmt.execute("PRAGMA temp_store = " + tempStore);
+        }
+    }
+
+    public static StorageProfile parse(String name) {
+        if (name != null) {
+            for (StorageProfile p : values()) {
+                if (p.name().equalsIgnoreCase(name.trim().replace('-', '_'))) return p;
+            }
+        }
+        return DEFAULT;
+    }
+
+    /** The profile stored in the database, or the default for a new or older database. */
+    public static StorageProfile configured(Connection conn) {
+        try (PreparedStatement pstmt = conn.prepareStatement("SELECT value FROM app_settings WHERE key = ?")) {
+            pstmt.setString(1, SETTING_KEY);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return parse(rs.next() ? rs.getString(1) : null);
+            }
+        } catch (SQLException e) {
+            // No app_settings table yet
+            logger.debug("Storage profile not configured: {}", e.getMessage());
+            return DEFAULT;
+        }
+    }
+}
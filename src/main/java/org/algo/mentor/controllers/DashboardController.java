@@ -4,7 +4,12 @@ import javafx.animation.Animation;
 import javafx.animation.KeyFrame;
 import javafx.animation.Timeline;
 import javafx.fxml.FXML;
+import javafx.scene.control.ButtonBar;
+import javafx.scene.control.ButtonType;
+import javafx.scene.control.Dialog;
 import javafx.scene.control.Label;
+import javafx.scene.control.Spinner;
+import javafx.scene.layout.GridPane;
 import javafx.scene.layout.HBox;
 import javafx.scene.layout.Priority;
 import javafx.scene.layout.VBox;
@@ -12,10 +17,12 @@ import javafx.util.Duration;
 import org.algo.mentor.core.NavigableController;
 import org.algo.mentor.core.NavigationController;
 import org.algo.mentor.services.ReportService;
+import org.algo.mentor.services.RiskService;
 
 import java.time.ZonedDateTime;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
 import java.util.List;
 
 public class DashboardController implements NavigableController {
@@ -31,6 +38,8 @@ public class DashboardController implements NavigableController {
     private NavigationController navigationController;
     private Timeline clockTimeline;
 
+    private static final int RISK_LIST_SIZE = 10;
+
     @FXML
     public void initialize() {
         startClock();
@@ -101,9 +110,51 @@ public class DashboardController implements NavigableController {
         }
     }
 
+    @FXML
+    private void onRiskSettingsClick() {
+        RiskService.RiskRules rules = RiskService.getRules();
+
+        Spinner<Double> attendanceSpinner = new Spinner<>(0.0, 100.0, rules.attendanceThreshold(), 5.0);
+        Spinner<Double> performanceSpinner = new Spinner<>(0.0, 100.0, rules.performanceThreshold(), 5.0);
+        Spinner<Integer> windowSpinner = new Spinner<>(1, 50, rules.recentWindow());
+        Spinner<Double> weightSpinner = new Spinner<>(0.0, 1.0, rules.recentWeight(), 0.1);
+        Spinner<Integer> streakSpinner = new Spinner<>(0, 20, rules.maxConsecutiveAbsences());
+        Spinner<Integer> unpaidSpinner = new Spinner<>(0, 12, rules.maxUnpaidMonths());
+        Spinner<Integer> lookbackSpinner = new Spinner<>(1, 12, rules.paymentLookbackMonths());
+        Spinner<Integer> graceSpinner = new Spinner<>(1, 28, rules.paymentGraceDays());
+
+        GridPane grid = new GridPane();
+        grid.setHgap(12);
+        grid.setVgap(10);
+        grid.addRow(0, new Label("Davomat chegarasi (%)"), attendanceSpinner);
+        grid.addRow(1, new Label("O'zlashtirish chegarasi (%)"), performanceSpinner);
+        grid.addRow(2, new Label("Oxirgi darslar soni"), windowSpinner);
+        grid.addRow(3, new Label("Oxirgi darslar ulushi (0-1)"), weightSpinner);
+        grid.addRow(4, new Label("Ketma-ket qoldirish (0 = o'chiq)"), streakSpinner);
+        grid.addRow(5, new Label("To'lanmagan oylar (0 = o'chiq)"), unpaidSpinner);
+        grid.addRow(6, new Label("To'lovlar tekshiriladigan oylar"), lookbackSpinner);
+        grid.addRow(7, new Label("To'lov muddati (oy kuni)"), graceSpinner);
+
+        ButtonType saveType = new ButtonType("Saqlash", ButtonBar.ButtonData.OK_DONE);
+        Dialog<RiskService.RiskRules> dialog = new Dialog<>();
+        dialog.setTitle("Xavf mezonlari");
+        dialog.getDialogPane().setContent(grid);
+        dialog.getDialogPane().getButtonTypes().addAll(saveType, ButtonType.CANCEL);
+        dialog.setResultConverter(button -> button == saveType
+                ? new RiskService.RiskRules(attendanceSpinner.getValue(), performanceSpinner.getValue(),
+                        windowSpinner.getValue(), weightSpinner.getValue(), streakSpinner.getValue(),
+                        unpaidSpinner.getValue(), lookbackSpinner.getValue(), graceSpinner.getValue())
+                : null);
+
+        dialog.showAndWait().ifPresent(newRules -> {
+            RiskService.saveRules(newRules);
+            loadRiskList();
+        });
+    }
+
     private void loadRiskList() {
         riskListVBox.getChildren().clear();
-        List<ReportService.RiskStudent> students = ReportService.getAtRiskStudents();
+        List<RiskService.RiskEntry> students = RiskService.getTopRisks(RISK_LIST_SIZE);
 
         if (students.isEmpty()) {
             Label placeholder = new Label("Hozircha hamma o'quvchilar ko'rsatkichlari yaxshi");
@@ -112,7 +163,7 @@ public class DashboardController implements NavigableController {
             return;
         }
 
-        for (ReportService.RiskStudent student : students) {
+        for (RiskService.RiskEntry student : students) {
             HBox row = new HBox(10);
             row.setAlignment(javafx.geometry.Pos.CENTER_LEFT);
             row.setStyle("-fx-padding: 10; -fx-background-color: #fff5f5; -fx-background-radius: 8; -fx-border-color: #fed7d7; -fx-border-radius: 8;");
@@ -124,6 +175,20 @@ public class DashboardController implements NavigableController {
             groupLbl.setStyle("-fx-text-fill: #718096; -fx-font-size: 11;");
             infoBox.getChildren().addAll(nameLbl, groupLbl);
 
+            RiskService.RiskRules rules = RiskService.getRules();
+            List<String> flags = new ArrayList<>();
+            if (rules.maxConsecutiveAbsences() > 0 && student.absenceStreak() >= rules.maxConsecutiveAbsences()) {
+                flags.add(student.absenceStreak() + " dars ketma-ket kelmagan");
+            }
+            if (rules.maxUnpaidMonths() > 0 && student.unpaidMonths() >= rules.maxUnpaidMonths()) {
+                flags.add(student.unpaidMonths() + " oy to'lanmagan");
+            }
+            if (!flags.isEmpty()) {
+                Label flagsLbl = new Label(String.join(", ", flags));
+                flagsLbl.setStyle("-fx-text-fill: #c53030; -fx-font-size: 11;");
+                infoBox.getChildren().add(flagsLbl);
+            }
+
             VBox statBox = new VBox(2);
             statBox.setAlignment(javafx.geometry.Pos.CENTER_RIGHT);
             Label attLbl = new Label(String.format("Davomat: %.0f%%", student.attendanceRate()));
@@ -15,9 +15,12 @@ import org.algo.mentor.core.NavigableController;
 import org.algo.mentor.core.NavigationController;
 import org.algo.mentor.models.Group;
 import org.algo.mentor.models.Student;
+import org.algo.mentor.services.CascadeService;
 import org.algo.mentor.services.GroupService;
 import org.algo.mentor.services.StudentService;
 
+import java.sql.SQLException;
+import java.util.Map;
 import java.util.Optional;
 
 public class GroupsController implements NavigableController {
@@ -286,6 +289,22 @@ public class GroupsController implements NavigableController {
     @FXML
     private void onDeleteGroupClick() {
         if (selectedGroup != null) {
+            Map<String, Integer> counts = Map.of();
+            try {
+                counts = CascadeService.preview("groups", selectedGroup.getId());
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+            String lessons = counts.getOrDefault("lessons", 0) + " ta dars, " +
+                    counts.getOrDefault("attendance", 0) + " ta davomat va " +
+                    (counts.getOrDefault("homeworks", 0) + counts.getOrDefault("test_results", 0) + counts.getOrDefault("question_results", 0)) +
+                    " ta baho";
+            Alert confirm = new Alert(Alert.AlertType.CONFIRMATION,
+                    "\"" + selectedGroup.getName() + "\" guruhi bilan birga " + lessons + " o'chiriladi. Davom etasizmi?",
+                    ButtonType.YES, ButtonType.NO);
+            confirm.setHeaderText("Guruhni o'chirish");
+            if (confirm.showAndWait().orElse(ButtonType.NO) != ButtonType.YES) return;
+
             GroupService.deleteGroup(selectedGroup.getId());
             closeSidebars();
             loadGroups();
@@ -24,6 +24,7 @@ import org.algo.mentor.models.*;
 import org.algo.mentor.services.GroupService;
 import org.algo.mentor.services.LessonService;
 
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
@@ -119,7 +120,7 @@ public class LessonsController implements NavigableController {
         Button newLessonBtn = new Button("Yangi dars");
         newLessonBtn.getStyleClass().addAll("btn", "btn-primary");
         newLessonBtn.setOnAction(e -> {
-            Lesson newLesson = LessonService.createLesson(group.getId(), LocalDateTime.now());
+            Lesson newLesson = LessonService.getOrCreateLesson(group.getId(), LocalDateTime.now());
             openLesson(group, newLesson, false);
         });
 
@@ -132,6 +133,61 @@ public class LessonsController implements NavigableController {
         return card;
     }
 
+    /**
+     * Jadval bo'yicha tanlangan oraliq uchun darslarni oldindan yaratish
+     */
+    @FXML
+    private void onGenerateLessonsClick() {
+        ComboBox<Group> groupCombo = new ComboBox<>();
+        groupCombo.getItems().add(null);
+        groupCombo.getItems().addAll(GroupService.getAllGroups());
+        groupCombo.setPromptText("Barcha guruhlar");
+        groupCombo.setButtonCell(new ListCell<>() {
+            @Override
+            protected void updateItem(Group item, boolean empty) {
+                super.updateItem(item, empty);
+                setText(item == null ? "Barcha guruhlar" : item.getName());
+            }
+        });
+        groupCombo.setCellFactory(lv -> new ListCell<>() {
+            @Override
+            protected void updateItem(Group item, boolean empty) {
+                super.updateItem(item, empty);
+                setText(empty ? null : item == null ? "Barcha guruhlar" : item.getName());
+            }
+        });
+        LocalDate today = LocalDate.now();
+        DatePicker fromPicker = new DatePicker(today);
+        DatePicker toPicker = new DatePicker(today.plusMonths(1));
+
+        GridPane grid = new GridPane();
+        grid.setHgap(12);
+        grid.setVgap(10);
+        grid.addRow(0, new Label("Guruh"), groupCombo);
+        grid.addRow(1, new Label("Boshlanish sanasi"), fromPicker);
+        grid.addRow(2, new Label("Tugash sanasi"), toPicker);
+
+        ButtonType generateType = new ButtonType("Yaratish", ButtonBar.ButtonData.OK_DONE);
+        Dialog<ButtonType> dialog = new Dialog<>();
+        dialog.setTitle("Jadvaldan darslar yaratish");
+        dialog.getDialogPane().setContent(grid);
+        dialog.getDialogPane().getButtonTypes().addAll(generateType, ButtonType.CANCEL);
+        if (dialog.showAndWait().orElse(ButtonType.CANCEL) != generateType) return;
+
+        LocalDate from = fromPicker.getValue();
+        LocalDate to = toPicker.getValue();
+        if (from == null || to == null || to.isBefore(from)) {
+            new Alert(Alert.AlertType.WARNING, "Iltimos, to'g'ri sana oralig'ini tanlang!", ButtonType.OK).showAndWait();
+            return;
+        }
+        Group group = groupCombo.getValue();
+        LessonService.GenerationResult result = LessonService.generateLessons(from, to, group != null ? group.getId() : null);
+        logger.info("Generated {} lessons for {} groups ({} skipped)", result.created(), result.groups(), result.skipped());
+        new Alert(Alert.AlertType.INFORMATION,
+                result.created() + " ta dars yaratildi.\n" + result.skipped() + " ta kun o'tkazib yuborildi (dars allaqachon mavjud).",
+                ButtonType.OK).showAndWait();
+    }
+
     private void showHistory(Group group) {
         this.selectedGroup = group;
         historyGroupTitleLabel.setText(group.getName());
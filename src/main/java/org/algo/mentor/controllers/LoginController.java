@@ -10,7 +10,20 @@ import org.algo.mentor.config.AppDirectoryManager;
 import org.algo.mentor.config.DatabaseManager;
 import org.algo.mentor.core.NavigableController;
 import org.algo.mentor.core.NavigationController;
+import org.algo.mentor.services.ArchiveService;
 import org.algo.mentor.services.AuthService;
+import org.algo.mentor.services.BackupService;
+import org.algo.mentor.services.CascadeService;
+import org.algo.mentor.services.ChangeFeed;
+import org.algo.mentor.services.DistributionService;
+import org.algo.mentor.services.LeaderboardService;
+import org.algo.mentor.services.MaintenanceService;
+import org.algo.mentor.services.NotificationCenter;
+import org.algo.mentor.services.ReminderScheduler;
+import org.algo.mentor.services.ReplicaService;
+import org.algo.mentor.services.RiskService;
+import org.algo.mentor.services.RollupService;
+import org.algo.mentor.services.ScheduleService;
 import org.algo.mentor.models.User;
 
 import java.io.File;
@@ -54,6 +67,14 @@ public class LoginController implements NavigableController {
             
             AppDirectoryManager.setAppDirectory(path);
             DatabaseManager.reinitialize();
+            RollupService.resetBackfillCheck();
+            DistributionService.resetBackfillCheck();
+            RiskService.reset();
+            ScheduleService.invalidateIndex();
+            ArchiveService.reset();
+            CascadeService.reset();
+            LeaderboardService.reset();
+            ChangeFeed.reset();
             
             isDatabaseReady = true;
             loginButton.setDisable(false);
@@ -105,6 +126,11 @@ public class LoginController implements NavigableController {
         User user = authService.authenticate(username, password);
         if (user != null) {
             navigationController.setCurrentUser(user);
+            ReminderScheduler.start(NotificationCenter::post);
+            BackupService.start();
+            ChangeFeed.start();
+            MaintenanceService.start();
+            ReplicaService.start();
             navigationController.navigateTo("dashboard-view.fxml", "DashboardController");
         } else {
             showError("Login yoki parol noto'g'ri!");
@@ -8,6 +8,8 @@ import javafx.scene.layout.*;
 import javafx.scene.text.TextAlignment;
 import org.algo.mentor.core.NavigationController;
 import org.algo.mentor.models.User;
+import org.algo.mentor.util.ExportStatusPanel;
+import org.algo.mentor.util.NotificationBell;
 
 public class MainController {
     public BorderPane mainLayout;
@@ -56,7 +58,8 @@ public class MainController {
         avatarBox.getChildren().add(initials);
 
         userBox.getChildren().addAll(userLabel, avatarBox);
-        headerHBox.getChildren().add(userBox);
+        headerHBox.getChildren().addAll(new NotificationBell(), userBox);
+        headerHBox.setSpacing(20);
     }
 
     private void setupSidebar() {
@@ -107,7 +110,7 @@ public class MainController {
         
         logoutBtn.setOnAction(e -> navigationController.logout());
 
-        sidebarVBox.getChildren().addAll(titleLabel, menuVBox, spacer, logoutBtn);
+        sidebarVBox.getChildren().addAll(titleLabel, menuVBox, spacer, new ExportStatusPanel(), logoutBtn);
     }
 
     private void handleMenuClick(String menuItem) {
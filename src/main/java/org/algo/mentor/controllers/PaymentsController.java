@@ -11,6 +11,7 @@ import org.algo.mentor.core.NavigableController;
 import org.algo.mentor.core.NavigationController;
 import org.algo.mentor.models.Group;
 import org.algo.mentor.models.Student;
+import org.algo.mentor.services.ExportManager;
 import org.algo.mentor.services.GroupService;
 import org.algo.mentor.services.PaymentService;
 import org.algo.mentor.services.PdfExportService;
@@ -364,19 +365,10 @@ public class PaymentsController implements NavigableController {
         File file = chooser.showSaveDialog(outerScrollPane.getScene().getWindow());
         if (file == null) return;
 
-        ObservableList<Student> students = StudentService.getStudentsByGroup(selected.getId());
-        List<Integer> ids = new ArrayList<>();
-        for (Student s : students) ids.add(s.getId());
-        Set<String> keys = PaymentService.getMonthlyPaymentKeysForStudents(ids);
-        sortStudentsByPaymentDay(students, keys);
-
-        try {
-            PdfExportService.exportGroupStudentList(selected.getName(), students, file);
-            new Alert(Alert.AlertType.INFORMATION, "PDF muvaffaqiyatli saqlandi!", ButtonType.OK).showAndWait();
-        } catch (Exception ex) {
-            ex.printStackTrace();
-            new Alert(Alert.AlertType.ERROR, "Xatolik: " + ex.getMessage(), ButtonType.OK).showAndWait();
-        }
+        int groupId = selected.getId();
+        String groupName = selected.getName();
+        ExportManager.submit(groupName + " ro'yxati", file,
+                (target, conn, progress) -> PdfExportService.exportGroupStudentList(groupId, groupName, target, conn, progress));
     }
 
     @Override
@@ -3,28 +3,41 @@ package org.algo.mentor.controllers;
 import javafx.beans.property.ReadOnlyObjectWrapper;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
+import javafx.concurrent.Task;
 import javafx.fxml.FXML;
 import javafx.scene.chart.*;
 import javafx.scene.control.*;
-import javafx.scene.image.WritableImage;
-import javafx.scene.SnapshotParameters;
+import javafx.scene.layout.VBox;
+import javafx.stage.DirectoryChooser;
 import javafx.stage.FileChooser;
 import org.algo.mentor.core.NavigableController;
 import org.algo.mentor.core.NavigationController;
 import org.algo.mentor.models.Group;
 import org.algo.mentor.models.Student;
+import org.algo.mentor.services.ArchiveService;
+import org.algo.mentor.services.AttendanceMatrixService;
+import org.algo.mentor.services.BackupService;
+import org.algo.mentor.services.DistributionService;
+import org.algo.mentor.services.ExportManager;
 import org.algo.mentor.services.GroupService;
+import org.algo.mentor.services.LeaderboardService;
+import org.algo.mentor.services.MaintenanceService;
 import org.algo.mentor.services.PdfExportService;
+import org.algo.mentor.services.ReportCardService;
+import org.algo.mentor.services.ReplicaService;
 import org.algo.mentor.services.ReportService;
 import org.algo.mentor.services.StudentService;
+import org.algo.mentor.services.SyncService;
+import org.algo.mentor.services.TabularExportService;
+import org.algo.mentor.util.AttendanceHeatmap;
+import org.algo.mentor.util.FederationDialog;
+import org.algo.mentor.util.TableWriter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
-import java.io.IOException;
 import java.time.LocalDate;
 import java.util.List;
-import java.util.stream.Collectors;
 
 public class ReportsController implements NavigableController {
     private static final Logger log = LoggerFactory.getLogger(ReportsController.class);
@@ -44,6 +57,12 @@ public class ReportsController implements NavigableController {
     @FXML private ComboBox<Group> groupFilterCombo;
     @FXML private DatePicker studentActivityFromPicker;
     @FXML private DatePicker studentActivityToPicker;
+    @FXML private CheckBox reportCardsAllGroupsCheck;
+    @FXML private CheckBox reportCardsMergeCheck;
+    @FXML private Button reportCardsExportBtn;
+    @FXML private ProgressBar reportCardsProgress;
+    @FXML private Label reportCardsStatusLabel;
+    @FXML private Button reportCardsCancelBtn;
     @FXML private TableView<ReportService.StudentStat> studentStatsTable;
     @FXML private TableColumn<ReportService.StudentStat, Integer> studentRankCol;
     @FXML private TableColumn<ReportService.StudentStat, String> studentNameCol;
@@ -69,8 +88,52 @@ public class ReportsController implements NavigableController {
     @FXML private Button exportPersonalPdfBtn;
     @FXML private Label personalExportStatusLabel;
 
+    @FXML private ComboBox<Group> leaderboardGroupCombo;
+    @FXML private ComboBox<LeaderboardService.Metric> leaderboardMetricCombo;
+    @FXML private ComboBox<LeaderboardService.TieMode> leaderboardTieCombo;
+    @FXML private Spinner<Integer> leaderboardSizeSpinner;
+    @FXML private TableView<LeaderboardService.LeaderboardEntry> leaderboardTable;
+    @FXML private TableColumn<LeaderboardService.LeaderboardEntry, Integer> leaderboardRankCol;
+    @FXML private TableColumn<LeaderboardService.LeaderboardEntry, String> leaderboardNameCol;
+    @FXML private TableColumn<LeaderboardService.LeaderboardEntry, String> leaderboardGroupCol;
+    @FXML private TableColumn<LeaderboardService.LeaderboardEntry, Double> leaderboardAttCol;
+    @FXML private TableColumn<LeaderboardService.LeaderboardEntry, Double> leaderboardScoreCol;
+    @FXML private TableColumn<LeaderboardService.LeaderboardEntry, Double> leaderboardValueCol;
+
+    @FXML private ComboBox<Group> attendanceMatrixGroupCombo;
+    @FXML private Spinner<Integer> attendanceRecentSpinner;
+    @FXML private Label attendanceMatrixSummaryLabel;
+
+    @FXML private ComboBox<Group> distributionGroupCombo;
+    @FXML private ComboBox<DistributionService.Source> distributionSourceCombo;
+    @FXML private ComboBox<DistributionService.TopicDistribution> distributionTopicCombo;
+    @FXML private DatePicker distributionFromPicker;
+    @FXML private DatePicker distributionToPicker;
+    @FXML private Label distributionSummaryLabel;
+    @FXML private BarChart<String, Number> distributionChart;
+    @FXML private TableView<DistributionService.SessionDistribution> distributionSessionTable;
+    @FXML private TableColumn<DistributionService.SessionDistribution, String> distributionDateCol;
+    @FXML private TableColumn<DistributionService.SessionDistribution, String> distributionKindCol;
+    @FXML private TableColumn<DistributionService.SessionDistribution, String> distributionTopicCol;
+    @FXML private TableColumn<DistributionService.SessionDistribution, Long> distributionCountCol;
+    @FXML private TableColumn<DistributionService.SessionDistribution, Double> distributionP25Col;
+    @FXML private TableColumn<DistributionService.SessionDistribution, Double> distributionMedianCol;
+    @FXML private TableColumn<DistributionService.SessionDistribution, Double> distributionP75Col;
+    @FXML private TableColumn<DistributionService.SessionDistribution, Double> distributionP90Col;
+    @FXML private AttendanceHeatmap attendanceHeatmap;
+    @FXML private TableView<AttendanceMatrixService.StudentRow> attendanceStreakTable;
+    @FXML private TableColumn<AttendanceMatrixService.StudentRow, String> streakNameCol;
+    @FXML private TableColumn<AttendanceMatrixService.StudentRow, Double> streakRateCol;
+    @FXML private TableColumn<AttendanceMatrixService.StudentRow, Integer> streakCurrentCol;
+    @FXML private TableColumn<AttendanceMatrixService.StudentRow, Integer> streakLongestAbsentCol;
+    @FXML private TableColumn<AttendanceMatrixService.StudentRow, Integer> streakLongestPresentCol;
+    @FXML private TableColumn<AttendanceMatrixService.StudentRow, Integer> streakRecentCol;
+
     private NavigationController navigationController;
     private Student selectedStudent;
+    private AttendanceMatrixService.AttendanceMatrix currentAttendanceMatrix;
+    private Task<ReportCardService.BatchResult> reportCardsTask;
+    private ReportCardService.ReportCard currentReportCard;
 
     @FXML
     public void initialize() {
@@ -79,6 +142,9 @@ public class ReportsController implements NavigableController {
         setupIndividualStatsTable();
         setupDatePickers();
         setupStudentActivityDatePickers();
+        setupLeaderboard();
+        setupAttendanceMatrix();
+        setupDistribution();
         
         loadSummary();
         loadGroupStats();
@@ -387,6 +453,252 @@ public class ReportsController implements NavigableController {
         });
     }
 
+    private void setupLeaderboard() {
+        leaderboardRankCol.setCellValueFactory(cd -> new ReadOnlyObjectWrapper<>(cd.getValue().rank()));
+        leaderboardNameCol.setCellValueFactory(cd -> new ReadOnlyObjectWrapper<>(cd.getValue().fullName()));
+        leaderboardGroupCol.setCellValueFactory(cd -> new ReadOnlyObjectWrapper<>(cd.getValue().groupName()));
+        leaderboardAttCol.setCellValueFactory(cd -> new ReadOnlyObjectWrapper<>(cd.getValue().attendanceRate()));
+        leaderboardScoreCol.setCellValueFactory(cd -> new ReadOnlyObjectWrapper<>(cd.getValue().avgScore()));
+        leaderboardValueCol.setCellValueFactory(cd -> new ReadOnlyObjectWrapper<>(cd.getValue().value()));
+        for (TableColumn<LeaderboardService.LeaderboardEntry, Double> col : List.of(leaderboardAttCol, leaderboardScoreCol, leaderboardValueCol)) {
+            col.setCellFactory(tc -> new TableCell<>() {
+                @Override protected void updateItem(Double item, boolean empty) {
+                    super.updateItem(item, empty);
+                    setText(empty ? null : String.format("%.1f%%", item));
+                }
+            });
+        }
+
+        leaderboardMetricCombo.setItems(FXCollections.observableArrayList(LeaderboardService.Metric.values()));
+        leaderboardMetricCombo.setValue(LeaderboardService.Metric.SCORE);
+        leaderboardMetricCombo.setButtonCell(new MetricCell());
+        leaderboardMetricCombo.setCellFactory(lv -> new MetricCell());
+
+        leaderboardTieCombo.setItems(FXCollections.observableArrayList(LeaderboardService.TieMode.values()));
+        leaderboardTieCombo.setValue(LeaderboardService.TieMode.COMPETITION);
+        leaderboardTieCombo.setButtonCell(new TieModeCell());
+        leaderboardTieCombo.setCellFactory(lv -> new TieModeCell());
+
+        leaderboardSizeSpinner.setValueFactory(new SpinnerValueFactory.IntegerSpinnerValueFactory(5, 500, 20, 5));
+
+        ObservableList<Group> groups = FXCollections.observableArrayList();
+        groups.add(null);
+        groups.addAll(GroupService.getAllGroups());
+        leaderboardGroupCombo.setItems(groups);
+        leaderboardGroupCombo.setButtonCell(new GroupOrAllCell());
+        leaderboardGroupCombo.setCellFactory(lv -> new GroupOrAllCell());
+
+        leaderboardGroupCombo.valueProperty().addListener((obs, old, val) -> loadLeaderboard());
+        leaderboardMetricCombo.valueProperty().addListener((obs, old, val) -> loadLeaderboard());
+        leaderboardTieCombo.valueProperty().addListener((obs, old, val) -> loadLeaderboard());
+        leaderboardSizeSpinner.valueProperty().addListener((obs, old, val) -> loadLeaderboard());
+
+        loadLeaderboard();
+    }
+
+    private void loadLeaderboard() {
+        Group group = leaderboardGroupCombo.getValue();
+        LeaderboardService.Metric metric = leaderboardMetricCombo.getValue();
+        LeaderboardService.TieMode tieMode = leaderboardTieCombo.getValue();
+        if (metric == null || tieMode == null) return;
+
+        leaderboardTable.setItems(FXCollections.observableArrayList(
+                LeaderboardService.getTopStudents(group != null ? group.getId() : null, metric, tieMode, leaderboardSizeSpinner.getValue())
+        ));
+    }
+
+    private void setupAttendanceMatrix() {
+        streakNameCol.setCellValueFactory(cd -> new ReadOnlyObjectWrapper<>(cd.getValue().getFullName()));
+        streakRateCol.setCellValueFactory(cd -> new ReadOnlyObjectWrapper<>(cd.getValue().attendanceRate()));
+        streakRateCol.setCellFactory(tc -> new TableCell<>() {
+            @Override protected void updateItem(Double item, boolean empty) {
+                super.updateItem(item, empty);
+                setText(empty ? null : String.format("%.1f%%", item));
+            }
+        });
+        streakCurrentCol.setCellValueFactory(cd -> new ReadOnlyObjectWrapper<>(cd.getValue().currentAbsenceStreak()));
+        streakLongestAbsentCol.setCellValueFactory(cd -> new ReadOnlyObjectWrapper<>(cd.getValue().longestAbsenceRun()));
+        streakLongestPresentCol.setCellValueFactory(cd -> new ReadOnlyObjectWrapper<>(cd.getValue().longestPresenceRun()));
+        streakRecentCol.setCellValueFactory(cd -> new ReadOnlyObjectWrapper<>(
+                currentAttendanceMatrix == null ? 0 : currentAttendanceMatrix.absentInLast(cd.getValue(), attendanceRecentSpinner.getValue())));
+
+        attendanceRecentSpinner.setValueFactory(new SpinnerValueFactory.IntegerSpinnerValueFactory(1, 100, 5));
+        attendanceRecentSpinner.valueProperty().addListener((obs, old, val) -> attendanceStreakTable.refresh());
+
+        attendanceMatrixGroupCombo.setItems(FXCollections.observableArrayList(GroupService.getAllGroups()));
+        attendanceMatrixGroupCombo.setButtonCell(new GroupOrAllCell());
+        attendanceMatrixGroupCombo.setCellFactory(lv -> new GroupOrAllCell());
+        attendanceMatrixGroupCombo.valueProperty().addListener((obs, old, val) -> {
+            if (val != null) loadAttendanceMatrix(val.getId());
+        });
+    }
+
+    private void loadAttendanceMatrix(int groupId) {
+        currentAttendanceMatrix = AttendanceMatrixService.load(groupId);
+        attendanceHeatmap.setMatrix(currentAttendanceMatrix);
+        attendanceStreakTable.setItems(FXCollections.observableArrayList(currentAttendanceMatrix.getStudents()));
+        attendanceMatrixSummaryLabel.setText(currentAttendanceMatrix.getStudents().size() + " o'quvchi, "
+                + currentAttendanceMatrix.lessonCount() + " dars");
+    }
+
+    private void setupDistribution() {
+        distributionDateCol.setCellValueFactory(cd -> new ReadOnlyObjectWrapper<>(cd.getValue().lessonDate().substring(0, 10)));
+        distributionKindCol.setCellValueFactory(cd -> new ReadOnlyObjectWrapper<>(sourceLabel(cd.getValue().source())));
+        distributionTopicCol.setCellValueFactory(cd -> new ReadOnlyObjectWrapper<>(cd.getValue().topic()));
+        distributionCountCol.setCellValueFactory(cd -> new ReadOnlyObjectWrapper<>(cd.getValue().distribution().count()));
+        distributionP25Col.setCellValueFactory(cd -> new ReadOnlyObjectWrapper<>(cd.getValue().distribution().p25()));
+        distributionMedianCol.setCellValueFactory(cd -> new ReadOnlyObjectWrapper<>(cd.getValue().distribution().median()));
+        distributionP75Col.setCellValueFactory(cd -> new ReadOnlyObjectWrapper<>(cd.getValue().distribution().p75()));
+        distributionP90Col.setCellValueFactory(cd -> new ReadOnlyObjectWrapper<>(cd.getValue().distribution().p90()));
+        for (TableColumn<DistributionService.SessionDistribution, Double> col : List.of(distributionP25Col, distributionMedianCol, distributionP75Col, distributionP90Col)) {
+            col.setCellFactory(tc -> new TableCell<>() {
+                @Override protected void updateItem(Double item, boolean empty) {
+                    super.updateItem(item, empty);
+                    setText(empty ? null : String.format("%.1f%%", item));
+                }
+            });
+        }
+
+        ObservableList<DistributionService.Source> sources = FXCollections.observableArrayList();
+        sources.add(null);
+        sources.addAll(DistributionService.Source.values());
+        distributionSourceCombo.setItems(sources);
+        distributionSourceCombo.setValue(null);
+        distributionSourceCombo.setButtonCell(new SourceCell());
+        distributionSourceCombo.setCellFactory(lv -> new SourceCell());
+
+        distributionGroupCombo.setItems(FXCollections.observableArrayList(GroupService.getAllGroups()));
+        distributionGroupCombo.setButtonCell(new GroupOrAllCell());
+        distributionGroupCombo.setCellFactory(lv -> new GroupOrAllCell());
+
+        distributionTopicCombo.setButtonCell(new TopicCell());
+        distributionTopicCombo.setCellFactory(lv -> new TopicCell());
+
+        distributionGroupCombo.valueProperty().addListener((obs, old, val) -> loadDistributionTopics());
+        distributionSourceCombo.valueProperty().addListener((obs, old, val) -> loadDistributionTopics());
+        distributionFromPicker.valueProperty().addListener((obs, old, val) -> loadDistributionTopics());
+        distributionToPicker.valueProperty().addListener((obs, old, val) -> loadDistributionTopics());
+        distributionTopicCombo.valueProperty().addListener((obs, old, val) -> {
+            if (!updatingDistributionTopics) loadDistribution();
+        });
+    }
+
+    private boolean updatingDistributionTopics;
+
+    /** Refills the topic filter for the current selection, keeping the chosen topic if it is still there. */
+    private void loadDistributionTopics() {
+        Group group = distributionGroupCombo.getValue();
+        DistributionService.TopicDistribution selected = distributionTopicCombo.getValue();
+        ObservableList<DistributionService.TopicDistribution> topics = FXCollections.observableArrayList();
+        topics.add(null);
+        if (group != null) {
+            topics.addAll(DistributionService.getTopicDistributions(group.getId(), distributionSourceCombo.getValue(),
+                    distributionFromPicker.getValue(), distributionToPicker.getValue()));
+        }
+        updatingDistributionTopics = true;
+        try {
+            distributionTopicCombo.setItems(topics);
+            distributionTopicCombo.setValue(selected == null ? null : topics.stream()
+                    .filter(t -> t != null && t.topic().equals(selected.topic()))
+                    .findFirst().orElse(null));
+        } finally {
+            updatingDistributionTopics = false;
+        }
+        loadDistribution();
+    }
+
+    /** Merges the stored sketches of the selected sessions; no score rows are read. */
+    private void loadDistribution() {
+        Group group = distributionGroupCombo.getValue();
+        distributionChart.getData().clear();
+        if (group == null) {
+            distributionSummaryLabel.setText("");
+            distributionSessionTable.getItems().clear();
+            return;
+        }
+        DistributionService.Source source = distributionSourceCombo.getValue();
+        DistributionService.TopicDistribution topicFilter = distributionTopicCombo.getValue();
+        String topic = topicFilter != null ? topicFilter.topic() : null;
+        LocalDate from = distributionFromPicker.getValue();
+        LocalDate to = distributionToPicker.getValue();
+        DistributionService.Distribution d = DistributionService.getGroupDistribution(group.getId(), source, topic, from, to);
+
+        if (d.count() == 0) {
+            distributionSummaryLabel.setText("Tanlangan davrda natijalar yo'q");
+        } else {
+            distributionSummaryLabel.setText(String.format(
+                    "%d natija, o'rtacha %.1f%%, min %.1f%%, 25%% %.1f%%, median %.1f%%, 75%% %.1f%%, 90%% %.1f%%, max %.1f%%",
+                    d.count(), d.mean(), d.min(), d.p25(), d.median(), d.p75(), d.p90(), d.max()));
+        }
+        XYChart.Series<String, Number> series = new XYChart.Series<>();
+        long[] histogram = d.histogram();
+        for (int i = 0; i < histogram.length; i++) {
+            String label = String.format("%.0f-%.0f", d.bucketLowerBound(i), d.bucketLowerBound(i + 1));
+            series.getData().add(new XYChart.Data<>(label, histogram[i]));
+        }
+        distributionChart.getData().add(series);
+        distributionSessionTable.setItems(FXCollections.observableArrayList(
+                DistributionService.getSessionDistributions(group.getId(), source, topic, from, to)));
+    }
+
+    private static String sourceLabel(DistributionService.Source source) {
+        if (source == null) return "Hammasi";
+        return source == DistributionService.Source.TEST ? "Test" : "Savol";
+    }
+
+    private static class SourceCell extends ListCell<DistributionService.Source> {
+        @Override protected void updateItem(DistributionService.Source item, boolean empty) {
+            super.updateItem(item, empty);
+            setText(empty ? null : sourceLabel(item));
+        }
+    }
+
+    private static class TopicCell extends ListCell<DistributionService.TopicDistribution> {
+        @Override protected void updateItem(DistributionService.TopicDistribution item, boolean empty) {
+            super.updateItem(item, empty);
+            if (empty) {
+                setText(null);
+            } else if (item == null) {
+                setText("Barcha mavzular");
+            } else {
+                setText((item.topic().isEmpty() ? "Mavzusiz" : item.topic()) + " (" + item.sessions() + ")");
+            }
+        }
+    }
+
+    private static class GroupOrAllCell extends ListCell<Group> {
+        @Override protected void updateItem(Group item, boolean empty) {
+            super.updateItem(item, empty);
+            setText(empty ? null : item == null ? "Barcha guruhlar" : item.getName());
+        }
+    }
+
+    private static class MetricCell extends ListCell<LeaderboardService.Metric> {
+        @Override protected void updateItem(LeaderboardService.Metric item, boolean empty) {
+            super.updateItem(item, empty);
+            if (empty || item == null) {
+                setText(null);
+                return;
+            }
+            setText(switch (item) {
+                case SCORE -> "O'zlashtirish";
+                case ATTENDANCE -> "Davomat";
+                case COMPOSITE -> "Umumiy (70/30)";
+            });
+        }
+    }
+
+    private static class TieModeCell extends ListCell<LeaderboardService.TieMode> {
+        @Override protected void updateItem(LeaderboardService.TieMode item, boolean empty) {
+            super.updateItem(item, empty);
+            if (empty || item == null) {
+                setText(null);
+                return;
+            }
+            setText(item == LeaderboardService.TieMode.DENSE ? "Zich (1, 2, 2, 3)" : "Musobaqa (1, 2, 2, 4)");
+        }
+    }
+
     private void loadStudentStats(int groupId) {
         LocalDate fromDate = studentActivityFromPicker.getValue();
         LocalDate toDate = studentActivityToPicker.getValue();
@@ -438,89 +750,27 @@ public class ReportsController implements NavigableController {
             
             if (fromDate == null) fromDate = LocalDate.now().minusYears(1);
             if (toDate == null) toDate = LocalDate.now();
-            
-            final LocalDate finalFromDate = fromDate;
-            final LocalDate finalToDate = toDate;
-            
-            System.out.println(">>> Filtering with date range: " + finalFromDate + " to " + finalToDate);
-            
-            List<ReportService.DetailedLessonScore> details = allDetails.stream()
-                    .filter(d -> {
-                        try {
-                            String dateStr = d.date();
-                            // Extract date part from datetime string (YYYY-MM-DD)
-                            if (dateStr.length() >= 10) {
-                                dateStr = dateStr.substring(0, 10);
-                            }
-                            LocalDate lessonDate = LocalDate.parse(dateStr);
-                            boolean inRange = !lessonDate.isBefore(finalFromDate) && !lessonDate.isAfter(finalToDate);
-                            if (!inRange) {
-                                System.out.println(">>> FILTERED OUT: " + d.date() + " (not in range)");
-                            }
-                            return inRange;
-                        } catch (Exception e) {
-                            System.out.println(">>> ERROR parsing date: " + d.date() + " - " + e.getMessage());
-                            return false; // Changed from true to false!
-                        }
-                    })
-                    .collect(Collectors.toList());
-            
-            System.out.println(">>> After filtering: " + details.size() + " records");
 
-            // Get rows for table display
-            List<ReportService.LessonScoreRow> allRows = ReportService.getLessonScoreRows(studentId, groupId);
-            System.out.println(">>> Total rows for table: " + allRows.size());
-            
-            List<ReportService.LessonScoreRow> rows = allRows.stream()
-                    .filter(r -> {
-                        try {
-                            String dateStr = r.date();
-                            // Extract date part from datetime string (YYYY-MM-DD)
-                            if (dateStr.length() >= 10) {
-                                dateStr = dateStr.substring(0, 10);
-                            }
-                            LocalDate rowDate = LocalDate.parse(dateStr);
-                            boolean inRange = !rowDate.isBefore(finalFromDate) && !rowDate.isAfter(finalToDate);
-                            return inRange;
-                        } catch (Exception e) {
-                            System.out.println(">>> ERROR parsing row date: " + r.date());
-                            return false; // Changed from true to false!
-                        }
-                    })
-                    .collect(Collectors.toList());
-            
-            System.out.println(">>> Rows after filtering for table: " + rows.size());
-            System.out.println(">>> Setting " + rows.size() + " rows to table!");
-            
-            individualAttTable.setItems(FXCollections.observableArrayList(rows));
-            
-            // Calculate summaries
-            double totalEarned = details.stream().mapToDouble(ReportService.DetailedLessonScore::totalScore).sum();
-            double totalPossible = details.stream().mapToDouble(ReportService.DetailedLessonScore::totalValue).sum();
-            double avgScore = totalPossible == 0 ? 0 : (totalEarned / totalPossible) * 100;
-            
-            long presentCount = details.stream().filter(ReportService.DetailedLessonScore::present).count();
-            double attRate = details.isEmpty() ? 0 : (double) presentCount / details.size() * 100;
-            
-            individualAvgScoreLabel.setText(String.format("%.1f%%", avgScore));
-            individualAttRateLabel.setText(String.format("%.0f%%", attRate));
+            int rank = LeaderboardService.getStudentRank(groupId, studentId,
+                    LeaderboardService.Metric.SCORE, LeaderboardService.TieMode.COMPETITION);
+            String groupName = selectedGroup != null ? selectedGroup.getName() : "";
+            ReportCardService.ReportCard card = ReportCardService.build(selectedStudent, groupId, groupName, rank,
+                    allDetails, fromDate, toDate);
+            currentReportCard = card;
+
+            System.out.println(">>> Setting " + card.rows().size() + " rows to table!");
+            individualAttTable.setItems(FXCollections.observableArrayList(card.rows()));
+
+            individualAvgScoreLabel.setText(String.format("%.1f%%", card.avgScore()));
+            individualAttRateLabel.setText(String.format("%.0f%%", card.attendanceRate()));
+            individualRankLabel.setText(String.valueOf(card.rank()));
             
             // Attendance Pie Chart
             individualAttendancePie.getData().clear();
-            long absentCount = details.size() - presentCount;
-            individualAttendancePie.getData().add(new PieChart.Data("Kelgan (" + presentCount + ")", presentCount));
-            individualAttendancePie.getData().add(new PieChart.Data("Kelmagan (" + absentCount + ")", absentCount));
+            individualAttendancePie.getData().add(new PieChart.Data("Kelgan (" + card.presentCount() + ")", card.presentCount()));
+            individualAttendancePie.getData().add(new PieChart.Data("Kelmagan (" + card.absentCount() + ")", card.absentCount()));
             
-            // Rank
-            List<ReportService.StudentStat> studentStats = ReportService.getStudentStatistics(groupId);
-            int rank = studentStats.stream()
-                    .filter(s -> s.id() == studentId)
-                    .map(ReportService.StudentStat::rank)
-                    .findFirst()
-                    .orElse(0);
-            individualRankLabel.setText(String.valueOf(rank));
-            
-            // Chart
+            // Chart (weekly/monthly points for long ranges, otherwise the last lessons)
             performanceChart.getData().clear();
             
             XYChart.Series<String, Number> studentSeries = new XYChart.Series<>();
@@ -529,22 +779,9 @@ public class ReportsController implements NavigableController {
             XYChart.Series<String, Number> totalSeries = new XYChart.Series<>();
             totalSeries.setName("Jami");
 
-            // Take last 10 lessons for the chart
-            int limit = Math.min(details.size(), 10);
-            
-            for (int i = limit - 1; i >= 0; i--) {
-                ReportService.DetailedLessonScore d = details.get(i);
-                // Format date as dd.MM HH:mm
-                String dateLabel;
-                if (d.date() != null && d.date().length() >= 16) {
-                    dateLabel = d.date().substring(8, 10) + "." + d.date().substring(5, 7) + " " + d.date().substring(11, 16);
-                } else if (d.date() != null && d.date().length() >= 10) {
-                    dateLabel = d.date().substring(8, 10) + "." + d.date().substring(5, 7);
-                } else {
-                    dateLabel = d.date();
-                }
-                studentSeries.getData().add(new XYChart.Data<>(dateLabel, d.totalScore()));
-                totalSeries.getData().add(new XYChart.Data<>(dateLabel, d.totalValue()));
+            for (ReportCardService.ChartPoint p : card.performance()) {
+                studentSeries.getData().add(new XYChart.Data<>(p.label(), p.score()));
+                totalSeries.getData().add(new XYChart.Data<>(p.label(), p.total()));
             }
             
             performanceChart.getData().addAll(studentSeries, totalSeries);
@@ -582,40 +819,343 @@ public class ReportsController implements NavigableController {
         fileChooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("PDF Files", "*.pdf"));
 
         File file = fileChooser.showSaveDialog(exportPersonalPdfBtn.getScene().getWindow());
-        if (file != null) {
-            try {
-                // High-quality snapshots of charts
-                SnapshotParameters params = new SnapshotParameters();
-                params.setTransform(javafx.scene.transform.Transform.scale(2.0, 2.0));
-                
-                WritableImage attImage = individualAttendancePie.snapshot(params, null);
-                WritableImage perfImage = performanceChart.snapshot(params, null);
+        if (file != null && currentReportCard != null) {
+            ReportCardService.ReportCard card = currentReportCard;
+            ExportManager.submit(card.student().getFirstName() + " " + card.student().getLastName() + " hisoboti", file,
+                    (target, progress) -> PdfExportService.exportReportCard(card, target));
+            showStatus("Talaba hisoboti eksport navbatiga qo'shildi.", false);
+        }
+    }
 
-                LocalDate fromDate = dateFromPicker.getValue();
-                LocalDate toDate = dateToPicker.getValue();
-                
-                if (fromDate == null) fromDate = LocalDate.now().minusYears(1);
-                if (toDate == null) toDate = LocalDate.now();
-                
-                PdfExportService.exportStudentReport(
-                        selectedStudent,
-                        individualAttTable.getItems(),
-                        individualRankLabel.getText(),
-                        individualAvgScoreLabel.getText(),
-                        individualAttRateLabel.getText(),
-                        attImage,
-                        perfImage,
-                        fromDate,
-                        toDate,
-                        file
-                );
-
-                showStatus("Talaba hisoboti PDF formatida saqlandi.", false);
-            } catch (IOException e) {
-                log.error(e.getMessage());
-                showStatus("PDF eksport qilishda xatolik: " + e.getMessage(), true);
+    @FXML
+    private void onExportReportCardsClick() {
+        if (reportCardsTask != null && reportCardsTask.isRunning()) return;
+
+        List<Group> groups;
+        if (reportCardsAllGroupsCheck.isSelected()) {
+            groups = List.copyOf(GroupService.searchGroups(""));
+        } else if (groupFilterCombo.getValue() != null) {
+            groups = List.of(groupFilterCombo.getValue());
+        } else {
+            reportCardsStatusLabel.setText("Avval guruhni tanlang");
+            return;
+        }
+
+        boolean merge = reportCardsMergeCheck.isSelected();
+        File target;
+        if (merge) {
+            FileChooser fileChooser = new FileChooser();
+            fileChooser.setTitle("Hisobot kartalarini saqlash");
+            fileChooser.setInitialFileName(groups.size() == 1 ? groups.get(0).getName() + "_hisobotlar.pdf" : "hisobotlar.pdf");
+            fileChooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("PDF Files", "*.pdf"));
+            target = fileChooser.showSaveDialog(reportCardsExportBtn.getScene().getWindow());
+        } else {
+            DirectoryChooser directoryChooser = new DirectoryChooser();
+            directoryChooser.setTitle("Hisobot kartalari uchun papka");
+            target = directoryChooser.showDialog(reportCardsExportBtn.getScene().getWindow());
+        }
+        if (target == null) return;
+
+        LocalDate fromDate = studentActivityFromPicker.getValue() != null ? studentActivityFromPicker.getValue() : LocalDate.now().minusYears(1);
+        LocalDate toDate = studentActivityToPicker.getValue() != null ? studentActivityToPicker.getValue() : LocalDate.now();
+
+        Task<ReportCardService.BatchResult> task = ReportCardService.createBatchTask(groups, fromDate, toDate, target, merge);
+        reportCardsTask = task;
+        reportCardsProgress.progressProperty().bind(task.progressProperty());
+        reportCardsStatusLabel.textProperty().bind(task.messageProperty());
+        setReportCardsRunning(true);
+
+        task.setOnSucceeded(e -> {
+            finishReportCards();
+            ReportCardService.BatchResult result = task.getValue();
+            String text = result.written() + " ta hisobot saqlandi";
+            if (result.failed() > 0) text += ", " + result.failed() + " ta xatolik";
+            reportCardsStatusLabel.setText(text);
+        });
+        task.setOnFailed(e -> {
+            finishReportCards();
+            log.error("Report card export failed", task.getException());
+            reportCardsStatusLabel.setText("Xatolik: " + task.getException().getMessage());
+        });
+        task.setOnCancelled(e -> {
+            finishReportCards();
+            reportCardsStatusLabel.setText("Bekor qilindi");
+        });
+
+        Thread thread = new Thread(task, "report-cards");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @FXML
+    private void onCancelReportCardsClick() {
+        if (reportCardsTask != null) reportCardsTask.cancel();
+    }
+
+    private void finishReportCards() {
+        reportCardsProgress.progressProperty().unbind();
+        reportCardsStatusLabel.textProperty().unbind();
+        setReportCardsRunning(false);
+    }
+
+    private void setReportCardsRunning(boolean running) {
+        reportCardsExportBtn.setDisable(running);
+        reportCardsProgress.setVisible(running);
+        reportCardsProgress.setManaged(running);
+        reportCardsCancelBtn.setVisible(running);
+        reportCardsCancelBtn.setManaged(running);
+    }
+
+    @FXML
+    private void onExportGroupStatsTableClick() {
+        File file = chooseTableFile("guruhlar_statistikasi");
+        if (file == null) return;
+        TableWriter.Format format = TableWriter.Format.forFile(file.toPath());
+        ExportManager.submit("Guruhlar statistikasi", file,
+                (target, conn, progress) -> TabularExportService.exportGroupStatistics(target, conn, format, progress));
+    }
+
+    @FXML
+    private void onExportStudentStatsTableClick() {
+        Group group = groupFilterCombo.getValue();
+        if (group == null) {
+            new Alert(Alert.AlertType.WARNING, "Iltimos, avval \"O'quvchilar faolligi\" bo'limida guruhni tanlang!", ButtonType.OK).showAndWait();
+            return;
+        }
+        File file = chooseTableFile(group.getName() + "_statistika");
+        if (file == null) return;
+        TableWriter.Format format = TableWriter.Format.forFile(file.toPath());
+        LocalDate fromDate = studentActivityFromPicker.getValue() != null ? studentActivityFromPicker.getValue() : LocalDate.now().minusYears(1);
+        LocalDate toDate = studentActivityToPicker.getValue() != null ? studentActivityToPicker.getValue() : LocalDate.now();
+        ExportManager.submit(group.getName() + " statistikasi", file,
+                (target, conn, progress) -> TabularExportService.exportStudentStatistics(group.getId(), fromDate, toDate, target, conn, format, progress));
+    }
+
+    @FXML
+    private void onExportLessonScoresTableClick() {
+        Group group = groupFilterCombo.getValue();
+        File file = chooseTableFile(group != null ? group.getName() + "_baholar" : "baholar");
+        if (file == null) return;
+        TableWriter.Format format = TableWriter.Format.forFile(file.toPath());
+        Integer groupId = group != null ? group.getId() : null;
+        ExportManager.submit(group != null ? group.getName() + " baholari" : "Barcha baholar", file,
+                (target, conn, progress) -> TabularExportService.exportLessonScores(groupId, null, null, target, conn, format, progress));
+    }
+
+    @FXML
+    private void onExportAttendanceMatrixTableClick() {
+        Group group = attendanceMatrixGroupCombo.getValue() != null ? attendanceMatrixGroupCombo.getValue() : groupFilterCombo.getValue();
+        if (group == null) {
+            new Alert(Alert.AlertType.WARNING, "Iltimos, avval \"Davomat jadvali\" bo'limida guruhni tanlang!", ButtonType.OK).showAndWait();
+            return;
+        }
+        File file = chooseTableFile(group.getName() + "_davomat");
+        if (file == null) return;
+        TableWriter.Format format = TableWriter.Format.forFile(file.toPath());
+        ExportManager.submit(group.getName() + " davomati", file,
+                (target, conn, progress) -> TabularExportService.exportAttendanceMatrix(group.getId(), target, conn, format, progress));
+    }
+
+    @FXML
+    private void onExportAttendanceHistoryTableClick() {
+        File file = chooseTableFile("davomat_tarixi");
+        if (file == null) return;
+        TableWriter.Format format = TableWriter.Format.forFile(file.toPath());
+        ExportManager.submit("Davomat tarixi", file,
+                (target, conn, progress) -> TabularExportService.exportAttendanceHistory(null, target, conn, format, progress));
+    }
+
+    @FXML
+    private void onExportPaymentLedgerTableClick() {
+        File file = chooseTableFile("tolovlar");
+        if (file == null) return;
+        TableWriter.Format format = TableWriter.Format.forFile(file.toPath());
+        ExportManager.submit("To'lovlar jurnali", file,
+                (target, conn, progress) -> TabularExportService.exportPaymentLedger(target, conn, format, progress));
+    }
+
+    /**
+     * Moves closed academic years into archive files after a fresh backup. Runs off the FX thread;
+     * the summary and group tables are reloaded when it finishes.
+     */
+    @FXML
+    private void onArchiveYearsClick() {
+        List<Integer> years = ArchiveService.getClosedYearsWithData();
+        if (years.isEmpty()) {
+            new Alert(Alert.AlertType.INFORMATION, "Arxivlanadigan yopilgan o'quv yillari yo'q.", ButtonType.OK).showAndWait();
+            return;
+        }
+        StringBuilder labels = new StringBuilder();
+        for (int year : years) {
+            if (!labels.isEmpty()) labels.append(", ");
+            labels.append(ArchiveService.label(year));
+        }
+        Alert confirm = new Alert(Alert.AlertType.CONFIRMATION,
+                "Quyidagi o'quv yillarining darslari va to'lovlari arxiv fayllariga ko'chiriladi: " + labels +
+                        ".\n\nAvval zaxira nusxa olinadi. Davom etilsinmi?",
+                ButtonType.OK, ButtonType.CANCEL);
+        confirm.setHeaderText("O'quv yillarini arxivlash");
+        if (confirm.showAndWait().orElse(ButtonType.CANCEL) != ButtonType.OK) return;
+
+        Task<List<ArchiveService.ArchiveResult>> task = new Task<>() {
+            @Override
+            protected List<ArchiveService.ArchiveResult> call() throws Exception {
+                BackupService.backupNow();
+                return ArchiveService.archiveClosedYears();
+            }
+        };
+        task.setOnSucceeded(e -> {
+            int rows = task.getValue().stream().mapToInt(ArchiveService.ArchiveResult::total).sum();
+            loadSummary();
+            loadGroupStats();
+            new Alert(Alert.AlertType.INFORMATION, task.getValue().size() + " ta o'quv yili arxivlandi (" + rows + " ta yozuv).",
+                    ButtonType.OK).showAndWait();
+        });
+        task.setOnFailed(e -> {
+            log.error("Archiving failed", task.getException());
+            new Alert(Alert.AlertType.ERROR, "Arxivlashda xatolik: " + task.getException().getMessage(), ButtonType.OK).showAndWait();
+        });
+        Thread thread = new Thread(task, "archive");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @FXML
+    private void onFederatedReportClick() {
+        new FederationDialog().showAndWait();
+    }
+
+    @FXML
+    private void onSyncClick() {
+        ButtonType exportType = new ButtonType("Paket yaratish");
+        ButtonType importType = new ButtonType("Paketni qabul qilish");
+        String peer = SyncService.getPeerSiteId();
+        Alert choice = new Alert(Alert.AlertType.CONFIRMATION,
+                "Boshqa kompyuterdagi dastur bilan faqat o'zgargan yozuvlar almashiladi.\n" +
+                        (peer != null ? "Juftlangan o'rnatma: " + peer.substring(0, 8) : "Hali juftlanmagan: birinchi paketni qabul qilganda juftlanadi."),
+                exportType, importType, ButtonType.CANCEL);
+        choice.setHeaderText("Sinxronlash");
+        ButtonType picked = choice.showAndWait().orElse(ButtonType.CANCEL);
+
+        Task<String> task;
+        if (picked == exportType) {
+            DirectoryChooser chooser = new DirectoryChooser();
+            chooser.setTitle("Paket saqlanadigan papkani tanlang");
+            File dir = chooser.showDialog(studentStatsTable.getScene().getWindow());
+            if (dir == null) return;
+            task = new Task<>() {
+                @Override
+                protected String call() throws Exception {
+                    SyncService.ExportResult r = SyncService.exportTo(dir.toPath());
+                    return r.rows() + " ta o'zgarish " + r.file().getFileName() + " fayliga yozildi.";
+                }
+            };
+        } else if (picked == importType) {
+            FileChooser chooser = new FileChooser();
+            chooser.setTitle("Sinxronlash paketini tanlang");
+            chooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("Sinxronlash paketi (*" + SyncService.FILE_SUFFIX + ")", "*" + SyncService.FILE_SUFFIX));
+            File file = chooser.showOpenDialog(studentStatsTable.getScene().getWindow());
+            if (file == null) return;
+            task = new Task<>() {
+                @Override
+                protected String call() throws Exception {
+                    BackupService.backupNow();
+                    SyncService.ImportResult r = SyncService.importFrom(file.toPath());
+                    return r.applied() + " ta o'zgarish qabul qilindi, " + r.skipped() + " tasi eskiroq." +
+                            (r.unresolved() > 0 ? "\n" + r.unresolved() + " ta yozuv bog'langan yozuv topilmagani uchun o'tkazib yuborildi." : "");
+                }
+            };
+        } else {
+            return;
+        }
+        task.setOnSucceeded(e -> {
+            loadSummary();
+            loadGroupStats();
+            new Alert(Alert.AlertType.INFORMATION, task.getValue(), ButtonType.OK).showAndWait();
+        });
+        task.setOnFailed(e -> {
+            log.error("Sync failed", task.getException());
+            new Alert(Alert.AlertType.ERROR, "Sinxronlashda xatolik: " + task.getException().getMessage(), ButtonType.OK).showAndWait();
+        });
+        Thread thread = new Thread(task, "sync");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @FXML
+    private void onDiagnosticsClick() {
+        showHealthReport(false);
+    }
+
+    /**
+     * Shows the last health report, or builds one; "Hozir tekshirish" runs the maintenance first.
+     * The check box below it switches the in-memory copy reports read from.
+     */
+    private void showHealthReport(boolean runMaintenance) {
+        record Diagnostics(MaintenanceService.HealthReport report, ReplicaService.Status replica) {}
+        Task<Diagnostics> task = new Task<>() {
+            @Override
+            protected Diagnostics call() throws Exception {
+                MaintenanceService.HealthReport report;
+                if (runMaintenance) {
+                    report = MaintenanceService.runNow();
+                } else {
+                    MaintenanceService.HealthReport last = MaintenanceService.getLastReport();
+                    report = last != null ? last : MaintenanceService.buildReport();
+                }
+                return new Diagnostics(report, ReplicaService.getStatus());
+            }
+        };
+        task.setOnSucceeded(e -> {
+            TextArea text = new TextArea(task.getValue().report().format());
+            text.setEditable(false);
+            text.setStyle("-fx-font-family: monospace;");
+            text.setPrefSize(760, 520);
+            ReplicaService.Status replica = task.getValue().replica();
+            CheckBox replicaCheck = new CheckBox("Hisobotlarni xotiradagi nusxadan o'qish");
+            replicaCheck.setSelected(replica.enabled());
+            Label replicaLabel = new Label(!replica.enabled() ? "" : !replica.ready() ? "Nusxa yuklanmoqda..."
+                    : String.format("Nusxa: %.1f MB, %d ms da yuklangan, orqada: %d o'zgarish",
+                            replica.memoryBytes() / 1024.0 / 1024.0, replica.loadMillis(), replica.lag()));
+            replicaCheck.setOnAction(ev -> {
+                ReplicaService.setEnabled(replicaCheck.isSelected());
+                replicaLabel.setText(replicaCheck.isSelected() ? "Nusxa yuklanmoqda..." : "");
+            });
+            ButtonType runType = new ButtonType("Hozir tekshirish");
+            Alert alert = new Alert(Alert.AlertType.INFORMATION, null, runType, ButtonType.CLOSE);
+            alert.setHeaderText("Diagnostika");
+            alert.getDialogPane().setContent(new VBox(8, text, replicaCheck, replicaLabel));
+            alert.setResizable(true);
+            if (alert.showAndWait().orElse(ButtonType.CLOSE) == runType) {
+                showHealthReport(true);
             }
+        });
+        task.setOnFailed(e -> {
+            log.error("Health report failed", task.getException());
+            new Alert(Alert.AlertType.ERROR, "Diagnostikada xatolik: " + task.getException().getMessage(), ButtonType.OK).showAndWait();
+        });
+        Thread thread = new Thread(task, "diagnostics");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /** Save dialog for CSV / XLSX; adds the extension of the chosen filter when the name has none. */
+    private File chooseTableFile(String baseName) {
+        FileChooser fileChooser = new FileChooser();
+        fileChooser.setTitle("Jadvalni saqlash");
+        fileChooser.setInitialFileName(baseName + ".xlsx");
+        FileChooser.ExtensionFilter xlsx = new FileChooser.ExtensionFilter("Excel (*.xlsx)", "*.xlsx");
+        FileChooser.ExtensionFilter csv = new FileChooser.ExtensionFilter("CSV (*.csv)", "*.csv");
+        fileChooser.getExtensionFilters().addAll(xlsx, csv);
+
+        File file = fileChooser.showSaveDialog(studentStatsTable.getScene().getWindow());
+        if (file == null) return null;
+        String name = file.getName().toLowerCase();
+        if (!name.endsWith(".xlsx") && !name.endsWith(".csv")) {
+            String extension = fileChooser.getSelectedExtensionFilter() == csv ? ".csv" : ".xlsx";
+            file = new File(file.getParentFile(), file.getName() + extension);
         }
+        return file;
     }
 
     @Override
@@ -13,30 +13,35 @@ import javafx.scene.layout.Priority;
 import javafx.scene.layout.Region;
 import javafx.scene.layout.VBox;
 import javafx.util.Duration;
+import javafx.util.StringConverter;
 import org.algo.mentor.core.NavigableController;
 import org.algo.mentor.core.NavigationController;
 import org.algo.mentor.models.Group;
 import org.algo.mentor.models.Schedule;
+import org.algo.mentor.services.ExportManager;
 import org.algo.mentor.services.GroupService;
 import org.algo.mentor.services.ScheduleService;
+import org.algo.mentor.util.ScheduleConflicts;
+import org.algo.mentor.util.ScheduleIndex;
 
 import javafx.stage.FileChooser;
 import org.algo.mentor.services.PdfExportService;
 
 import java.io.File;
-import java.io.IOException;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
-import java.time.temporal.ChronoUnit;
 import java.util.*;
 
 public class ScheduleController implements NavigableController {
 
+    private static final int MAX_CALENDAR_YEARS = 3;
+
     @FXML private ComboBox<Group> groupFilterCombo;
     @FXML private TableView<Schedule> scheduleTable;
     @FXML private TableColumn<Schedule, String> groupNameCol;
     @FXML private TableColumn<Schedule, Integer> dayOfWeekCol;
     @FXML private TableColumn<Schedule, String> timeCol;
+    @FXML private TableColumn<Schedule, String> roomCol;
     @FXML private TableColumn<Schedule, String> nextOccurrenceCol;
 
     @FXML private Pane overlayPane;
@@ -49,6 +54,9 @@ public class ScheduleController implements NavigableController {
     @FXML private ComboBox<Group> groupSelectCombo;
     @FXML private ToggleButton day1Btn, day2Btn, day3Btn, day4Btn, day5Btn, day6Btn, day7Btn;
     @FXML private ComboBox<String> lessonTimeCombo;
+    @FXML private ComboBox<Integer> durationCombo;
+    @FXML private TextField roomField;
+    @FXML private Label conflictLabel;
     
     @FXML private ToggleGroup timeModeGroup;
     @FXML private RadioButton sameTimeRadio;
@@ -62,6 +70,8 @@ public class ScheduleController implements NavigableController {
     private final ObservableList<Schedule> allSchedules = FXCollections.observableArrayList();
     private final DateTimeFormatter dateFormatter = DateTimeFormatter.ofPattern("yyyy-MM-dd");
     private final Map<Integer, ComboBox<String>> individualTimeCombos = new HashMap<>();
+    /** Lessons of all other groups, built when a group is picked in the sidebar. */
+    private ScheduleConflicts conflictChecker;
 
     @FXML
     public void initialize() {
@@ -115,13 +125,17 @@ public class ScheduleController implements NavigableController {
             sameTimeSection.setManaged(isSame);
             individualTimeSection.setVisible(!isSame);
             individualTimeSection.setManaged(!isSame);
+            refreshConflicts();
         });
     }
 
     private void setupDayListeners() {
         ToggleButton[] dayBtns = {day1Btn, day2Btn, day3Btn, day4Btn, day5Btn, day6Btn, day7Btn};
         for (ToggleButton btn : dayBtns) {
-            btn.selectedProperty().addListener((obs, old, val) -> updateIndividualTimeRows());
+            btn.selectedProperty().addListener((obs, old, val) -> {
+                updateIndividualTimeRows();
+                refreshConflicts();
+            });
         }
     }
 
@@ -153,6 +167,7 @@ public class ScheduleController implements NavigableController {
                     timeCombo.setValue(lessonTimeCombo.getValue());
                 }
 
+                timeCombo.valueProperty().addListener((obs, old, val) -> refreshConflicts());
                 individualTimeCombos.put(dayNum, timeCombo);
                 row.getChildren().addAll(dayLabel, timeCombo);
                 individualTimesContainer.getChildren().add(row);
@@ -172,11 +187,17 @@ public class ScheduleController implements NavigableController {
     private void setupTable() {
         groupNameCol.setCellValueFactory(cd -> new ReadOnlyObjectWrapper<>(cd.getValue().getGroupName()));
         dayOfWeekCol.setCellValueFactory(cd -> new ReadOnlyObjectWrapper<>(cd.getValue().getDayOfWeek()));
-        timeCol.setCellValueFactory(cd -> new ReadOnlyObjectWrapper<>(cd.getValue().getLessonTime()));
+        timeCol.setCellValueFactory(cd -> {
+            Schedule s = cd.getValue();
+            int start = ScheduleIndex.minuteOfWeek(s) % ScheduleIndex.MINUTES_PER_DAY;
+            String end = ScheduleConflicts.formatMinute(start + s.getDurationMinutes());
+            return new ReadOnlyObjectWrapper<>(start < 0 ? s.getLessonTime() : s.getLessonTime() + " - " + end);
+        });
+        roomCol.setCellValueFactory(cd -> new ReadOnlyObjectWrapper<>(cd.getValue().getRoom() != null ? cd.getValue().getRoom() : ""));
         
         nextOccurrenceCol.setCellValueFactory(cd -> {
             var next = ScheduleService.getNextOccurrence(cd.getValue());
-            return new ReadOnlyObjectWrapper<>(next.format(dateFormatter));
+            return new ReadOnlyObjectWrapper<>(next != null ? next.format(dateFormatter) : "-");
         });
 
         dayOfWeekCol.setCellFactory(tc -> new TableCell<>() {
@@ -229,6 +250,83 @@ public class ScheduleController implements NavigableController {
             times.add(String.format("%02d:30", h));
         }
         lessonTimeCombo.setItems(FXCollections.observableArrayList(times));
+        lessonTimeCombo.valueProperty().addListener((obs, old, val) -> refreshConflicts());
+
+        durationCombo.setItems(FXCollections.observableArrayList(45, 60, 75, 90, 105, 120, 150, 180));
+        durationCombo.setConverter(new StringConverter<>() {
+            @Override
+            public String toString(Integer minutes) {
+                return minutes == null ? "" : minutes + " daqiqa";
+            }
+
+            @Override
+            public Integer fromString(String text) {
+                return null;
+            }
+        });
+        durationCombo.setValue(Schedule.DEFAULT_DURATION_MINUTES);
+        durationCombo.valueProperty().addListener((obs, old, val) -> refreshConflicts());
+        roomField.textProperty().addListener((obs, old, val) -> refreshConflicts());
+    }
+
+    /** Selected day -> time from the sidebar, in either time mode. */
+    private Map<Integer, String> collectScheduleData() {
+        Map<Integer, String> scheduleData = new TreeMap<>();
+        if (sameTimeRadio.isSelected()) {
+            String time = lessonTimeCombo.getValue();
+            if (time == null) return scheduleData;
+            ToggleButton[] dayBtns = {day1Btn, day2Btn, day3Btn, day4Btn, day5Btn, day6Btn, day7Btn};
+            for (int i = 0; i < dayBtns.length; i++) {
+                if (dayBtns[i].isSelected()) scheduleData.put(i + 1, time);
+            }
+        } else {
+            for (Map.Entry<Integer, ComboBox<String>> entry : individualTimeCombos.entrySet()) {
+                String time = entry.getValue().getValue();
+                if (time != null) {
+                    scheduleData.put(entry.getKey(), time);
+                }
+            }
+        }
+        return scheduleData;
+    }
+
+    private List<ScheduleConflicts.Conflict> findSidebarConflicts() {
+        Group group = groupSelectCombo.getValue();
+        if (group == null || conflictChecker == null) return List.of();
+        int duration = durationCombo.getValue() != null ? durationCombo.getValue() : Schedule.DEFAULT_DURATION_MINUTES;
+        List<ScheduleConflicts.Conflict> conflicts = new ArrayList<>();
+        for (Map.Entry<Integer, String> entry : collectScheduleData().entrySet()) {
+            Schedule candidate = new Schedule(0, group.getId(), group.getName(), entry.getKey(), entry.getValue(), duration, roomField.getText());
+            conflicts.addAll(conflictChecker.conflictsFor(candidate));
+        }
+        return conflicts;
+    }
+
+    private void refreshConflicts() {
+        List<ScheduleConflicts.Conflict> conflicts = findSidebarConflicts();
+        if (conflicts.isEmpty()) {
+            conflictLabel.setVisible(false);
+            conflictLabel.setManaged(false);
+            conflictLabel.setText("");
+            return;
+        }
+        StringBuilder sb = new StringBuilder("Vaqtlar to'qnashmoqda:");
+        for (ScheduleConflicts.Conflict c : conflicts) sb.append("\n• ").append(c.describe());
+        conflictLabel.setText(sb.toString());
+        conflictLabel.setVisible(true);
+        conflictLabel.setManaged(true);
+    }
+
+    @FXML
+    private void onValidateSchedulesClick() {
+        List<ScheduleConflicts.Conflict> conflicts = ScheduleService.validateAllSchedules();
+        if (conflicts.isEmpty()) {
+            showAlert(Alert.AlertType.INFORMATION, "Jadval tekshiruvi", "Dars jadvalida ziddiyatlar topilmadi.");
+            return;
+        }
+        StringBuilder sb = new StringBuilder();
+        for (ScheduleConflicts.Conflict c : conflicts) sb.append("• ").append(c.describe()).append("\n");
+        showAlert(Alert.AlertType.WARNING, "Jadval tekshiruvi", conflicts.size() + " ta ziddiyat topildi:\n\n" + sb);
     }
 
     @FXML
@@ -306,12 +404,9 @@ public class ScheduleController implements NavigableController {
             return;
         }
 
-        long months = ChronoUnit.MONTHS.between(start.withDayOfMonth(1), end.withDayOfMonth(1));
-        if (months >= 2) {
-             if (start.plusMonths(2).isBefore(end)) {
-                 showStatus("Vaqt oralig'i 2 oydan ko'p bo'lishi mumkin emas", true);
-                 return;
-             }
+        if (start.plusYears(MAX_CALENDAR_YEARS).isBefore(end)) {
+            showStatus("Vaqt oralig'i " + MAX_CALENDAR_YEARS + " yildan ko'p bo'lishi mumkin emas", true);
+            return;
         }
 
         FileChooser fileChooser = new FileChooser();
@@ -321,13 +416,10 @@ public class ScheduleController implements NavigableController {
         
         File file = fileChooser.showSaveDialog(scheduleTable.getScene().getWindow());
         if (file != null) {
-            try {
-                PdfExportService.exportCalendarSchedule(scheduleTable.getItems(), start, end, file);
-                showStatus("Dars jadvali PDF formatida saqlandi.", false);
-            } catch (IOException e) {
-                e.printStackTrace();
-                showStatus("PDF eksport qilishda xatolik: " + e.getMessage(), true);
-            }
+            List<Schedule> schedules = List.copyOf(scheduleTable.getItems());
+            ExportManager.submit("Dars jadvali", file,
+                    (target, progress) -> PdfExportService.exportCalendarSchedule(schedules, start, end, target, progress));
+            showStatus("Dars jadvali eksport navbatiga qo'shildi.", false);
         }
     }
 
@@ -350,28 +442,19 @@ public class ScheduleController implements NavigableController {
         Group group = groupSelectCombo.getValue();
         if (group == null) return;
 
-        boolean isSameMode = sameTimeRadio.isSelected();
-        Map<Integer, String> scheduleData = new HashMap<>();
+        Map<Integer, String> scheduleData = collectScheduleData();
+        if (sameTimeRadio.isSelected() && lessonTimeCombo.getValue() == null) return;
 
-        if (isSameMode) {
-            String time = lessonTimeCombo.getValue();
-            if (time == null) return;
-            
-            if (day1Btn.isSelected()) scheduleData.put(1, time);
-            if (day2Btn.isSelected()) scheduleData.put(2, time);
-            if (day3Btn.isSelected()) scheduleData.put(3, time);
-            if (day4Btn.isSelected()) scheduleData.put(4, time);
-            if (day5Btn.isSelected()) scheduleData.put(5, time);
-            if (day6Btn.isSelected()) scheduleData.put(6, time);
-            if (day7Btn.isSelected()) scheduleData.put(7, time);
-        } else {
-            for (Map.Entry<Integer, ComboBox<String>> entry : individualTimeCombos.entrySet()) {
-                String time = entry.getValue().getValue();
-                if (time != null) {
-                    scheduleData.put(entry.getKey(), time);
-                }
-            }
+        List<ScheduleConflicts.Conflict> conflicts = findSidebarConflicts();
+        if (!conflicts.isEmpty()) {
+            Alert confirm = new Alert(Alert.AlertType.CONFIRMATION,
+                    "Tanlangan vaqtlar boshqa guruhlar darslari bilan to'qnashmoqda (" + conflicts.size() + " ta). Baribir saqlansinmi?",
+                    ButtonType.OK, ButtonType.CANCEL);
+            confirm.setHeaderText(null);
+            if (confirm.showAndWait().orElse(ButtonType.CANCEL) != ButtonType.OK) return;
         }
+        int duration = durationCombo.getValue() != null ? durationCombo.getValue() : Schedule.DEFAULT_DURATION_MINUTES;
+        String room = roomField.getText();
 
         // To support "editing" (replacing old schedule with new selection),
         // we can either update changed ones or just clear and re-add.
@@ -387,7 +470,7 @@ public class ScheduleController implements NavigableController {
 
         boolean allSaved = true;
         for (Map.Entry<Integer, String> entry : scheduleData.entrySet()) {
-            if (!ScheduleService.addSchedule(group.getId(), entry.getKey(), entry.getValue())) {
+            if (!ScheduleService.addSchedule(group.getId(), entry.getKey(), entry.getValue(), duration, room)) {
                 allSaved = false;
             }
         }
@@ -402,11 +485,13 @@ public class ScheduleController implements NavigableController {
     private void onGroupSelected(Group group) {
         if (group == null) {
             scheduleContentVBox.setDisable(true);
+            conflictChecker = null;
             clearSidebarFields();
             return;
         }
 
         scheduleContentVBox.setDisable(false);
+        conflictChecker = ScheduleService.conflictCheckerExcluding(group.getId());
 
         // Reset sidebar state before loading
         ToggleButton[] dayBtns = {day1Btn, day2Btn, day3Btn, day4Btn, day5Btn, day6Btn, day7Btn};
@@ -415,8 +500,13 @@ public class ScheduleController implements NavigableController {
         individualTimesContainer.getChildren().clear();
         individualTimeCombos.clear();
 
+        durationCombo.setValue(Schedule.DEFAULT_DURATION_MINUTES);
+        roomField.clear();
+
         List<Schedule> groupSchedules = ScheduleService.searchSchedules(group.getId());
         if (groupSchedules.isEmpty()) return;
+        durationCombo.setValue(groupSchedules.get(0).getDurationMinutes());
+        roomField.setText(groupSchedules.get(0).getRoom() != null ? groupSchedules.get(0).getRoom() : "");
 
         // Check if all schedules have the same time
         String firstTime = groupSchedules.get(0).getLessonTime();
@@ -462,6 +552,9 @@ public class ScheduleController implements NavigableController {
         sameTimeRadio.setSelected(true);
         individualTimesContainer.getChildren().clear();
         individualTimeCombos.clear();
+        durationCombo.setValue(Schedule.DEFAULT_DURATION_MINUTES);
+        roomField.clear();
+        refreshConflicts();
     }
 
     @FXML
@@ -520,18 +520,8 @@ public class StudentsController implements NavigableController {
         java.io.File file = chooser.showSaveDialog(studentsTabPane.getScene().getWindow());
         if (file == null) return;
 
-        ObservableList<Student> students = StudentService.getAllStudents();
-        students.sort((s1, s2) -> (s1.getFirstName() + " " + s1.getLastName()).compareToIgnoreCase(s2.getFirstName() + " " + s2.getLastName()));
-        
-        java.util.Map<Integer, java.util.List<String>> paymentsMap = PaymentService.getAllStudentPayments();
-
-        try {
-            org.algo.mentor.services.PdfExportService.exportAllStudentsList(students, paymentsMap, file);
-            new Alert(Alert.AlertType.INFORMATION, "PDF muvaffaqiyatli saqlandi!", ButtonType.OK).showAndWait();
-        } catch (Exception ex) {
-            ex.printStackTrace();
-            new Alert(Alert.AlertType.ERROR, "Xatolik: " + ex.getMessage(), ButtonType.OK).showAndWait();
-        }
+        org.algo.mentor.services.ExportManager.submit("Barcha o'quvchilar ro'yxati", file,
+                org.algo.mentor.services.PdfExportService::exportAllStudentsList);
     }
 
     private void resetDeleteConfirmation() {
@@ -6,6 +6,12 @@ import javafx.scene.layout.BorderPane;
 import org.algo.mentor.HelloApplication;
 import org.algo.mentor.controllers.MainController;
 import org.algo.mentor.models.User;
+import org.algo.mentor.services.BackupService;
+import org.algo.mentor.services.ChangeFeed;
+import org.algo.mentor.services.MaintenanceService;
+import org.algo.mentor.services.NotificationCenter;
+import org.algo.mentor.services.ReminderScheduler;
+import org.algo.mentor.services.ReplicaService;
 import org.algo.mentor.util.ScrollSpeedFix;
 
 import java.io.IOException;
@@ -66,6 +72,12 @@ public class NavigationController {
 
     public void logout() {
         currentUser = null;
+        ReminderScheduler.stop();
+        BackupService.stop();
+        ChangeFeed.stop();
+        MaintenanceService.stop();
+        ReplicaService.stop();
+        NotificationCenter.clear();
         if (mainController != null) {
             mainController.updateHeader(null);
             mainController.hideSidebar();
@@ -1,18 +1,28 @@
 package org.algo.mentor.models;
 
 public class Schedule {
+    public static final int DEFAULT_DURATION_MINUTES = 90;
+
     private int id;
     private int groupId;
     private String groupName;
     private int dayOfWeek; // 1-7 (Monday-Sunday)
     private String lessonTime;
+    private int durationMinutes;
+    private String room; // optional; schedules in different rooms may overlap
 
     public Schedule(int id, int groupId, String groupName, int dayOfWeek, String lessonTime) {
+        this(id, groupId, groupName, dayOfWeek, lessonTime, DEFAULT_DURATION_MINUTES, null);
+    }
+
+    public Schedule(int id, int groupId, String groupName, int dayOfWeek, String lessonTime, int durationMinutes, String room) {
         this.id = id;
         this.groupId = groupId;
         this.groupName = groupName;
         this.dayOfWeek = dayOfWeek;
         this.lessonTime = lessonTime;
+        this.durationMinutes = durationMinutes;
+        this.room = room;
     }
 
     public int getId() {
@@ -54,4 +64,20 @@ public class Schedule {
     public void setLessonTime(String lessonTime) {
         this.lessonTime = lessonTime;
     }
+
+    public int getDurationMinutes() {
+        return durationMinutes;
+    }
+
+    public void setDurationMinutes(int durationMinutes) {
+        this.durationMinutes = durationMinutes;
+    }
+
+    public String getRoom() {
+        return room;
+    }
+
+    public void setRoom(String room) {
+        this.room = room;
+    }
 }
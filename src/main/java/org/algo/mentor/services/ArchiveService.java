@@ -0,0 +1,393 @@
+package org.algo.mentor.services;
+
+import org.algo.mentor.config.AppDirectoryManager;
+import org.algo.mentor.config.DatabaseManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.stream.Stream;
+
+/**
+ * Moves closed academic years out of the main database into one archive file per year
+ * ({@code archive/archive-2024-2025.db}), so everyday queries only scan the current data.
+ * <p>
+ * Lessons with their attendance, homework, test and question rows move by lesson date, and
+ * payments move by the end of the period they cover. Rollups, score sketches and everything
+ * else stay in the main database, so trends and distributions still cover archived years.
+ * <p>
+ * Reports that take a date range ask {@link #tablesFor} for their table names. When the range
+ * reaches into archived years, the matching archives are attached to the shared connection
+ * and each table becomes a {@code UNION ALL} of the main and archived rows. Otherwise the
+ * plain table names are used.
+ */
+public class ArchiveService {
+
+    private static final Logger log = LoggerFactory.getLogger(ArchiveService.class);
+
+    private static final String SETTINGS_PREFIX = "archive.";
+    public static final int DEFAULT_YEAR_START_MONTH = 9;
+    private static final String FILE_PREFIX = "archive-";
+    private static final String FILE_SUFFIX = ".db";
+    private static final String ALIAS_PREFIX = "archive_";
+
+    /** Lesson data in the order it is copied: parents before the rows that reference them. */
+    private static final String[] LESSON_TABLES = {
+            "lessons", "attendance", "homeworks", "test_sessions", "test_results", "question_sessions", "question_results"
+    };
+    private static final String PAYMENTS = "payments";
+
+    public record ArchiveResult(int startYear, Path file, Map<String, Integer> movedRows) {
+        public int total() {
+            return movedRows.values().stream().mapToInt(Integer::intValue).sum();
+        }
+    }
+
+    /**
+     * Table names for one query. {@link #of} returns the plain name, or a parenthesised
+     * {@code UNION ALL} over main and the attached archives that can be used in its place.
+     */
+    public static final class Tables {
+        private static final Tables MAIN = new Tables(List.of());
+        private final List<String> aliases;
+
+        private Tables(List<String> aliases) {
+            this.aliases = aliases;
+        }
+
+        /** Plain table names, for queries that must not read archives. */
+        public static Tables mainOnly() {
+            return MAIN;
+        }
+
+        public String of(String table) {
+            if (aliases.isEmpty()) return table;
+            String columns = columnsOf(table);
+            StringBuilder sb = new StringBuilder("(SELECT ").append(columns).append(" FROM main.").append(table);
+            for (String alias : aliases) {
+                sb.append(" UNION ALL SELECT ").append(columns).append(" FROM ").append(alias).append('.').append(table);
+            }
+            return sb.append(')').toString();
+        }
+
+        public boolean includesArchives() {
+            return !aliases.isEmpty();
+        }
+    }
+
+    private static final Map<Integer, String> attached = new HashMap<>();
+    private static final Map<String, String> columnLists = new HashMap<>();
+
+    /** First month of the academic year (September by default). */
+    public static int yearStartMonth() {
+        int month = SettingsService.getInt(SETTINGS_PREFIX + "year_start_month", DEFAULT_YEAR_START_MONTH);
+        return month >= 1 && month <= 12 ? month : DEFAULT_YEAR_START_MONTH;
+    }
+
+    /** The calendar year in which the academic year containing {@code date} started. */
+    public static int academicYearOf(LocalDate date) {
+        return date.getMonthValue() >= yearStartMonth() ? date.getYear() : date.getYear() - 1;
+    }
+
+    public static LocalDate yearStart(int startYear) {
+        return LocalDate.of(startYear, yearStartMonth(), 1);
+    }
+
+    public static String label(int startYear) {
+        return startYear + "-" + (startYear + 1);
+    }
+
+    /** Archived academic years, oldest first. */
+    public static List<Integer> getArchivedYears() {
+        TreeSet<Integer> years = new TreeSet<>();
+        Path dir = getArchiveDirectory();
+        if (dir == null || !Files.isDirectory(dir)) return new ArrayList<>(years);
+        try (Stream<Path> files = Files.list(dir)) {
+            files.forEach(p -> {
+                Integer year = parseYear(p.getFileName().toString());
+                if (year != null) years.add(year);
+            });
+        } catch (IOException e) {
+            log.error("Failed to list archives in {}", dir, e);
+        }
+        return new ArrayList<>(years);
+    }
+
+    /** Closed academic years (ended before the current one) that still have rows in the main database, oldest first. */
+    public static List<Integer> getClosedYearsWithData() {
+        TreeSet<Integer> years = new TreeSet<>();
+        int current = academicYearOf(LocalDate.now());
+        String query = "SELECT MIN(d) FROM (" +
+                "SELECT MIN(lesson_date) AS d FROM lessons UNION ALL SELECT MIN(payment_to_date) FROM payments" +
+                ") WHERE d IS NOT NULL";
+        try (Statement stmt = DatabaseManager.getConnection().createStatement();
+             ResultSet rs = stmt.executeQuery(query)) {
+            if (rs.next() && rs.getString(1) != null) {
+                int first = academicYearOf(LocalDate.parse(rs.getString(1).substring(0, 10)));
+                for (int year = first; year < current; year++) {
+                    if (hasRows(year)) years.add(year);
+                }
+            }
+        } catch (SQLException | RuntimeException e) {
+            log.error("Failed to find closed academic years", e);
+        }
+        return new ArrayList<>(years);
+    }
+
+    /** Archives every closed year that still has data, oldest first. */
+    public static List<ArchiveResult> archiveClosedYears() throws SQLException {
+        List<ArchiveResult> results = new ArrayList<>();
+        for (int year : getClosedYearsWithData()) {
+            results.add(archiveYear(year));
+        }
+        return results;
+    }
+
+    /**
+     * Moves one closed academic year into its archive file in a single transaction spanning
+     * both databases, appending to the archive if the year was archived before.
+     */
+    public static synchronized ArchiveResult archiveYear(int startYear) throws SQLException {
+        if (startYear >= academicYearOf(LocalDate.now())) {
+            throw new IllegalArgumentException("Academic year " + label(startYear) + " is not closed yet");
+        }
+        String from = yearStart(startYear).toString();
+        String to = yearStart(startYear + 1).toString();
+        String alias = attach(startYear);
+
+        String lessonIds = "SELECT id FROM main.lessons WHERE lesson_date >= ? AND lesson_date < ?";
+        Map<String, String> filters = new LinkedHashMap<>();
+        filters.put("lessons", "lesson_date >= ? AND lesson_date < ?");
+        filters.put("attendance", "lesson_id IN (" + lessonIds + ")");
+        filters.put("homeworks", "lesson_id IN (" + lessonIds + ")");
+        filters.put("test_sessions", "lesson_id IN (" + lessonIds + ")");
+        filters.put("test_results", "test_session_id IN (SELECT id FROM main.test_sessions WHERE lesson_id IN (" + lessonIds + "))");
+        filters.put("question_sessions", "lesson_id IN (" + lessonIds + ")");
+        filters.put("question_results", "question_session_id IN (SELECT id FROM main.question_sessions WHERE lesson_id IN (" + lessonIds + "))");
+        filters.put(PAYMENTS, "payment_to_date >= ? AND payment_to_date < ?");
+
+        Map<String, Integer> moved = new LinkedHashMap<>();
+        // Its own connection, so the shared one keeps its foreign keys and autocommit and the FX
+        // thread's statements never land inside this transaction. A new connection starts with
+        // foreign keys off, which the move needs: the archive's copies of the tables keep their
+        // foreign keys, but not the groups and students they point to.
+        try (Connection conn = DatabaseManager.openDedicatedConnection()) {
+            attachFile(conn, startYear, alias);
+            conn.setAutoCommit(false);
+            try {
+                for (Map.Entry<String, String> e : filters.entrySet()) {
+                    String columns = columnsOf(e.getKey());
+                    try (PreparedStatement pstmt = conn.prepareStatement("INSERT INTO " + alias + "." + e.getKey() + " (" + columns + ") " +
+                            "SELECT " + columns + " FROM main." + e.getKey() + " WHERE " + e.getValue())) {
+                        pstmt.setString(1, from);
+                        pstmt.setString(2, to);
+                        moved.put(e.getKey(), pstmt.executeUpdate());
+                    }
+                }
+                long syncSeq = SyncService.localSequence(conn);
+                // Delete children first; their filters still need the lesson and session rows
+                List<String> tables = new ArrayList<>(filters.keySet());
+                for (int i = tables.size() - 1; i >= 0; i--) {
+                    String table = tables.get(i);
+                    if (table.equals("lessons")) continue;
+                    delete(conn, table, filters.get(table), from, to);
+                }
+                delete(conn, "lessons", filters.get("lessons"), from, to);
+                // Archived rows were moved, not deleted; a paired installation keeps them
+                SyncService.forgetDeletions(conn, syncSeq);
+                conn.commit();
+            } catch (SQLException e) {
+                try { conn.rollback(); } catch (SQLException ex) { log.error("Rollback failed", ex); }
+                throw e;
+            }
+        }
+
+        ArchiveResult result = new ArchiveResult(startYear, archiveFile(startYear), moved);
+        log.info("Archived academic year {} into {}: {}", label(startYear), result.file(), moved);
+        RiskService.rebuildAll();
+        return result;
+    }
+
+    /**
+     * Table names for a query over {@code [fromDate, toDate]}. Archived years are included only
+     * when the range reaches into them; a null date leaves that end open, so a null
+     * {@code fromDate} includes every archived year up to {@code toDate}.
+     */
+    public static Tables tablesFor(LocalDate fromDate, LocalDate toDate) throws SQLException {
+        int fromYear = fromDate != null ? academicYearOf(fromDate) : Integer.MIN_VALUE;
+        int toYear = toDate != null ? academicYearOf(toDate) : Integer.MAX_VALUE;
+        List<String> aliases = new ArrayList<>();
+        for (int year : getArchivedYears()) {
+            if (year >= fromYear && year <= toYear) aliases.add(attach(year));
+        }
+        return aliases.isEmpty() ? Tables.MAIN : new Tables(aliases);
+    }
+
+    /**
+     * Like {@link #tablesFor(LocalDate, LocalDate)}, for a query on another connection to the same
+     * database, such as an export's: the archives are created and migrated through the shared
+     * connection as usual, then attached to {@code conn} under the same aliases.
+     */
+    public static Tables tablesFor(Connection conn, LocalDate fromDate, LocalDate toDate) throws SQLException {
+        Tables tables = tablesFor(fromDate, toDate);
+        if (conn == DatabaseManager.getConnection()) return tables;
+        for (String alias : tables.aliases) {
+            if (isAttached(conn, alias)) continue;
+            attachFile(conn, Integer.parseInt(alias.substring(ALIAS_PREFIX.length())), alias);
+        }
+        return tables;
+    }
+
+    /** Forgets attached archives, e.g. after switching to another database folder. */
+    public static synchronized void reset() {
+        attached.clear();
+        columnLists.clear();
+    }
+
+    public static Path getArchiveDirectory() {
+        Path appDirectory = AppDirectoryManager.getAppDirectory();
+        return appDirectory != null ? appDirectory.resolve("archive") : null;
+    }
+
+    /**
+     * Attaches a year's archive (creating it on first use) and makes its tables match the
+     * main schema, adding columns that main gained after the archive was written.
+     */
+    private static synchronized String attach(int startYear) throws SQLException {
+        String alias = attached.get(startYear);
+        if (alias != null) return alias;
+        alias = ALIAS_PREFIX + startYear;
+        Path file = archiveFile(startYear);
+        try {
+            Files.createDirectories(file.getParent());
+        } catch (IOException e) {
+            throw new SQLException("Cannot create archive folder " + file.getParent(), e);
+        }
+
+        Connection conn = DatabaseManager.getConnection();
+        if (!isAttached(conn, alias)) attachFile(conn, startYear, alias);
+        try (Statement stmt = conn.createStatement()) {
+            for (String table : archivedTables()) {
+                String createSql = null;
+                try (ResultSet rs = stmt.executeQuery("SELECT sql FROM main.sqlite_master WHERE type = 'table' AND name = '" + table + "'")) {
+                    if (rs.next()) createSql = rs.getString(1);
+                }
+                if (createSql == null) continue;
+                // Stored as "CREATE TABLE name (...)"; re-target it at the archive
+                stmt.execute(createSql.replaceFirst("(?i)^CREATE TABLE\\s+\"?" + table + "\"?",
+                        "CREATE TABLE IF NOT EXISTS " + alias + "." + table));
+
+                List<String> archiveColumns = new ArrayList<>();
+                try (ResultSet rs = stmt.executeQuery("PRAGMA " + alias + ".table_info(" + table + ")")) {
+                    while (rs.next()) archiveColumns.add(rs.getString("name"));
+                }
+                List<String[]> missing = new ArrayList<>();
+                try (ResultSet rs = stmt.executeQuery("PRAGMA main.table_info(" + table + ")")) {
+                    while (rs.next()) {
+                        if (!archiveColumns.contains(rs.getString("name"))) {
+                            String dflt = rs.getString("dflt_value");
+                            missing.add(new String[]{rs.getString("name"),
+                                    rs.getString("type") + (dflt != null ? " DEFAULT " + dflt : "")});
+                        }
+                    }
+                }
+                for (String[] column : missing) {
+                    stmt.execute("ALTER TABLE " + alias + "." + table + " ADD COLUMN " + column[0] + " " + column[1]);
+                }
+            }
+        }
+        attached.put(startYear, alias);
+        log.debug("Attached archive {} as {}", file, alias);
+        return alias;
+    }
+
+    private static void attachFile(Connection conn, int startYear, String alias) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement("ATTACH DATABASE ? AS " + alias)) {
+            pstmt.setString(1, archiveFile(startYear).toString());
+            pstmt.execute();
+        }
+    }
+
+    private static boolean isAttached(Connection conn, String alias) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("PRAGMA database_list")) {
+            while (rs.next()) {
+                if (alias.equals(rs.getString("name"))) return true;
+            }
+        }
+        return false;
+    }
+
+    private static synchronized String columnsOf(String table) {
+        return columnLists.computeIfAbsent(table, t -> {
+            List<String> columns = new ArrayList<>();
+            try (Statement stmt = DatabaseManager.getConnection().createStatement();
+                 ResultSet rs = stmt.executeQuery("PRAGMA main.table_info(" + t + ")")) {
+                while (rs.next()) columns.add(rs.getString("name"));
+            } catch (SQLException e) {
+                throw new IllegalStateException("Cannot read columns of " + t, e);
+            }
+            return String.join(", ", columns);
+        });
+    }
+
+    private static boolean hasRows(int startYear) throws SQLException {
+        String query = "SELECT EXISTS (SELECT 1 FROM lessons WHERE lesson_date >= ? AND lesson_date < ?) " +
+                "OR EXISTS (SELECT 1 FROM payments WHERE payment_to_date >= ? AND payment_to_date < ?)";
+        try (PreparedStatement pstmt = DatabaseManager.getConnection().prepareStatement(query)) {
+            String from = yearStart(startYear).toString();
+            String to = yearStart(startYear + 1).toString();
+            pstmt.setString(1, from);
+            pstmt.setString(2, to);
+            pstmt.setString(3, from);
+            pstmt.setString(4, to);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next() && rs.getInt(1) == 1;
+            }
+        }
+    }
+
+    private static void delete(Connection conn, String table, String filter, String from, String to) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement("DELETE FROM main." + table + " WHERE " + filter)) {
+            pstmt.setString(1, from);
+            pstmt.setString(2, to);
+            pstmt.executeUpdate();
+        }
+    }
+
+    private static List<String> archivedTables() {
+        List<String> tables = new ArrayList<>(List.of(LESSON_TABLES));
+        tables.add(PAYMENTS);
+        return tables;
+    }
+
+    private static Path archiveFile(int startYear) {
+        return getArchiveDirectory().resolve(FILE_PREFIX + label(startYear) + FILE_SUFFIX);
+    }
+
+    private static Integer parseYear(String fileName) {
+        if (!fileName.startsWith(FILE_PREFIX) || !fileName.endsWith(FILE_SUFFIX)) return null;
+        String label = fileName.substring(FILE_PREFIX.length(), fileName.length() - FILE_SUFFIX.length());
+        String[] parts = label.split("-");
+        try {
+            int start = Integer.parseInt(parts[0]);
+            return parts.length == 2 && Integer.parseInt(parts[1]) == start + 1 ? start : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package org.algo.mentor.services;
+
+import org.algo.mentor.config.DatabaseManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.*;
+
+/**
+ * Student x lesson attendance for a whole group, loaded with one ordered query.
+ * Each student row keeps two bitsets indexed by lesson column: lessons with an attendance
+ * record and lessons attended. Streaks and recent absences are computed on the bitsets.
+ */
+public class AttendanceMatrixService {
+
+    private static final Logger log = LoggerFactory.getLogger(AttendanceMatrixService.class);
+
+    public record LessonColumn(int lessonId, LocalDateTime lessonDate) {}
+
+    public static final class StudentRow {
+        private final int studentId;
+        private final String fullName;
+        private final String sortKey;
+        private final BitSet recorded = new BitSet();
+        private final BitSet present = new BitSet();
+
+        private StudentRow(int studentId, String fullName, String sortKey) {
+            this.studentId = studentId;
+            this.fullName = fullName;
+            this.sortKey = sortKey;
+        }
+
+        public int getStudentId() { return studentId; }
+        public String getFullName() { return fullName; }
+
+        /** Lessons the student has an attendance record for. */
+        public BitSet getRecorded() { return (BitSet) recorded.clone(); }
+        public BitSet getPresent() { return (BitSet) present.clone(); }
+
+        public BitSet getAbsent() {
+            BitSet absent = (BitSet) recorded.clone();
+            absent.andNot(present);
+            return absent;
+        }
+
+        public boolean isRecorded(int column) { return recorded.get(column); }
+        public boolean isPresent(int column) { return present.get(column); }
+
+        public int presentCount() { return present.cardinality(); }
+        public int absentCount() { return recorded.cardinality() - present.cardinality(); }
+
+        public double attendanceRate() {
+            int total = recorded.cardinality();
+            return total == 0 ? 0.0 : present.cardinality() * 100.0 / total;
+        }
+
+        /** Absences in a row ending at the student's most recent recorded lesson. */
+        public int currentAbsenceStreak() {
+            int last = recorded.length() - 1;
+            if (last < 0 || present.get(last)) return 0;
+            BitSet absent = getAbsent();
+            return last - absent.previousClearBit(last);
+        }
+
+        public int longestAbsenceRun() {
+            return longestRun(getAbsent());
+        }
+
+        public int longestPresenceRun() {
+            return longestRun(present);
+        }
+
+        /** Absences among the last {@code n} lessons of the group. */
+        public int absentInLast(int n, int columnCount) {
+            int from = Math.max(0, columnCount - n);
+            return getAbsent().get(from, columnCount).cardinality();
+        }
+
+        private static int longestRun(BitSet bits) {
+            int longest = 0;
+            for (int start = bits.nextSetBit(0); start >= 0; ) {
+                int end = bits.nextClearBit(start);
+                longest = Math.max(longest, end - start);
+                start = bits.nextSetBit(end);
+            }
+            return longest;
+        }
+    }
+
+    public static final class AttendanceMatrix {
+        private final List<LessonColumn> lessons;
+        private final List<StudentRow> students;
+
+        private AttendanceMatrix(List<LessonColumn> lessons, List<StudentRow> students) {
+            this.lessons = Collections.unmodifiableList(lessons);
+            this.students = Collections.unmodifiableList(students);
+        }
+
+        public List<LessonColumn> getLessons() { return lessons; }
+        public List<StudentRow> getStudents() { return students; }
+        public int lessonCount() { return lessons.size(); }
+
+        public int absentInLast(StudentRow row, int n) {
+            return row.absentInLast(n, lessons.size());
+        }
+
+        /** Students with at least {@code minAbsences} absences among the last {@code n} lessons. */
+        public List<StudentRow> absentInLast(int n, int minAbsences) {
+            List<StudentRow> result = new ArrayList<>();
+            for (StudentRow row : students) {
+                if (row.absentInLast(n, lessons.size()) >= minAbsences) result.add(row);
+            }
+            return result;
+        }
+
+        /** Number of students present at each lesson column. */
+        public int[] presentPerLesson() {
+            int[] counts = new int[lessons.size()];
+            for (StudentRow row : students) {
+                for (int i = row.present.nextSetBit(0); i >= 0; i = row.present.nextSetBit(i + 1)) {
+                    counts[i]++;
+                }
+            }
+            return counts;
+        }
+    }
+
+    /**
+     * Loads the full attendance history of a group. Lessons are ordered by date; students
+     * by last name. Students who left the group keep their historical rows. Lessons that are
+     * still ahead and have no marks yet are left out, so planned lessons do not show up as
+     * empty columns.
+     */
+    public static AttendanceMatrix load(int groupId) {
+        List<LessonColumn> lessons = new ArrayList<>();
+        Map<Integer, StudentRow> rows = new HashMap<>();
+
+        String query = "SELECT l.id AS lesson_id, l.lesson_date, a.student_id, a.present, " +
+                "COALESCE(s.first_name, '') || ' ' || COALESCE(s.last_name, '') AS full_name, " +
+                "COALESCE(s.last_name, '') || ' ' || COALESCE(s.first_name, '') AS sort_key " +
+                "FROM lessons l " +
+                "LEFT JOIN attendance a ON a.lesson_id = l.id " +
+                "LEFT JOIN students s ON s.id = a.student_id " +
+                "WHERE l.group_id = ? " +
+                "  AND (l.lesson_date <= ? OR EXISTS (SELECT 1 FROM attendance m WHERE m.lesson_id = l.id AND m.present IS NOT NULL)) " +
+                "ORDER BY l.lesson_date, l.id";
+
+        try {
+            Connection conn = DatabaseManager.getConnection();
+            try (PreparedStatement pstmt = conn.prepareStatement(query)) {
+                pstmt.setInt(1, groupId);
+                pstmt.setString(2, LocalDateTime.now().withNano(0).toString());
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    int currentLessonId = -1;
+                    while (rs.next()) {
+                        int lessonId = rs.getInt("lesson_id");
+                        if (lessonId != currentLessonId) {
+                            lessons.add(new LessonColumn(lessonId, LocalDateTime.parse(rs.getString("lesson_date"))));
+                            currentLessonId = lessonId;
+                        }
+                        int studentId = rs.getInt("student_id");
+                        if (rs.wasNull()) continue;
+
+                        int column = lessons.size() - 1;
+                        StudentRow row = rows.get(studentId);
+                        if (row == null) {
+                            row = new StudentRow(studentId, rs.getString("full_name").trim(), rs.getString("sort_key"));
+                            rows.put(studentId, row);
+                        }
+                        // Today's lessons can have roster rows that are not marked yet
+                        if (rs.getObject("present") == null) continue;
+                        row.recorded.set(column);
+                        if (rs.getInt("present") == 1) row.present.set(column);
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            log.error("Failed to load attendance matrix for group {}", groupId, e);
+        }
+
+        List<StudentRow> students = new ArrayList<>(rows.values());
+        students.sort(Comparator.comparing((StudentRow r) -> r.sortKey, String.CASE_INSENSITIVE_ORDER));
+        return new AttendanceMatrix(lessons, students);
+    }
+}
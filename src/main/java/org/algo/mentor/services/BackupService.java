@@ -0,0 +1,266 @@
+package org.algo.mentor.services;
+
+import org.algo.mentor.config.AppDirectoryManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sqlite.SQLiteConnection;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Backups of {@code database.db} into {@code backups/} next to it, made with the SQLite online
+ * backup API instead of a file copy. The copy runs on its own connection a few pages per step
+ * with a short pause in between, so the app's connection can keep writing; if it does, SQLite
+ * restarts the copy and the result is still a consistent snapshot.
+ * <p>
+ * Each copy is written to a {@code .part} file, checked with {@code PRAGMA integrity_check} and
+ * only then renamed to {@code database-yyyyMMdd-HHmmss.db}. The newest {@code backup.retention}
+ * generations are kept. The newest file name also tells when the last backup ran, so the
+ * schedule survives restarts.
+ */
+public class BackupService {
+
+    private static final Logger log = LoggerFactory.getLogger(BackupService.class);
+
+    private static final String SETTINGS_PREFIX = "backup.";
+    public static final int DEFAULT_INTERVAL_HOURS = 24;
+    public static final int DEFAULT_RETENTION = 7;
+    public static final int DEFAULT_PAGES_PER_STEP = 256;
+    public static final int DEFAULT_STEP_PAUSE_MILLIS = 20;
+    public static final int DEFAULT_SHUTDOWN_MIN_AGE_MINUTES = 60;
+    private static final int BUSY_SLEEP_MILLIS = 100;
+    private static final int BUSY_RETRIES = 300;
+    private static final int MAX_THROTTLED_RESTARTS = 3;
+    private static final long FIRST_RUN_DELAY_MINUTES = 2;
+
+    private static final String FILE_PREFIX = "database-";
+    private static final String FILE_SUFFIX = ".db";
+    private static final DateTimeFormatter FILE_TIME_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+
+    public record BackupResult(Path file, long sizeBytes, long millis, int steps, int restarts) {}
+
+    private static final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "backup");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private static final Object backupLock = new Object();
+    private static ScheduledFuture<?> pending;
+    private static volatile boolean throttled = true;
+    private static volatile boolean used;
+
+    /** Schedules the next backup for the current database folder; the first one is due an interval after the newest existing backup. */
+    public static synchronized void start() {
+        if (pending != null) pending.cancel(false);
+        throttled = true;
+        used = true;
+        Duration interval = interval();
+        LocalDateTime last = lastBackupTime();
+        long delayMinutes = FIRST_RUN_DELAY_MINUTES;
+        if (last != null) {
+            delayMinutes = Math.max(delayMinutes, Duration.between(LocalDateTime.now(), last.plus(interval)).toMinutes());
+        }
+        log.debug("Next backup in {} min", delayMinutes);
+        pending = executor.scheduleWithFixedDelay(BackupService::runScheduled, delayMinutes, interval.toMinutes(), TimeUnit.MINUTES);
+    }
+
+    public static synchronized void stop() {
+        if (pending != null) pending.cancel(false);
+        pending = null;
+    }
+
+    /**
+     * Whether closing the app should take a backup: a database was opened in this run,
+     * {@code backup.on_shutdown} is on and the newest backup is older than
+     * {@code backup.on_shutdown_min_age_minutes}.
+     */
+    public static boolean isShutdownBackupDue() {
+        if (!used || !SettingsService.getBoolean(SETTINGS_PREFIX + "on_shutdown", true)) return false;
+        LocalDateTime last = lastBackupTime();
+        int minAgeMinutes = Math.max(0, SettingsService.getInt(SETTINGS_PREFIX + "on_shutdown_min_age_minutes",
+                DEFAULT_SHUTDOWN_MIN_AGE_MINUTES));
+        return last == null || last.plusMinutes(minAgeMinutes).isBefore(LocalDateTime.now());
+    }
+
+    /**
+     * Final backup while the app closes, if one is due: stops the schedule, lets a running copy
+     * finish without pauses and then, unless that copy was recent enough, takes one more
+     * unthrottled copy. Slow on a large database, so callers run it off the FX thread.
+     */
+    public static void backupOnShutdown(ExportManager.Progress progress) {
+        stop();
+        throttled = false;
+        synchronized (backupLock) {
+            if (!isShutdownBackupDue()) return;
+            try {
+                backupNow(progress);
+            } catch (SQLException | IOException e) {
+                log.error("Shutdown backup failed", e);
+            }
+        }
+    }
+
+    /** Takes a backup now on the calling thread, verifies it and applies the retention. */
+    public static BackupResult backupNow() throws SQLException, IOException {
+        return backupNow(ExportManager.Progress.NONE);
+    }
+
+    /** {@link #backupNow()}, reporting copied pages out of the database's page count. */
+    public static BackupResult backupNow(ExportManager.Progress copyProgress) throws SQLException, IOException {
+        synchronized (backupLock) {
+            Path source = AppDirectoryManager.getDatabasePath();
+            if (source == null || !Files.exists(source)) {
+                throw new IOException("Database file not found: " + source);
+            }
+            Path dir = getBackupDirectory();
+            Files.createDirectories(dir);
+            Path target = dir.resolve(FILE_PREFIX + LocalDateTime.now().format(FILE_TIME_FORMAT) + FILE_SUFFIX);
+            Path part = dir.resolve(target.getFileName() + ".part");
+
+            long started = System.nanoTime();
+            int pagesPerStep = Math.max(1, SettingsService.getInt(SETTINGS_PREFIX + "pages_per_step", DEFAULT_PAGES_PER_STEP));
+            int pauseMillis = Math.max(0, SettingsService.getInt(SETTINGS_PREFIX + "step_pause_millis", DEFAULT_STEP_PAUSE_MILLIS));
+            // steps, remaining pages after the previous step, restarts seen
+            int[] progress = {0, Integer.MAX_VALUE, 0};
+            try {
+                Files.deleteIfExists(part);
+                try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + source)) {
+                    int rc = conn.unwrap(SQLiteConnection.class).getDatabase().backup("main", part.toString(),
+                            (remaining, total) -> {
+                                progress[0]++;
+                                // A write from another connection sends the copy back to the start
+                                if (remaining > progress[1]) progress[2]++;
+                                progress[1] = remaining;
+                                copyProgress.update(total - remaining, total);
+                                // The pause runs between steps, when the source is not locked. Under
+                                // steady writes it is dropped so the copy can still finish.
+                                if (throttled && progress[2] < MAX_THROTTLED_RESTARTS && pauseMillis > 0 && remaining > 0) {
+                                    pause(pauseMillis);
+                                }
+                            },
+                            BUSY_SLEEP_MILLIS, BUSY_RETRIES, pagesPerStep);
+                    if (rc != 0) throw new SQLException("Backup failed with SQLite code " + rc);
+                }
+
+                String check = integrityCheck(part);
+                if (!"ok".equals(check)) {
+                    throw new SQLException("Backup copy failed integrity check: " + check);
+                }
+                Files.move(part, target, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(part);
+            }
+
+            BackupResult result = new BackupResult(target, Files.size(target),
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started), progress[0], progress[2]);
+            log.info("Backup written to {} ({} bytes, {} steps, {} restarts, {} ms)", target,
+                    result.sizeBytes(), result.steps(), result.restarts(), result.millis());
+            prune(Math.max(1, SettingsService.getInt(SETTINGS_PREFIX + "retention", DEFAULT_RETENTION)));
+            return result;
+        }
+    }
+
+    /** Existing backups, newest first. */
+    public static List<Path> listBackups() {
+        Path dir = getBackupDirectory();
+        List<Path> result = new ArrayList<>();
+        if (dir == null || !Files.isDirectory(dir)) return result;
+        try (Stream<Path> files = Files.list(dir)) {
+            files.filter(BackupService::isBackupFile).forEach(result::add);
+        } catch (IOException e) {
+            log.error("Failed to list backups in {}", dir, e);
+        }
+        // The timestamp in the name sorts chronologically
+        result.sort(Comparator.comparing((Path p) -> p.getFileName().toString()).reversed());
+        return result;
+    }
+
+    public static Path getBackupDirectory() {
+        Path appDirectory = AppDirectoryManager.getAppDirectory();
+        return appDirectory != null ? appDirectory.resolve("backups") : null;
+    }
+
+    private static void runScheduled() {
+        try {
+            backupNow();
+        } catch (SQLException | IOException e) {
+            log.error("Scheduled backup failed", e);
+            NotificationCenter.post(new NotificationCenter.Notification(NotificationCenter.Kind.INFO,
+                    "Zaxira nusxa olinmadi", e.getMessage(), LocalDateTime.now()));
+        }
+    }
+
+    private static String integrityCheck(Path file) throws SQLException {
+        try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + file);
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("PRAGMA integrity_check")) {
+            StringBuilder sb = new StringBuilder();
+            while (rs.next()) {
+                if (!sb.isEmpty()) sb.append("; ");
+                sb.append(rs.getString(1));
+            }
+            return sb.toString();
+        }
+    }
+
+    private static void prune(int retention) {
+        List<Path> backups = listBackups();
+        for (int i = retention; i < backups.size(); i++) {
+            try {
+                Files.deleteIfExists(backups.get(i));
+                log.debug("Removed old backup {}", backups.get(i));
+            } catch (IOException e) {
+                log.warn("Failed to remove old backup {}", backups.get(i), e);
+            }
+        }
+    }
+
+    private static LocalDateTime lastBackupTime() {
+        List<Path> backups = listBackups();
+        if (backups.isEmpty()) return null;
+        String name = backups.get(0).getFileName().toString();
+        try {
+            return LocalDateTime.parse(name.substring(FILE_PREFIX.length(), name.length() - FILE_SUFFIX.length()), FILE_TIME_FORMAT);
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static boolean isBackupFile(Path p) {
+        String name = p.getFileName().toString();
+        return name.startsWith(FILE_PREFIX) && name.endsWith(FILE_SUFFIX)
+                && name.length() == FILE_PREFIX.length() + 15 + FILE_SUFFIX.length();
+    }
+
+    private static Duration interval() {
+        return Duration.ofHours(Math.max(1, SettingsService.getInt(SETTINGS_PREFIX + "interval_hours", DEFAULT_INTERVAL_HOURS)));
+    }
+
+    private static void pause(int millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
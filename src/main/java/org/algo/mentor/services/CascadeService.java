@@ -0,0 +1,379 @@
+package org.algo.mentor.services;
+
+import org.algo.mentor.config.DatabaseManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Deletes a row together with everything that refers to it. The graph is read from the schema's
+ * foreign keys ({@code PRAGMA foreign_key_list}) plus {@link #DERIVED_EDGES} for the rollup, sketch
+ * and risk tables, which refer to their source rows without a declared key. Children are deleted
+ * before their parents, so with {@code foreign_keys} on a row that is still referenced can no
+ * longer be deleted by mistake. Every deleted domain row goes through the change log and sync
+ * triggers like any other delete.
+ * <p>
+ * The orphan sweep finds rows whose parent is already gone (left behind by deletes from before
+ * foreign keys were enforced) and removes them, with their own children, in batches of one
+ * transaction each.
+ */
+public class CascadeService {
+
+    private static final Logger log = LoggerFactory.getLogger(CascadeService.class);
+
+    public static final int DEFAULT_BATCH_SIZE = 500;
+
+    /** A child column referring to a parent column. */
+    public record Edge(String child, String column, String parent, String parentColumn) {}
+
+    /** Derived tables, cleared with their source rows; they have no foreign keys of their own. */
+    private static final List<Edge> DERIVED_EDGES = List.of(
+            new Edge("score_sketches", "lesson_id", "lessons", "id"),
+            new Edge("score_sketches", "group_id", "groups", "id"),
+            new Edge("group_rollups", "group_id", "groups", "id"),
+            new Edge("student_rollups", "group_id", "groups", "id"),
+            new Edge("student_rollups", "student_id", "students", "id"),
+            new Edge("student_risk", "group_id", "groups", "id"),
+            new Edge("student_risk", "student_id", "students", "id"));
+
+    /**
+     * For each table whose rows feed rollups and score sketches, the lessons a set of its rows
+     * belongs to; {@code %s} is the row condition.
+     */
+    private static final Map<String, String> LESSONS_OF = Map.of(
+            "lessons", "SELECT id FROM lessons WHERE %s",
+            "attendance", "SELECT lesson_id FROM attendance WHERE %s",
+            "homeworks", "SELECT lesson_id FROM homeworks WHERE %s",
+            "test_sessions", "SELECT lesson_id FROM test_sessions WHERE %s",
+            "question_sessions", "SELECT lesson_id FROM question_sessions WHERE %s",
+            "test_results", "SELECT lesson_id FROM test_sessions WHERE id IN (SELECT test_session_id FROM test_results WHERE %s)",
+            "question_results", "SELECT lesson_id FROM question_sessions WHERE id IN (SELECT question_session_id FROM question_results WHERE %s)");
+
+    /** Rows of a table that refer to a missing parent. */
+    public record Orphans(Edge edge, long rows) {}
+
+    /**
+     * What a delete removed, per table, and what derived data it affected: the lessons whose
+     * rows changed (deleted or not), the rollup buckets as "groupId|date", the groups whose
+     * members changed and the deleted groups and students.
+     */
+    public static class Deletion {
+        final Map<String, Integer> removed = new LinkedHashMap<>();
+        final Set<Integer> lessons = new HashSet<>();
+        final Set<String> buckets = new HashSet<>();
+        final Set<Integer> groups = new HashSet<>();
+        final Set<Integer> deletedGroups = new HashSet<>();
+        final Set<Integer> deletedStudents = new HashSet<>();
+        boolean schedules;
+
+        public Map<String, Integer> getRemoved() {
+            return Collections.unmodifiableMap(removed);
+        }
+
+        public int total() {
+            return removed.values().stream().mapToInt(Integer::intValue).sum();
+        }
+
+        public Set<Integer> getLessons() {
+            return lessons;
+        }
+
+        public Set<String> getBuckets() {
+            return buckets;
+        }
+
+        public Set<Integer> getGroups() {
+            return groups;
+        }
+
+        public Set<Integer> getDeletedGroups() {
+            return deletedGroups;
+        }
+
+        public Set<Integer> getDeletedStudents() {
+            return deletedStudents;
+        }
+
+        public boolean touchesSchedules() {
+            return schedules;
+        }
+
+        /** Rebuilds rollup buckets and score sketches on the caller's transaction. */
+        void refreshDerived(Connection conn) throws SQLException {
+            for (int lessonId : lessons) {
+                DistributionService.refreshLesson(conn, lessonId);
+            }
+            for (String bucket : buckets) {
+                String[] parts = bucket.split("\\|");
+                int groupId = Integer.parseInt(parts[0]);
+                if (deletedGroups.contains(groupId)) continue;
+                RollupService.refreshLessonBuckets(conn, groupId, LocalDate.parse(parts[1]));
+                groups.add(groupId);
+            }
+        }
+
+        /** Updates risk scores and the schedule index once the delete is committed. */
+        void refreshAfterCommit() {
+            for (int studentId : deletedStudents) RiskService.removeStudent(studentId);
+            for (int groupId : deletedGroups) RiskService.removeGroup(groupId);
+            for (int groupId : groups) {
+                if (!deletedGroups.contains(groupId)) RiskService.refreshGroup(groupId);
+            }
+            if (schedules || !deletedGroups.isEmpty()) ScheduleService.invalidateIndex();
+        }
+    }
+
+    private static volatile List<Edge> edges;
+
+    /** Forgets the edges read from the schema; call after switching to another database. */
+    public static void reset() {
+        edges = null;
+    }
+
+    /** Deletes one row and everything referring to it in its own transaction. */
+    public static Deletion delete(String table, long id) throws SQLException {
+        Connection conn = DatabaseManager.getConnection();
+        Deletion deletion = new Deletion();
+        try {
+            conn.setAutoCommit(false);
+            cascade(conn, edges(conn), table, "id = ?", List.of(id), deletion);
+            deletion.refreshDerived(conn);
+            conn.commit();
+        } catch (SQLException e) {
+            try { conn.rollback(); } catch (SQLException ex) { log.error("Rollback failed", ex); }
+            throw e;
+        } finally {
+            conn.setAutoCommit(true);
+        }
+        deletion.refreshAfterCommit();
+        log.info("Deleted {} {} with {}", table, id, deletion.removed);
+        return deletion;
+    }
+
+    /**
+     * Deletes the rows of {@code table} matching {@code condition} and everything referring to
+     * them, on the caller's connection and transaction. Derived data is left to the caller, who
+     * gets what was affected in the returned {@link Deletion}.
+     */
+    public static Deletion deleteWhere(Connection conn, String table, String condition, List<Object> args) throws SQLException {
+        Deletion deletion = new Deletion();
+        cascade(conn, edges(conn), table, condition, args, deletion);
+        return deletion;
+    }
+
+    /** Counts the domain rows a delete would remove per table, for a confirmation dialog. */
+    public static Map<String, Integer> preview(String table, long id) throws SQLException {
+        Map<String, Integer> counts = new LinkedHashMap<>();
+        Connection conn = DatabaseManager.getConnection();
+        count(conn, edges(conn), table, "id = ?", List.of(id), counts, new ArrayList<>());
+        return counts;
+    }
+
+    /** Rows referring to a missing parent, per edge; edges without orphans are left out. */
+    public static List<Orphans> findOrphans() throws SQLException {
+        Connection conn = DatabaseManager.getConnection();
+        List<Orphans> result = new ArrayList<>();
+        for (Edge e : edges(conn)) {
+            try (Statement stmt = conn.createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM " + e.child() + " c WHERE " + orphanCondition(e))) {
+                long rows = rs.next() ? rs.getLong(1) : 0;
+                if (rows > 0) result.add(new Orphans(e, rows));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Removes orphaned rows, and whatever refers to them, {@code batchSize} at a time. Parents are
+     * swept first so their children go with them. Returns the rows removed per table.
+     * <p>
+     * It runs on a connection of its own, like archiving, so its batches never commit or roll
+     * back a save the UI has open on the shared connection. Foreign keys are turned on there, as
+     * they are on the shared one.
+     */
+    public static Map<String, Integer> sweepOrphans(int batchSize) throws SQLException {
+        Map<String, Integer> removed = new LinkedHashMap<>();
+        try (Connection conn = DatabaseManager.openDedicatedConnection()) {
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute("PRAGMA foreign_keys = ON");
+            }
+            // Kept for the whole sweep, so a reset() meanwhile cannot pull the graph from under it
+            List<Edge> graph = edges(conn);
+            List<Edge> ordered = new ArrayList<>(graph);
+            ordered.sort((a, b) -> Integer.compare(depth(graph, a.child()), depth(graph, b.child())));
+            for (Edge e : ordered) {
+                while (true) {
+                    List<Object> rowIds = new ArrayList<>();
+                    try (PreparedStatement pstmt = conn.prepareStatement(
+                            "SELECT c.rowid FROM " + e.child() + " c WHERE " + orphanCondition(e) + " LIMIT ?")) {
+                        pstmt.setInt(1, Math.max(1, batchSize));
+                        try (ResultSet rs = pstmt.executeQuery()) {
+                            while (rs.next()) rowIds.add(rs.getLong(1));
+                        }
+                    }
+                    if (rowIds.isEmpty()) break;
+
+                    Deletion deletion = new Deletion();
+                    try {
+                        conn.setAutoCommit(false);
+                        String placeholders = String.join(", ", Collections.nCopies(rowIds.size(), "?"));
+                        cascade(conn, graph, e.child(), "rowid IN (" + placeholders + ")", rowIds, deletion);
+                        deletion.refreshDerived(conn);
+                        conn.commit();
+                    } catch (SQLException ex) {
+                        try { conn.rollback(); } catch (SQLException rb) { log.error("Rollback failed", rb); }
+                        throw ex;
+                    } finally {
+                        conn.setAutoCommit(true);
+                    }
+                    deletion.refreshAfterCommit();
+                    deletion.removed.forEach((table, n) -> removed.merge(table, n, Integer::sum));
+                    if (rowIds.size() < batchSize) break;
+                }
+            }
+        }
+        if (removed.containsKey("student_risk")) {
+            // Scores of students or groups that no longer exist may still be cached
+            RiskService.reset();
+        }
+        if (!removed.isEmpty()) log.info("Orphan sweep removed {}", removed);
+        return removed;
+    }
+
+    private static void cascade(Connection conn, List<Edge> graph, String table, String condition, List<Object> args,
+                                Deletion d) throws SQLException {
+        cascade(conn, graph, table, condition, args, d, new ArrayList<>());
+    }
+
+    private static void cascade(Connection conn, List<Edge> graph, String table, String condition, List<Object> args,
+                                Deletion d, List<String> path) throws SQLException {
+        if (path.contains(table)) throw new SQLException("Foreign key cycle: " + path + " -> " + table);
+        path.add(table);
+        for (Edge e : graph) {
+            if (!e.parent().equals(table)) continue;
+            String childCondition = e.column() + " IN (SELECT " + e.parentColumn() + " FROM " + table + " WHERE " + condition + ")";
+            cascade(conn, graph, e.child(), childCondition, args, d, path);
+        }
+        path.remove(path.size() - 1);
+
+        collect(conn, table, condition, args, d);
+        try (PreparedStatement pstmt = conn.prepareStatement("DELETE FROM " + table + " WHERE " + condition)) {
+            bind(pstmt, args);
+            int n = pstmt.executeUpdate();
+            if (n > 0) d.removed.merge(table, n, Integer::sum);
+        }
+    }
+
+    /** Records what the rows about to be deleted feed into; their parents still exist here. */
+    private static void collect(Connection conn, String table, String condition, List<Object> args, Deletion d) throws SQLException {
+        String lessonQuery = LESSONS_OF.get(table);
+        if (lessonQuery != null) {
+            String query = "SELECT id, group_id, DATE(lesson_date) FROM lessons WHERE id IN (" + String.format(lessonQuery, condition) + ")";
+            try (PreparedStatement pstmt = conn.prepareStatement(query)) {
+                bind(pstmt, args);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        d.lessons.add(rs.getInt(1));
+                        if (rs.getString(3) != null) d.buckets.add(rs.getInt(2) + "|" + rs.getString(3));
+                    }
+                }
+            }
+        }
+        switch (table) {
+            case "groups" -> d.deletedGroups.addAll(ids(conn, "SELECT id FROM groups WHERE " + condition, args));
+            case "students" -> d.deletedStudents.addAll(ids(conn, "SELECT id FROM students WHERE " + condition, args));
+            case "student_groups" -> d.groups.addAll(ids(conn, "SELECT group_id FROM student_groups WHERE " + condition, args));
+            case "schedules" -> d.schedules = true;
+            default -> { }
+        }
+    }
+
+    private static void count(Connection conn, List<Edge> graph, String table, String condition, List<Object> args,
+                              Map<String, Integer> counts, List<String> path) throws SQLException {
+        if (path.contains(table)) return;
+        path.add(table);
+        try (PreparedStatement pstmt = conn.prepareStatement("SELECT COUNT(*) FROM " + table + " WHERE " + condition)) {
+            bind(pstmt, args);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                int n = rs.next() ? rs.getInt(1) : 0;
+                if (n > 0) counts.merge(table, n, Integer::sum);
+            }
+        }
+        for (Edge e : graph) {
+            if (!e.parent().equals(table) || DERIVED_EDGES.contains(e)) continue;
+            count(conn, graph, e.child(), e.column() + " IN (SELECT " + e.parentColumn() + " FROM " + table + " WHERE " + condition + ")",
+                    args, counts, path);
+        }
+        path.remove(path.size() - 1);
+    }
+
+    private static String orphanCondition(Edge e) {
+        return "c." + e.column() + " IS NOT NULL AND NOT EXISTS (SELECT 1 FROM " + e.parent() +
+                " p WHERE p." + e.parentColumn() + " = c." + e.column() + ")";
+    }
+
+    /** How many edges separate a table from a table without parents. */
+    private static int depth(List<Edge> graph, String table) {
+        int depth = 0;
+        for (Edge e : graph) {
+            if (e.child().equals(table) && !e.parent().equals(table)) depth = Math.max(depth, depth(graph, e.parent()) + 1);
+        }
+        return depth;
+    }
+
+    private static List<Edge> edges(Connection conn) throws SQLException {
+        List<Edge> result = edges;
+        if (result != null) return result;
+        result = new ArrayList<>();
+        List<String> tables = new ArrayList<>();
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT name FROM main.sqlite_master WHERE type = 'table' AND name NOT LIKE 'sqlite_%'")) {
+            while (rs.next()) tables.add(rs.getString(1));
+        }
+        for (String table : tables) {
+            try (Statement stmt = conn.createStatement();
+                 ResultSet rs = stmt.executeQuery("PRAGMA main.foreign_key_list(" + table + ")")) {
+                while (rs.next()) {
+                    String parentColumn = rs.getString("to");
+                    result.add(new Edge(table, rs.getString("from"), rs.getString("table"), parentColumn != null ? parentColumn : "id"));
+                }
+            }
+        }
+        for (Edge e : DERIVED_EDGES) {
+            if (tables.contains(e.child())) result.add(e);
+        }
+        result = List.copyOf(result);
+        edges = result;
+        return result;
+    }
+
+    private static Set<Integer> ids(Connection conn, String query, List<Object> args) throws SQLException {
+        Set<Integer> ids = new HashSet<>();
+        try (PreparedStatement pstmt = conn.prepareStatement(query)) {
+            bind(pstmt, args);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) ids.add(rs.getInt(1));
+            }
+        }
+        return ids;
+    }
+
+    private static void bind(PreparedStatement pstmt, List<Object> args) throws SQLException {
+        for (int i = 0; i < args.size(); i++) {
+            pstmt.setObject(i + 1, args.get(i));
+        }
+    }
+}
@@ -0,0 +1,253 @@
+package org.algo.mentor.services;
+
+import org.algo.mentor.config.DatabaseManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads the {@code change_log} table, which triggers on the domain tables fill with one row per
+ * inserted, updated or deleted row (see {@code DatabaseManager}). Sequence numbers only grow, so a
+ * consumer loads its data once, remembers {@link #currentSequence()} and from then on asks for
+ * the changes after its last sequence with {@link #since(long, int)}.
+ * <p>
+ * The log is compacted from the oldest end. Rows are removed once every consumer that reported
+ * its position with {@link #acknowledge(String, long)} has read them and they are older than
+ * {@code change_log.retention_days}; {@code change_log.max_rows} caps the size regardless. A
+ * consumer whose position falls behind the removed part gets a batch with {@code gap} set and has
+ * to reload everything, just like on its first load.
+ * <p>
+ * The plain methods read through the app's shared connection, so they also see the changes of a
+ * transaction that is still open on it, e.g. a lesson being saved on the FX thread. If that
+ * transaction rolls back, its sequence numbers are handed out again and a consumer that already
+ * moved past them can miss the changes that reuse them. Consumers that keep their own copy of
+ * the data read the committed state instead, through a separate connection that has the
+ * database attached, with the overloads taking a schema; the rows they then copy must come from
+ * the same connection and transaction. The app's own caches, which reload through the shared
+ * connection anyway, can use the plain methods.
+ */
+public class ChangeFeed {
+
+    private static final Logger log = LoggerFactory.getLogger(ChangeFeed.class);
+
+    private static final String SETTINGS_PREFIX = "change_log.";
+    private static final String COMPACTED_KEY = SETTINGS_PREFIX + "compacted_through";
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+    public static final int DEFAULT_RETENTION_DAYS = 7;
+    public static final int DEFAULT_MAX_ROWS = 200_000;
+    public static final int DEFAULT_COMPACT_INTERVAL_MINUTES = 60;
+
+    public enum Op {
+        INSERT("I"), UPDATE("U"), DELETE("D");
+
+        private final String code;
+
+        Op(String code) {
+            this.code = code;
+        }
+
+        public String getCode() {
+            return code;
+        }
+
+        static Op of(String code) {
+            for (Op op : values()) {
+                if (op.code.equals(code)) return op;
+            }
+            throw new IllegalArgumentException("Unknown change_log op: " + code);
+        }
+    }
+
+    /** One changed row; for {@code student_groups} the row id is the student's id. */
+    public record Change(long seq, String table, long rowId, Op op) {}
+
+    /**
+     * Changes after the requested sequence, oldest first. {@code lastSeq} is where the next call
+     * continues; {@code gap} means changes were compacted away and the consumer must reload.
+     */
+    public record Batch(List<Change> changes, long lastSeq, boolean gap, boolean hasMore) {
+        public boolean isEmpty() {
+            return changes.isEmpty();
+        }
+
+        public boolean touches(String table) {
+            for (Change c : changes) {
+                if (c.table().equals(table)) return true;
+            }
+            return false;
+        }
+
+        /** Distinct row ids of a table in this batch, in first-seen order. */
+        public Set<Long> rowIds(String table) {
+            Set<Long> ids = new LinkedHashSet<>();
+            for (Change c : changes) {
+                if (c.table().equals(table)) ids.add(c.rowId());
+            }
+            return ids;
+        }
+    }
+
+    private static final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "change-log-compaction");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private static final Map<String, Long> cursors = new HashMap<>();
+    private static ScheduledFuture<?> pending;
+
+    /** The sequence of the latest change ever logged, 0 if none; compaction does not lower it. */
+    public static long currentSequence() {
+        try {
+            return currentSequence(DatabaseManager.getConnection(), "main");
+        } catch (SQLException e) {
+            log.error("Failed to read change_log sequence", e);
+            return 0;
+        }
+    }
+
+    /** {@link #currentSequence()} of the database attached to {@code conn} as {@code schema}. */
+    public static long currentSequence(Connection conn, String schema) throws SQLException {
+        String query = "SELECT seq FROM " + schema + ".sqlite_sequence WHERE name = 'change_log'";
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery(query)) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+
+    public static Batch since(long afterSeq) {
+        return since(afterSeq, DEFAULT_BATCH_SIZE);
+    }
+
+    /** Up to {@code limit} changes with a sequence above {@code afterSeq}. */
+    public static Batch since(long afterSeq, int limit) {
+        try {
+            return since(DatabaseManager.getConnection(), afterSeq, limit);
+        } catch (SQLException e) {
+            log.error("Failed to read change_log after {}", afterSeq, e);
+            // Nothing is known about what changed, so the consumer has to reload
+            return new Batch(List.of(), afterSeq, true, false);
+        }
+    }
+
+    public static Batch since(Connection conn, long afterSeq, int limit) throws SQLException {
+        return since(conn, "main", afterSeq, limit);
+    }
+
+    /**
+     * {@link #since(long, int)} from the database attached to {@code conn} as {@code schema}. On a
+     * connection of its own, in one transaction with the reads of the changed rows, it only shows
+     * committed changes.
+     */
+    public static Batch since(Connection conn, String schema, long afterSeq, int limit) throws SQLException {
+        if (afterSeq < compactedThrough()) {
+            return new Batch(List.of(), currentSequence(conn, schema), true, false);
+        }
+        List<Change> changes = new ArrayList<>();
+        long lastSeq = afterSeq;
+        String query = "SELECT seq, table_name, row_id, op FROM " + schema + ".change_log WHERE seq > ? ORDER BY seq LIMIT ?";
+        try (PreparedStatement pstmt = conn.prepareStatement(query)) {
+            pstmt.setLong(1, afterSeq);
+            pstmt.setInt(2, limit);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    Change c = new Change(rs.getLong("seq"), rs.getString("table_name"), rs.getLong("row_id"), Op.of(rs.getString("op")));
+                    changes.add(c);
+                    lastSeq = c.seq();
+                }
+            }
+        }
+        if (changes.isEmpty()) {
+            long current = currentSequence(conn, schema);
+            // A position from another database (or one that was restored from a backup)
+            if (afterSeq > current) return new Batch(List.of(), current, true, false);
+        }
+        return new Batch(changes, lastSeq, false, changes.size() == limit);
+    }
+
+    /** Records that {@code consumer} has handled everything up to {@code seq}; compaction keeps what it has not. */
+    public static synchronized void acknowledge(String consumer, long seq) {
+        cursors.merge(consumer, seq, Math::max);
+    }
+
+    public static synchronized void unregister(String consumer) {
+        cursors.remove(consumer);
+    }
+
+    /** Forgets consumer positions; they belong to the database that was open before. */
+    public static synchronized void reset() {
+        cursors.clear();
+    }
+
+    public static synchronized void start() {
+        if (pending != null) pending.cancel(false);
+        long interval = Math.max(1, SettingsService.getInt(SETTINGS_PREFIX + "compact_interval_minutes", DEFAULT_COMPACT_INTERVAL_MINUTES));
+        pending = executor.scheduleWithFixedDelay(ChangeFeed::runCompaction, 1, interval, TimeUnit.MINUTES);
+    }
+
+    public static synchronized void stop() {
+        if (pending != null) pending.cancel(false);
+        pending = null;
+    }
+
+    /** Removes the oldest part of the log that is no longer needed; returns the number of rows removed. */
+    public static int compact() throws SQLException {
+        long current = currentSequence();
+        long acknowledged;
+        synchronized (ChangeFeed.class) {
+            acknowledged = cursors.values().stream().mapToLong(Long::longValue).min().orElse(current);
+        }
+        int retentionDays = Math.max(0, SettingsService.getInt(SETTINGS_PREFIX + "retention_days", DEFAULT_RETENTION_DAYS));
+        int maxRows = Math.max(1, SettingsService.getInt(SETTINGS_PREFIX + "max_rows", DEFAULT_MAX_ROWS));
+
+        Connection conn = DatabaseManager.getConnection();
+        long expired = 0;
+        String query = "SELECT MAX(seq) FROM change_log WHERE seq <= ? AND changed_at < datetime('now', ?)";
+        try (PreparedStatement pstmt = conn.prepareStatement(query)) {
+            pstmt.setLong(1, acknowledged);
+            pstmt.setString(2, "-" + retentionDays + " days");
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (rs.next()) expired = rs.getLong(1);
+            }
+        }
+        // Always a prefix, so everything at or below the bound is known to be gone
+        long bound = Math.max(expired, current - maxRows);
+        if (bound <= compactedThrough()) return 0;
+
+        int removed;
+        try (PreparedStatement pstmt = conn.prepareStatement("DELETE FROM change_log WHERE seq <= ?")) {
+            pstmt.setLong(1, bound);
+            removed = pstmt.executeUpdate();
+        }
+        SettingsService.put(COMPACTED_KEY, bound);
+        log.info("Compacted change_log through {} ({} rows removed)", bound, removed);
+        return removed;
+    }
+
+    private static long compactedThrough() {
+        return SettingsService.getLong(COMPACTED_KEY, 0);
+    }
+
+    private static void runCompaction() {
+        try {
+            compact();
+        } catch (SQLException e) {
+            log.error("Change log compaction failed", e);
+        }
+    }
+}
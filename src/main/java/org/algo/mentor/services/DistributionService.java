@@ -0,0 +1,267 @@
+package org.algo.mentor.services;
+
+import org.algo.mentor.config.DatabaseManager;
+import org.algo.mentor.util.FixedHistogram;
+import org.algo.mentor.util.TDigest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.*;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Score distributions (quartiles, histogram) for test and question sessions.
+ * Every session keeps a small stored sketch of its percentage scores; group and date-range
+ * views merge those sketches instead of rescanning test_results and question_results.
+ */
+public class DistributionService {
+
+    private static final Logger log = LoggerFactory.getLogger(DistributionService.class);
+
+    public enum Source { TEST, QUESTION }
+
+    public record Distribution(long count, double min, double max, double mean,
+                               double p25, double median, double p75, double p90, long[] histogram) {
+        public static final Distribution EMPTY = new Distribution(0, Double.NaN, Double.NaN, Double.NaN,
+                Double.NaN, Double.NaN, Double.NaN, Double.NaN, new long[FixedHistogram.percent().bucketCount()]);
+
+        /** Lower bound (in percent) of histogram bucket {@code index}. */
+        public double bucketLowerBound(int index) {
+            return index * 100.0 / histogram.length;
+        }
+    }
+
+    /** One test or question session of a group with the distribution of its scores. */
+    public record SessionDistribution(Source source, int sessionId, String lessonDate, String topic, Distribution distribution) {}
+
+    /** All sessions of a group sharing a topic, merged; an empty topic stands for sessions without one. */
+    public record TopicDistribution(String topic, int sessions, Distribution distribution) {}
+
+    private static volatile boolean backfillChecked = false;
+
+    /**
+     * Rebuilds the sketches for all sessions of a lesson. Runs on the caller's connection,
+     * so it can join the lesson save transaction.
+     */
+    public static void refreshLesson(Connection conn, int lessonId) throws SQLException {
+        for (Source source : Source.values()) {
+            try (PreparedStatement pstmt = conn.prepareStatement("DELETE FROM score_sketches WHERE source = ? AND lesson_id = ?")) {
+                pstmt.setString(1, source.name());
+                pstmt.setInt(2, lessonId);
+                pstmt.executeUpdate();
+            }
+            String sessions = source == Source.TEST ? "test_sessions" : "question_sessions";
+            List<Integer> sessionIds = new ArrayList<>();
+            try (PreparedStatement pstmt = conn.prepareStatement("SELECT id FROM " + sessions + " WHERE lesson_id = ?")) {
+                pstmt.setInt(1, lessonId);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) sessionIds.add(rs.getInt(1));
+                }
+            }
+            for (int sessionId : sessionIds) {
+                refreshSession(conn, source, sessionId);
+            }
+        }
+    }
+
+    /** Removes a deleted session's sketch on the caller's connection, inside its transaction. */
+    public static void deleteSessionSketch(Connection conn, Source source, int sessionId) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement("DELETE FROM score_sketches WHERE source = ? AND session_id = ?")) {
+            pstmt.setString(1, source.name());
+            pstmt.setInt(2, sessionId);
+            pstmt.executeUpdate();
+        }
+    }
+
+    private static void refreshSession(Connection conn, Source source, int sessionId) throws SQLException {
+        String query = source == Source.TEST
+                ? "SELECT ts.lesson_id, l.group_id, l.lesson_date, ts.topic, ts.total_questions, tr.total_score " +
+                  "FROM test_sessions ts JOIN lessons l ON ts.lesson_id = l.id " +
+                  "LEFT JOIN test_results tr ON tr.test_session_id = ts.id WHERE ts.id = ?"
+                : "SELECT qs.lesson_id, l.group_id, l.lesson_date, qs.topic, qs.total_questions, qr.total_score " +
+                  "FROM question_sessions qs JOIN lessons l ON qs.lesson_id = l.id " +
+                  "LEFT JOIN question_results qr ON qr.question_session_id = qs.id WHERE qs.id = ?";
+
+        FixedHistogram histogram = FixedHistogram.percent();
+        TDigest digest = new TDigest();
+        int lessonId = -1, groupId = -1;
+        String lessonDate = null, topic = null;
+
+        try (PreparedStatement pstmt = conn.prepareStatement(query)) {
+            pstmt.setInt(1, sessionId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    lessonId = rs.getInt("lesson_id");
+                    groupId = rs.getInt("group_id");
+                    lessonDate = rs.getString("lesson_date");
+                    topic = rs.getString("topic");
+                    int totalQuestions = rs.getInt("total_questions");
+                    double score = rs.getDouble("total_score");
+                    if (rs.wasNull() || totalQuestions <= 0) continue;
+                    double percent = score * 100.0 / totalQuestions;
+                    histogram.add(percent);
+                    digest.add(percent);
+                }
+            }
+        }
+        if (lessonId == -1) return;
+
+        try (PreparedStatement pstmt = conn.prepareStatement(
+                "INSERT OR REPLACE INTO score_sketches (source, session_id, lesson_id, group_id, lesson_date, topic, sample_count, histogram, digest) " +
+                "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)")) {
+            pstmt.setString(1, source.name());
+            pstmt.setInt(2, sessionId);
+            pstmt.setInt(3, lessonId);
+            pstmt.setInt(4, groupId);
+            pstmt.setString(5, lessonDate);
+            pstmt.setString(6, topic);
+            pstmt.setLong(7, histogram.count());
+            pstmt.setBytes(8, histogram.toBytes());
+            pstmt.setBytes(9, digest.toBytes());
+            pstmt.executeUpdate();
+        }
+    }
+
+    /** Builds sketches for every session. Used once for databases that predate the sketch table. */
+    public static void rebuildAll() {
+        Connection conn = null;
+        try {
+            conn = DatabaseManager.getConnection();
+            conn.setAutoCommit(false);
+            try (Statement stmt = conn.createStatement()) {
+                stmt.executeUpdate("DELETE FROM score_sketches");
+            }
+            List<Integer> lessonIds = new ArrayList<>();
+            try (Statement stmt = conn.createStatement();
+                 ResultSet rs = stmt.executeQuery(
+                         "SELECT lesson_id FROM test_sessions UNION SELECT lesson_id FROM question_sessions")) {
+                while (rs.next()) lessonIds.add(rs.getInt(1));
+            }
+            for (int lessonId : lessonIds) {
+                refreshLesson(conn, lessonId);
+            }
+            conn.commit();
+            log.info("Rebuilt score sketches for {} lessons", lessonIds.size());
+        } catch (SQLException e) {
+            if (conn != null) {
+                try { conn.rollback(); } catch (SQLException ex) { log.error("Rollback failed", ex); }
+            }
+            log.error("Failed to rebuild score sketches", e);
+        } finally {
+            if (conn != null) {
+                try { conn.setAutoCommit(true); } catch (SQLException e) { log.error("Failed to restore auto-commit", e); }
+            }
+        }
+    }
+
+    private static void ensureBackfilled() {
+        if (backfillChecked) return;
+        backfillChecked = true;
+        try {
+            Connection conn = DatabaseManager.getConnection();
+            boolean needsRebuild;
+            try (Statement stmt = conn.createStatement();
+                 ResultSet rs = stmt.executeQuery(
+                         "SELECT (SELECT COUNT(*) FROM test_sessions) + (SELECT COUNT(*) FROM question_sessions), " +
+                         "(SELECT COUNT(*) FROM score_sketches)")) {
+                needsRebuild = rs.next() && rs.getInt(1) > 0 && rs.getInt(2) == 0;
+            }
+            if (needsRebuild) rebuildAll();
+        } catch (SQLException e) {
+            log.error("Failed to check sketch state", e);
+        }
+    }
+
+    public static void resetBackfillCheck() {
+        backfillChecked = false;
+    }
+
+    /**
+     * Distribution for a group over a date range. A null source merges tests and questions, a
+     * null topic merges every topic ("" means sessions without one); null dates mean no bound.
+     */
+    public static Distribution getGroupDistribution(int groupId, Source source, String topic, LocalDate fromDate, LocalDate toDate) {
+        FixedHistogram histogram = FixedHistogram.percent();
+        TDigest digest = new TDigest();
+        forEachSketch(groupId, source, topic, fromDate, toDate, (row, h, d) -> {
+            histogram.merge(h);
+            digest.merge(d);
+        });
+        return toDistribution(histogram, digest);
+    }
+
+    /** The sessions behind {@link #getGroupDistribution}, each from its own sketch, oldest first. */
+    public static List<SessionDistribution> getSessionDistributions(int groupId, Source source, String topic,
+                                                                    LocalDate fromDate, LocalDate toDate) {
+        List<SessionDistribution> sessions = new ArrayList<>();
+        forEachSketch(groupId, source, topic, fromDate, toDate, (row, h, d) -> sessions.add(new SessionDistribution(
+                Source.valueOf(row.getString("source")), row.getInt("session_id"), row.getString("lesson_date"),
+                row.getString("topic"), toDistribution(h, d))));
+        return sessions;
+    }
+
+    /**
+     * The sessions behind {@link #getGroupDistribution} merged per topic, so a topic taught over
+     * several lessons gets one histogram. Sorted by topic.
+     */
+    public static List<TopicDistribution> getTopicDistributions(int groupId, Source source, LocalDate fromDate, LocalDate toDate) {
+        record Merged(FixedHistogram histogram, TDigest digest, int[] sessions) {}
+        Map<String, Merged> byTopic = new TreeMap<>();
+        forEachSketch(groupId, source, null, fromDate, toDate, (row, h, d) -> {
+            String topic = row.getString("topic");
+            Merged m = byTopic.computeIfAbsent(topic != null ? topic : "",
+                    k -> new Merged(FixedHistogram.percent(), new TDigest(), new int[1]));
+            m.histogram().merge(h);
+            m.digest().merge(d);
+            m.sessions()[0]++;
+        });
+        List<TopicDistribution> topics = new ArrayList<>();
+        byTopic.forEach((topic, m) -> topics.add(new TopicDistribution(topic, m.sessions()[0], toDistribution(m.histogram(), m.digest()))));
+        return topics;
+    }
+
+    private interface SketchConsumer {
+        void accept(ResultSet row, FixedHistogram histogram, TDigest digest) throws SQLException;
+    }
+
+    private static void forEachSketch(int groupId, Source source, String topic, LocalDate fromDate, LocalDate toDate,
+                                      SketchConsumer consumer) {
+        ensureBackfilled();
+        String query = "SELECT source, session_id, lesson_date, topic, histogram, digest FROM score_sketches " +
+                "WHERE sample_count > 0 AND group_id = ? AND (? IS NULL OR source = ?) AND (? IS NULL OR COALESCE(topic, '') = ?) " +
+                "AND (? IS NULL OR DATE(lesson_date) >= ?) AND (? IS NULL OR DATE(lesson_date) <= ?) " +
+                "ORDER BY lesson_date, session_id";
+        String sourceName = source != null ? source.name() : null;
+        String from = fromDate != null ? fromDate.toString() : null;
+        String to = toDate != null ? toDate.toString() : null;
+        try (PreparedStatement pstmt = DatabaseManager.getConnection().prepareStatement(query)) {
+            pstmt.setInt(1, groupId);
+            pstmt.setString(2, sourceName);
+            pstmt.setString(3, sourceName);
+            pstmt.setString(4, topic);
+            pstmt.setString(5, topic);
+            pstmt.setString(6, from);
+            pstmt.setString(7, from);
+            pstmt.setString(8, to);
+            pstmt.setString(9, to);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    consumer.accept(rs, FixedHistogram.fromBytes(rs.getBytes("histogram")), TDigest.fromBytes(rs.getBytes("digest")));
+                }
+            }
+        } catch (SQLException e) {
+            log.error("Failed to read score sketches of group {}", groupId, e);
+        }
+    }
+
+    private static Distribution toDistribution(FixedHistogram histogram, TDigest digest) {
+        if (histogram.count() == 0) return Distribution.EMPTY;
+        return new Distribution(histogram.count(), histogram.min(), histogram.max(), histogram.mean(),
+                digest.quantile(0.25), digest.quantile(0.5), digest.quantile(0.75), digest.quantile(0.9),
+                histogram.counts());
+    }
+}
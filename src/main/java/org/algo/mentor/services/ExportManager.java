@@ -0,0 +1,245 @@
+package org.algo.mentor.services;
+
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import javafx.concurrent.Task;
+import org.algo.mentor.config.AppDirectoryManager;
+import org.algo.mentor.config.StorageProfile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sqlite.SQLiteConfig;
+import org.sqlite.SQLiteConnection;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs file exports off the FX thread, one at a time, in submission order.
+ * Each job writes to a temporary file next to the target and moves it into place only
+ * when it completes, so a cancelled or failed export never leaves a half-written file.
+ * <p>
+ * Each job also gets its own read-only connection to {@code database.db}, so a long export neither
+ * shares the app's connection with the FX thread nor sees a lesson that is being saved. In WAL mode
+ * the connection reads the file directly. With a rollback journal an open reader would block every
+ * save until the export ends, so the job first copies the file with the backup API and reads the
+ * copy instead.
+ */
+public class ExportManager {
+
+    private static final Logger log = LoggerFactory.getLogger(ExportManager.class);
+
+    /**
+     * Progress callback handed to exporters; pass a total of 0 or less when it is not known.
+     * It is also the cancellation point:
+     * {@code update} throws {@link CancellationException} once the job has been cancelled.
+     */
+    @FunctionalInterface
+    public interface Progress {
+        Progress NONE = (done, total) -> {};
+
+        void update(long done, long total);
+    }
+
+    /** Writes one export to {@code file}, reading only through {@code conn}. */
+    @FunctionalInterface
+    public interface ExportWriter {
+        void write(File file, Connection conn, Progress progress) throws Exception;
+    }
+
+    /** Writes an export from data the caller already holds, so the job opens no connection. */
+    @FunctionalInterface
+    public interface DetachedWriter {
+        void write(File file, Progress progress) throws Exception;
+    }
+
+    private static final int SNAPSHOT_PAGES_PER_STEP = 256;
+    private static final int SNAPSHOT_BUSY_SLEEP_MILLIS = 100;
+    private static final int SNAPSHOT_BUSY_RETRIES = 300;
+
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "export-worker");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private static final ObservableList<ExportJob> jobs = FXCollections.observableArrayList();
+
+    public static class ExportJob extends Task<File> implements Progress {
+        private final String name;
+        private final File target;
+        private final ExportWriter writer;
+        private final boolean readsDatabase;
+        private volatile long startedAt;
+        private volatile long finishedAt;
+
+        private ExportJob(String name, File target, ExportWriter writer, boolean readsDatabase) {
+            this.name = name;
+            this.target = target;
+            this.writer = writer;
+            this.readsDatabase = readsDatabase;
+            updateMessage("Navbatda");
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public File getTarget() {
+            return target;
+        }
+
+        /** Run time so far, or the total once finished; 0 while queued. */
+        public long getElapsedMillis() {
+            if (startedAt == 0) return 0;
+            long end = finishedAt != 0 ? finishedAt : System.nanoTime();
+            return (end - startedAt) / 1_000_000;
+        }
+
+        @Override
+        public void update(long done, long total) {
+            if (isCancelled()) throw new CancellationException("Export cancelled");
+            if (total > 0) {
+                updateProgress(done, total);
+                updateMessage(done + " / " + total);
+            } else {
+                updateMessage(done + " qator");
+            }
+        }
+
+        @Override
+        protected File call() throws Exception {
+            startedAt = System.nanoTime();
+            updateMessage("Bajarilmoqda...");
+            Path targetPath = target.toPath().toAbsolutePath();
+            Path temp = Files.createTempFile(targetPath.getParent(), "." + targetPath.getFileName(), ".part");
+            try (Source source = readsDatabase ? Source.open() : Source.NONE) {
+                writer.write(temp.toFile(), source.conn(), this);
+                if (isCancelled()) return null;
+                moveIntoPlace(temp, targetPath);
+                updateProgress(1, 1);
+                updateMessage("Saqlandi");
+                return target;
+            } finally {
+                Files.deleteIfExists(temp);
+                finishedAt = System.nanoTime();
+            }
+        }
+
+        @Override
+        protected void failed() {
+            log.error("Export '{}' failed", name, getException());
+        }
+    }
+
+    /** Queues an export that reads the database. Must be called on the FX thread. */
+    public static ExportJob submit(String name, File target, ExportWriter writer) {
+        return enqueue(new ExportJob(name, target, writer, true));
+    }
+
+    /** Queues an export of data already loaded. Must be called on the FX thread. */
+    public static ExportJob submit(String name, File target, DetachedWriter writer) {
+        return enqueue(new ExportJob(name, target, (file, conn, progress) -> writer.write(file, progress), false));
+    }
+
+    /** Queues a fresh copy of a finished, failed or cancelled job. */
+    public static ExportJob retry(ExportJob job) {
+        jobs.remove(job);
+        return enqueue(new ExportJob(job.name, job.target, job.writer, job.readsDatabase));
+    }
+
+    private static ExportJob enqueue(ExportJob job) {
+        jobs.add(0, job);
+        executor.submit(job);
+        return job;
+    }
+
+    public static void removeFinished() {
+        jobs.removeIf(Task::isDone);
+    }
+
+    /** Jobs newest first, for the status panel. */
+    public static ObservableList<ExportJob> getJobs() {
+        return jobs;
+    }
+
+    /** A job's connection, and the copy it reads when the database is not in WAL mode. */
+    private record Source(Connection conn, Path snapshot) implements AutoCloseable {
+        static final Source NONE = new Source(null, null);
+
+        static Source open() throws SQLException, IOException {
+            Path database = AppDirectoryManager.getDatabasePath();
+            Connection conn = openReadOnly(database);
+            try {
+                if (isWal(conn)) return new Source(conn, null);
+            } catch (SQLException e) {
+                conn.close();
+                throw e;
+            }
+            conn.close();
+
+            Path snapshot = Files.createTempFile(database.getParent(), ".export-", ".db");
+            try {
+                try (Connection copy = DriverManager.getConnection("jdbc:sqlite:" + snapshot)) {
+                    int rc = copy.unwrap(SQLiteConnection.class).getDatabase().restore("main", database.toString(), null,
+                            SNAPSHOT_BUSY_SLEEP_MILLIS, SNAPSHOT_BUSY_RETRIES, SNAPSHOT_PAGES_PER_STEP);
+                    if (rc != 0) throw new SQLException("Snapshot failed with SQLite code " + rc);
+                }
+                return new Source(openReadOnly(snapshot), snapshot);
+            } catch (SQLException e) {
+                Files.deleteIfExists(snapshot);
+                throw e;
+            }
+        }
+
+        private static Connection openReadOnly(Path database) throws SQLException {
+            SQLiteConfig config = new SQLiteConfig();
+            config.setReadOnly(true);
+            Connection conn = DriverManager.getConnection("jdbc:sqlite:" + database, config.toProperties());
+            try {
+                StorageProfile.configured(conn).applyReadSettings(conn);
+            } catch (SQLException e) {
+                conn.close();
+                throw e;
+            }
+            return conn;
+        }
+
+        private static boolean isWal(Connection conn) throws SQLException {
+            try (Statement stmt = conn.createStatement();
+                 ResultSet rs = stmt.executeQuery("PRAGMA journal_mode")) {
+                return rs.next() && "wal".equalsIgnoreCase(rs.getString(1));
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (conn == null) return;
+            try {
+                conn.close();
+            } catch (SQLException e) {
+                log.warn("Failed to close export connection: {}", e.getMessage());
+            }
+            if (snapshot != null) Files.deleteIfExists(snapshot);
+        }
+    }
+
+    private static void moveIntoPlace(Path temp, Path target) throws IOException {
+        try {
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
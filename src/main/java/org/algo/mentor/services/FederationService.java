@@ -0,0 +1,237 @@
+package org.algo.mentor.services;
+
+import org.algo.mentor.config.AppDirectoryManager;
+import org.algo.mentor.config.StorageProfile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sqlite.SQLiteConfig;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Combined numbers over several database folders (one per branch). The folder open in the app
+ * is always the first branch; more are registered in {@code federation.folders}.
+ * <p>
+ * Each branch is read in parallel on its own read-only connection. Only sums and counts are
+ * collected (see {@link ReportService.GroupTotals} and {@link ReportService.StudentGroupTotals}),
+ * and every rate is worked out from the added-up sums. Averaging the branches' own rates would
+ * give a small branch as much weight as a large one.
+ */
+public class FederationService {
+
+    private static final Logger log = LoggerFactory.getLogger(FederationService.class);
+
+    private static final String FOLDERS_KEY = "federation.folders";
+    private static final String DATABASE_FILE = "database.db";
+
+    public record Branch(String name, Path folder) {}
+
+    /** Additive totals for a branch or for all of them. */
+    public record Totals(int groups, int students, long presentCount, long markedCount, double earned, double possible) {
+        public static final Totals EMPTY = new Totals(0, 0, 0, 0, 0, 0);
+
+        public Totals plus(Totals o) {
+            return new Totals(groups + o.groups, students + o.students, presentCount + o.presentCount,
+                    markedCount + o.markedCount, earned + o.earned, possible + o.possible);
+        }
+
+        public double attendanceRate() {
+            return markedCount == 0 ? 0 : presentCount * 100.0 / markedCount;
+        }
+
+        public double scoreRate() {
+            return possible == 0 ? 0 : earned * 100.0 / possible;
+        }
+    }
+
+    /** A student's sums over all their groups in one branch. */
+    public record BranchStudent(String branchName, int studentId, String fullName, String groupNames,
+                                int presentCount, int lessonCount, double earned, double possible) {
+        public double attendanceRate() {
+            return lessonCount == 0 ? 0 : presentCount * 100.0 / lessonCount;
+        }
+
+        public double scoreRate() {
+            return possible == 0 ? 0 : earned * 100.0 / possible;
+        }
+    }
+
+    /** One branch's data; {@code error} is set (and the lists are empty) when it could not be read. */
+    public record BranchReport(Branch branch, Totals totals, List<ReportService.GroupTotals> groups,
+                               List<BranchStudent> students, String error) {}
+
+    public record FederatedReport(List<BranchReport> branches, Totals combined) {
+        /** Students of all branches, best score rate first. */
+        public List<BranchStudent> rankedStudents() {
+            List<BranchStudent> all = new ArrayList<>();
+            for (BranchReport b : branches) all.addAll(b.students());
+            all.sort(Comparator.comparingDouble(BranchStudent::scoreRate).reversed()
+                    .thenComparing(Comparator.comparingDouble(BranchStudent::attendanceRate).reversed()));
+            return all;
+        }
+    }
+
+    /** The open folder followed by the registered ones; names get the parent folder added when they repeat. */
+    public static List<Branch> getBranches() {
+        List<Path> folders = new ArrayList<>();
+        Path current = AppDirectoryManager.getAppDirectory();
+        if (current != null) folders.add(current.toAbsolutePath().normalize());
+        for (Path p : getRegisteredFolders()) {
+            if (!folders.contains(p)) folders.add(p);
+        }
+
+        Map<String, Integer> nameCounts = new HashMap<>();
+        for (Path p : folders) nameCounts.merge(folderName(p), 1, Integer::sum);
+        List<Branch> branches = new ArrayList<>();
+        for (Path p : folders) {
+            String name = folderName(p);
+            if (nameCounts.get(name) > 1 && p.getParent() != null) {
+                name = name + " (" + folderName(p.getParent()) + ")";
+            }
+            branches.add(new Branch(name, p));
+        }
+        return branches;
+    }
+
+    public static List<Path> getRegisteredFolders() {
+        List<Path> folders = new ArrayList<>();
+        for (String line : SettingsService.get(FOLDERS_KEY, "").split("\n")) {
+            if (!line.isBlank()) folders.add(Paths.get(line.trim()).toAbsolutePath().normalize());
+        }
+        return folders;
+    }
+
+    /** Registers a branch folder; it must contain a database.db. */
+    public static void addFolder(Path folder) {
+        Path normalized = folder.toAbsolutePath().normalize();
+        if (!Files.exists(normalized.resolve(DATABASE_FILE))) {
+            throw new IllegalArgumentException("Papkada " + DATABASE_FILE + " topilmadi: " + normalized);
+        }
+        List<Path> folders = getRegisteredFolders();
+        if (!folders.contains(normalized)) {
+            folders.add(normalized);
+            saveFolders(folders);
+        }
+    }
+
+    public static void removeFolder(Path folder) {
+        List<Path> folders = getRegisteredFolders();
+        if (folders.remove(folder.toAbsolutePath().normalize())) saveFolders(folders);
+    }
+
+    /** Reads every branch in parallel and adds up the totals of the ones that could be read. */
+    public static FederatedReport run() {
+        List<Branch> branches = getBranches();
+        List<BranchReport> reports = new ArrayList<>();
+        if (branches.isEmpty()) return new FederatedReport(reports, Totals.EMPTY);
+
+        int threads = Math.min(branches.size(), Runtime.getRuntime().availableProcessors());
+        ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "federation");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            List<Future<BranchReport>> futures = new ArrayList<>();
+            for (Branch branch : branches) {
+                futures.add(pool.submit((Callable<BranchReport>) () -> readBranch(branch)));
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    reports.add(futures.get(i).get());
+                } catch (ExecutionException e) {
+                    reports.add(failed(branches.get(i), e.getCause()));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    reports.add(failed(branches.get(i), e));
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        Totals combined = Totals.EMPTY;
+        for (BranchReport r : reports) combined = combined.plus(r.totals());
+        return new FederatedReport(reports, combined);
+    }
+
+    private static BranchReport readBranch(Branch branch) {
+        Path database = branch.folder().resolve(DATABASE_FILE);
+        if (!Files.exists(database)) {
+            return new BranchReport(branch, Totals.EMPTY, List.of(), List.of(), DATABASE_FILE + " topilmadi");
+        }
+        SQLiteConfig config = new SQLiteConfig();
+        config.setReadOnly(true);
+        try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + database, config.toProperties())) {
+            StorageProfile.configured(conn).applyReadSettings(conn);
+            int students = 0;
+            try (Statement stmt = conn.createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM students")) {
+                if (rs.next()) students = rs.getInt(1);
+            }
+
+            List<ReportService.GroupTotals> groups = new ArrayList<>();
+            ReportService.streamGroupTotals(conn, groups::add);
+
+            Map<Integer, BranchStudent> perStudent = new LinkedHashMap<>();
+            ReportService.streamStudentGroupTotals(conn, ArchiveService.Tables.mainOnly(), null, null, null, t ->
+                    perStudent.merge(t.studentId(),
+                            new BranchStudent(branch.name(), t.studentId(), t.fullName(), t.groupName(),
+                                    t.presentCount(), t.lessonCount(), t.earned(), t.possible()),
+                            (a, b) -> new BranchStudent(a.branchName(), a.studentId(), a.fullName(),
+                                    a.groupNames() + ", " + b.groupNames(),
+                                    a.presentCount() + b.presentCount(), a.lessonCount() + b.lessonCount(),
+                                    a.earned() + b.earned(), a.possible() + b.possible())));
+
+            long present = 0, marked = 0;
+            double earned = 0, possible = 0;
+            for (ReportService.GroupTotals g : groups) {
+                present += g.presentCount();
+                marked += g.markedCount();
+                earned += g.earned();
+                possible += g.possible();
+            }
+            Totals totals = new Totals(groups.size(), students, present, marked, earned, possible);
+            return new BranchReport(branch, totals, groups, new ArrayList<>(perStudent.values()), null);
+        } catch (SQLException e) {
+            return failed(branch, e);
+        }
+    }
+
+    private static BranchReport failed(Branch branch, Throwable e) {
+        log.error("Failed to read branch {} at {}", branch.name(), branch.folder(), e);
+        return new BranchReport(branch, Totals.EMPTY, List.of(), List.of(), e.getMessage());
+    }
+
+    private static void saveFolders(List<Path> folders) {
+        StringBuilder sb = new StringBuilder();
+        for (Path p : folders) {
+            if (!sb.isEmpty()) sb.append('\n');
+            sb.append(p);
+        }
+        SettingsService.put(FOLDERS_KEY, sb.toString());
+    }
+
+    private static String folderName(Path p) {
+        Path name = p.getFileName();
+        return name != null ? name.toString() : p.toString();
+    }
+}
@@ -57,22 +57,10 @@ public class GroupService {
         }
     }
 
+    /** Deletes the group with its lessons and their results, its schedule and its memberships. */
     public static void deleteGroup(int id) {
         try {
-            Connection conn = DatabaseManager.getConnection();
-            // Delete student associations first
-            String query1 = "DELETE FROM student_groups WHERE group_id = ?";
-            PreparedStatement pstmt1 = conn.prepareStatement(query1);
-            pstmt1.setInt(1, id);
-            pstmt1.executeUpdate();
-            pstmt1.close();
-
-            // Delete the group
-            String query2 = "DELETE FROM groups WHERE id = ?";
-            PreparedStatement pstmt2 = conn.prepareStatement(query2);
-            pstmt2.setInt(1, id);
-            pstmt2.executeUpdate();
-            pstmt2.close();
+            CascadeService.delete("groups", id);
         } catch (SQLException e) {
             e.printStackTrace();
         }
@@ -87,6 +75,8 @@ public class GroupService {
             pstmt.setInt(2, id);
             pstmt.executeUpdate();
             pstmt.close();
+            ScheduleService.invalidateIndex();
+            RiskService.refreshGroup(id);
         } catch (SQLException e) {
             e.printStackTrace();
         }
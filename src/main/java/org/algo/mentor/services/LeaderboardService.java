@@ -0,0 +1,189 @@
+package org.algo.mentor.services;
+
+import org.algo.mentor.util.OrderStatisticTree;
+
+import java.time.LocalDate;
+import java.util.*;
+
+/**
+ * Student rankings across all groups or within one group.
+ * Top-K uses a bounded min-heap; single-student rank lookups go through an order-statistic tree.
+ * Boards with the default weighting are kept per group and metric, and rebuilt only once the
+ * {@link ChangeFeed} shows a change to a table they are computed from.
+ */
+public class LeaderboardService {
+
+    public enum Metric { SCORE, ATTENDANCE, COMPOSITE }
+
+    public enum TieMode {
+        /** 1, 2, 2, 3 */
+        DENSE,
+        /** 1, 2, 2, 4 */
+        COMPETITION
+    }
+
+    public record LeaderboardEntry(int studentId, String fullName, String groupName,
+                                   double attendanceRate, double avgScore, double value, int rank) {}
+
+    private record Candidate(int studentId, String fullName, String groupName,
+                             double attendanceRate, double avgScore, double value) {}
+
+    /** Default share of the score in the composite metric; the rest is attendance. */
+    public static final double DEFAULT_SCORE_WEIGHT = 0.7;
+
+    /** Tables behind {@link ReportService#getStudentGroupTotals}; a change to any other leaves boards valid. */
+    private static final Set<String> SOURCE_TABLES = Set.of("groups", "students", "student_groups", "lessons",
+            "attendance", "homeworks", "test_sessions", "test_results", "question_sessions", "question_results");
+    /** Beyond this many feed batches since a build, rebuilding is cheaper than reading on. */
+    private static final int MAX_CHECKED_BATCHES = 5;
+
+    private record Key(Integer groupId, Metric metric) {}
+
+    private record Cached(Leaderboard board, long seq) {}
+
+    private static final Map<Key, Cached> cache = new HashMap<>();
+
+    /**
+     * Ranking snapshot for one scope and metric. Values can be updated in place without rebuilding.
+     */
+    public static class Leaderboard {
+        private final Map<Integer, Candidate> candidates = new HashMap<>();
+        private final OrderStatisticTree tree = new OrderStatisticTree();
+
+        private void put(Candidate candidate) {
+            Candidate previous = candidates.put(candidate.studentId(), candidate);
+            if (previous != null) tree.remove(previous.value());
+            tree.add(candidate.value());
+        }
+
+        public void remove(int studentId) {
+            Candidate previous = candidates.remove(studentId);
+            if (previous != null) tree.remove(previous.value());
+        }
+
+        public int size() {
+            return candidates.size();
+        }
+
+        /** Rank of a student, or 0 when the student is not on this leaderboard. */
+        public int rankOf(int studentId, TieMode tieMode) {
+            Candidate c = candidates.get(studentId);
+            if (c == null) return 0;
+            return rankOfValue(c.value(), tieMode);
+        }
+
+        private int rankOfValue(double value, TieMode tieMode) {
+            return 1 + (tieMode == TieMode.DENSE ? tree.countDistinctGreater(value) : tree.countGreater(value));
+        }
+
+        /** The k best students, best first. Runs in O(n log k). */
+        public List<LeaderboardEntry> top(int k, TieMode tieMode) {
+            if (k <= 0) return Collections.emptyList();
+            Comparator<Candidate> order = Comparator.comparingDouble(Candidate::value)
+                    .thenComparing(Candidate::fullName, Comparator.reverseOrder());
+            PriorityQueue<Candidate> heap = new PriorityQueue<>(k + 1, order);
+            for (Candidate c : candidates.values()) {
+                heap.offer(c);
+                if (heap.size() > k) heap.poll();
+            }
+
+            List<Candidate> best = new ArrayList<>(heap);
+            best.sort(order.reversed());
+
+            List<LeaderboardEntry> entries = new ArrayList<>(best.size());
+            for (Candidate c : best) {
+                entries.add(new LeaderboardEntry(c.studentId(), c.fullName(), c.groupName(),
+                        c.attendanceRate(), c.avgScore(), c.value(), rankOfValue(c.value(), tieMode)));
+            }
+            return entries;
+        }
+    }
+
+    /**
+     * Builds a leaderboard. A null groupId ranks students across all groups, summing their
+     * attendance and points over every group they belong to.
+     */
+    public static Leaderboard build(Integer groupId, Metric metric, double scoreWeight, LocalDate fromDate, LocalDate toDate) {
+        Map<Integer, ReportService.StudentGroupTotals> perStudent = new LinkedHashMap<>();
+        Map<Integer, Set<String>> groupNames = new HashMap<>();
+
+        for (ReportService.StudentGroupTotals t : ReportService.getStudentGroupTotals(groupId, fromDate, toDate)) {
+            groupNames.computeIfAbsent(t.studentId(), k -> new TreeSet<>()).add(t.groupName());
+            perStudent.merge(t.studentId(), t, (a, b) -> new ReportService.StudentGroupTotals(
+                    a.studentId(), a.fullName(), a.groupId(), a.groupName(),
+                    a.presentCount() + b.presentCount(),
+                    a.lessonCount() + b.lessonCount(),
+                    a.earned() + b.earned(),
+                    a.possible() + b.possible()));
+        }
+
+        Leaderboard leaderboard = new Leaderboard();
+        for (ReportService.StudentGroupTotals t : perStudent.values()) {
+            double att = t.attendanceRate();
+            double score = t.scoreRate();
+            leaderboard.put(new Candidate(t.studentId(), t.fullName(),
+                    String.join(", ", groupNames.get(t.studentId())),
+                    att, score, metricValue(metric, att, score, scoreWeight)));
+        }
+        return leaderboard;
+    }
+
+    public static Leaderboard build(Integer groupId, Metric metric) {
+        return build(groupId, metric, DEFAULT_SCORE_WEIGHT, null, null);
+    }
+
+    /**
+     * The board with the default weighting over all dates, from the cache unless a lesson,
+     * score, student or membership changed since it was built. Callers must not modify it.
+     */
+    public static synchronized Leaderboard get(Integer groupId, Metric metric) {
+        Key key = new Key(groupId, metric);
+        long seq = ChangeFeed.currentSequence();
+        Cached cached = cache.get(key);
+        if (cached != null && cached.seq() != seq) {
+            cached = isStale(cached.seq()) ? null : new Cached(cached.board(), seq);
+            if (cached != null) cache.put(key, cached);
+        }
+        if (cached == null) {
+            cached = new Cached(build(groupId, metric), seq);
+            cache.put(key, cached);
+        }
+        return cached.board();
+    }
+
+    /** Drops every cached board, e.g. after switching to another database folder. */
+    public static synchronized void reset() {
+        cache.clear();
+    }
+
+    public static List<LeaderboardEntry> getTopStudents(Integer groupId, Metric metric, TieMode tieMode, int k) {
+        return get(groupId, metric).top(k, tieMode);
+    }
+
+    public static int getStudentRank(Integer groupId, int studentId, Metric metric, TieMode tieMode) {
+        return get(groupId, metric).rankOf(studentId, tieMode);
+    }
+
+    private static boolean isStale(long builtAt) {
+        long after = builtAt;
+        for (int i = 0; i < MAX_CHECKED_BATCHES; i++) {
+            ChangeFeed.Batch batch = ChangeFeed.since(after);
+            if (batch.gap()) return true;
+            for (String table : SOURCE_TABLES) {
+                if (batch.touches(table)) return true;
+            }
+            if (!batch.hasMore()) return false;
+            after = batch.lastSeq();
+        }
+        return true;
+    }
+
+    /** Unrounded, so ranks match the competition ranks of {@link ReportService#streamStudentStatistics}. */
+    private static double metricValue(Metric metric, double attendanceRate, double avgScore, double scoreWeight) {
+        return switch (metric) {
+            case SCORE -> avgScore;
+            case ATTENDANCE -> attendanceRate;
+            case COMPOSITE -> scoreWeight * avgScore + (1 - scoreWeight) * attendanceRate;
+        };
+    }
+}
@@ -4,11 +4,17 @@ import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 import org.algo.mentor.config.DatabaseManager;
 import org.algo.mentor.models.*;
+import org.algo.mentor.util.ScheduleIndex;
 
 import java.sql.*;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 
 /**
  * Darslar bilan bog'liq biznes logikani boshqaruvchi servis
@@ -39,6 +45,125 @@ public class LessonService {
         return null;
     }
 
+    /**
+     * Guruhning shu kungi darsini ochish uchun: jadvaldan oldindan yaratilgan (yoki avval ochilgan)
+     * dars bo'lsa o'sha qaytariladi, bo'lmasa yangisi yaratiladi. Mavjudlik tekshiruvi
+     * {@link #generateLessons} kunni o'tkazib yuboradigan shart bilan bir xil.
+     */
+    public static Lesson getOrCreateLesson(int groupId, LocalDateTime dateTime) {
+        LocalDate day = dateTime.toLocalDate();
+        String query = "SELECT id, group_id, lesson_date, homework_total_score FROM lessons " +
+                "WHERE group_id = ? AND lesson_date >= ? AND lesson_date < ? ORDER BY lesson_date, id LIMIT 1";
+        try {
+            Connection conn = DatabaseManager.getConnection();
+            try (PreparedStatement pstmt = conn.prepareStatement(query)) {
+                pstmt.setInt(1, groupId);
+                pstmt.setString(2, day.toString());
+                pstmt.setString(3, day.plusDays(1).toString());
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    if (rs.next()) {
+                        LocalDateTime at = LocalDateTime.parse(rs.getString("lesson_date"));
+                        return new Lesson(rs.getInt("id"), rs.getInt("group_id"), at, at.toString(), rs.getDouble("homework_total_score"));
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return createLesson(groupId, dateTime);
+    }
+
+    /** Jadvaldan yaratish natijasi: nechta guruh, nechta yangi dars va nechta mavjud kun o'tkazib yuborildi */
+    public record GenerationResult(int groups, int created, int skipped) {}
+
+    /**
+     * Jadval bo'yicha [from, to] oralig'idagi darslarni yaratish (groupId null bo'lsa barcha guruhlar).
+     * Har bir guruh bitta tranzaksiyada yoziladi; o'sha kuni darsi bor bo'lsa, u kun o'tkazib yuboriladi.
+     * Davomat va uy vazifasi ro'yxatlari oldindan to'ldiriladi, davomat esa belgilanmagan (NULL) holda qoladi.
+     */
+    public static GenerationResult generateLessons(LocalDate from, LocalDate to, Integer groupId) {
+        Map<Integer, List<LocalDateTime>> byGroup = new TreeMap<>();
+        for (ScheduleIndex.Occurrence o : ScheduleService.getIndex().between(from.atStartOfDay(), to.plusDays(1).atStartOfDay())) {
+            int gid = o.schedule().getGroupId();
+            if (groupId != null && gid != groupId) continue;
+            byGroup.computeIfAbsent(gid, k -> new ArrayList<>()).add(o.at());
+        }
+
+        int created = 0;
+        int skipped = 0;
+        Connection conn = null;
+        try {
+            conn = DatabaseManager.getConnection();
+            for (Map.Entry<Integer, List<LocalDateTime>> entry : byGroup.entrySet()) {
+                int gid = entry.getKey();
+                conn.setAutoCommit(false);
+                try {
+                    Set<LocalDate> existing = new HashSet<>();
+                    try (PreparedStatement pstmt = conn.prepareStatement(
+                            "SELECT DISTINCT DATE(lesson_date) FROM lessons WHERE group_id = ? AND lesson_date >= ? AND lesson_date < ?")) {
+                        pstmt.setInt(1, gid);
+                        pstmt.setString(2, from.toString());
+                        pstmt.setString(3, to.plusDays(1).toString());
+                        try (ResultSet rs = pstmt.executeQuery()) {
+                            while (rs.next()) existing.add(LocalDate.parse(rs.getString(1)));
+                        }
+                    }
+
+                    List<Integer> roster = new ArrayList<>();
+                    try (PreparedStatement pstmt = conn.prepareStatement("SELECT student_id FROM student_groups WHERE group_id = ?")) {
+                        pstmt.setInt(1, gid);
+                        try (ResultSet rs = pstmt.executeQuery()) {
+                            while (rs.next()) roster.add(rs.getInt(1));
+                        }
+                    }
+
+                    try (PreparedStatement lessonStmt = conn.prepareStatement(
+                                 "INSERT INTO lessons (group_id, lesson_date) VALUES (?, ?)", Statement.RETURN_GENERATED_KEYS);
+                         PreparedStatement attStmt = conn.prepareStatement(
+                                 "INSERT INTO attendance (lesson_id, student_id, present) VALUES (?, ?, NULL)");
+                         PreparedStatement hwStmt = conn.prepareStatement(
+                                 "INSERT INTO homeworks (lesson_id, student_id) VALUES (?, ?)")) {
+                        for (LocalDateTime at : entry.getValue()) {
+                            // Bir kunda bir nechta jadval bo'lsa ham, guruhga kuniga bitta dars
+                            if (!existing.add(at.toLocalDate())) {
+                                skipped++;
+                                continue;
+                            }
+                            lessonStmt.setInt(1, gid);
+                            lessonStmt.setString(2, at.toString());
+                            lessonStmt.executeUpdate();
+                            int lessonId;
+                            try (ResultSet keys = lessonStmt.getGeneratedKeys()) {
+                                if (!keys.next()) continue;
+                                lessonId = keys.getInt(1);
+                            }
+                            for (int studentId : roster) {
+                                attStmt.setInt(1, lessonId);
+                                attStmt.setInt(2, studentId);
+                                attStmt.addBatch();
+                                hwStmt.setInt(1, lessonId);
+                                hwStmt.setInt(2, studentId);
+                                hwStmt.addBatch();
+                            }
+                            created++;
+                        }
+                        attStmt.executeBatch();
+                        hwStmt.executeBatch();
+                    }
+                    conn.commit();
+                } catch (SQLException e) {
+                    conn.rollback();
+                    throw e;
+                } finally {
+                    conn.setAutoCommit(true);
+                }
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return new GenerationResult(byGroup.size(), created, skipped);
+    }
+
     /**
      * Dars uchun davomat ma'lumotlarini olish
      */
@@ -300,7 +425,15 @@ public class LessonService {
 
             // cleanupEmptySessions(conn); // Vaqtincha o'chirildi
 
+            // Haftalik va oylik yig'indilarni yangilash
+            RollupService.refreshLessonBuckets(conn, lesson.getGroupId(), lesson.getLessonDate().toLocalDate());
+            // Test va savol sessiyalari bo'yicha ball taqsimotini yangilash
+            DistributionService.refreshLesson(conn, lesson.getId());
+            // Xavf ostidagi o'quvchilar ro'yxatini yangilash
+            List<RiskService.RiskEntry> riskEntries = RiskService.refreshGroup(conn, lesson.getGroupId());
+
             conn.commit();
+            RiskService.publishGroup(lesson.getGroupId(), riskEntries);
         } catch (SQLException e) {
             if (conn != null) {
                 try { conn.rollback(); } catch (SQLException ex) { ex.printStackTrace(); }
@@ -405,58 +538,49 @@ public class LessonService {
     }
 
     public static void deleteTestSession(int sessionId) {
-        try {
-            Connection conn = DatabaseManager.getConnection();
-            conn.setAutoCommit(false);
-            try (PreparedStatement resStmt = conn.prepareStatement("DELETE FROM test_results WHERE test_session_id = ?");
-                 PreparedStatement sesStmt = conn.prepareStatement("DELETE FROM test_sessions WHERE id = ?")) {
-                resStmt.setInt(1, sessionId);
-                resStmt.executeUpdate();
-                sesStmt.setInt(1, sessionId);
-                sesStmt.executeUpdate();
-            }
-            conn.commit();
-            conn.setAutoCommit(true);
-        } catch (SQLException e) { e.printStackTrace(); }
+        deleteSession("test", sessionId);
     }
 
     public static void deleteQuestionSession(int sessionId) {
-        try {
-            Connection conn = DatabaseManager.getConnection();
-            conn.setAutoCommit(false);
-            try (PreparedStatement resStmt = conn.prepareStatement("DELETE FROM question_results WHERE question_session_id = ?");
-                 PreparedStatement sesStmt = conn.prepareStatement("DELETE FROM question_sessions WHERE id = ?")) {
-                resStmt.setInt(1, sessionId);
-                resStmt.executeUpdate();
-                sesStmt.setInt(1, sessionId);
-                sesStmt.executeUpdate();
-            }
-            conn.commit();
-            conn.setAutoCommit(true);
-        } catch (SQLException e) { e.printStackTrace(); }
+        deleteSession("question", sessionId);
     }
 
-    public static void deleteLesson(int lessonId) {
+    /**
+     * Deletes a test or question session with its results. The lesson's rollups and the group's
+     * risk scores are refreshed in the same transaction, as in {@link #saveAllData}.
+     */
+    private static void deleteSession(String kind, int sessionId) {
         Connection conn = null;
         try {
             conn = DatabaseManager.getConnection();
             conn.setAutoCommit(false);
-            String[] queries = {
-                "DELETE FROM test_results WHERE test_session_id IN (SELECT id FROM test_sessions WHERE lesson_id = ?)",
-                "DELETE FROM test_sessions WHERE lesson_id = ?",
-                "DELETE FROM question_results WHERE question_session_id IN (SELECT id FROM question_sessions WHERE lesson_id = ?)",
-                "DELETE FROM question_sessions WHERE lesson_id = ?",
-                "DELETE FROM attendance WHERE lesson_id = ?",
-                "DELETE FROM homeworks WHERE lesson_id = ?",
-                "DELETE FROM lessons WHERE id = ?"
-            };
-            for (String q : queries) {
-                try (PreparedStatement pstmt = conn.prepareStatement(q)) {
-                    pstmt.setInt(1, lessonId);
-                    pstmt.executeUpdate();
+
+            int groupId;
+            LocalDate lessonDate;
+            String lessonSql = "SELECT l.group_id, l.lesson_date FROM " + kind + "_sessions s JOIN lessons l ON l.id = s.lesson_id WHERE s.id = ?";
+            try (PreparedStatement pstmt = conn.prepareStatement(lessonSql)) {
+                pstmt.setInt(1, sessionId);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    if (!rs.next()) return;
+                    groupId = rs.getInt("group_id");
+                    lessonDate = LocalDateTime.parse(rs.getString("lesson_date")).toLocalDate();
                 }
             }
+
+            try (PreparedStatement resStmt = conn.prepareStatement("DELETE FROM " + kind + "_results WHERE " + kind + "_session_id = ?");
+                 PreparedStatement sesStmt = conn.prepareStatement("DELETE FROM " + kind + "_sessions WHERE id = ?")) {
+                resStmt.setInt(1, sessionId);
+                resStmt.executeUpdate();
+                sesStmt.setInt(1, sessionId);
+                sesStmt.executeUpdate();
+            }
+            DistributionService.deleteSessionSketch(conn, DistributionService.Source.valueOf(kind.toUpperCase()), sessionId);
+
+            RollupService.refreshLessonBuckets(conn, groupId, lessonDate);
+            List<RiskService.RiskEntry> riskEntries = RiskService.refreshGroup(conn, groupId);
+
             conn.commit();
+            RiskService.publishGroup(groupId, riskEntries);
         } catch (SQLException e) {
             if (conn != null) {
                 try { conn.rollback(); } catch (SQLException ex) { ex.printStackTrace(); }
@@ -468,4 +592,13 @@ public class LessonService {
             }
         }
     }
+
+    /** Deletes the lesson with its attendance, homework, tests and question sessions. */
+    public static void deleteLesson(int lessonId) {
+        try {
+            CascadeService.delete("lessons", lessonId);
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
 }
@@ -0,0 +1,432 @@
+package org.algo.mentor.services;
+
+import org.algo.mentor.config.AppDirectoryManager;
+import org.algo.mentor.config.DatabaseManager;
+import org.algo.mentor.config.StorageProfile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the open database in shape while the app runs. Every run executes {@code PRAGMA optimize};
+ * {@code ANALYZE} runs once {@code maintenance.analyze_after_changes} rows were changed since the
+ * last one (counted with the {@link ChangeFeed} sequence). Free pages are given back with
+ * {@code incremental_vacuum} in small steps, and only when nothing was written since the previous
+ * run, so a lesson being saved never waits for it; a file that is not in
+ * {@code auto_vacuum = INCREMENTAL} yet is switched by {@code DatabaseManager} when it is opened,
+ * never from here. {@code quick_check} runs weekly; a
+ * failure is posted to the {@link NotificationCenter}. Rows whose parent is gone are swept with
+ * {@link CascadeService#sweepOrphans(int)} on the first run and weekly after that.
+ * <p>
+ * Each run writes a {@link HealthReport} to {@value #REPORT_FILE} in the app folder.
+ */
+public class MaintenanceService {
+
+    private static final Logger log = LoggerFactory.getLogger(MaintenanceService.class);
+
+    private static final String SETTINGS_PREFIX = "maintenance.";
+    private static final String ANALYZED_SEQ_KEY = SETTINGS_PREFIX + "analyzed_seq";
+    private static final String LAST_ANALYZE_KEY = SETTINGS_PREFIX + "last_analyze";
+    private static final String LAST_VACUUM_KEY = SETTINGS_PREFIX + "last_vacuum";
+    private static final String LAST_CHECK_KEY = SETTINGS_PREFIX + "last_quick_check";
+    private static final String CHECK_RESULT_KEY = SETTINGS_PREFIX + "quick_check_result";
+    private static final String LAST_SWEEP_KEY = SETTINGS_PREFIX + "last_orphan_sweep";
+    public static final String REPORT_FILE = "health-report.txt";
+    public static final int DEFAULT_INTERVAL_MINUTES = 30;
+    public static final int DEFAULT_ANALYZE_AFTER_CHANGES = 5000;
+    public static final int DEFAULT_QUICK_CHECK_DAYS = 7;
+    public static final int DEFAULT_ORPHAN_SWEEP_DAYS = 7;
+    /** Free pages are left alone below this many, and below this share of the file. */
+    private static final int MIN_FREE_PAGES = 256;
+    private static final double MIN_FREE_SHARE = 0.05;
+    private static final int VACUUM_STEP_PAGES = 512;
+    private static final int MAX_VACUUM_STEPS = 40;
+    /** Rows sampled per index by ANALYZE, which keeps it quick on a large file. */
+    private static final int ANALYSIS_LIMIT = 1000;
+    private static final DateTimeFormatter TIMESTAMP = DateTimeFormatter.ISO_LOCAL_DATE_TIME;
+
+    /**
+     * Lookups the screens run most, with a sample id. Their query plans show which indexes the
+     * app actually uses and which tables it scans.
+     */
+    private static final Map<String, String> SAMPLE_QUERIES = sampleQueries();
+
+    public record TableInfo(String name, long rows, long bytes) {}
+
+    /** {@code stat} is the sqlite_stat1 entry (rows, then rows per key prefix) once ANALYZE ran. */
+    public record IndexInfo(String name, String table, long bytes, String stat, List<String> usedBy) {}
+
+    /** One sample query and how SQLite runs it: {@code SEARCH ... USING INDEX} or {@code SCAN}. */
+    public record QueryPlan(String name, String plan) {
+        public boolean isScan() {
+            return plan.startsWith("SCAN");
+        }
+    }
+
+    public record HealthReport(LocalDateTime generatedAt, Path file, long fileBytes, long walBytes,
+                               int pageSize, long pageCount, long freePages, String autoVacuum,
+                               String journalMode, StorageProfile profile, List<TableInfo> tables,
+                               List<IndexInfo> indexes, List<QueryPlan> queries, String quickCheck,
+                               String lastQuickCheck, String lastAnalyze, String lastVacuum,
+                               List<CascadeService.Orphans> orphans, String lastOrphanSweep) {
+
+        public double freeShare() {
+            return pageCount == 0 ? 0 : (double) freePages / pageCount;
+        }
+
+        public String format() {
+            StringBuilder sb = new StringBuilder();
+            sb.append("Ma'lumotlar bazasi holati: ").append(generatedAt.format(DateTimeFormatter.ofPattern("dd.MM.yyyy HH:mm"))).append('\n');
+            sb.append(file).append('\n').append('\n');
+            sb.append(String.format("Fayl hajmi:        %s (WAL %s)%n", size(fileBytes), size(walBytes)));
+            sb.append(String.format("Sahifalar:         %d x %d bayt, bo'sh: %d (%.1f%%)%n", pageCount, pageSize, freePages, freeShare() * 100));
+            sb.append(String.format("auto_vacuum:       %s%n", autoVacuum));
+            sb.append(String.format("journal_mode:      %s (profil %s)%n", journalMode, profile));
+            sb.append(String.format("quick_check:       %s (%s)%n", quickCheck, orNever(lastQuickCheck)));
+            sb.append(String.format("Oxirgi ANALYZE:    %s%n", orNever(lastAnalyze)));
+            sb.append(String.format("Oxirgi VACUUM:     %s%n", orNever(lastVacuum)));
+            sb.append(String.format("Yetim yozuvlar:    %s (tozalangan: %s)%n",
+                    orphans.isEmpty() ? "yo'q" : orphans.stream().mapToLong(CascadeService.Orphans::rows).sum(), orNever(lastOrphanSweep)));
+            for (CascadeService.Orphans o : orphans) {
+                sb.append(String.format("  %s.%s -> %s: %d%n", o.edge().child(), o.edge().column(), o.edge().parent(), o.rows()));
+            }
+
+            sb.append('\n').append(String.format("%-22s %12s %12s%n", "Jadval", "Qatorlar", "Hajm"));
+            for (TableInfo t : tables) {
+                sb.append(String.format("%-22s %12d %12s%n", t.name(), t.rows(), size(t.bytes())));
+            }
+
+            sb.append('\n').append(String.format("%-34s %10s  %-18s %s%n", "Indeks", "Hajm", "sqlite_stat1", "Ishlatadi"));
+            for (IndexInfo i : indexes) {
+                String users = i.usedBy().isEmpty() ? "-" : String.join(", ", i.usedBy());
+                sb.append(String.format("%-34s %10s  %-18s %s%n", i.name(), size(i.bytes()),
+                        i.stat() == null ? "-" : i.stat(), users));
+            }
+
+            sb.append('\n').append("So'rovlar rejasi:").append('\n');
+            for (QueryPlan q : queries) {
+                sb.append(String.format("  %-26s %s%n", q.name(), q.plan()));
+            }
+            return sb.toString();
+        }
+
+        private static String orNever(String timestamp) {
+            return timestamp == null ? "hali bo'lmagan" : timestamp;
+        }
+
+        private static String size(long bytes) {
+            if (bytes < 1024) return bytes + " B";
+            if (bytes < 1024 * 1024) return String.format("%.1f KB", bytes / 1024.0);
+            return String.format("%.1f MB", bytes / 1024.0 / 1024.0);
+        }
+    }
+
+    private static final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "database-maintenance");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private static ScheduledFuture<?> pending;
+    /** The change sequence seen by the previous run; -1 until the first run. */
+    private static long lastSeenSeq = -1;
+    private static HealthReport lastReport;
+
+    public static synchronized void start() {
+        if (pending != null) pending.cancel(false);
+        lastSeenSeq = -1;
+        long interval = Math.max(1, SettingsService.getInt(SETTINGS_PREFIX + "interval_minutes", DEFAULT_INTERVAL_MINUTES));
+        pending = executor.scheduleWithFixedDelay(MaintenanceService::runScheduled, interval, interval, TimeUnit.MINUTES);
+    }
+
+    public static synchronized void stop() {
+        if (pending != null) pending.cancel(false);
+        pending = null;
+    }
+
+    public static synchronized HealthReport getLastReport() {
+        return lastReport;
+    }
+
+    /**
+     * Runs everything now, from the diagnostics screen: ANALYZE if anything changed since the
+     * last one, the vacuum steps and the integrity check regardless of the schedule.
+     */
+    public static synchronized HealthReport runNow() throws SQLException {
+        return run(true);
+    }
+
+    private static synchronized void runScheduled() {
+        try {
+            run(false);
+        } catch (Exception e) {
+            log.error("Database maintenance failed", e);
+        }
+    }
+
+    private static HealthReport run(boolean forced) throws SQLException {
+        long seq = ChangeFeed.currentSequence();
+        boolean idle = forced || seq == lastSeenSeq;
+        lastSeenSeq = seq;
+
+        Connection conn = DatabaseManager.getConnection();
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("PRAGMA optimize");
+        }
+
+        long analyzedSeq = SettingsService.getLong(ANALYZED_SEQ_KEY, 0);
+        int threshold = Math.max(1, SettingsService.getInt(SETTINGS_PREFIX + "analyze_after_changes", DEFAULT_ANALYZE_AFTER_CHANGES));
+        if (!hasStatistics(conn) || seq - analyzedSeq >= threshold || (forced && seq != analyzedSeq)) {
+            analyze(conn, seq);
+        }
+
+        int sweepDays = Math.max(1, SettingsService.getInt(SETTINGS_PREFIX + "orphan_sweep_days", DEFAULT_ORPHAN_SWEEP_DAYS));
+        LocalDateTime lastSweep = parse(SettingsService.get(LAST_SWEEP_KEY, null));
+        if (forced || lastSweep == null || lastSweep.plusDays(sweepDays).isBefore(LocalDateTime.now())) {
+            CascadeService.sweepOrphans(CascadeService.DEFAULT_BATCH_SIZE);
+            SettingsService.put(LAST_SWEEP_KEY, now());
+        }
+
+        if (idle && pragmaInt(conn, "auto_vacuum") == 2) {
+            vacuumFreePages(conn, forced);
+        }
+
+        int checkDays = Math.max(1, SettingsService.getInt(SETTINGS_PREFIX + "quick_check_days", DEFAULT_QUICK_CHECK_DAYS));
+        LocalDateTime lastCheck = parse(SettingsService.get(LAST_CHECK_KEY, null));
+        if (forced || lastCheck == null || lastCheck.plusDays(checkDays).isBefore(LocalDateTime.now())) {
+            quickCheck(conn);
+        }
+
+        HealthReport report = buildReport(conn);
+        lastReport = report;
+        writeReport(report);
+        return report;
+    }
+
+    private static void analyze(Connection conn, long seq) throws SQLException {
+        long t = System.currentTimeMillis();
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("PRAGMA analysis_limit = " + ANALYSIS_LIMIT);
+            stmt.execute("ANALYZE");
+        }
+        SettingsService.put(ANALYZED_SEQ_KEY, seq);
+        SettingsService.put(LAST_ANALYZE_KEY, now());
+        log.info("ANALYZE took {} ms", System.currentTimeMillis() - t);
+    }
+
+    /** Frees pages in steps; a scheduled run stops as soon as something else was written. */
+    private static void vacuumFreePages(Connection conn, boolean forced) throws SQLException {
+        long free = pragmaInt(conn, "freelist_count");
+        long pages = pragmaInt(conn, "page_count");
+        if (free == 0 || (!forced && (free < MIN_FREE_PAGES || free < pages * MIN_FREE_SHARE))) return;
+
+        long seq = ChangeFeed.currentSequence();
+        int steps = 0;
+        try (Statement stmt = conn.createStatement()) {
+            while (free > 0 && steps < MAX_VACUUM_STEPS) {
+                // The pragma frees one page per step; execute() would stop after the first
+                stmt.executeUpdate("PRAGMA incremental_vacuum(" + VACUUM_STEP_PAGES + ")");
+                free = pragmaInt(conn, "freelist_count");
+                steps++;
+                if (!forced && ChangeFeed.currentSequence() != seq) break;
+            }
+        }
+        try (Statement stmt = conn.createStatement()) {
+            // Shrinks the WAL file, which grew by the pages the vacuum moved
+            stmt.execute("PRAGMA wal_checkpoint(TRUNCATE)");
+        }
+        SettingsService.put(LAST_VACUUM_KEY, now());
+        log.info("Incremental vacuum: {} steps, {} free pages left", steps, free);
+    }
+
+    private static void quickCheck(Connection conn) throws SQLException {
+        List<String> problems = new ArrayList<>();
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("PRAGMA quick_check")) {
+            while (rs.next()) {
+                String line = rs.getString(1);
+                if (!"ok".equals(line)) problems.add(line);
+            }
+        }
+        String result = problems.isEmpty() ? "ok" : String.join("; ", problems);
+        SettingsService.put(LAST_CHECK_KEY, now());
+        SettingsService.put(CHECK_RESULT_KEY, result);
+        if (problems.isEmpty()) {
+            log.info("quick_check: ok");
+        } else {
+            log.error("quick_check found problems: {}", result);
+            NotificationCenter.post(new NotificationCenter.Notification(NotificationCenter.Kind.INFO,
+                    "Ma'lumotlar bazasida xatolik",
+                    "Tekshiruv " + problems.size() + " ta muammo topdi. Zaxira nusxadan tiklashni ko'rib chiqing.",
+                    LocalDateTime.now()));
+        }
+    }
+
+    /** Builds the report without running any maintenance. */
+    public static HealthReport buildReport() throws SQLException {
+        return buildReport(DatabaseManager.getConnection());
+    }
+
+    private static HealthReport buildReport(Connection conn) throws SQLException {
+        Path file = AppDirectoryManager.getDatabasePath();
+        Path wal = file.resolveSibling(file.getFileName() + "-wal");
+        long fileBytes = sizeOf(file);
+        long walBytes = sizeOf(wal);
+
+        Map<String, Long> bytes = objectSizes(conn);
+        Map<String, String> stats = new HashMap<>();
+        if (hasStatistics(conn)) {
+            try (Statement stmt = conn.createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT idx, stat FROM sqlite_stat1 WHERE idx IS NOT NULL")) {
+                while (rs.next()) stats.put(rs.getString(1), rs.getString(2));
+            }
+        }
+
+        List<QueryPlan> queries = new ArrayList<>();
+        for (Map.Entry<String, String> q : SAMPLE_QUERIES.entrySet()) {
+            queries.add(new QueryPlan(q.getKey(), plan(conn, q.getValue())));
+        }
+
+        List<TableInfo> tables = new ArrayList<>();
+        List<IndexInfo> indexes = new ArrayList<>();
+        String query = "SELECT type, name, tbl_name FROM sqlite_master WHERE type IN ('table', 'index') " +
+                "AND (name NOT LIKE 'sqlite_%' OR name LIKE 'sqlite_autoindex_%') ORDER BY tbl_name, type DESC, name";
+        List<String[]> objects = new ArrayList<>();
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery(query)) {
+            while (rs.next()) objects.add(new String[]{rs.getString(1), rs.getString(2), rs.getString(3)});
+        }
+        for (String[] o : objects) {
+            if (o[0].equals("table")) {
+                long rows;
+                try (Statement stmt = conn.createStatement();
+                     ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM \"" + o[1] + "\"")) {
+                    rows = rs.next() ? rs.getLong(1) : 0;
+                }
+                tables.add(new TableInfo(o[1], rows, bytes.getOrDefault(o[1], 0L)));
+            } else {
+                List<String> usedBy = new ArrayList<>();
+                for (QueryPlan q : queries) {
+                    if (q.plan().contains("INDEX " + o[1] + " ") || q.plan().endsWith("INDEX " + o[1])) usedBy.add(q.name());
+                }
+                indexes.add(new IndexInfo(o[1], o[2], bytes.getOrDefault(o[1], 0L), stats.get(o[1]), usedBy));
+            }
+        }
+
+        String journalMode;
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("PRAGMA journal_mode")) {
+            journalMode = rs.next() ? rs.getString(1) : "?";
+        }
+        int autoVacuum = (int) pragmaInt(conn, "auto_vacuum");
+
+        return new HealthReport(LocalDateTime.now(), file, fileBytes, walBytes,
+                (int) pragmaInt(conn, "page_size"), pragmaInt(conn, "page_count"), pragmaInt(conn, "freelist_count"),
+                switch (autoVacuum) { case 1 -> "FULL"; case 2 -> "INCREMENTAL"; default -> "NONE"; },
+                journalMode, StorageService.getActive(), tables, indexes, queries,
+                SettingsService.get(CHECK_RESULT_KEY, "-"), SettingsService.get(LAST_CHECK_KEY, null),
+                SettingsService.get(LAST_ANALYZE_KEY, null), SettingsService.get(LAST_VACUUM_KEY, null),
+                CascadeService.findOrphans(), SettingsService.get(LAST_SWEEP_KEY, null));
+    }
+
+    private static void writeReport(HealthReport report) {
+        try {
+            Files.writeString(AppDirectoryManager.getAppDirectory().resolve(REPORT_FILE), report.format());
+        } catch (IOException e) {
+            log.warn("Could not write {}", REPORT_FILE, e);
+        }
+    }
+
+    /** Bytes used per table and index, from the dbstat virtual table. */
+    private static Map<String, Long> objectSizes(Connection conn) {
+        Map<String, Long> sizes = new HashMap<>();
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT name, SUM(pgsize) FROM dbstat GROUP BY name")) {
+            while (rs.next()) sizes.put(rs.getString(1), rs.getLong(2));
+        } catch (SQLException e) {
+            // Builds of SQLite without dbstat
+            log.debug("dbstat not available: {}", e.getMessage());
+        }
+        return sizes;
+    }
+
+    /** The plan of a query as one line, each step separated by " / ". */
+    private static String plan(Connection conn, String sql) {
+        List<String> steps = new ArrayList<>();
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("EXPLAIN QUERY PLAN " + sql)) {
+            while (rs.next()) steps.add(rs.getString("detail"));
+        } catch (SQLException e) {
+            return "xato: " + e.getMessage();
+        }
+        return String.join(" / ", steps);
+    }
+
+    private static boolean hasStatistics(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT 1 FROM sqlite_master WHERE name = 'sqlite_stat1'")) {
+            return rs.next();
+        }
+    }
+
+    private static long pragmaInt(Connection conn, String pragma) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("PRAGMA " + pragma)) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+
+    private static long sizeOf(Path file) {
+        try {
+            return Files.exists(file) ? Files.size(file) : 0;
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private static String now() {
+        return LocalDateTime.now().withNano(0).format(TIMESTAMP);
+    }
+
+    private static LocalDateTime parse(String timestamp) {
+        if (timestamp == null) return null;
+        try {
+            return LocalDateTime.parse(timestamp, TIMESTAMP);
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    private static Map<String, String> sampleQueries() {
+        Map<String, String> queries = new LinkedHashMap<>();
+        queries.put("guruh darslari", "SELECT id FROM lessons WHERE group_id = 1 AND lesson_date >= '2026-01-01'");
+        queries.put("guruh a'zolari", "SELECT student_id FROM student_groups WHERE group_id = 1");
+        queries.put("dars davomati", "SELECT * FROM attendance WHERE lesson_id = 1");
+        queries.put("dars uy vazifalari", "SELECT * FROM homeworks WHERE lesson_id = 1");
+        queries.put("dars testlari", "SELECT * FROM test_sessions WHERE lesson_id = 1");
+        queries.put("test natijalari", "SELECT * FROM test_results WHERE test_session_id = 1");
+        queries.put("o'quvchi to'lovlari", "SELECT * FROM payments WHERE student_id = 1");
+        queries.put("oylik to'lovlar", "SELECT * FROM monthly_payments WHERE student_id = 1 AND year = 2026");
+        queries.put("o'zgarishlar", "SELECT * FROM change_log WHERE seq > 1 ORDER BY seq");
+        return queries;
+    }
+}
@@ -0,0 +1,54 @@
+package org.algo.mentor.services;
+
+import javafx.application.Platform;
+import javafx.beans.property.IntegerProperty;
+import javafx.beans.property.ReadOnlyIntegerProperty;
+import javafx.beans.property.SimpleIntegerProperty;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+
+import java.time.LocalDateTime;
+
+/**
+ * In-app inbox for reminders and other background events. {@link #post} may be called from
+ * any thread; the list and the unread counter are only touched on the FX thread.
+ */
+public class NotificationCenter {
+
+    private static final int MAX_NOTIFICATIONS = 100;
+
+    public enum Kind { LESSON, PAYMENT, INFO }
+
+    public record Notification(Kind kind, String title, String message, LocalDateTime createdAt) {}
+
+    private static final ObservableList<Notification> notifications = FXCollections.observableArrayList();
+    private static final IntegerProperty unreadCount = new SimpleIntegerProperty(0);
+
+    public static void post(Notification notification) {
+        Platform.runLater(() -> {
+            notifications.add(0, notification);
+            if (notifications.size() > MAX_NOTIFICATIONS) {
+                notifications.remove(MAX_NOTIFICATIONS, notifications.size());
+            }
+            unreadCount.set(Math.min(unreadCount.get() + 1, notifications.size()));
+        });
+    }
+
+    /** Newest first. */
+    public static ObservableList<Notification> getNotifications() {
+        return notifications;
+    }
+
+    public static ReadOnlyIntegerProperty unreadCountProperty() {
+        return unreadCount;
+    }
+
+    public static void markAllRead() {
+        unreadCount.set(0);
+    }
+
+    public static void clear() {
+        notifications.clear();
+        unreadCount.set(0);
+    }
+}
@@ -245,6 +245,7 @@ public class PaymentService {
                 pstmt.executeUpdate();
                 pstmt.close();
             }
+            RiskService.refreshStudent(studentId);
         } catch (SQLException e) {
             e.printStackTrace();
         }
@@ -292,4 +293,34 @@ public class PaymentService {
         }
         return keys;
     }
+
+    /**
+     * Names of students who are on the {@code dueDate.getDayOfMonth()} payment cycle (they have
+     * paid on that day in an earlier month) but have no mark for it in {@code dueDate}'s month yet.
+     */
+    public static java.util.List<String> getStudentsDueOn(LocalDate dueDate) {
+        java.util.List<String> names = new java.util.ArrayList<>();
+        String query = "SELECT s.first_name || ' ' || s.last_name AS full_name FROM students s " +
+                "WHERE EXISTS (SELECT 1 FROM monthly_payments mp WHERE mp.student_id = s.id AND mp.payment_day = ? " +
+                "              AND mp.year * 12 + mp.month < ?) " +
+                "AND NOT EXISTS (SELECT 1 FROM monthly_payments mp WHERE mp.student_id = s.id AND mp.payment_day = ? " +
+                "              AND mp.year = ? AND mp.month = ?) " +
+                "ORDER BY full_name";
+        try {
+            Connection conn = DatabaseManager.getConnection();
+            try (PreparedStatement pstmt = conn.prepareStatement(query)) {
+                pstmt.setInt(1, dueDate.getDayOfMonth());
+                pstmt.setInt(2, dueDate.getYear() * 12 + dueDate.getMonthValue());
+                pstmt.setInt(3, dueDate.getDayOfMonth());
+                pstmt.setInt(4, dueDate.getYear());
+                pstmt.setInt(5, dueDate.getMonthValue());
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) names.add(rs.getString("full_name"));
+                }
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return names;
+    }
 }
@@ -1,49 +1,99 @@
 package org.algo.mentor.services;
 
-import com.itextpdf.io.image.ImageDataFactory;
+import com.itextpdf.kernel.colors.Color;
 import com.itextpdf.kernel.colors.ColorConstants;
 import com.itextpdf.kernel.colors.DeviceRgb;
 import com.itextpdf.kernel.pdf.PdfDocument;
+import com.itextpdf.kernel.pdf.PdfReader;
 import com.itextpdf.kernel.pdf.PdfWriter;
+import com.itextpdf.kernel.utils.PdfMerger;
 import com.itextpdf.layout.Document;
+import com.itextpdf.layout.Style;
 import com.itextpdf.layout.element.*;
 import com.itextpdf.layout.properties.AreaBreakType;
 import com.itextpdf.layout.properties.TextAlignment;
 import com.itextpdf.layout.properties.UnitValue;
-import javafx.embed.swing.SwingFXUtils;
-import javafx.scene.image.WritableImage;
 import org.algo.mentor.models.Schedule;
 import org.algo.mentor.models.Student;
-import org.algo.mentor.services.PaymentService;
+import org.algo.mentor.util.PdfCharts;
 
-import javax.imageio.ImageIO;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class PdfExportService {
 
-    public static void exportStudentReport(
-            Student student,
-            List<ReportService.LessonScoreRow> attendanceDetails,
-            String rank,
-            String avgScore,
-            String attRate,
-            WritableImage attChart,
-            WritableImage perfChart,
-            LocalDate dateFrom,
-            LocalDate dateTo,
-            File file
-    ) throws IOException {
-        PdfWriter writer = new PdfWriter(file);
-        PdfDocument pdf = new PdfDocument(writer);
-        Document document = new Document(pdf);
+    /**
+     * Personal statistics PDF. Charts are drawn as vector paths from the card data, so this
+     * needs neither the FX thread nor the database and is safe to call from worker threads.
+     */
+    public static void exportReportCard(ReportCardService.ReportCard card, File file) throws IOException {
+        try (Document document = new Document(new PdfDocument(new PdfWriter(file)))) {
+            PdfDocument pdf = document.getPdfDocument();
+            addStudentReportHeader(document, card.student(), String.valueOf(card.rank()),
+                    String.format("%.1f%%", card.avgScore()), String.format("%.0f%%", card.attendanceRate()),
+                    card.fromDate(), card.toDate());
+
+            document.add(new Paragraph("Davomat taqsimoti").setTextAlignment(TextAlignment.CENTER).setMarginBottom(5).setMarginTop(10));
+            Image attImg = PdfCharts.pieChart(pdf, 360, 140,
+                    new String[]{"Kelgan (" + card.presentCount() + ")", "Kelmagan (" + card.absentCount() + ")"},
+                    new double[]{card.presentCount(), card.absentCount()},
+                    new Color[]{PdfCharts.GREEN, PdfCharts.RED});
+            attImg.setHorizontalAlignment(com.itextpdf.layout.properties.HorizontalAlignment.CENTER);
+            document.add(attImg);
+
+            document.add(new Paragraph("\nO'zlashtirish grafigi").setTextAlignment(TextAlignment.CENTER).setMarginBottom(5).setMarginTop(15));
+            List<String> labels = card.performance().stream().map(ReportCardService.ChartPoint::label).toList();
+            Image perfImg = PdfCharts.lineChart(pdf, 480, 220, labels, List.of(
+                    new PdfCharts.Series("O'quvchi", card.performance().stream().map(ReportCardService.ChartPoint::score).toList(), PdfCharts.BLUE),
+                    new PdfCharts.Series("Jami", card.performance().stream().map(ReportCardService.ChartPoint::total).toList(), PdfCharts.ORANGE)));
+            perfImg.setHorizontalAlignment(com.itextpdf.layout.properties.HorizontalAlignment.CENTER);
+            document.add(perfImg);
+
+            if (!card.monthlyAttendance().isEmpty()) {
+                document.add(new Paragraph("\nOylar bo'yicha davomat").setTextAlignment(TextAlignment.CENTER).setMarginBottom(5).setMarginTop(15));
+                List<String> months = card.monthlyAttendance().stream().map(ReportCardService.AttendancePoint::label).toList();
+                Image monthImg = PdfCharts.barChart(pdf, 480, 180, months, List.of(
+                        new PdfCharts.Series("Kelgan", card.monthlyAttendance().stream().map(p -> (double) p.present()).toList(), PdfCharts.GREEN),
+                        new PdfCharts.Series("Kelmagan", card.monthlyAttendance().stream().map(p -> (double) p.absent()).toList(), PdfCharts.RED)));
+                monthImg.setHorizontalAlignment(com.itextpdf.layout.properties.HorizontalAlignment.CENTER);
+                document.add(monthImg);
+            }
 
+            addLessonDetailsTable(document, card.rows());
+        }
+    }
+
+    /** Concatenates PDFs in order into {@code target}. */
+    public static void mergePdfs(List<File> parts, File target) throws IOException {
+        try (PdfDocument merged = new PdfDocument(new PdfWriter(target))) {
+            PdfMerger merger = new PdfMerger(merged);
+            for (File part : parts) {
+                try (PdfDocument source = new PdfDocument(new PdfReader(part))) {
+                    merger.merge(source, 1, source.getNumberOfPages());
+                }
+            }
+        }
+    }
+
+    private static void addStudentReportHeader(Document document, Student student, String rank, String avgScore,
+                                               String attRate, LocalDate dateFrom, LocalDate dateTo) {
         // Header
         document.add(new Paragraph("Talaba Shaxsiy Statistikasi")
                 .setFontSize(20)
@@ -74,21 +124,9 @@ public class PdfExportService {
 
         // Charts
         document.add(new Paragraph("\nGrafik tahlillar:").setBold().setFontSize(14));
-        
-        // Attendance Pie
-        document.add(new Paragraph("Davomat taqsimoti").setTextAlignment(TextAlignment.CENTER).setMarginBottom(5).setMarginTop(10));
-        Image attImg = convertToItextImage(attChart);
-        attImg.setWidth(UnitValue.createPercentValue(90));
-        attImg.setHorizontalAlignment(com.itextpdf.layout.properties.HorizontalAlignment.CENTER);
-        document.add(attImg);
-
-        // Performance Line
-        document.add(new Paragraph("\nO'zlashtirish grafigi").setTextAlignment(TextAlignment.CENTER).setMarginBottom(5).setMarginTop(15));
-        Image perfImg = convertToItextImage(perfChart);
-        perfImg.setWidth(UnitValue.createPercentValue(90));
-        perfImg.setHorizontalAlignment(com.itextpdf.layout.properties.HorizontalAlignment.CENTER);
-        document.add(perfImg);
+    }
 
+    private static void addLessonDetailsTable(Document document, List<ReportService.LessonScoreRow> attendanceDetails) {
         // Detailed Table
         document.add(new Paragraph("\nDarslar bo'yicha batafsil:").setBold().setFontSize(14));
         Table detailsTable = new Table(UnitValue.createPercentArray(new float[]{1.5f, 1.2f, 1.2f, 0.8f, 0.8f}));
@@ -139,7 +177,6 @@ public class PdfExportService {
         }
 
         document.add(detailsTable);
-        document.close();
     }
 
     private static Cell createStatCell(String label, String value, DeviceRgb bgColor) {
@@ -152,56 +189,127 @@ public class PdfExportService {
         return cell;
     }
 
-    private static Image convertToItextImage(WritableImage writableImage) throws IOException {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        ImageIO.write(SwingFXUtils.fromFXImage(writableImage, null), "png", baos);
-        return new Image(ImageDataFactory.create(baos.toByteArray()));
-    }
-
-    public static void exportCalendarSchedule(List<Schedule> schedules, LocalDate startDate, LocalDate endDate, File file) throws IOException {
-        PdfWriter writer = new PdfWriter(file);
-        PdfDocument pdf = new PdfDocument(writer);
-        Document document = new Document(pdf);
 
-        Map<String, List<Schedule>> groupedSchedules = schedules.stream()
-                .collect(Collectors.groupingBy(Schedule::getGroupName));
+    private static final DeviceRgb LESSON_DAY = new DeviceRgb(255, 222, 173); // NavajoWhite (Light Orange)
+    private static final String[] WEEKDAY_SHORT = {"Du", "Se", "Ch", "Pa", "Ju", "Sh", "Ya"};
+    private static final Style WEEKDAY_HEADER_STYLE = new Style()
+            .setBackgroundColor(ColorConstants.LIGHT_GRAY)
+            .setTextAlignment(TextAlignment.CENTER)
+            .setBold();
+    private static final Style DAY_NUMBER_STYLE = new Style().setFontSize(10);
+    private static final Style LESSON_DAY_STYLE = new Style().setBackgroundColor(LESSON_DAY);
+    private static final Style LESSON_TIME_STYLE = new Style()
+            .setFontSize(8)
+            .setBold()
+            .setTextAlignment(TextAlignment.CENTER);
+    private static final Style OUT_OF_RANGE_STYLE = new Style()
+            .setBackgroundColor(ColorConstants.WHITE)
+            .setOpacity(0.5f);
+
+    /** Calendars with at least this many group-months are rendered per group in parallel and merged. */
+    private static final int CALENDAR_PARALLEL_MONTHS = 24;
+
+    /** Lesson times of one group indexed by day of week (1 = Monday ... 7 = Sunday). */
+    private record GroupCalendar(String groupName, String[] timesByDay) {}
+
+    public static void exportCalendarSchedule(List<Schedule> schedules, LocalDate startDate, LocalDate endDate, File file,
+                                              ExportManager.Progress progress) throws IOException {
+        List<GroupCalendar> calendars = buildGroupCalendars(schedules);
+        long months = ChronoUnit.MONTHS.between(startDate.withDayOfMonth(1), endDate.withDayOfMonth(1)) + 1;
+        long totalMonths = months * calendars.size();
+        AtomicLong monthsDone = new AtomicLong();
+        Runnable monthDone = () -> progress.update(monthsDone.incrementAndGet(), totalMonths);
+
+        if (calendars.size() < 2 || months * calendars.size() < CALENDAR_PARALLEL_MONTHS) {
+            try (Document document = new Document(new PdfDocument(new PdfWriter(file)))) {
+                boolean firstGroup = true;
+                for (GroupCalendar calendar : calendars) {
+                    if (!firstGroup) {
+                        document.add(new AreaBreak(AreaBreakType.NEXT_PAGE));
+                    }
+                    firstGroup = false;
+                    addGroupCalendar(document, calendar, startDate, endDate, monthDone);
+                }
+            }
+            return;
+        }
 
-        boolean firstGroup = true;
-        for (Map.Entry<String, List<Schedule>> entry : groupedSchedules.entrySet()) {
-            if (!firstGroup) {
-                document.add(new AreaBreak(AreaBreakType.NEXT_PAGE));
+        // Large exports: each group is an independent document, so render them side by side and merge in order
+        Path tempDir = Files.createTempDirectory("calendar");
+        int threads = Math.max(1, Math.min(calendars.size(), Runtime.getRuntime().availableProcessors() - 1));
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<File> parts = new ArrayList<>();
+        try {
+            List<Future<File>> futures = new ArrayList<>();
+            for (int i = 0; i < calendars.size(); i++) {
+                GroupCalendar calendar = calendars.get(i);
+                File part = tempDir.resolve(i + ".pdf").toFile();
+                futures.add(pool.submit(() -> {
+                    try (Document document = new Document(new PdfDocument(new PdfWriter(part)))) {
+                        addGroupCalendar(document, calendar, startDate, endDate, monthDone);
+                    }
+                    return part;
+                }));
             }
-            firstGroup = false;
-
-            String groupName = entry.getKey();
-            List<Schedule> groupSchedules = entry.getValue();
-
-            // Group Title
-            document.add(new Paragraph("Guruh: " + groupName)
-                    .setFontSize(18)
-                    .setBold()
-                    .setMarginBottom(5));
-
-            document.add(new Paragraph("Dars jadvali: " + startDate.format(DateTimeFormatter.ofPattern("yyyy-MM-dd")) + " - " +
-                    endDate.format(DateTimeFormatter.ofPattern("yyyy-MM-dd")))
-                    .setFontSize(12)
-                    .setMarginBottom(15));
-
-            // Iterate through months in the range
-            LocalDate current = startDate.withDayOfMonth(1);
-            while (!current.isAfter(endDate)) {
-                addMonthCalendar(document, current, startDate, endDate, groupSchedules);
-                current = current.plusMonths(1);
-                if (!current.isAfter(endDate)) {
-                    document.add(new Paragraph("\n"));
-                }
+            for (Future<File> future : futures) {
+                parts.add(future.get());
             }
+            mergePdfs(parts, file);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Calendar export interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof CancellationException cancelled) throw cancelled;
+            throw e.getCause() instanceof IOException io ? io : new IOException(e.getCause());
+        } finally {
+            pool.shutdownNow();
+            for (File part : tempDir.toFile().listFiles()) {
+                Files.deleteIfExists(part.toPath());
+            }
+            Files.deleteIfExists(tempDir);
+        }
+    }
+
+    /** Groups schedules by group name, keeping the incoming order, and builds each group's day slot table. */
+    private static List<GroupCalendar> buildGroupCalendars(List<Schedule> schedules) {
+        Map<String, String[]> byGroup = new LinkedHashMap<>();
+        for (Schedule s : schedules) {
+            String[] timesByDay = byGroup.computeIfAbsent(s.getGroupName(), k -> new String[8]);
+            int dow = s.getDayOfWeek();
+            if (dow < 1 || dow > 7) continue;
+            timesByDay[dow] = timesByDay[dow] == null ? s.getLessonTime() : timesByDay[dow] + ", " + s.getLessonTime();
         }
+        List<GroupCalendar> calendars = new ArrayList<>();
+        byGroup.forEach((name, times) -> calendars.add(new GroupCalendar(name, times)));
+        return calendars;
+    }
 
-        document.close();
+    private static void addGroupCalendar(Document document, GroupCalendar calendar, LocalDate startDate, LocalDate endDate,
+                                         Runnable monthDone) {
+        // Group Title
+        document.add(new Paragraph("Guruh: " + calendar.groupName())
+                .setFontSize(18)
+                .setBold()
+                .setMarginBottom(5));
+
+        document.add(new Paragraph("Dars jadvali: " + startDate.format(DateTimeFormatter.ofPattern("yyyy-MM-dd")) + " - " +
+                endDate.format(DateTimeFormatter.ofPattern("yyyy-MM-dd")))
+                .setFontSize(12)
+                .setMarginBottom(15));
+
+        // Iterate through months in the range
+        LocalDate current = startDate.withDayOfMonth(1);
+        while (!current.isAfter(endDate)) {
+            addMonthCalendar(document, current, startDate, endDate, calendar.timesByDay());
+            monthDone.run();
+            current = current.plusMonths(1);
+            if (!current.isAfter(endDate)) {
+                document.add(new Paragraph("\n"));
+            }
+        }
     }
 
-    private static void addMonthCalendar(Document document, LocalDate monthDate, LocalDate rangeStart, LocalDate rangeEnd, List<Schedule> groupSchedules) {
+    private static void addMonthCalendar(Document document, LocalDate monthDate, LocalDate rangeStart, LocalDate rangeEnd, String[] timesByDay) {
         String monthName = getMonthName(monthDate.getMonthValue());
         document.add(new Paragraph(monthName + " " + monthDate.getYear())
                 .setBold()
@@ -213,16 +321,11 @@ public class PdfExportService {
         table.setWidth(UnitValue.createPercentValue(100));
 
         // Weekday headers
-        String[] weekdays = {"Du", "Se", "Ch", "Pa", "Ju", "Sh", "Ya"};
-        for (String day : weekdays) {
-            table.addHeaderCell(new Cell().add(new Paragraph(day))
-                    .setBackgroundColor(ColorConstants.LIGHT_GRAY)
-                    .setTextAlignment(TextAlignment.CENTER)
-                    .setBold());
+        for (String day : WEEKDAY_SHORT) {
+            table.addHeaderCell(new Cell().add(new Paragraph(day)).addStyle(WEEKDAY_HEADER_STYLE));
         }
 
-        LocalDate firstDayOfMonth = monthDate.withDayOfMonth(1);
-        int dayOfWeekOfFirst = firstDayOfMonth.getDayOfWeek().getValue(); // 1 (Mon) to 7 (Sun)
+        int dayOfWeekOfFirst = monthDate.withDayOfMonth(1).getDayOfWeek().getValue(); // 1 (Mon) to 7 (Sun)
 
         // Add empty cells for days before the first day of the month
         for (int i = 1; i < dayOfWeekOfFirst; i++) {
@@ -230,32 +333,22 @@ public class PdfExportService {
         }
 
         int daysInMonth = monthDate.lengthOfMonth();
-        for (int day = 1; day <= daysInMonth; day++) {
+        int dow = dayOfWeekOfFirst;
+        for (int day = 1; day <= daysInMonth; day++, dow = dow % 7 + 1) {
             LocalDate date = monthDate.withDayOfMonth(day);
             Cell cell = new Cell().setHeight(40);
-            
-            Paragraph p = new Paragraph(String.valueOf(day)).setFontSize(10);
-            cell.add(p);
+            cell.add(new Paragraph(String.valueOf(day)).addStyle(DAY_NUMBER_STYLE));
 
             // Check if this date is within the requested range and has a lesson
             if (!date.isBefore(rangeStart) && !date.isAfter(rangeEnd)) {
-                int dow = date.getDayOfWeek().getValue();
-                Schedule daySchedule = groupSchedules.stream()
-                        .filter(s -> s.getDayOfWeek() == dow)
-                        .findFirst()
-                        .orElse(null);
-
-                if (daySchedule != null) {
-                    cell.setBackgroundColor(new DeviceRgb(255, 222, 173)); // NavajoWhite (Light Orange)
-                    cell.add(new Paragraph(daySchedule.getLessonTime())
-                            .setFontSize(8)
-                            .setBold()
-                            .setTextAlignment(TextAlignment.CENTER));
+                String times = timesByDay[dow];
+                if (times != null) {
+                    cell.addStyle(LESSON_DAY_STYLE);
+                    cell.add(new Paragraph(times).addStyle(LESSON_TIME_STYLE));
                 }
             } else {
                 // Day outside of range but in the same month
-                cell.setBackgroundColor(ColorConstants.WHITE);
-                cell.setOpacity(0.5f);
+                cell.addStyle(OUT_OF_RANGE_STYLE);
             }
 
             table.addCell(cell);
@@ -341,61 +434,118 @@ public class PdfExportService {
         };
     }
 
-    public static void exportGroupStudentList(String groupName, List<Student> students, File file) throws IOException {
-        PdfWriter writer = new PdfWriter(file);
-        PdfDocument pdf = new PdfDocument(writer);
-        Document document = new Document(pdf);
-
-        document.add(new Paragraph(groupName + " o'quvchilar ro'yxati")
-                .setFontSize(18)
-                .setBold()
-                .setTextAlignment(TextAlignment.CENTER)
-                .setMarginBottom(5));
-
-        document.add(new Paragraph("Sana: " + LocalDate.now().format(DateTimeFormatter.ofPattern("dd.MM.yyyy")))
-                .setFontSize(10)
-                .setTextAlignment(TextAlignment.RIGHT)
-                .setMarginBottom(15));
-
-        float[] cols = {0.5f, 2.5f, 2f, 2f, 1f};
-        Table table = new Table(UnitValue.createPercentArray(cols));
-        table.setWidth(UnitValue.createPercentValue(100));
-
-        table.addHeaderCell(createHeaderCell("Tr"));
-        table.addHeaderCell(createHeaderCell("Ism Familiya"));
-        table.addHeaderCell(createHeaderCell("Otasini telefon raqami"));
-        table.addHeaderCell(createHeaderCell("Onasini telefon raqami"));
-        table.addHeaderCell(createHeaderCell("Necha oy o'qigan"));
-
-        DeviceRgb lightGray = new DeviceRgb(247, 250, 252);
-        DeviceRgb white = new DeviceRgb(255, 255, 255);
-
-        for (int i = 0; i < students.size(); i++) {
-            Student s = students.get(i);
-            DeviceRgb rowColor = i % 2 == 1 ? lightGray : white;
+    private static final DeviceRgb ROW_EVEN = new DeviceRgb(255, 255, 255);
+    private static final DeviceRgb ROW_ODD = new DeviceRgb(247, 250, 252);
+
+    /** Rows written between flushes of a large table; keeps only this many rows in memory. */
+    private static final int TABLE_FLUSH_ROWS = 100;
+
+    /**
+     * Streams a group roster into a large-mode table. Rows come straight from the database
+     * cursor and are flushed to the file every {@link #TABLE_FLUSH_ROWS} rows, which is also
+     * when progress is reported.
+     */
+    public static void exportGroupStudentList(int groupId, String groupName, File file, Connection conn,
+                                              ExportManager.Progress progress) throws IOException {
+        try (Document document = new Document(new PdfDocument(new PdfWriter(file)))) {
+            addListTitle(document, groupName + " o'quvchilar ro'yxati");
+
+            float[] cols = {0.5f, 2.5f, 2f, 2f, 1f};
+            Table table = new Table(UnitValue.createPercentArray(cols), true);
+            table.setWidth(UnitValue.createPercentValue(100));
+
+            table.addHeaderCell(createHeaderCell("Tr"));
+            table.addHeaderCell(createHeaderCell("Ism Familiya"));
+            table.addHeaderCell(createHeaderCell("Otasini telefon raqami"));
+            table.addHeaderCell(createHeaderCell("Onasini telefon raqami"));
+            table.addHeaderCell(createHeaderCell("Necha oy o'qigan"));
+            document.add(table);
+
+            Style left = new Style().setFontSize(10);
+            Style center = new Style().setFontSize(10).setTextAlignment(TextAlignment.CENTER);
+            int[] index = {0};
+            int total = StudentService.countRoster(conn, groupId);
+
+            StudentService.streamGroupRoster(conn, groupId, s -> {
+                int i = index[0]++;
+                DeviceRgb rowColor = i % 2 == 1 ? ROW_ODD : ROW_EVEN;
+
+                String fatherPhone = s.phone() != null && !s.phone().isBlank() ? s.phone() : "---";
+                String motherPhone = s.parentPhone() != null && !s.parentPhone().isBlank() ? s.parentPhone() : "---";
+
+                table.addCell(rosterCell(String.valueOf(i + 1), center, rowColor));
+                table.addCell(rosterCell(s.fullName(), left, rowColor));
+                table.addCell(rosterCell(fatherPhone, center, rowColor));
+                table.addCell(rosterCell(motherPhone, center, rowColor));
+                table.addCell(rosterCell(s.paidMonthCount() > 0 ? String.valueOf(s.paidMonthCount()) : "", center, rowColor));
+
+                if ((i + 1) % TABLE_FLUSH_ROWS == 0) {
+                    table.flush();
+                    progress.update(i + 1, total);
+                }
+            });
 
-            int monthsCount = PaymentService.countMonthlyPaymentsForStudent(s.getId());
+            table.complete();
+        } catch (SQLException e) {
+            throw new IOException("O'quvchilar ro'yxatini o'qib bo'lmadi", e);
+        }
+    }
 
-            String fatherPhone = s.getPhone() != null && !s.getPhone().isBlank() ? s.getPhone() : "---";
-            String motherPhone = s.getParentPhone() != null && !s.getParentPhone().isBlank() ? s.getParentPhone() : "---";
+    /**
+     * Streams all students into a large-mode table, the same way as
+     * {@link #exportGroupStudentList}.
+     */
+    public static void exportAllStudentsList(File file, Connection conn, ExportManager.Progress progress) throws IOException {
+        try (Document document = new Document(new PdfDocument(new PdfWriter(file)))) {
+            addListTitle(document, "Barcha o'quvchilar ro'yxati");
+
+            float[] cols = {0.5f, 2f, 1.5f, 1.5f, 1.5f, 1.5f, 2f};
+            Table table = new Table(UnitValue.createPercentArray(cols), true);
+            table.setWidth(UnitValue.createPercentValue(100));
+
+            table.addHeaderCell(createHeaderCell("Tr"));
+            table.addHeaderCell(createHeaderCell("O'quvchi ismi"));
+            table.addHeaderCell(createHeaderCell("Tel nomeri"));
+            table.addHeaderCell(createHeaderCell("Ota-ona ismi"));
+            table.addHeaderCell(createHeaderCell("Ota-ona tel"));
+            table.addHeaderCell(createHeaderCell("Telegram"));
+            table.addHeaderCell(createHeaderCell("To'lovlar soni"));
+            document.add(table);
+
+            Style left = new Style().setFontSize(8);
+            Style center = new Style().setFontSize(8).setTextAlignment(TextAlignment.CENTER);
+            int[] index = {0};
+            int total = StudentService.countRoster(conn, null);
+
+            StudentService.streamAllStudentsRoster(conn, s -> {
+                int i = index[0]++;
+                DeviceRgb rowColor = i % 2 == 1 ? ROW_ODD : ROW_EVEN;
+
+                int payments = s.paymentCount() + s.paidMonthCount();
+                String paymentsStr = payments == 0 ? "to'lov yo'q" : payments + " to'lov";
+
+                table.addCell(rosterCell(String.valueOf(i + 1), center, rowColor));
+                table.addCell(rosterCell(s.fullName(), left, rowColor));
+                table.addCell(rosterCell(s.phone() != null ? s.phone() : "", left, rowColor));
+                table.addCell(rosterCell(s.parentName() != null ? s.parentName() : "", left, rowColor));
+                table.addCell(rosterCell(s.parentPhone() != null ? s.parentPhone() : "", left, rowColor));
+                table.addCell(rosterCell(s.telegramUsername() != null ? s.telegramUsername() : "", left, rowColor));
+                table.addCell(rosterCell(paymentsStr, left, rowColor));
+
+                if ((i + 1) % TABLE_FLUSH_ROWS == 0) {
+                    table.flush();
+                    progress.update(i + 1, total);
+                }
+            });
 
-            table.addCell(new Cell().add(new Paragraph(String.valueOf(i + 1))).setBackgroundColor(rowColor).setTextAlignment(TextAlignment.CENTER).setFontSize(10));
-            table.addCell(new Cell().add(new Paragraph(s.getFirstName() + " " + s.getLastName())).setBackgroundColor(rowColor).setFontSize(10));
-            table.addCell(new Cell().add(new Paragraph(fatherPhone)).setBackgroundColor(rowColor).setFontSize(10).setTextAlignment(TextAlignment.CENTER));
-            table.addCell(new Cell().add(new Paragraph(motherPhone)).setBackgroundColor(rowColor).setFontSize(10).setTextAlignment(TextAlignment.CENTER));
-            table.addCell(new Cell().add(new Paragraph(monthsCount > 0 ? String.valueOf(monthsCount) : "")).setBackgroundColor(rowColor).setFontSize(10).setTextAlignment(TextAlignment.CENTER));
+            table.complete();
+        } catch (SQLException e) {
+            throw new IOException("O'quvchilar ro'yxatini o'qib bo'lmadi", e);
         }
-
-        document.add(table);
-        document.close();
     }
 
-    public static void exportAllStudentsList(List<Student> students, java.util.Map<Integer, List<String>> paymentsMap, File file) throws IOException {
-        PdfWriter writer = new PdfWriter(file);
-        PdfDocument pdf = new PdfDocument(writer);
-        Document document = new Document(pdf);
-
-        document.add(new Paragraph("Barcha o'quvchilar ro'yxati")
+    private static void addListTitle(Document document, String title) {
+        document.add(new Paragraph(title)
                 .setFontSize(18)
                 .setBold()
                 .setTextAlignment(TextAlignment.CENTER)
@@ -405,39 +555,9 @@ public class PdfExportService {
                 .setFontSize(10)
                 .setTextAlignment(TextAlignment.RIGHT)
                 .setMarginBottom(15));
+    }
 
-        float[] cols = {0.5f, 2f, 1.5f, 1.5f, 1.5f, 1.5f, 2f};
-        Table table = new Table(UnitValue.createPercentArray(cols));
-        table.setWidth(UnitValue.createPercentValue(100));
-
-        table.addHeaderCell(createHeaderCell("Tr"));
-        table.addHeaderCell(createHeaderCell("O'quvchi ismi"));
-        table.addHeaderCell(createHeaderCell("Tel nomeri"));
-        table.addHeaderCell(createHeaderCell("Ota-ona ismi"));
-        table.addHeaderCell(createHeaderCell("Ota-ona tel"));
-        table.addHeaderCell(createHeaderCell("Telegram"));
-        table.addHeaderCell(createHeaderCell("To'lovlar soni"));
-
-        DeviceRgb lightGray = new DeviceRgb(247, 250, 252);
-        DeviceRgb white = new DeviceRgb(255, 255, 255);
-
-        for (int i = 0; i < students.size(); i++) {
-            Student s = students.get(i);
-            DeviceRgb rowColor = i % 2 == 1 ? lightGray : white;
-
-            List<String> dates = paymentsMap.getOrDefault(s.getId(), java.util.Collections.emptyList());
-            String paymentsStr = dates.isEmpty() ? "to'lov yo'q" : dates.size() + " to'lov";
-
-            table.addCell(new Cell().add(new Paragraph(String.valueOf(i + 1))).setBackgroundColor(rowColor).setTextAlignment(TextAlignment.CENTER).setFontSize(8));
-            table.addCell(new Cell().add(new Paragraph(s.getFirstName() + " " + s.getLastName())).setBackgroundColor(rowColor).setFontSize(8));
-            table.addCell(new Cell().add(new Paragraph(s.getPhone() != null ? s.getPhone() : "")).setBackgroundColor(rowColor).setFontSize(8));
-            table.addCell(new Cell().add(new Paragraph(s.getParentName() != null ? s.getParentName() : "")).setBackgroundColor(rowColor).setFontSize(8));
-            table.addCell(new Cell().add(new Paragraph(s.getParentPhone() != null ? s.getParentPhone() : "")).setBackgroundColor(rowColor).setFontSize(8));
-            table.addCell(new Cell().add(new Paragraph(s.getTelegramUsername() != null ? s.getTelegramUsername() : "")).setBackgroundColor(rowColor).setFontSize(8));
-            table.addCell(new Cell().add(new Paragraph(paymentsStr)).setBackgroundColor(rowColor).setFontSize(8));
-        }
-
-        document.add(table);
-        document.close();
+    private static Cell rosterCell(String text, Style style, DeviceRgb background) {
+        return new Cell().add(new Paragraph(text)).addStyle(style).setBackgroundColor(background);
     }
 }
@@ -0,0 +1,180 @@
+package org.algo.mentor.services;
+
+import org.algo.mentor.util.ScheduleIndex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Lesson and payment-day reminders for the logged-in session. Instead of polling, it works out
+ * the single next moment anything is due (from the {@link ScheduleIndex} and the fixed payment
+ * days) and sleeps on a {@link ScheduledExecutorService} until then. After each firing, and
+ * when {@link ScheduleService} reports schedule changes, it plans the next one.
+ * <p>
+ * Two cursors remember what has already been handled. Lessons starting at or after
+ * {@code lessonCursor} have not been announced yet. Payment days at or after
+ * {@code paymentCursor} have not been checked yet. Replanning therefore never repeats a reminder.
+ * Who still owes a payment is read from the database when the payment day fires, so payment
+ * edits do not move any firing time.
+ */
+public class ReminderScheduler {
+
+    private static final Logger log = LoggerFactory.getLogger(ReminderScheduler.class);
+
+    private static final String SETTINGS_PREFIX = "reminders.";
+    public static final int DEFAULT_LESSON_LEAD_MINUTES = 15;
+    public static final int DEFAULT_PAYMENT_HOUR = 9;
+    public static final int[] PAYMENT_DAYS = {1, 15};
+    private static final int MAX_NAMES_IN_MESSAGE = 5;
+
+    /** The next firing: lessons starting at {@code lessonAt} and/or the payment check due at {@code paymentAt}. */
+    public record Plan(LocalDateTime fireAt, LocalDateTime lessonAt, LocalDateTime paymentAt) {}
+
+    private static final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "reminder-scheduler");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private static Consumer<NotificationCenter.Notification> sink;
+    private static ScheduledFuture<?> pending;
+    private static LocalDateTime lessonCursor;
+    private static LocalDateTime paymentCursor;
+    private static int leadMinutes;
+    private static int paymentHour;
+
+    public static synchronized void start(Consumer<NotificationCenter.Notification> notificationSink) {
+        sink = notificationSink;
+        LocalDateTime now = LocalDateTime.now().truncatedTo(ChronoUnit.MINUTES);
+        lessonCursor = now;
+        paymentCursor = now;
+        leadMinutes = SettingsService.getInt(SETTINGS_PREFIX + "lesson_lead_minutes", DEFAULT_LESSON_LEAD_MINUTES);
+        paymentHour = SettingsService.getInt(SETTINGS_PREFIX + "payment_hour", DEFAULT_PAYMENT_HOUR);
+        reschedule();
+    }
+
+    public static synchronized void stop() {
+        sink = null;
+        if (pending != null) pending.cancel(false);
+        pending = null;
+    }
+
+    public static synchronized boolean isRunning() {
+        return sink != null;
+    }
+
+    /** Drops the pending firing and plans again; a no-op while stopped. */
+    public static void reschedule() {
+        synchronized (ReminderScheduler.class) {
+            if (sink == null) return;
+        }
+        executor.execute(ReminderScheduler::planNext);
+    }
+
+    /**
+     * Earliest of: the reminder for the first lesson starting at or after {@code lessonCursor}
+     * ({@code leadMinutes} before it, or right away if that is already past) and the first
+     * payment day at or after {@code paymentCursor}. There is always a next payment day.
+     */
+    public static Plan plan(ScheduleIndex index, LocalDateTime now, LocalDateTime lessonCursor,
+                            LocalDateTime paymentCursor, int leadMinutes, int paymentHour) {
+        LocalDateTime lessonAt = null;
+        LocalDateTime lessonFire = null;
+        List<ScheduleIndex.Occurrence> next = index.next(lessonCursor, 1);
+        if (!next.isEmpty()) {
+            lessonAt = next.get(0).at();
+            lessonFire = max(lessonAt.minusMinutes(leadMinutes), now);
+        }
+
+        LocalDateTime paymentAt = nextPaymentCheck(paymentCursor, paymentHour);
+        LocalDateTime paymentFire = max(paymentAt, now);
+
+        if (lessonFire == null || paymentFire.isBefore(lessonFire)) {
+            return new Plan(paymentFire, null, paymentAt);
+        }
+        return new Plan(lessonFire, lessonAt, paymentFire.equals(lessonFire) ? paymentAt : null);
+    }
+
+    static LocalDateTime nextPaymentCheck(LocalDateTime from, int hour) {
+        LocalDate month = from.toLocalDate().withDayOfMonth(1);
+        while (true) {
+            for (int day : PAYMENT_DAYS) {
+                LocalDateTime at = month.withDayOfMonth(day).atTime(hour, 0);
+                if (!at.isBefore(from)) return at;
+            }
+            month = month.plusMonths(1);
+        }
+    }
+
+    private static synchronized void planNext() {
+        if (sink == null) return;
+        if (pending != null) pending.cancel(false);
+        LocalDateTime now = LocalDateTime.now();
+        Plan plan = plan(ScheduleService.getIndex(), now, lessonCursor, paymentCursor, leadMinutes, paymentHour);
+        long delay = Math.max(0, Duration.between(now, plan.fireAt()).toMillis());
+        log.debug("Next reminder at {} (lesson {}, payment {})", plan.fireAt(), plan.lessonAt(), plan.paymentAt());
+        pending = executor.schedule(() -> fire(plan), delay, TimeUnit.MILLISECONDS);
+    }
+
+    private static void fire(Plan plan) {
+        Consumer<NotificationCenter.Notification> target;
+        synchronized (ReminderScheduler.class) {
+            target = sink;
+            if (target == null) return;
+            if (plan.lessonAt() != null) lessonCursor = plan.lessonAt().plusMinutes(1);
+            if (plan.paymentAt() != null) paymentCursor = plan.paymentAt().plusMinutes(1);
+        }
+        try {
+            LocalDateTime now = LocalDateTime.now();
+            // Woken late (e.g. after sleep): lessons that already started are not announced
+            if (plan.lessonAt() != null && !plan.lessonAt().isBefore(now.truncatedTo(ChronoUnit.MINUTES))) {
+                announceLessons(plan.lessonAt(), target);
+            }
+            if (plan.paymentAt() != null) {
+                announcePayments(plan.paymentAt().toLocalDate(), target);
+            }
+        } catch (RuntimeException e) {
+            log.error("Failed to deliver reminder", e);
+        }
+        planNext();
+    }
+
+    private static void announceLessons(LocalDateTime at, Consumer<NotificationCenter.Notification> target) {
+        List<ScheduleIndex.Occurrence> lessons = ScheduleService.getIndex().between(at, at.plusMinutes(1));
+        if (lessons.isEmpty()) return;
+        long minutes = Math.max(0, (Duration.between(LocalDateTime.now(), at).getSeconds() + 59) / 60);
+        StringBuilder groups = new StringBuilder();
+        for (ScheduleIndex.Occurrence o : lessons) {
+            if (!groups.isEmpty()) groups.append(", ");
+            groups.append(o.schedule().getGroupName());
+        }
+        String when = minutes > 0 ? minutes + " daqiqadan keyin" : "hozir";
+        target.accept(new NotificationCenter.Notification(NotificationCenter.Kind.LESSON,
+                "Dars " + when + " (" + lessons.get(0).schedule().getLessonTime() + ")",
+                groups.toString(), LocalDateTime.now()));
+    }
+
+    private static void announcePayments(LocalDate dueDate, Consumer<NotificationCenter.Notification> target) {
+        List<String> due = PaymentService.getStudentsDueOn(dueDate);
+        if (due.isEmpty()) return;
+        String names = String.join(", ", due.subList(0, Math.min(MAX_NAMES_IN_MESSAGE, due.size())));
+        if (due.size() > MAX_NAMES_IN_MESSAGE) names += " va yana " + (due.size() - MAX_NAMES_IN_MESSAGE) + " ta";
+        target.accept(new NotificationCenter.Notification(NotificationCenter.Kind.PAYMENT,
+                "To'lov kuni: " + due.size() + " ta o'quvchi hali to'lamagan",
+                names, LocalDateTime.now()));
+    }
+
+    private static LocalDateTime max(LocalDateTime a, LocalDateTime b) {
+        return a.isAfter(b) ? a : b;
+    }
+}
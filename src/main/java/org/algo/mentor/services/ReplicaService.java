@@ -0,0 +1,392 @@
+package org.algo.mentor.services;
+
+import org.algo.mentor.config.AppDirectoryManager;
+import org.algo.mentor.config.DatabaseManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sqlite.SQLiteConnection;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * An optional in-memory copy of the domain tables that {@link ReportService} reads from, so long
+ * reports run at memory speed and never hold a lock on {@code database.db} while a lesson is being
+ * saved. It is enabled with {@code replica.enabled}.
+ * <p>
+ * At login the file is copied into a {@code :memory:} database with the SQLite backup API, and
+ * everything but the domain tables (triggers, {@code change_log}, {@code sync_meta}, caches) is
+ * dropped from the copy. From then on it follows the {@link ChangeFeed}: for each batch the
+ * changed rows are deleted from the copy and read again from the file, which is attached to the
+ * copy's connection, in one transaction. The feed itself is read through that attachment too
+ * ({@code src.change_log}), never through the app's connection: that one sees a lesson save before
+ * it commits, and a copy that skipped past those changes would never get them back. This runs every
+ * {@code replica.interval_seconds} and before every read, so a report always sees what the app has
+ * just committed. A gap in the feed makes it copy the file again.
+ * <p>
+ * Reports run inside {@link #read(Reader)}, which holds a read lock for the whole read; batches
+ * are applied, and copies swapped, under the write lock, so a report never sees half a batch. When
+ * the copy is behind and cannot catch up at once because another report is reading it, when it is
+ * not loaded yet, and for reports that include archived years (which are attached to the app's
+ * connection), the read runs on the app's own connection instead.
+ */
+public class ReplicaService {
+
+    private static final Logger log = LoggerFactory.getLogger(ReplicaService.class);
+
+    private static final String SETTINGS_PREFIX = "replica.";
+    public static final String ENABLED_KEY = SETTINGS_PREFIX + "enabled";
+    public static final int DEFAULT_INTERVAL_SECONDS = 5;
+    private static final String CONSUMER = "replica";
+    private static final String SOURCE_ALIAS = "src";
+    private static final int PAGES_PER_STEP = 1024;
+    private static final int BUSY_SLEEP_MILLIS = 100;
+    private static final int BUSY_RETRIES = 300;
+    /** How long a read waits for other reports to finish so the copy can catch up first. */
+    private static final long CATCH_UP_WAIT_MILLIS = 200;
+
+    /**
+     * {@code appliedSeq} is the last {@code change_log} sequence the copy contains, {@code lag}
+     * how many changes it is behind the file.
+     */
+    public record Status(boolean enabled, boolean ready, long appliedSeq, long lag, long memoryBytes, long loadMillis) {}
+
+    /** A read against whichever connection {@link #read(Reader)} picked. */
+    public interface Reader<T> {
+        T read(Connection conn) throws SQLException;
+    }
+
+    private static final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "read-replica");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /** Guards {@code replica} and {@code appliedSeq}: reads share it, catch-up and swaps own it. */
+    private static final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private static ScheduledFuture<?> pending;
+    private static volatile Connection replica;
+    private static volatile long appliedSeq;
+    private static long loadMillis;
+    private static volatile boolean loading;
+
+    public static boolean isEnabled() {
+        return SettingsService.getBoolean(ENABLED_KEY, false);
+    }
+
+    /** Stores the setting and loads or drops the copy right away. */
+    public static void setEnabled(boolean enabled) {
+        SettingsService.put(ENABLED_KEY, enabled);
+        if (enabled) {
+            start();
+        } else {
+            stop();
+        }
+    }
+
+    /** Loads the copy in the background, if enabled, and keeps it current until {@link #stop()}. */
+    public static synchronized void start() {
+        stop();
+        if (!isEnabled()) return;
+        loading = true;
+        executor.execute(ReplicaService::reload);
+        long interval = Math.max(1, SettingsService.getInt(SETTINGS_PREFIX + "interval_seconds", DEFAULT_INTERVAL_SECONDS));
+        pending = executor.scheduleWithFixedDelay(ReplicaService::runScheduled, interval, interval, TimeUnit.SECONDS);
+    }
+
+    public static synchronized void stop() {
+        if (pending != null) pending.cancel(false);
+        pending = null;
+        loading = false;
+        swap(null, 0);
+        ChangeFeed.unregister(CONSUMER);
+    }
+
+    /**
+     * Runs a report's reads against the copy, brought up to date first and held steady until
+     * {@code reader} returns, or against the app's own connection while there is no usable copy.
+     * Reads nested inside another read stay on the connection the outer one got.
+     */
+    public static <T> T read(Reader<T> reader) throws SQLException {
+        if (replica != null && acquire()) {
+            try {
+                return reader.read(replica);
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+        return reader.read(DatabaseManager.getConnection());
+    }
+
+    /** Like {@link #read(Reader)}, but always on the app's connection when archives are read. */
+    public static <T> T read(ArchiveService.Tables tables, Reader<T> reader) throws SQLException {
+        return tables.includesArchives() ? reader.read(DatabaseManager.getConnection()) : read(reader);
+    }
+
+    public static Status getStatus() {
+        long memoryBytes = 0;
+        long lag = 0;
+        // The write lock, so src is read with no report open on the copy's connection
+        lock.writeLock().lock();
+        try {
+            if (replica != null) {
+                memoryBytes = pragma(replica, "page_count") * pragma(replica, "page_size");
+                lag = Math.max(0, ChangeFeed.currentSequence(replica, SOURCE_ALIAS) - appliedSeq);
+            }
+        } catch (SQLException e) {
+            log.debug("Read replica status unavailable: {}", e.getMessage());
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return new Status(isEnabled(), replica != null, appliedSeq, lag, memoryBytes, loadMillis);
+    }
+
+    /**
+     * Takes the read lock on a copy that has everything the file has committed. Returns false,
+     * holding nothing, when there is no copy or it could not be brought up to date in time.
+     */
+    private static boolean acquire() {
+        lock.readLock().lock();
+        // A nested read keeps the outer read's view; catching up here would wait on ourselves
+        if (replica != null && (lock.getReadHoldCount() > 1 || isCurrent())) return true;
+        boolean nested = lock.getReadHoldCount() > 1;
+        lock.readLock().unlock();
+        if (nested) return false;
+
+        try {
+            if (!lock.writeLock().tryLock(CATCH_UP_WAIT_MILLIS, TimeUnit.MILLISECONDS)) return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        try {
+            if (replica == null || !catchUp()) return false;
+            // Downgrade, so no batch lands between the catch-up and the read
+            lock.readLock().lock();
+            return true;
+        } catch (SQLException e) {
+            log.warn("Read replica could not catch up, reading the file: {}", e.getMessage());
+            return false;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Whether the copy has every change the file has committed. The app's connection sees all of
+     * those, plus perhaps a save in progress, which only costs a catch-up that finds nothing.
+     * {@code src} is not read here: with reports overlapping on the copy's connection its read
+     * would never end, and the app could not commit.
+     */
+    private static boolean isCurrent() {
+        return ChangeFeed.currentSequence() <= appliedSeq;
+    }
+
+    private static void runScheduled() {
+        if (isLoading()) {
+            reload();
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            if (replica != null) catchUp();
+        } catch (Exception e) {
+            log.error("Read replica update failed", e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private static synchronized boolean isLoading() {
+        return loading;
+    }
+
+    /**
+     * Replays the committed feed onto the copy, under the write lock. The feed and the rows are
+     * read from {@code src} in the same transaction, so they come from one snapshot of the file and
+     * {@code appliedSeq} only moves past changes the copy really has. Returns false, and schedules
+     * a new copy, when the feed has a gap and the copy can no longer be trusted.
+     */
+    private static boolean catchUp() throws SQLException {
+        Connection conn = replica;
+        long applied = appliedSeq;
+        conn.setAutoCommit(false);
+        try {
+            ChangeFeed.Batch batch;
+            do {
+                batch = ChangeFeed.since(conn, SOURCE_ALIAS, applied, ChangeFeed.DEFAULT_BATCH_SIZE);
+                if (batch.gap()) {
+                    conn.rollback();
+                    log.info("Change feed gap after {}, copying the database again", applied);
+                    swap(null, 0);
+                    executor.execute(ReplicaService::copyAgain);
+                    return false;
+                }
+                if (batch.isEmpty()) break;
+                apply(conn, batch);
+                applied = batch.lastSeq();
+            } while (batch.hasMore());
+            conn.commit();
+        } catch (SQLException e) {
+            if (!conn.isClosed()) conn.rollback();
+            throw e;
+        } finally {
+            if (!conn.isClosed()) conn.setAutoCommit(true);
+        }
+        if (applied != appliedSeq) {
+            appliedSeq = applied;
+            ChangeFeed.acknowledge(CONSUMER, applied);
+        }
+        return true;
+    }
+
+    private static void apply(Connection conn, ChangeFeed.Batch batch) throws SQLException {
+        for (String table : DatabaseManager.DOMAIN_TABLES) {
+            Set<Long> ids = batch.rowIds(table);
+            if (ids.isEmpty()) continue;
+            String key = DatabaseManager.changeLogKey(table);
+            String in = " WHERE " + key + " IN (" + String.join(",", Collections.nCopies(ids.size(), "?")) + ")";
+            // SELECT * keeps the rowid of tables whose id is an INTEGER PRIMARY KEY; the
+            // only other table, student_groups, is replaced by student
+            try (PreparedStatement delete = conn.prepareStatement("DELETE FROM main." + table + in);
+                 PreparedStatement insert = conn.prepareStatement("INSERT INTO main." + table +
+                         " SELECT * FROM " + SOURCE_ALIAS + "." + table + in)) {
+                int i = 1;
+                for (long id : ids) {
+                    delete.setLong(i, id);
+                    insert.setLong(i++, id);
+                }
+                delete.executeUpdate();
+                insert.executeUpdate();
+            }
+        }
+    }
+
+    /** Reloads after a gap, unless the replica was stopped in the meantime. */
+    private static void copyAgain() {
+        synchronized (ReplicaService.class) {
+            if (pending == null) return;
+            loading = true;
+        }
+        reload();
+    }
+
+    /**
+     * Copies the file into a new in-memory database and swaps it in once it is current. The copy
+     * is made without holding either lock, so reports keep reading the file meanwhile.
+     */
+    private static void reload() {
+        if (!isLoading()) return;
+        Path file = AppDirectoryManager.getDatabasePath();
+        long start = System.currentTimeMillis();
+        Connection conn = null;
+        try {
+            conn = DriverManager.getConnection("jdbc:sqlite::memory:");
+            int rc = conn.unwrap(SQLiteConnection.class).getDatabase().restore("main", file.toString(), null,
+                    BUSY_SLEEP_MILLIS, BUSY_RETRIES, PAGES_PER_STEP);
+            if (rc != 0) throw new SQLException("Restore failed with SQLite code " + rc);
+
+            long seq;
+            try (Statement stmt = conn.createStatement()) {
+                // The copy's own sequence, so nothing written during the restore is missed
+                try (ResultSet rs = stmt.executeQuery("SELECT seq FROM sqlite_sequence WHERE name = 'change_log'")) {
+                    seq = rs.next() ? rs.getLong(1) : 0;
+                }
+                for (String[] object : nonDomainObjects(stmt)) {
+                    stmt.execute("DROP " + object[0] + " IF EXISTS \"" + object[1] + "\"");
+                }
+                stmt.execute("VACUUM");
+                try (PreparedStatement pstmt = conn.prepareStatement("ATTACH DATABASE ? AS " + SOURCE_ALIAS)) {
+                    pstmt.setString(1, file.toString());
+                    pstmt.execute();
+                }
+            }
+
+            lock.writeLock().lock();
+            try {
+                // Stopped while copying; checked under the lock so stop() closes whatever is swapped in
+                if (!loading) {
+                    close(conn);
+                    return;
+                }
+                loading = false;
+                swap(conn, seq);
+                if (!catchUp()) return;
+                loadMillis = System.currentTimeMillis() - start;
+            } finally {
+                lock.writeLock().unlock();
+            }
+            log.info("Read replica loaded from {} at sequence {} in {} ms", file, seq, loadMillis);
+        } catch (Exception e) {
+            log.error("Failed to load read replica from {}", file, e);
+            lock.writeLock().lock();
+            try {
+                loading = false;
+                if (replica == conn) replica = null;
+            } finally {
+                lock.writeLock().unlock();
+            }
+            close(conn);
+        }
+    }
+
+    /** Triggers first, then every table the reports do not read; each as {type, name}. */
+    private static List<String[]> nonDomainObjects(Statement stmt) throws SQLException {
+        List<String[]> objects = new ArrayList<>();
+        try (ResultSet rs = stmt.executeQuery("SELECT type, name FROM sqlite_master " +
+                "WHERE type IN ('trigger', 'view', 'table') AND name NOT LIKE 'sqlite_%' " +
+                "ORDER BY CASE type WHEN 'trigger' THEN 0 WHEN 'view' THEN 1 ELSE 2 END")) {
+            while (rs.next()) {
+                String type = rs.getString("type");
+                String name = rs.getString("name");
+                if (type.equals("table") && DatabaseManager.DOMAIN_TABLES.contains(name)) continue;
+                objects.add(new String[]{type.toUpperCase(), name});
+            }
+        }
+        return objects;
+    }
+
+    /** Replaces the copy and closes the old one, once the reports reading it are done. */
+    private static void swap(Connection conn, long seq) {
+        lock.writeLock().lock();
+        try {
+            Connection old = replica;
+            replica = conn;
+            appliedSeq = seq;
+            if (old != conn) close(old);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private static void close(Connection conn) {
+        if (conn == null) return;
+        try {
+            conn.close();
+        } catch (SQLException e) {
+            log.warn("Failed to close read replica: {}", e.getMessage());
+        }
+    }
+
+    private static long pragma(Connection conn, String name) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("PRAGMA " + name)) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package org.algo.mentor.services;
+
+import javafx.concurrent.Task;
+import org.algo.mentor.models.Group;
+import org.algo.mentor.models.Student;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Student report cards: the data behind the personal statistics PDF, and a batch job that
+ * writes one card per student for a group or for all groups.
+ */
+public class ReportCardService {
+
+    private static final Logger log = LoggerFactory.getLogger(ReportCardService.class);
+
+    /** Number of lessons shown in the performance chart when the range is short. */
+    private static final int CHART_LESSON_LIMIT = 10;
+
+    public record ChartPoint(String label, double score, double total) {}
+
+    public record AttendancePoint(String label, int present, int absent) {}
+
+    public record ReportCard(Student student, String groupName, LocalDate fromDate, LocalDate toDate,
+                             List<ReportService.LessonScoreRow> rows, int rank,
+                             double avgScore, double attendanceRate, long presentCount, long absentCount,
+                             List<ChartPoint> performance, List<AttendancePoint> monthlyAttendance) {}
+
+    public record BatchResult(int written, int failed, List<File> files) {}
+
+    /**
+     * Builds a card from a student's lesson details (newest first, as returned by
+     * {@link ReportService#getDetailedLessonScores}). Only lessons in the date range count.
+     */
+    public static ReportCard build(Student student, int groupId, String groupName, int rank,
+                                   List<ReportService.DetailedLessonScore> allDetails,
+                                   LocalDate fromDate, LocalDate toDate) {
+        List<ReportService.DetailedLessonScore> details = new ArrayList<>();
+        for (ReportService.DetailedLessonScore d : allDetails) {
+            if (inRange(d.date(), fromDate, toDate)) details.add(d);
+        }
+
+        double totalEarned = 0, totalPossible = 0;
+        long presentCount = 0;
+        for (ReportService.DetailedLessonScore d : details) {
+            totalEarned += d.totalScore();
+            totalPossible += d.totalValue();
+            if (d.present()) presentCount++;
+        }
+        double avgScore = totalPossible == 0 ? 0 : totalEarned / totalPossible * 100;
+        double attRate = details.isEmpty() ? 0 : (double) presentCount / details.size() * 100;
+
+        List<ChartPoint> chart = new ArrayList<>();
+        RollupService.Bucket bucket = RollupService.chooseBucket(fromDate, toDate);
+        if (bucket != RollupService.Bucket.LESSON) {
+            for (RollupService.TrendPoint p : RollupService.getStudentTrend(student.getId(), groupId, bucket, fromDate, toDate)) {
+                int lessons = Math.max(p.lessonCount(), 1);
+                chart.add(new ChartPoint(p.label(), p.earned() / lessons, p.possible() / lessons));
+            }
+        } else {
+            int limit = Math.min(details.size(), CHART_LESSON_LIMIT);
+            for (int i = limit - 1; i >= 0; i--) {
+                ReportService.DetailedLessonScore d = details.get(i);
+                chart.add(new ChartPoint(chartLabel(d.date()), d.totalScore(), d.totalValue()));
+            }
+        }
+
+        // Details are newest first; a sorted map puts the months back in calendar order
+        TreeMap<String, int[]> months = new TreeMap<>();
+        for (ReportService.DetailedLessonScore d : details) {
+            int[] counts = months.computeIfAbsent(d.date().substring(0, 7), k -> new int[2]);
+            counts[d.present() ? 0 : 1]++;
+        }
+        List<AttendancePoint> monthly = new ArrayList<>();
+        months.forEach((month, counts) ->
+                monthly.add(new AttendancePoint(month.substring(5, 7) + "." + month.substring(0, 4), counts[0], counts[1])));
+
+        return new ReportCard(student, groupName, fromDate, toDate, ReportService.toLessonScoreRows(details), rank,
+                avgScore, attRate, presentCount, details.size() - presentCount, chart, monthly);
+    }
+
+    /** Cards for every student of a group, loaded with a handful of grouped queries. */
+    public static List<ReportCard> buildGroup(Group group, LocalDate fromDate, LocalDate toDate) {
+        Map<Integer, List<ReportService.DetailedLessonScore>> details = ReportService.getDetailedLessonScoresForGroup(group.getId());
+        LeaderboardService.Leaderboard leaderboard = LeaderboardService.get(group.getId(), LeaderboardService.Metric.SCORE);
+
+        List<ReportCard> cards = new ArrayList<>();
+        for (Student student : StudentService.getStudentsByGroup(group.getId())) {
+            cards.add(build(student, group.getId(), group.getName(),
+                    leaderboard.rankOf(student.getId(), LeaderboardService.TieMode.COMPETITION),
+                    details.getOrDefault(student.getId(), List.of()), fromDate, toDate));
+        }
+        return cards;
+    }
+
+    /**
+     * Writes a report card for every student of the given groups.
+     * Data is read on the task thread (the database has one connection); the PDFs are
+     * rendered in parallel on a bounded pool. With {@code merge} the cards are combined into
+     * {@code target}; otherwise {@code target} is a folder that receives one file per card.
+     */
+    public static Task<BatchResult> createBatchTask(List<Group> groups, LocalDate fromDate, LocalDate toDate,
+                                                    File target, boolean merge) {
+        return new Task<>() {
+            @Override
+            protected BatchResult call() throws Exception {
+                updateMessage("Ma'lumotlar yuklanmoqda...");
+                List<ReportCard> cards = new ArrayList<>();
+                for (Group group : groups) {
+                    if (isCancelled()) return new BatchResult(0, 0, List.of());
+                    cards.addAll(buildGroup(group, fromDate, toDate));
+                }
+                if (cards.isEmpty()) return new BatchResult(0, 0, List.of());
+
+                Path outputDir = merge ? Files.createTempDirectory("report-cards") : target.toPath();
+                Files.createDirectories(outputDir);
+
+                try {
+                    int threads = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+                    ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+                        Thread t = new Thread(r, "report-card-worker");
+                        t.setDaemon(true);
+                        return t;
+                    });
+
+                    AtomicInteger done = new AtomicInteger();
+                    AtomicInteger failed = new AtomicInteger();
+                    File[] files = new File[cards.size()];
+                    Set<String> usedNames = new HashSet<>();
+                    List<Future<?>> futures = new ArrayList<>();
+
+                    for (int i = 0; i < cards.size(); i++) {
+                        ReportCard card = cards.get(i);
+                        File file = outputDir.resolve(fileName(card, usedNames)).toFile();
+                        int index = i;
+                        futures.add(pool.submit(() -> {
+                            if (isCancelled()) return;
+                            try {
+                                PdfExportService.exportReportCard(card, file);
+                                files[index] = file;
+                            } catch (IOException | RuntimeException e) {
+                                failed.incrementAndGet();
+                                log.error("Failed to write report card for student {}", card.student().getId(), e);
+                            }
+                            int n = done.incrementAndGet();
+                            updateProgress(n, cards.size());
+                            updateMessage(n + " / " + cards.size());
+                        }));
+                    }
+
+                    try {
+                        for (Future<?> f : futures) {
+                            if (isCancelled()) break;
+                            f.get();
+                        }
+                    } finally {
+                        stop(pool);
+                    }
+
+                    List<File> written = new ArrayList<>();
+                    for (File f : files) if (f != null) written.add(f);
+
+                    if (isCancelled()) return new BatchResult(0, failed.get(), List.of());
+
+                    if (merge) {
+                        updateMessage("Fayllar birlashtirilmoqda...");
+                        PdfExportService.mergePdfs(written, target);
+                        return new BatchResult(written.size(), failed.get(), List.of(target));
+                    }
+                    return new BatchResult(written.size(), failed.get(), written);
+                } finally {
+                    if (merge) deleteAll(outputDir);
+                }
+            }
+        };
+    }
+
+    private static String fileName(ReportCard card, Set<String> usedNames) {
+        String base = (card.groupName() + "_" + card.student().getFirstName() + "_" + card.student().getLastName())
+                .replaceAll("[\\\\/:*?\"<>|\\s]+", "_");
+        String name = base + "_hisobot.pdf";
+        for (int i = 2; !usedNames.add(name); i++) {
+            name = base + "_" + i + "_hisobot.pdf";
+        }
+        return name;
+    }
+
+    /**
+     * Stops the workers and waits for them, so nothing is still writing into the output folder
+     * when the caller cleans it up. A cancelled task is interrupted itself, so the wait keeps
+     * going through interrupts and restores the flag afterwards.
+     */
+    private static void stop(ExecutorService pool) {
+        pool.shutdownNow();
+        boolean interrupted = false;
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (!pool.isTerminated()) {
+            long left = deadline - System.nanoTime();
+            if (left <= 0) {
+                log.warn("Report card workers did not stop in time");
+                break;
+            }
+            try {
+                pool.awaitTermination(left, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    /** Removes the temporary folder of a merged batch, including cards left half-written by a cancel. */
+    private static void deleteAll(Path dir) {
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+            for (Path f : entries) {
+                try { Files.deleteIfExists(f); } catch (IOException e) { log.warn("Could not delete {}", f, e); }
+            }
+        } catch (IOException e) {
+            log.warn("Could not list {}", dir, e);
+        }
+        try { Files.deleteIfExists(dir); } catch (IOException e) { log.warn("Could not delete {}", dir, e); }
+    }
+
+    private static boolean inRange(String dateTime, LocalDate fromDate, LocalDate toDate) {
+        try {
+            LocalDate date = LocalDate.parse(dateTime.length() >= 10 ? dateTime.substring(0, 10) : dateTime);
+            return !date.isBefore(fromDate) && !date.isAfter(toDate);
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    /** dd.MM HH:mm for full timestamps, dd.MM for dates. */
+    public static String chartLabel(String date) {
+        if (date != null && date.length() >= 16) {
+            return date.substring(8, 10) + "." + date.substring(5, 7) + " " + date.substring(11, 16);
+        } else if (date != null && date.length() >= 10) {
+            return date.substring(8, 10) + "." + date.substring(5, 7);
+        }
+        return date;
+    }
+}
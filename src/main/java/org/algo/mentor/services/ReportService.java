@@ -1,13 +1,17 @@
 package org.algo.mentor.services;
 
-import org.algo.mentor.config.DatabaseManager;
+import org.algo.mentor.util.ScheduleIndex;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.sql.*;
 import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
 
 public class ReportService {
 
@@ -19,7 +23,6 @@ public class ReportService {
     public record LessonStat(String date, double avgScore) {}
     public record SummaryStat(int totalStudents, int totalGroups, int lessonsToday, double avgAttendance) {}
     public record UpcomingLesson(int id, String groupName, String time) {}
-    public record RiskStudent(int id, String fullName, double attendanceRate, double performanceRate, String groupName) {}
     
     public record TestScore(String topic, double score, int total) {}
     public record HomeworkScore(double score, double total) {}
@@ -28,67 +31,109 @@ public class ReportService {
             List<TestScore> tests, List<HomeworkScore> homeworks, List<QuestionScore> questions, double totalScore, double totalValue) {}
     
     public record LessonScoreRow(String date, String status, String scoreType, String topic, Double score, Double totalValue) {}
+    public record StudentLessonScoreRow(String groupName, String studentName, LessonScoreRow row) {}
+
+    public record StudentGroupTotals(int studentId, String fullName, int groupId, String groupName,
+            int presentCount, int lessonCount, double earned, double possible) {
+        public double attendanceRate() {
+            return lessonCount == 0 ? 0 : presentCount * 100.0 / lessonCount;
+        }
+
+        public double scoreRate() {
+            return possible == 0 ? 0 : earned * 100.0 / possible;
+        }
+    }
+
+    public record GroupTotals(int id, String name, int studentCount, long presentCount, long markedCount,
+            double earned, double possible) {
+        public double attendanceRate() {
+            return markedCount == 0 ? 0 : presentCount * 100.0 / markedCount;
+        }
+
+        public double scoreRate() {
+            return possible == 0 ? 0 : earned * 100.0 / possible;
+        }
+    }
 
     public static SummaryStat getSummaryStatistics() {
-        int students = 0, groups = 0, lessons = 0;
-        double avgAtt = 0;
-        
-        try (Connection conn = DatabaseManager.getConnection()) {
-            try (Statement stmt = conn.createStatement()) {
-                ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM students");
-                if (rs.next()) students = rs.getInt(1);
-                
-                rs = stmt.executeQuery("SELECT COUNT(*) FROM groups");
-                if (rs.next()) groups = rs.getInt(1);
-                
-                rs = stmt.executeQuery("SELECT COALESCE(AVG(CAST(present AS DOUBLE)) * 100, 0) FROM attendance");
-                if (rs.next()) avgAtt = rs.getDouble(1);
-            }
-            
-            try (PreparedStatement pstmt = conn.prepareStatement("SELECT COUNT(*) FROM schedules WHERE day_of_week = ?")) {
-                pstmt.setInt(1, java.time.LocalDate.now().getDayOfWeek().getValue());
-                ResultSet rs = pstmt.executeQuery();
-                if (rs.next()) lessons = rs.getInt(1);
-            }
+        int lessons = ScheduleService.getIndex().lessonsOn(LocalDate.now()).size();
+        try {
+            return ReplicaService.read(conn -> {
+                int students = 0, groups = 0;
+                double avgAtt = 0;
+                try (Statement stmt = conn.createStatement()) {
+                    ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM students");
+                    if (rs.next()) students = rs.getInt(1);
+
+                    rs = stmt.executeQuery("SELECT COUNT(*) FROM groups");
+                    if (rs.next()) groups = rs.getInt(1);
+
+                    rs = stmt.executeQuery("SELECT COALESCE(AVG(CAST(present AS DOUBLE)) * 100, 0) FROM attendance");
+                    if (rs.next()) avgAtt = rs.getDouble(1);
+                }
+                return new SummaryStat(students, groups, lessons, avgAtt);
+            });
         } catch (SQLException e) {
             e.printStackTrace();
         }
-        return new SummaryStat(students, groups, lessons, avgAtt);
+        return new SummaryStat(0, 0, lessons, 0);
     }
 
     public static List<GroupStat> getGroupStatistics() {
         List<GroupStat> stats = new ArrayList<>();
+        try {
+            streamGroupStatistics(stats::add);
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return stats;
+    }
+
+    /** Same rows as {@link #getGroupStatistics()}, handed over while the cursor is open. */
+    public static void streamGroupStatistics(Consumer<GroupStat> consumer) throws SQLException {
+        ReplicaService.read(conn -> {
+            streamGroupStatistics(conn, consumer);
+            return null;
+        });
+    }
+
+    /** {@link #streamGroupStatistics(Consumer)} on a given connection, such as an export's. */
+    public static void streamGroupStatistics(Connection conn, Consumer<GroupStat> consumer) throws SQLException {
+        streamGroupTotals(conn, t -> consumer.accept(
+                new GroupStat(t.id(), t.name(), t.studentCount(), t.attendanceRate(), t.scoreRate())));
+    }
+
+    /**
+     * The sums behind {@link GroupStat} on any connection. Unlike the rates they can be added up
+     * across databases.
+     */
+    public static void streamGroupTotals(Connection conn, Consumer<GroupTotals> consumer) throws SQLException {
         String query = "SELECT g.id, g.name, " +
                 "(SELECT COUNT(*) FROM student_groups WHERE group_id = g.id) as student_count, " +
-                "COALESCE((SELECT AVG(CAST(present AS DOUBLE)) * 100 FROM attendance a JOIN lessons l ON a.lesson_id = l.id WHERE l.group_id = g.id), 0) as avg_att, " +
-                "COALESCE((" +
-                "  (COALESCE((SELECT SUM(h.score) FROM homeworks h JOIN lessons l ON h.lesson_id = l.id WHERE l.group_id = g.id), 0) + " +
-                "   COALESCE((SELECT SUM(tr.total_score) FROM test_results tr JOIN test_sessions ts ON tr.test_session_id = ts.id JOIN lessons l ON ts.lesson_id = l.id WHERE l.group_id = g.id), 0) + " +
-                "   COALESCE((SELECT SUM(qr.total_score) FROM question_results qr JOIN question_sessions qs ON qr.question_session_id = qs.id JOIN lessons l ON qs.lesson_id = l.id WHERE l.group_id = g.id), 0)" +
-                "  ) * 100.0 / NULLIF(" +
-                "   COALESCE((SELECT SUM(l.homework_total_score) FROM homeworks h JOIN lessons l ON h.lesson_id = l.id WHERE l.group_id = g.id), 0) + " +
-                "   COALESCE((SELECT SUM(ts.total_questions) FROM test_results tr JOIN test_sessions ts ON tr.test_session_id = ts.id JOIN lessons l ON ts.lesson_id = l.id WHERE l.group_id = g.id), 0) + " +
-                "   COALESCE((SELECT SUM(qs.total_questions) FROM question_results qr JOIN question_sessions qs ON qr.question_session_id = qs.id JOIN lessons l ON qs.lesson_id = l.id WHERE l.group_id = g.id), 0)" +
-                "  , 0)" +
-                "), 0) as avg_score " +
+                "COALESCE((SELECT SUM(a.present) FROM attendance a JOIN lessons l ON a.lesson_id = l.id WHERE l.group_id = g.id), 0) as present_count, " +
+                "(SELECT COUNT(a.present) FROM attendance a JOIN lessons l ON a.lesson_id = l.id WHERE l.group_id = g.id) as marked_count, " +
+                "COALESCE((SELECT SUM(h.score) FROM homeworks h JOIN lessons l ON h.lesson_id = l.id WHERE l.group_id = g.id), 0) + " +
+                "COALESCE((SELECT SUM(tr.total_score) FROM test_results tr JOIN test_sessions ts ON tr.test_session_id = ts.id JOIN lessons l ON ts.lesson_id = l.id WHERE l.group_id = g.id), 0) + " +
+                "COALESCE((SELECT SUM(qr.total_score) FROM question_results qr JOIN question_sessions qs ON qr.question_session_id = qs.id JOIN lessons l ON qs.lesson_id = l.id WHERE l.group_id = g.id), 0) as earned, " +
+                "COALESCE((SELECT SUM(l.homework_total_score) FROM homeworks h JOIN lessons l ON h.lesson_id = l.id WHERE l.group_id = g.id), 0) + " +
+                "COALESCE((SELECT SUM(ts.total_questions) FROM test_results tr JOIN test_sessions ts ON tr.test_session_id = ts.id JOIN lessons l ON ts.lesson_id = l.id WHERE l.group_id = g.id), 0) + " +
+                "COALESCE((SELECT SUM(qs.total_questions) FROM question_results qr JOIN question_sessions qs ON qr.question_session_id = qs.id JOIN lessons l ON qs.lesson_id = l.id WHERE l.group_id = g.id), 0) as possible " +
                 "FROM groups g";
-        
-        try (Connection conn = DatabaseManager.getConnection();
-             Statement stmt = conn.createStatement();
+
+        try (Statement stmt = conn.createStatement();
              ResultSet rs = stmt.executeQuery(query)) {
             while (rs.next()) {
-                stats.add(new GroupStat(
+                consumer.accept(new GroupTotals(
                         rs.getInt("id"),
                         rs.getString("name"),
                         rs.getInt("student_count"),
-                        rs.getDouble("avg_att"),
-                        rs.getDouble("avg_score")
+                        rs.getLong("present_count"),
+                        rs.getLong("marked_count"),
+                        rs.getDouble("earned"),
+                        rs.getDouble("possible")
                 ));
             }
-        } catch (SQLException e) {
-            e.printStackTrace();
         }
-        return stats;
     }
 
     public static List<StudentStat> getStudentStatistics(int groupId) {
@@ -110,27 +155,40 @@ public class ReportService {
                 "WHERE sg.group_id = ? " +
                 "ORDER BY avg_score DESC";
         
-        try (Connection conn = DatabaseManager.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(query)) {
-            pstmt.setInt(1, groupId);
-            pstmt.setInt(2, groupId);
-            pstmt.setInt(3, groupId);
-            pstmt.setInt(4, groupId);
-            pstmt.setInt(5, groupId);
-            pstmt.setInt(6, groupId);
-            try (ResultSet rs = pstmt.executeQuery()) {
-                int rank = 1;
-                while (rs.next()) {
-                    stats.add(new StudentStat(
-                            rs.getInt("id"),
-                            rs.getString("full_name"),
-                            rs.getDouble("att_rate"),
-                            rs.getDouble("avg_score"),
-                            rank++,
-                            rs.getInt("missed_lessons")
-                    ));
+        try {
+            ReplicaService.read(conn -> {
+                try (PreparedStatement pstmt = conn.prepareStatement(query)) {
+                    pstmt.setInt(1, groupId);
+                    pstmt.setInt(2, groupId);
+                    pstmt.setInt(3, groupId);
+                    pstmt.setInt(4, groupId);
+                    pstmt.setInt(5, groupId);
+                    pstmt.setInt(6, groupId);
+                    try (ResultSet rs = pstmt.executeQuery()) {
+                        int position = 0;
+                        int rank = 0;
+                        double previousScore = Double.NaN;
+                        while (rs.next()) {
+                            double avgScore = rs.getDouble("avg_score");
+                            position++;
+                            // Equal scores share a rank (competition ranking: 1, 2, 2, 4)
+                            if (Double.compare(avgScore, previousScore) != 0) {
+                                rank = position;
+                                previousScore = avgScore;
+                            }
+                            stats.add(new StudentStat(
+                                    rs.getInt("id"),
+                                    rs.getString("full_name"),
+                                    rs.getDouble("att_rate"),
+                                    avgScore,
+                                    rank,
+                                    rs.getInt("missed_lessons")
+                            ));
+                        }
+                    }
                 }
-            }
+                return null;
+            });
         } catch (SQLException e) {
             e.printStackTrace();
         }
@@ -139,18 +197,44 @@ public class ReportService {
 
     public static List<StudentStat> getStudentStatistics(int groupId, LocalDate fromDate, LocalDate toDate) {
         List<StudentStat> stats = new ArrayList<>();
+        try {
+            streamStudentStatistics(groupId, fromDate, toDate, stats::add);
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return stats;
+    }
+
+    /** Same rows as {@link #getStudentStatistics(int, LocalDate, LocalDate)}, best first, straight from the cursor. */
+    public static void streamStudentStatistics(int groupId, LocalDate fromDate, LocalDate toDate,
+                                               Consumer<StudentStat> consumer) throws SQLException {
+        ArchiveService.Tables t = ArchiveService.tablesFor(fromDate, toDate);
+        ReplicaService.read(t, conn -> {
+            streamStudentStatistics(conn, t, groupId, fromDate, toDate, consumer);
+            return null;
+        });
+    }
+
+    /** {@link #streamStudentStatistics(int, LocalDate, LocalDate, Consumer)} on a given connection, such as an export's. */
+    public static void streamStudentStatistics(Connection conn, int groupId, LocalDate fromDate, LocalDate toDate,
+                                               Consumer<StudentStat> consumer) throws SQLException {
+        streamStudentStatistics(conn, ArchiveService.tablesFor(conn, fromDate, toDate), groupId, fromDate, toDate, consumer);
+    }
+
+    private static void streamStudentStatistics(Connection conn, ArchiveService.Tables t, int groupId, LocalDate fromDate,
+                                                LocalDate toDate, Consumer<StudentStat> consumer) throws SQLException {
         String query = "SELECT s.id, s.first_name || ' ' || s.last_name as full_name, " +
-                "COALESCE((SELECT AVG(CAST(present AS DOUBLE)) * 100 FROM attendance a JOIN lessons l ON a.lesson_id = l.id WHERE a.student_id = s.id AND l.group_id = ? AND DATE(l.lesson_date) >= ? AND DATE(l.lesson_date) <= ?), 0) as att_rate, " +
+                "COALESCE((SELECT AVG(CAST(present AS DOUBLE)) * 100 FROM " + t.of("attendance") + " a JOIN " + t.of("lessons") + " l ON a.lesson_id = l.id WHERE a.student_id = s.id AND l.group_id = ? AND DATE(l.lesson_date) >= ? AND DATE(l.lesson_date) <= ?), 0) as att_rate, " +
                 "COALESCE(" +
                 " (SELECT (SUM(earned) * 100.0 / NULLIF(SUM(total), 0)) FROM (" +
-                "   SELECT SUM(h.score) as earned, SUM(l.homework_total_score) as total FROM homeworks h JOIN lessons l ON h.lesson_id = l.id WHERE h.student_id = s.id AND l.group_id = ? AND DATE(l.lesson_date) >= ? AND DATE(l.lesson_date) <= ?" +
+                "   SELECT SUM(h.score) as earned, SUM(l.homework_total_score) as total FROM " + t.of("homeworks") + " h JOIN " + t.of("lessons") + " l ON h.lesson_id = l.id WHERE h.student_id = s.id AND l.group_id = ? AND DATE(l.lesson_date) >= ? AND DATE(l.lesson_date) <= ?" +
                 "   UNION ALL " +
-                "   SELECT SUM(tr.total_score) as earned, SUM(ts.total_questions) as total FROM test_results tr JOIN test_sessions ts ON tr.test_session_id = ts.id JOIN lessons l ON ts.lesson_id = l.id WHERE tr.student_id = s.id AND l.group_id = ? AND DATE(l.lesson_date) >= ? AND DATE(l.lesson_date) <= ?" +
+                "   SELECT SUM(tr.total_score) as earned, SUM(ts.total_questions) as total FROM " + t.of("test_results") + " tr JOIN " + t.of("test_sessions") + " ts ON tr.test_session_id = ts.id JOIN " + t.of("lessons") + " l ON ts.lesson_id = l.id WHERE tr.student_id = s.id AND l.group_id = ? AND DATE(l.lesson_date) >= ? AND DATE(l.lesson_date) <= ?" +
                 "   UNION ALL " +
-                "   SELECT SUM(qr.total_score) as earned, SUM(qs.total_questions) as total FROM question_results qr JOIN question_sessions qs ON qr.question_session_id = qs.id JOIN lessons l ON qs.lesson_id = l.id WHERE qr.student_id = s.id AND l.group_id = ? AND DATE(l.lesson_date) >= ? AND DATE(l.lesson_date) <= ?" +
+                "   SELECT SUM(qr.total_score) as earned, SUM(qs.total_questions) as total FROM " + t.of("question_results") + " qr JOIN " + t.of("question_sessions") + " qs ON qr.question_session_id = qs.id JOIN " + t.of("lessons") + " l ON qs.lesson_id = l.id WHERE qr.student_id = s.id AND l.group_id = ? AND DATE(l.lesson_date) >= ? AND DATE(l.lesson_date) <= ?" +
                 " )" +
                 "), 0) as avg_score, " +
-                "COALESCE((SELECT COUNT(*) FROM attendance a JOIN lessons l ON a.lesson_id = l.id WHERE a.student_id = s.id AND l.group_id = ? AND DATE(l.lesson_date) >= ? AND DATE(l.lesson_date) <= ? AND a.present = 0), 0) as missed_lessons " +
+                "COALESCE((SELECT COUNT(*) FROM " + t.of("attendance") + " a JOIN " + t.of("lessons") + " l ON a.lesson_id = l.id WHERE a.student_id = s.id AND l.group_id = ? AND DATE(l.lesson_date) >= ? AND DATE(l.lesson_date) <= ? AND a.present = 0), 0) as missed_lessons " +
                 "FROM students s " +
                 "JOIN student_groups sg ON s.id = sg.student_id " +
                 "WHERE sg.group_id = ? " +
@@ -159,8 +243,7 @@ public class ReportService {
         String fromDateStr = fromDate.toString();
         String toDateStr = toDate.toString();
         
-        try (Connection conn = DatabaseManager.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(query)) {
+        try (PreparedStatement pstmt = conn.prepareStatement(query)) {
             int paramIndex = 1;
             
             pstmt.setInt(paramIndex++, groupId);
@@ -186,22 +269,110 @@ public class ReportService {
             pstmt.setInt(paramIndex, groupId);
             
             try (ResultSet rs = pstmt.executeQuery()) {
-                int rank = 1;
+                int position = 0;
+                int rank = 0;
+                double previousScore = Double.NaN;
                 while (rs.next()) {
-                    stats.add(new StudentStat(
+                    double avgScore = rs.getDouble("avg_score");
+                    position++;
+                    // Equal scores share a rank (competition ranking: 1, 2, 2, 4)
+                    if (Double.compare(avgScore, previousScore) != 0) {
+                        rank = position;
+                        previousScore = avgScore;
+                    }
+                    consumer.accept(new StudentStat(
                             rs.getInt("id"),
                             rs.getString("full_name"),
                             rs.getDouble("att_rate"),
-                            rs.getDouble("avg_score"),
-                            rank++,
+                            avgScore,
+                            rank,
                             rs.getInt("missed_lessons")
                     ));
                 }
             }
+        }
+    }
+
+    /**
+     * Raw attendance and score sums for every student-group pair, computed with one grouped pass
+     * over each table instead of per-student correlated subqueries. A null groupId means all groups,
+     * null dates mean no bound; archived years are read when the range reaches into them, so a
+     * null fromDate reads all of them.
+     */
+    public static List<StudentGroupTotals> getStudentGroupTotals(Integer groupId, LocalDate fromDate, LocalDate toDate) {
+        List<StudentGroupTotals> totals = new ArrayList<>();
+        try {
+            ArchiveService.Tables t = ArchiveService.tablesFor(fromDate, toDate);
+            ReplicaService.read(t, conn -> {
+                streamStudentGroupTotals(conn, t, groupId, fromDate, toDate, totals::add);
+                return null;
+            });
         } catch (SQLException e) {
-            e.printStackTrace();
+            log.error("Failed to load student totals", e);
+        }
+        return totals;
+    }
+
+    /** The rows of {@link #getStudentGroupTotals} on any connection, reading the given tables. */
+    public static void streamStudentGroupTotals(Connection conn, ArchiveService.Tables t, Integer groupId,
+                                                LocalDate fromDate, LocalDate toDate,
+                                                Consumer<StudentGroupTotals> consumer) throws SQLException {
+        String lessonFilter = "WHERE (? IS NULL OR l.group_id = ?) AND (? IS NULL OR DATE(l.lesson_date) >= ?) AND (? IS NULL OR DATE(l.lesson_date) <= ?) ";
+        String query = "SELECT sg.student_id, sg.group_id, s.first_name || ' ' || s.last_name as full_name, g.name as group_name, " +
+                "COALESCE(att.present_count, 0) as present_count, COALESCE(att.lesson_count, 0) as lesson_count, " +
+                "COALESCE(sc.earned, 0) as earned, COALESCE(sc.possible, 0) as possible " +
+                "FROM student_groups sg " +
+                "JOIN students s ON s.id = sg.student_id " +
+                "JOIN groups g ON g.id = sg.group_id " +
+                "LEFT JOIN (" +
+                "  SELECT a.student_id, l.group_id, SUM(a.present) as present_count, COUNT(a.present) as lesson_count " +
+                "  FROM " + t.of("attendance") + " a JOIN " + t.of("lessons") + " l ON a.lesson_id = l.id " + lessonFilter +
+                "  GROUP BY a.student_id, l.group_id" +
+                ") att ON att.student_id = sg.student_id AND att.group_id = sg.group_id " +
+                "LEFT JOIN (" +
+                "  SELECT student_id, group_id, SUM(earned) as earned, SUM(total) as possible FROM (" +
+                "    SELECT h.student_id, l.group_id, h.score as earned, l.homework_total_score as total " +
+                "    FROM " + t.of("homeworks") + " h JOIN " + t.of("lessons") + " l ON h.lesson_id = l.id " + lessonFilter +
+                "    UNION ALL " +
+                "    SELECT tr.student_id, l.group_id, tr.total_score, ts.total_questions " +
+                "    FROM " + t.of("test_results") + " tr JOIN " + t.of("test_sessions") + " ts ON tr.test_session_id = ts.id JOIN " + t.of("lessons") + " l ON ts.lesson_id = l.id " + lessonFilter +
+                "    UNION ALL " +
+                "    SELECT qr.student_id, l.group_id, qr.total_score, qs.total_questions " +
+                "    FROM " + t.of("question_results") + " qr JOIN " + t.of("question_sessions") + " qs ON qr.question_session_id = qs.id JOIN " + t.of("lessons") + " l ON qs.lesson_id = l.id " + lessonFilter +
+                "  ) GROUP BY student_id, group_id" +
+                ") sc ON sc.student_id = sg.student_id AND sc.group_id = sg.group_id " +
+                "WHERE (? IS NULL OR sg.group_id = ?)";
+
+        String from = fromDate != null ? fromDate.toString() : null;
+        String to = toDate != null ? toDate.toString() : null;
+
+        try (PreparedStatement pstmt = conn.prepareStatement(query)) {
+            int paramIndex = 1;
+            for (int i = 0; i < 4; i++) {
+                pstmt.setObject(paramIndex++, groupId);
+                pstmt.setObject(paramIndex++, groupId);
+                pstmt.setString(paramIndex++, from);
+                pstmt.setString(paramIndex++, from);
+                pstmt.setString(paramIndex++, to);
+                pstmt.setString(paramIndex++, to);
+            }
+            pstmt.setObject(paramIndex++, groupId);
+            pstmt.setObject(paramIndex, groupId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    consumer.accept(new StudentGroupTotals(
+                            rs.getInt("student_id"),
+                            rs.getString("full_name"),
+                            rs.getInt("group_id"),
+                            rs.getString("group_name"),
+                            rs.getInt("present_count"),
+                            rs.getInt("lesson_count"),
+                            rs.getDouble("earned"),
+                            rs.getDouble("possible")
+                    ));
+                }
+            }
         }
-        return stats;
     }
 
     public static List<AttendanceDetail> getIndividualStudentAttendance(int studentId, int groupId) {
@@ -217,57 +388,61 @@ public class ReportService {
                 "FROM lessons l " +
                 "JOIN attendance a ON l.id = a.lesson_id " +
                 "LEFT JOIN homeworks h ON l.id = h.lesson_id AND h.student_id = a.student_id " +
-                "WHERE a.student_id = ? AND l.group_id = ? " +
+                "WHERE a.student_id = ? AND l.group_id = ? AND a.present IS NOT NULL " +
                 "ORDER BY l.lesson_date DESC";
         
-        try (Connection conn = DatabaseManager.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(query)) {
-            pstmt.setInt(1, studentId);
-            pstmt.setInt(2, groupId);
-            try (ResultSet rs = pstmt.executeQuery()) {
-                while (rs.next()) {
-                    Double hwScore = (Double) rs.getObject("hw_score");
-                    String qsInfo = rs.getString("qs_info");
-                    String tsInfo = rs.getString("ts_info");
+        try {
+            ReplicaService.read(conn -> {
+                try (PreparedStatement pstmt = conn.prepareStatement(query)) {
+                    pstmt.setInt(1, studentId);
+                    pstmt.setInt(2, groupId);
+                    try (ResultSet rs = pstmt.executeQuery()) {
+                        while (rs.next()) {
+                            Double hwScore = (Double) rs.getObject("hw_score");
+                            String qsInfo = rs.getString("qs_info");
+                            String tsInfo = rs.getString("ts_info");
                     
-                    StringBuilder breakdown = new StringBuilder();
-                    double totalScore = 0;
+                            StringBuilder breakdown = new StringBuilder();
+                            double totalScore = 0;
                     
-                    if (hwScore != null) {
-                        totalScore += hwScore;
-                        breakdown.append("Uy vazifa: ").append(hwScore);
-                    } else {
-                        breakdown.append("Uy vazifa: -");
-                    }
+                            if (hwScore != null) {
+                                totalScore += hwScore;
+                                breakdown.append("Uy vazifa: ").append(hwScore);
+                            } else {
+                                breakdown.append("Uy vazifa: -");
+                            }
                     
-                    if (qsInfo != null && !qsInfo.isEmpty()) {
-                        breakdown.append(", ").append(qsInfo);
-                        // Extract scores to add to total
-                        for (String s : qsInfo.split("; ")) {
-                            try {
-                                totalScore += Double.parseDouble(s.substring(s.lastIndexOf(":") + 1).trim());
-                            } catch (Exception ignored) {}
-                        }
-                    }
+                            if (qsInfo != null && !qsInfo.isEmpty()) {
+                                breakdown.append(", ").append(qsInfo);
+                                // Extract scores to add to total
+                                for (String s : qsInfo.split("; ")) {
+                                    try {
+                                        totalScore += Double.parseDouble(s.substring(s.lastIndexOf(":") + 1).trim());
+                                    } catch (Exception ignored) {}
+                                }
+                            }
                     
-                    if (tsInfo != null && !tsInfo.isEmpty()) {
-                        breakdown.append(", ").append(tsInfo);
-                        // Extract scores to add to total
-                        for (String s : tsInfo.split("; ")) {
-                            try {
-                                totalScore += Double.parseDouble(s.substring(s.lastIndexOf(":") + 1).trim());
-                            } catch (Exception ignored) {}
+                            if (tsInfo != null && !tsInfo.isEmpty()) {
+                                breakdown.append(", ").append(tsInfo);
+                                // Extract scores to add to total
+                                for (String s : tsInfo.split("; ")) {
+                                    try {
+                                        totalScore += Double.parseDouble(s.substring(s.lastIndexOf(":") + 1).trim());
+                                    } catch (Exception ignored) {}
+                                }
+                            }
+
+                            details.add(new AttendanceDetail(
+                                    rs.getString("lesson_date"),
+                                    rs.getInt("present") == 1,
+                                    totalScore,
+                                    breakdown.toString()
+                            ));
                         }
                     }
-
-                    details.add(new AttendanceDetail(
-                            rs.getString("lesson_date"),
-                            rs.getInt("present") == 1,
-                            totalScore,
-                            breakdown.toString()
-                    ));
                 }
-            }
+                return null;
+            });
         } catch (SQLException e) {
             e.printStackTrace();
         }
@@ -276,101 +451,24 @@ public class ReportService {
 
     public static List<LessonStat> getGroupLessonStatistics(int groupId) {
         List<LessonStat> stats = new ArrayList<>();
-        String query = "SELECT l.lesson_date, COALESCE(AVG(h.score), 0) as avg_score " +
-                "FROM lessons l " +
-                "LEFT JOIN homeworks h ON l.id = h.lesson_id AND h.score IS NOT NULL " +
-                "WHERE l.group_id = ? " +
-                "GROUP BY l.lesson_date " +
-                "ORDER BY l.lesson_date DESC";
-
-        try (Connection conn = DatabaseManager.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(query)) {
-            pstmt.setInt(1, groupId);
-            try (ResultSet rs = pstmt.executeQuery()) {
-                while (rs.next()) {
-                    stats.add(new LessonStat(
-                            rs.getString("lesson_date"),
-                            rs.getDouble("avg_score")
-                    ));
-                }
-            }
-        } catch (SQLException e) {
-            e.printStackTrace();
+        // Combined homework, test and question ratio per lesson, newest first
+        List<RollupService.TrendPoint> points = RollupService.getGroupTrend(groupId, RollupService.Bucket.LESSON,
+                LocalDate.of(1, 1, 1), LocalDate.of(9999, 12, 31));
+        for (int i = points.size() - 1; i >= 0; i--) {
+            RollupService.TrendPoint p = points.get(i);
+            stats.add(new LessonStat(p.bucketStart().toString(), p.scoreRate()));
         }
         return stats;
     }
 
     public static List<UpcomingLesson> getUpcomingLessons() {
         List<UpcomingLesson> lessons = new ArrayList<>();
-        int dayOfWeek = java.time.LocalDate.now().getDayOfWeek().getValue();
-        // SQLite dayofweek is different if we use strftime, but we have day_of_week as INTEGER (1-7)
-        // In Java Monday=1, Sunday=7. Let's assume our DB also uses 1-7 for Mon-Sun.
-        
-        String query = "SELECT s.id, g.name as group_name, s.lesson_time " +
-                "FROM schedules s " +
-                "JOIN groups g ON s.group_id = g.id " +
-                "WHERE s.day_of_week = ? " +
-                "ORDER BY s.lesson_time ASC";
-
-        try (Connection conn = DatabaseManager.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(query)) {
-            pstmt.setInt(1, dayOfWeek);
-            try (ResultSet rs = pstmt.executeQuery()) {
-                while (rs.next()) {
-                    lessons.add(new UpcomingLesson(
-                            rs.getInt("id"),
-                            rs.getString("group_name"),
-                            rs.getString("lesson_time")
-                    ));
-                }
-            }
-        } catch (SQLException e) {
-            e.printStackTrace();
+        for (ScheduleIndex.Occurrence o : ScheduleService.getIndex().lessonsOn(LocalDate.now())) {
+            lessons.add(new UpcomingLesson(o.schedule().getId(), o.schedule().getGroupName(), o.schedule().getLessonTime()));
         }
         return lessons;
     }
 
-    public static List<RiskStudent> getAtRiskStudents() {
-        List<RiskStudent> students = new ArrayList<>();
-        String query = "SELECT s.id, s.first_name || ' ' || s.last_name as full_name, g.name as group_name, " +
-                "COALESCE((SELECT AVG(CAST(present AS DOUBLE)) * 100 FROM attendance a JOIN lessons l ON a.lesson_id = l.id WHERE a.student_id = s.id), 0) as attendance_rate, " +
-                "COALESCE((" +
-                "  COALESCE((SELECT SUM(h.score) FROM homeworks h JOIN lessons l ON h.lesson_id = l.id WHERE h.student_id = s.id), 0) + " +
-                "  COALESCE((SELECT SUM(tr.total_score) FROM test_results tr JOIN test_sessions ts ON tr.test_session_id = ts.id JOIN lessons l ON ts.lesson_id = l.id WHERE tr.student_id = s.id), 0) + " +
-                "  COALESCE((SELECT SUM(qr.total_score) FROM question_results qr JOIN question_sessions qs ON qr.question_session_id = qs.id JOIN lessons l ON qs.lesson_id = l.id WHERE qr.student_id = s.id), 0)" +
-                ") * 100.0 / NULLIF(" +
-                "  COALESCE((SELECT SUM(l.homework_total_score) FROM homeworks h JOIN lessons l ON h.lesson_id = l.id WHERE h.student_id = s.id), 0) + " +
-                "  COALESCE((SELECT SUM(ts.total_questions) FROM test_results tr JOIN test_sessions ts ON tr.test_session_id = ts.id JOIN lessons l ON ts.lesson_id = l.id WHERE tr.student_id = s.id), 0) + " +
-                "  COALESCE((SELECT SUM(qs.total_questions) FROM question_results qr JOIN question_sessions qs ON qr.question_session_id = qs.id JOIN lessons l ON qs.lesson_id = l.id WHERE qr.student_id = s.id), 0)" +
-                ", 0), 0) as performance_rate " +
-                "FROM students s " +
-                "JOIN student_groups sg ON s.id = sg.student_id " +
-                "JOIN groups g ON sg.group_id = g.id " +
-                "WHERE (SELECT COUNT(*) FROM lessons WHERE group_id = g.id) > 0 " +
-                "GROUP BY s.id, g.id " +
-                "HAVING attendance_rate < 75 OR performance_rate < 50 " +
-                "ORDER BY attendance_rate ASC, performance_rate ASC " +
-                "LIMIT 10";
-
-        try (Connection conn = DatabaseManager.getConnection();
-             Statement stmt = conn.createStatement();
-             ResultSet rs = stmt.executeQuery(query)) {
-            while (rs.next()) {
-                students.add(new RiskStudent(
-                        rs.getInt("id"),
-                        rs.getString("full_name"),
-                        rs.getDouble("attendance_rate"),
-                        rs.getDouble("performance_rate"),
-                        rs.getString("group_name")
-                ));
-            }
-        } catch (SQLException e) {
-            log.error(e.getSQLState());
-            log.error(e.getMessage());
-        }
-        return students;
-    }
-
     public static List<DetailedLessonScore> getDetailedLessonScores(int studentId, int groupId) {
         List<DetailedLessonScore> details = new ArrayList<>();
         
@@ -380,56 +478,175 @@ public class ReportService {
         String query = "SELECT l.id, l.lesson_date, a.present " +
                 "FROM lessons l " +
                 "JOIN attendance a ON l.id = a.lesson_id " +
-                "WHERE a.student_id = ? AND l.group_id = ? " +
+                "WHERE a.student_id = ? AND l.group_id = ? AND a.present IS NOT NULL " +
                 "ORDER BY l.lesson_date DESC";
         
-        try (Connection conn = DatabaseManager.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(query)) {
-            pstmt.setInt(1, studentId);
-            pstmt.setInt(2, groupId);
-            try (ResultSet rs = pstmt.executeQuery()) {
-                while (rs.next()) {
-                    lessonBasics.add(new LessonBasic(
-                            rs.getInt("id"),
-                            rs.getString("lesson_date"),
-                            rs.getInt("present") == 1
-                    ));
+        try {
+            ReplicaService.read(conn -> {
+                try (PreparedStatement pstmt = conn.prepareStatement(query)) {
+                    pstmt.setInt(1, studentId);
+                    pstmt.setInt(2, groupId);
+                    try (ResultSet rs = pstmt.executeQuery()) {
+                        while (rs.next()) {
+                            lessonBasics.add(new LessonBasic(
+                                    rs.getInt("id"),
+                                    rs.getString("lesson_date"),
+                                    rs.getInt("present") == 1
+                            ));
+                        }
+                    }
                 }
-            }
+
+                for (LessonBasic lesson : lessonBasics) {
+                    List<TestScore> tests = getTestScores(conn, lesson.id, studentId);
+                    List<HomeworkScore> homeworks = getHomeworkScores(conn, lesson.id, studentId);
+                    List<QuestionScore> questions = getQuestionScores(conn, lesson.id, studentId);
+            
+                    double totalScore = 0;
+                    double totalValue = 0;
+                    for (TestScore t : tests) {
+                        totalScore += t.score();
+                        totalValue += t.total();
+                    }
+                    for (HomeworkScore h : homeworks) {
+                        totalScore += h.score();
+                        totalValue += h.total();
+                    }
+                    for (QuestionScore q : questions) {
+                        totalScore += q.score();
+                        totalValue += q.total();
+                    }
+            
+                    details.add(new DetailedLessonScore(lesson.date, lesson.present, tests, homeworks, questions, totalScore, totalValue));
+                }
+                return null;
+            });
         } catch (SQLException e) {
             log.error(e.getSQLState());
             log.error(e.getMessage());
         }
-        
-        for (LessonBasic lesson : lessonBasics) {
-            List<TestScore> tests = getTestScores(lesson.id, studentId);
-            List<HomeworkScore> homeworks = getHomeworkScores(lesson.id, studentId);
-            List<QuestionScore> questions = getQuestionScores(lesson.id, studentId);
-            
-            double totalScore = 0;
-            double totalValue = 0;
-            for (TestScore t : tests) {
-                totalScore += t.score();
-                totalValue += t.total();
-            }
-            for (HomeworkScore h : homeworks) {
-                totalScore += h.score();
-                totalValue += h.total();
-            }
-            for (QuestionScore q : questions) {
-                totalScore += q.score();
-                totalValue += q.total();
-            }
-            
-            details.add(new DetailedLessonScore(lesson.date, lesson.present, tests, homeworks, questions, totalScore, totalValue));
-        }
-        
+
         return details;
     }
     
+    /**
+     * Same result as {@link #getDetailedLessonScores(int, int)} for every student of a group at once,
+     * with four queries in total instead of three per lesson per student. Used by batch exports.
+     */
+    public static Map<Integer, List<DetailedLessonScore>> getDetailedLessonScoresForGroup(int groupId) {
+        record SessionScore(String topic, int total, Map<Integer, Double> scores) {}
+
+        Map<Integer, List<SessionScore>> testsByLesson = new HashMap<>();
+        Map<Integer, List<SessionScore>> questionsByLesson = new HashMap<>();
+        Map<Integer, Double> homeworkTotals = new HashMap<>();
+        Map<Integer, Map<Integer, List<Double>>> homeworkScores = new HashMap<>();
+        Map<Integer, List<DetailedLessonScore>> result = new LinkedHashMap<>();
+
+        String sessionsQuery = "SELECT s.id, s.lesson_id, s.topic, s.total_questions, r.student_id, r.total_score " +
+                "FROM %1$s_sessions s JOIN lessons l ON l.id = s.lesson_id " +
+                "LEFT JOIN %1$s_results r ON r.%1$s_session_id = s.id " +
+                "WHERE l.group_id = ? ORDER BY s.id";
+        String homeworkQuery = "SELECT l.id, l.homework_total_score, h.student_id, h.score " +
+                "FROM lessons l LEFT JOIN homeworks h ON h.lesson_id = l.id " +
+                "WHERE l.group_id = ? AND l.homework_total_score > 0";
+        String attendanceQuery = "SELECT a.student_id, l.id, l.lesson_date, a.present " +
+                "FROM lessons l JOIN attendance a ON l.id = a.lesson_id " +
+                "WHERE l.group_id = ? AND a.present IS NOT NULL ORDER BY a.student_id, l.lesson_date DESC";
+
+        try {
+            ReplicaService.read(conn -> {
+                for (String kind : new String[]{"test", "question"}) {
+                    Map<Integer, List<SessionScore>> target = kind.equals("test") ? testsByLesson : questionsByLesson;
+                    String fallbackTopic = kind.equals("test") ? "Test" : "Savol";
+                    try (PreparedStatement pstmt = conn.prepareStatement(String.format(sessionsQuery, kind))) {
+                        pstmt.setInt(1, groupId);
+                        try (ResultSet rs = pstmt.executeQuery()) {
+                            int currentSession = -1;
+                            SessionScore current = null;
+                            while (rs.next()) {
+                                int sessionId = rs.getInt("id");
+                                if (sessionId != currentSession) {
+                                    String topic = rs.getString("topic");
+                                    if (topic == null || topic.isEmpty()) topic = fallbackTopic;
+                                    current = new SessionScore(topic, rs.getInt("total_questions"), new HashMap<>());
+                                    target.computeIfAbsent(rs.getInt("lesson_id"), k -> new ArrayList<>()).add(current);
+                                    currentSession = sessionId;
+                                }
+                                int studentId = rs.getInt("student_id");
+                                if (!rs.wasNull()) current.scores().put(studentId, rs.getDouble("total_score"));
+                            }
+                        }
+                    }
+                }
+
+                try (PreparedStatement pstmt = conn.prepareStatement(homeworkQuery)) {
+                    pstmt.setInt(1, groupId);
+                    try (ResultSet rs = pstmt.executeQuery()) {
+                        while (rs.next()) {
+                            int lessonId = rs.getInt("id");
+                            homeworkTotals.put(lessonId, rs.getDouble("homework_total_score"));
+                            int studentId = rs.getInt("student_id");
+                            if (rs.wasNull()) continue;
+                            homeworkScores.computeIfAbsent(lessonId, k -> new HashMap<>())
+                                    .computeIfAbsent(studentId, k -> new ArrayList<>())
+                                    .add(rs.getDouble("score"));
+                        }
+                    }
+                }
+
+                try (PreparedStatement pstmt = conn.prepareStatement(attendanceQuery)) {
+                    pstmt.setInt(1, groupId);
+                    try (ResultSet rs = pstmt.executeQuery()) {
+                        while (rs.next()) {
+                            int studentId = rs.getInt("student_id");
+                            int lessonId = rs.getInt("id");
+                            boolean present = rs.getInt("present") == 1;
+
+                            List<TestScore> tests = new ArrayList<>();
+                            for (SessionScore t : testsByLesson.getOrDefault(lessonId, List.of())) {
+                                tests.add(new TestScore(t.topic(), t.scores().getOrDefault(studentId, 0.0), t.total()));
+                            }
+                            List<QuestionScore> questions = new ArrayList<>();
+                            for (SessionScore q : questionsByLesson.getOrDefault(lessonId, List.of())) {
+                                questions.add(new QuestionScore(q.topic(), q.scores().getOrDefault(studentId, 0.0), q.total()));
+                            }
+                            List<HomeworkScore> homeworks = new ArrayList<>();
+                            Double homeworkTotal = homeworkTotals.get(lessonId);
+                            if (homeworkTotal != null) {
+                                List<Double> scores = homeworkScores.getOrDefault(lessonId, Map.of()).get(studentId);
+                                if (scores == null) {
+                                    homeworks.add(new HomeworkScore(0, homeworkTotal));
+                                } else {
+                                    for (double score : scores) homeworks.add(new HomeworkScore(score, homeworkTotal));
+                                }
+                            }
+
+                            double totalScore = 0;
+                            double totalValue = 0;
+                            for (TestScore t : tests) { totalScore += t.score(); totalValue += t.total(); }
+                            for (HomeworkScore h : homeworks) { totalScore += h.score(); totalValue += h.total(); }
+                            for (QuestionScore q : questions) { totalScore += q.score(); totalValue += q.total(); }
+
+                            result.computeIfAbsent(studentId, k -> new ArrayList<>()).add(new DetailedLessonScore(
+                                    rs.getString("lesson_date"), present, tests, homeworks, questions, totalScore, totalValue));
+                        }
+                    }
+                }
+                return null;
+            });
+        } catch (SQLException e) {
+            log.error("Failed to load lesson scores for group {}", groupId, e);
+        }
+        return result;
+    }
+
     public static List<LessonScoreRow> getLessonScoreRows(int studentId, int groupId) {
+        return toLessonScoreRows(getDetailedLessonScores(studentId, groupId));
+    }
+
+    /** Flattens per-lesson details into table rows: one row per test, homework and question. */
+    public static List<LessonScoreRow> toLessonScoreRows(List<DetailedLessonScore> details) {
         List<LessonScoreRow> rows = new ArrayList<>();
-        List<DetailedLessonScore> details = getDetailedLessonScores(studentId, groupId);
         
         for (DetailedLessonScore detail : details) {
             String dateStr = detail.date();
@@ -458,15 +675,84 @@ public class ReportService {
         return rows;
     }
     
-    private static List<TestScore> getTestScores(int lessonId, int studentId) {
+    /**
+     * The rows of {@link #toLessonScoreRows} for many students at once, produced by a single query
+     * and handed over while the cursor is open: by group, student, newest lesson first.
+     * A null groupId means all groups, null dates mean no bound; archived years are read when the
+     * range reaches into them, so a null fromDate, as in the "all scores" export, reads all of them.
+     */
+    public static void streamLessonScoreRows(Integer groupId, LocalDate fromDate, LocalDate toDate,
+                                             Consumer<StudentLessonScoreRow> consumer) throws SQLException {
+        ArchiveService.Tables t = ArchiveService.tablesFor(fromDate, toDate);
+        ReplicaService.read(t, conn -> {
+            streamLessonScoreRows(conn, t, groupId, fromDate, toDate, consumer);
+            return null;
+        });
+    }
+
+    /** {@link #streamLessonScoreRows(Integer, LocalDate, LocalDate, Consumer)} on a given connection, such as an export's. */
+    public static void streamLessonScoreRows(Connection conn, Integer groupId, LocalDate fromDate, LocalDate toDate,
+                                             Consumer<StudentLessonScoreRow> consumer) throws SQLException {
+        streamLessonScoreRows(conn, ArchiveService.tablesFor(conn, fromDate, toDate), groupId, fromDate, toDate, consumer);
+    }
+
+    private static void streamLessonScoreRows(Connection conn, ArchiveService.Tables t, Integer groupId, LocalDate fromDate,
+                                              LocalDate toDate, Consumer<StudentLessonScoreRow> consumer) throws SQLException {
+        String query = "SELECT g.name AS group_name, s.first_name || ' ' || s.last_name AS full_name, " +
+                "l.lesson_date, a.present, x.kind, x.topic, x.total, " +
+                "CASE x.ord " +
+                "  WHEN 1 THEN (SELECT total_score FROM " + t.of("test_results") + " WHERE test_session_id = x.item_id AND student_id = a.student_id) " +
+                "  WHEN 2 THEN (SELECT score FROM " + t.of("homeworks") + " WHERE lesson_id = x.item_id AND student_id = a.student_id) " +
+                "  WHEN 3 THEN (SELECT total_score FROM " + t.of("question_results") + " WHERE question_session_id = x.item_id AND student_id = a.student_id) " +
+                "END AS score " +
+                "FROM " + t.of("attendance") + " a " +
+                "JOIN " + t.of("lessons") + " l ON l.id = a.lesson_id " +
+                "JOIN groups g ON g.id = l.group_id " +
+                "JOIN students s ON s.id = a.student_id " +
+                "LEFT JOIN (" +
+                "  SELECT lesson_id, 1 AS ord, id AS item_id, 'Test' AS kind, COALESCE(NULLIF(topic, ''), 'Test') AS topic, total_questions AS total FROM " + t.of("test_sessions") + " " +
+                "  UNION ALL SELECT id, 2, id, 'Uy vazifa', '-', homework_total_score FROM " + t.of("lessons") + " WHERE homework_total_score > 0 " +
+                "  UNION ALL SELECT lesson_id, 3, id, 'Savol', COALESCE(NULLIF(topic, ''), 'Savol'), total_questions FROM " + t.of("question_sessions") +
+                ") x ON x.lesson_id = l.id " +
+                "WHERE a.present IS NOT NULL AND (? IS NULL OR l.group_id = ?) AND (? IS NULL OR DATE(l.lesson_date) >= ?) AND (? IS NULL OR DATE(l.lesson_date) <= ?) " +
+                "ORDER BY g.name, g.id, full_name, a.student_id, l.lesson_date DESC, x.ord, x.item_id";
+
+        String from = fromDate != null ? fromDate.toString() : null;
+        String to = toDate != null ? toDate.toString() : null;
+        try (PreparedStatement pstmt = conn.prepareStatement(query)) {
+            pstmt.setObject(1, groupId);
+            pstmt.setObject(2, groupId);
+            pstmt.setString(3, from);
+            pstmt.setString(4, from);
+            pstmt.setString(5, to);
+            pstmt.setString(6, to);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    boolean present = rs.getInt("present") == 1;
+                    String status = present ? "Kelgan" : "Kelmagan";
+                    String kind = rs.getString("kind");
+                    LessonScoreRow row;
+                    if (kind == null) {
+                        row = new LessonScoreRow(rs.getString("lesson_date"), status, "-", "-", 0.0, 0.0);
+                    } else {
+                        double score = rs.getDouble("score");
+                        row = new LessonScoreRow(rs.getString("lesson_date"), status, kind, rs.getString("topic"),
+                                present ? score : null, rs.getDouble("total"));
+                    }
+                    consumer.accept(new StudentLessonScoreRow(rs.getString("group_name"), rs.getString("full_name"), row));
+                }
+            }
+        }
+    }
+
+    private static List<TestScore> getTestScores(Connection conn, int lessonId, int studentId) {
         List<TestScore> scores = new ArrayList<>();
         String query = "SELECT ts.topic, tr.total_score, ts.total_questions " +
                 "FROM test_sessions ts " +
                 "LEFT JOIN test_results tr ON ts.id = tr.test_session_id AND tr.student_id = ? " +
                 "WHERE ts.lesson_id = ?";
         
-        try (Connection conn = DatabaseManager.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(query)) {
+        try (PreparedStatement pstmt = conn.prepareStatement(query)) {
             pstmt.setInt(1, studentId);
             pstmt.setInt(2, lessonId);
             try (ResultSet rs = pstmt.executeQuery()) {
@@ -485,15 +771,14 @@ public class ReportService {
         return scores;
     }
     
-    private static List<HomeworkScore> getHomeworkScores(int lessonId, int studentId) {
+    private static List<HomeworkScore> getHomeworkScores(Connection conn, int lessonId, int studentId) {
         List<HomeworkScore> scores = new ArrayList<>();
         String query = "SELECT h.score, l.homework_total_score " +
                 "FROM lessons l " +
                 "LEFT JOIN homeworks h ON l.id = h.lesson_id AND h.student_id = ? " +
                 "WHERE l.id = ? AND l.homework_total_score > 0";
         
-        try (Connection conn = DatabaseManager.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(query)) {
+        try (PreparedStatement pstmt = conn.prepareStatement(query)) {
             pstmt.setInt(1, studentId);
             pstmt.setInt(2, lessonId);
             try (ResultSet rs = pstmt.executeQuery()) {
@@ -510,15 +795,14 @@ public class ReportService {
         return scores;
     }
     
-    private static List<QuestionScore> getQuestionScores(int lessonId, int studentId) {
+    private static List<QuestionScore> getQuestionScores(Connection conn, int lessonId, int studentId) {
         List<QuestionScore> scores = new ArrayList<>();
         String query = "SELECT qs.topic, qr.total_score, qs.total_questions " +
                 "FROM question_sessions qs " +
                 "LEFT JOIN question_results qr ON qs.id = qr.question_session_id AND qr.student_id = ? " +
                 "WHERE qs.lesson_id = ?";
         
-        try (Connection conn = DatabaseManager.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(query)) {
+        try (PreparedStatement pstmt = conn.prepareStatement(query)) {
             pstmt.setInt(1, studentId);
             pstmt.setInt(2, lessonId);
             try (ResultSet rs = pstmt.executeQuery()) {
@@ -0,0 +1,503 @@
+package org.algo.mentor.services;
+
+import org.algo.mentor.config.DatabaseManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.*;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.*;
+
+/**
+ * At-risk students, kept up to date incrementally.
+ * Scores are recomputed for one group when a lesson is saved (or for one student when payments
+ * or group membership change), stored in student_risk and mirrored in an ordered in-memory set,
+ * so the dashboard only reads the first entries.
+ */
+public class RiskService {
+
+    private static final Logger log = LoggerFactory.getLogger(RiskService.class);
+
+    /**
+     * @param attendanceThreshold  weighted attendance (%) below which a student is at risk
+     * @param performanceThreshold weighted score (%) below which a student is at risk
+     * @param recentWindow         number of most recent lessons treated as the "recent" window
+     * @param recentWeight         share (0..1) of the recent window in the weighted rates
+     * @param maxConsecutiveAbsences absences in a row that put a student at risk
+     * @param maxUnpaidMonths      unpaid months that put a student at risk
+     * @param paymentLookbackMonths how many past months are checked in monthly_payments
+     * @param paymentGraceDays     days into the month before the current month counts as due
+     */
+    public record RiskRules(double attendanceThreshold, double performanceThreshold,
+                            int recentWindow, double recentWeight,
+                            int maxConsecutiveAbsences, int maxUnpaidMonths,
+                            int paymentLookbackMonths, int paymentGraceDays) {
+        public static final RiskRules DEFAULT = new RiskRules(75, 50, 5, 0.5, 3, 1, 3, 15);
+    }
+
+    public record RiskEntry(int studentId, int groupId, String fullName, String groupName,
+                            double attendanceRate, double performanceRate,
+                            double recentAttendanceRate, double recentPerformanceRate,
+                            int absenceStreak, int unpaidMonths, double score) {
+        private long key() {
+            return ((long) studentId << 32) | (groupId & 0xffffffffL);
+        }
+    }
+
+    private static final Comparator<RiskEntry> ORDER = Comparator.comparingDouble(RiskEntry::score).reversed()
+            .thenComparing(RiskEntry::fullName, Comparator.nullsLast(Comparator.naturalOrder()))
+            .thenComparingInt(RiskEntry::studentId)
+            .thenComparingInt(RiskEntry::groupId);
+
+    private static final TreeSet<RiskEntry> ranked = new TreeSet<>(ORDER);
+    private static final Map<Long, RiskEntry> byKey = new HashMap<>();
+    private static boolean loaded = false;
+    private static RiskRules rules;
+
+    private static final String SETTINGS_PREFIX = "risk.";
+    private static final String COMPUTED_ON_KEY = "risk.computed_on";
+
+    // ---- rules ----
+
+    public static synchronized RiskRules getRules() {
+        if (rules == null) {
+            RiskRules d = RiskRules.DEFAULT;
+            rules = new RiskRules(
+                    SettingsService.getDouble(SETTINGS_PREFIX + "attendance_threshold", d.attendanceThreshold()),
+                    SettingsService.getDouble(SETTINGS_PREFIX + "performance_threshold", d.performanceThreshold()),
+                    SettingsService.getInt(SETTINGS_PREFIX + "recent_window", d.recentWindow()),
+                    SettingsService.getDouble(SETTINGS_PREFIX + "recent_weight", d.recentWeight()),
+                    SettingsService.getInt(SETTINGS_PREFIX + "max_consecutive_absences", d.maxConsecutiveAbsences()),
+                    SettingsService.getInt(SETTINGS_PREFIX + "max_unpaid_months", d.maxUnpaidMonths()),
+                    SettingsService.getInt(SETTINGS_PREFIX + "payment_lookback_months", d.paymentLookbackMonths()),
+                    SettingsService.getInt(SETTINGS_PREFIX + "payment_grace_days", d.paymentGraceDays()));
+        }
+        return rules;
+    }
+
+    /** Saves new rules and rescores every student. */
+    public static void saveRules(RiskRules newRules) {
+        SettingsService.put(SETTINGS_PREFIX + "attendance_threshold", newRules.attendanceThreshold());
+        SettingsService.put(SETTINGS_PREFIX + "performance_threshold", newRules.performanceThreshold());
+        SettingsService.put(SETTINGS_PREFIX + "recent_window", newRules.recentWindow());
+        SettingsService.put(SETTINGS_PREFIX + "recent_weight", newRules.recentWeight());
+        SettingsService.put(SETTINGS_PREFIX + "max_consecutive_absences", newRules.maxConsecutiveAbsences());
+        SettingsService.put(SETTINGS_PREFIX + "max_unpaid_months", newRules.maxUnpaidMonths());
+        SettingsService.put(SETTINGS_PREFIX + "payment_lookback_months", newRules.paymentLookbackMonths());
+        SettingsService.put(SETTINGS_PREFIX + "payment_grace_days", newRules.paymentGraceDays());
+        synchronized (RiskService.class) {
+            rules = newRules;
+        }
+        rebuildAll();
+    }
+
+    // ---- reads ----
+
+    /** The {@code limit} highest-risk student/group pairs, highest first. */
+    public static synchronized List<RiskEntry> getTopRisks(int limit) {
+        ensureLoaded();
+        List<RiskEntry> result = new ArrayList<>(Math.min(limit, ranked.size()));
+        for (RiskEntry entry : ranked) {
+            if (result.size() >= limit) break;
+            result.add(entry);
+        }
+        return result;
+    }
+
+    public static synchronized int countAtRisk() {
+        ensureLoaded();
+        return ranked.size();
+    }
+
+    /**
+     * Loads the stored scores once per session. Scores are recomputed in full once a day,
+     * since unpaid months depend on the current date and not only on saved data.
+     */
+    private static void ensureLoaded() {
+        if (loaded) return;
+        loaded = true;
+        if (!LocalDate.now().toString().equals(SettingsService.get(COMPUTED_ON_KEY, null))) {
+            rebuildAllLocked();
+            return;
+        }
+        ranked.clear();
+        byKey.clear();
+        try {
+            Connection conn = DatabaseManager.getConnection();
+            try (Statement stmt = conn.createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT * FROM student_risk ORDER BY score DESC")) {
+                while (rs.next()) {
+                    put(new RiskEntry(rs.getInt("student_id"), rs.getInt("group_id"),
+                            rs.getString("full_name"), rs.getString("group_name"),
+                            rs.getDouble("attendance_rate"), rs.getDouble("performance_rate"),
+                            rs.getDouble("recent_attendance_rate"), rs.getDouble("recent_performance_rate"),
+                            rs.getInt("absence_streak"), rs.getInt("unpaid_months"), rs.getDouble("score")));
+                }
+            }
+        } catch (SQLException e) {
+            log.error("Failed to load risk scores", e);
+        }
+    }
+
+    /** Forgets the in-memory state; used after switching databases. */
+    public static synchronized void reset() {
+        loaded = false;
+        rules = null;
+        ranked.clear();
+        byKey.clear();
+    }
+
+    // ---- updates ----
+
+    /**
+     * Rescores every student of a group on the caller's connection and transaction.
+     * Pass the result to {@link #publishGroup} after the transaction commits.
+     */
+    public static List<RiskEntry> refreshGroup(Connection conn, int groupId) throws SQLException {
+        List<RiskEntry> entries = compute(conn, groupId, null, getRules());
+        try (PreparedStatement pstmt = conn.prepareStatement("DELETE FROM student_risk WHERE group_id = ?")) {
+            pstmt.setInt(1, groupId);
+            pstmt.executeUpdate();
+        }
+        insert(conn, entries);
+        return entries;
+    }
+
+    public static synchronized void publishGroup(int groupId, List<RiskEntry> entries) {
+        if (!loaded) return;
+        removeIf(e -> e.groupId() == groupId);
+        for (RiskEntry entry : entries) put(entry);
+    }
+
+    /** Rescores one student in all their groups, e.g. after a payment or membership change. */
+    public static void refreshStudent(int studentId) {
+        try {
+            Connection conn = DatabaseManager.getConnection();
+            List<RiskEntry> entries = compute(conn, null, studentId, getRules());
+            try (PreparedStatement pstmt = conn.prepareStatement("DELETE FROM student_risk WHERE student_id = ?")) {
+                pstmt.setInt(1, studentId);
+                pstmt.executeUpdate();
+            }
+            insert(conn, entries);
+            synchronized (RiskService.class) {
+                if (loaded) {
+                    removeIf(e -> e.studentId() == studentId);
+                    for (RiskEntry entry : entries) put(entry);
+                }
+            }
+        } catch (SQLException e) {
+            log.error("Failed to refresh risk score for student {}", studentId, e);
+        }
+    }
+
+    public static void refreshGroup(int groupId) {
+        try {
+            publishGroup(groupId, refreshGroup(DatabaseManager.getConnection(), groupId));
+        } catch (SQLException e) {
+            log.error("Failed to refresh risk scores for group {}", groupId, e);
+        }
+    }
+
+    public static void removeStudent(int studentId) {
+        removeWhere("student_id", studentId);
+        synchronized (RiskService.class) {
+            removeIf(e -> e.studentId() == studentId);
+        }
+    }
+
+    public static void removeGroup(int groupId) {
+        removeWhere("group_id", groupId);
+        synchronized (RiskService.class) {
+            removeIf(e -> e.groupId() == groupId);
+        }
+    }
+
+    public static synchronized void rebuildAll() {
+        rebuildAllLocked();
+    }
+
+    private static void rebuildAllLocked() {
+        Connection conn = null;
+        try {
+            conn = DatabaseManager.getConnection();
+            conn.setAutoCommit(false);
+            List<RiskEntry> entries = compute(conn, null, null, getRules());
+            try (Statement stmt = conn.createStatement()) {
+                stmt.executeUpdate("DELETE FROM student_risk");
+            }
+            insert(conn, entries);
+            conn.commit();
+
+            ranked.clear();
+            byKey.clear();
+            for (RiskEntry entry : entries) put(entry);
+            loaded = true;
+            SettingsService.put(COMPUTED_ON_KEY, LocalDate.now());
+            log.info("Recomputed risk scores: {} students at risk", entries.size());
+        } catch (SQLException e) {
+            if (conn != null) {
+                try { conn.rollback(); } catch (SQLException ex) { log.error("Rollback failed", ex); }
+            }
+            log.error("Failed to recompute risk scores", e);
+        } finally {
+            if (conn != null) {
+                try { conn.setAutoCommit(true); } catch (SQLException e) { log.error("Failed to restore auto-commit", e); }
+            }
+        }
+    }
+
+    private static void put(RiskEntry entry) {
+        RiskEntry previous = byKey.put(entry.key(), entry);
+        if (previous != null) ranked.remove(previous);
+        ranked.add(entry);
+    }
+
+    private static void removeIf(java.util.function.Predicate<RiskEntry> predicate) {
+        Iterator<RiskEntry> it = ranked.iterator();
+        while (it.hasNext()) {
+            RiskEntry entry = it.next();
+            if (predicate.test(entry)) {
+                it.remove();
+                byKey.remove(entry.key());
+            }
+        }
+    }
+
+    private static void removeWhere(String column, int id) {
+        try {
+            Connection conn = DatabaseManager.getConnection();
+            try (PreparedStatement pstmt = conn.prepareStatement("DELETE FROM student_risk WHERE " + column + " = ?")) {
+                pstmt.setInt(1, id);
+                pstmt.executeUpdate();
+            }
+        } catch (SQLException e) {
+            log.error("Failed to remove risk scores by {} {}", column, id, e);
+        }
+    }
+
+    private static void insert(Connection conn, List<RiskEntry> entries) throws SQLException {
+        if (entries.isEmpty()) return;
+        try (PreparedStatement pstmt = conn.prepareStatement(
+                "INSERT OR REPLACE INTO student_risk (student_id, group_id, full_name, group_name, attendance_rate, performance_rate, " +
+                "recent_attendance_rate, recent_performance_rate, absence_streak, unpaid_months, score) " +
+                "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)")) {
+            for (RiskEntry e : entries) {
+                pstmt.setInt(1, e.studentId());
+                pstmt.setInt(2, e.groupId());
+                pstmt.setString(3, e.fullName());
+                pstmt.setString(4, e.groupName());
+                pstmt.setDouble(5, e.attendanceRate());
+                pstmt.setDouble(6, e.performanceRate());
+                pstmt.setDouble(7, e.recentAttendanceRate());
+                pstmt.setDouble(8, e.recentPerformanceRate());
+                pstmt.setInt(9, e.absenceStreak());
+                pstmt.setInt(10, e.unpaidMonths());
+                pstmt.setDouble(11, e.score());
+                pstmt.addBatch();
+            }
+            pstmt.executeBatch();
+        }
+    }
+
+    // ---- scoring ----
+
+    private static final class PairStats {
+        int studentId;
+        int groupId;
+        String fullName;
+        String groupName;
+        final List<Boolean> attendance = new ArrayList<>();
+        final List<double[]> scores = new ArrayList<>();
+        LocalDate firstLesson;
+    }
+
+    /**
+     * Scores the student/group pairs matching the filters (null = no filter) and returns
+     * only those that break at least one rule.
+     */
+    static List<RiskEntry> compute(Connection conn, Integer groupId, Integer studentId, RiskRules rules) throws SQLException {
+        String pairFilter = "(? IS NULL OR sg.group_id = ?) AND (? IS NULL OR sg.student_id = ?)";
+        Map<Long, PairStats> pairs = new LinkedHashMap<>();
+
+        String pairQuery = "SELECT sg.student_id, sg.group_id, s.first_name || ' ' || s.last_name AS full_name, g.name AS group_name " +
+                "FROM student_groups sg JOIN students s ON s.id = sg.student_id JOIN groups g ON g.id = sg.group_id " +
+                "WHERE " + pairFilter;
+        try (PreparedStatement pstmt = conn.prepareStatement(pairQuery)) {
+            bindFilter(pstmt, 1, groupId, studentId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    PairStats p = new PairStats();
+                    p.studentId = rs.getInt("student_id");
+                    p.groupId = rs.getInt("group_id");
+                    p.fullName = rs.getString("full_name");
+                    p.groupName = rs.getString("group_name");
+                    pairs.put(key(p.studentId, p.groupId), p);
+                }
+            }
+        }
+        if (pairs.isEmpty()) return Collections.emptyList();
+
+        String attendanceQuery = "SELECT a.student_id, l.group_id, l.lesson_date, a.present " +
+                "FROM attendance a JOIN lessons l ON l.id = a.lesson_id " +
+                "JOIN student_groups sg ON sg.student_id = a.student_id AND sg.group_id = l.group_id " +
+                "WHERE a.present IS NOT NULL AND " + pairFilter + " ORDER BY l.lesson_date, l.id";
+        try (PreparedStatement pstmt = conn.prepareStatement(attendanceQuery)) {
+            bindFilter(pstmt, 1, groupId, studentId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    PairStats p = pairs.get(key(rs.getInt("student_id"), rs.getInt("group_id")));
+                    if (p == null) continue;
+                    if (p.firstLesson == null) p.firstLesson = LocalDate.parse(rs.getString("lesson_date").substring(0, 10));
+                    p.attendance.add(rs.getInt("present") == 1);
+                }
+            }
+        }
+
+        // Each branch filters its own rows, so refreshing one group reads only that group's scores
+        String scoreQuery = "SELECT x.student_id, l.group_id, SUM(x.earned) AS earned, SUM(x.total) AS total FROM (" +
+                "  SELECT h.student_id, h.lesson_id, h.score AS earned, l2.homework_total_score AS total " +
+                "  FROM lessons l2 JOIN homeworks h ON h.lesson_id = l2.id" + branchFilter(groupId, studentId, "h") +
+                "  UNION ALL " +
+                "  SELECT tr.student_id, ts.lesson_id, tr.total_score, ts.total_questions " +
+                "  FROM lessons l2 JOIN test_sessions ts ON ts.lesson_id = l2.id " +
+                "  JOIN test_results tr ON tr.test_session_id = ts.id" + branchFilter(groupId, studentId, "tr") +
+                "  UNION ALL " +
+                "  SELECT qr.student_id, qs.lesson_id, qr.total_score, qs.total_questions " +
+                "  FROM lessons l2 JOIN question_sessions qs ON qs.lesson_id = l2.id " +
+                "  JOIN question_results qr ON qr.question_session_id = qs.id" + branchFilter(groupId, studentId, "qr") +
+                ") x JOIN lessons l ON l.id = x.lesson_id " +
+                "JOIN student_groups sg ON sg.student_id = x.student_id AND sg.group_id = l.group_id " +
+                "GROUP BY x.student_id, l.id ORDER BY l.lesson_date, l.id";
+        try (PreparedStatement pstmt = conn.prepareStatement(scoreQuery)) {
+            int index = 1;
+            for (int branch = 0; branch < 3; branch++) {
+                index = bindBranch(pstmt, index, groupId, studentId);
+            }
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    PairStats p = pairs.get(key(rs.getInt("student_id"), rs.getInt("group_id")));
+                    double total = rs.getDouble("total");
+                    if (p == null || total <= 0) continue;
+                    p.scores.add(new double[]{rs.getDouble("earned"), total});
+                }
+            }
+        }
+
+        // Paid months per student within the lookback window
+        LocalDate today = LocalDate.now();
+        YearMonth lastDue = today.getDayOfMonth() > rules.paymentGraceDays()
+                ? YearMonth.from(today) : YearMonth.from(today).minusMonths(1);
+        YearMonth firstChecked = lastDue.minusMonths(Math.max(0, rules.paymentLookbackMonths() - 1));
+        Map<Integer, Set<YearMonth>> paid = new HashMap<>();
+        String paymentQuery = "SELECT DISTINCT mp.student_id, mp.year, mp.month FROM monthly_payments mp " +
+                "WHERE (? IS NULL OR mp.student_id = ?) AND (mp.year * 12 + mp.month) >= ? " +
+                "AND (? IS NULL OR mp.student_id IN (SELECT student_id FROM student_groups WHERE group_id = ?))";
+        try (PreparedStatement pstmt = conn.prepareStatement(paymentQuery)) {
+            pstmt.setObject(1, studentId);
+            pstmt.setObject(2, studentId);
+            pstmt.setInt(3, firstChecked.getYear() * 12 + firstChecked.getMonthValue());
+            pstmt.setObject(4, groupId);
+            pstmt.setObject(5, groupId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    paid.computeIfAbsent(rs.getInt("student_id"), k -> new HashSet<>())
+                            .add(YearMonth.of(rs.getInt("year"), rs.getInt("month")));
+                }
+            }
+        }
+
+        List<RiskEntry> result = new ArrayList<>();
+        for (PairStats p : pairs.values()) {
+            if (p.attendance.isEmpty()) continue;
+            RiskEntry entry = score(p, rules, firstChecked, lastDue, paid.getOrDefault(p.studentId, Collections.emptySet()));
+            if (entry != null) result.add(entry);
+        }
+        return result;
+    }
+
+    private static RiskEntry score(PairStats p, RiskRules rules, YearMonth firstChecked, YearMonth lastDue, Set<YearMonth> paidMonths) {
+        int lessons = p.attendance.size();
+        int window = Math.max(1, rules.recentWindow());
+
+        int present = 0, recentPresent = 0, streak = 0;
+        for (int i = 0; i < lessons; i++) {
+            boolean wasPresent = p.attendance.get(i);
+            if (wasPresent) present++;
+            if (wasPresent && i >= lessons - window) recentPresent++;
+            streak = wasPresent ? 0 : streak + 1;
+        }
+        double attendance = present * 100.0 / lessons;
+        double recentAttendance = recentPresent * 100.0 / Math.min(window, lessons);
+
+        double earned = 0, possible = 0, recentEarned = 0, recentPossible = 0;
+        for (int i = 0; i < p.scores.size(); i++) {
+            double[] s = p.scores.get(i);
+            earned += s[0];
+            possible += s[1];
+            if (i >= p.scores.size() - window) {
+                recentEarned += s[0];
+                recentPossible += s[1];
+            }
+        }
+        boolean hasScores = possible > 0;
+        double performance = hasScores ? earned * 100.0 / possible : 0;
+        double recentPerformance = recentPossible > 0 ? recentEarned * 100.0 / recentPossible : performance;
+
+        int unpaid = 0;
+        YearMonth start = p.firstLesson != null && YearMonth.from(p.firstLesson).isAfter(firstChecked)
+                ? YearMonth.from(p.firstLesson) : firstChecked;
+        for (YearMonth m = start; !m.isAfter(lastDue); m = m.plusMonths(1)) {
+            if (!paidMonths.contains(m)) unpaid++;
+        }
+
+        double w = Math.max(0, Math.min(1, rules.recentWeight()));
+        double weightedAttendance = (1 - w) * attendance + w * recentAttendance;
+        double weightedPerformance = (1 - w) * performance + w * recentPerformance;
+
+        double attendanceSeverity = weightedAttendance < rules.attendanceThreshold() && rules.attendanceThreshold() > 0
+                ? (rules.attendanceThreshold() - weightedAttendance) / rules.attendanceThreshold() : 0;
+        double performanceSeverity = hasScores && weightedPerformance < rules.performanceThreshold() && rules.performanceThreshold() > 0
+                ? (rules.performanceThreshold() - weightedPerformance) / rules.performanceThreshold() : 0;
+        double streakSeverity = rules.maxConsecutiveAbsences() > 0 && streak >= rules.maxConsecutiveAbsences()
+                ? Math.min(1, streak / (2.0 * rules.maxConsecutiveAbsences())) : 0;
+        double unpaidSeverity = rules.maxUnpaidMonths() > 0 && unpaid >= rules.maxUnpaidMonths()
+                ? Math.min(1, unpaid / (2.0 * rules.maxUnpaidMonths())) : 0;
+
+        if (attendanceSeverity == 0 && performanceSeverity == 0 && streakSeverity == 0 && unpaidSeverity == 0) {
+            return null;
+        }
+        double score = 100 * (0.35 * attendanceSeverity + 0.35 * performanceSeverity
+                + 0.15 * streakSeverity + 0.15 * unpaidSeverity);
+
+        return new RiskEntry(p.studentId, p.groupId, p.fullName, p.groupName,
+                attendance, performance, recentAttendance, recentPerformance,
+                streak, unpaid, Math.round(score * 100.0) / 100.0);
+    }
+
+    /** The group and student condition of one score branch, over its lessons {@code l2} and {@code results}. */
+    private static String branchFilter(Integer groupId, Integer studentId, String results) {
+        List<String> terms = new ArrayList<>();
+        if (groupId != null) terms.add("l2.group_id = ?");
+        if (studentId != null) terms.add(results + ".student_id = ?");
+        return terms.isEmpty() ? "" : " WHERE " + String.join(" AND ", terms);
+    }
+
+    /** Binds what {@link #branchFilter} asked for; returns the next parameter index. */
+    private static int bindBranch(PreparedStatement pstmt, int index, Integer groupId, Integer studentId) throws SQLException {
+        if (groupId != null) pstmt.setInt(index++, groupId);
+        if (studentId != null) pstmt.setInt(index++, studentId);
+        return index;
+    }
+
+    private static void bindFilter(PreparedStatement pstmt, int index, Integer groupId, Integer studentId) throws SQLException {
+        pstmt.setObject(index, groupId);
+        pstmt.setObject(index + 1, groupId);
+        pstmt.setObject(index + 2, studentId);
+        pstmt.setObject(index + 3, studentId);
+    }
+
+    private static long key(int studentId, int groupId) {
+        return ((long) studentId << 32) | (groupId & 0xffffffffL);
+    }
+}
@@ -0,0 +1,329 @@
+package org.algo.mentor.services;
+
+import org.algo.mentor.config.DatabaseManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.*;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.time.temporal.TemporalAdjusters;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Weekly and monthly attendance/score rollups per group and per student.
+ * Lesson saves refresh only the buckets that contain the lesson, so trend charts
+ * read a few dozen pre-aggregated rows instead of every lesson.
+ */
+public class RollupService {
+
+    private static final Logger log = LoggerFactory.getLogger(RollupService.class);
+
+    public enum Bucket { LESSON, WEEK, MONTH }
+
+    /** One chart point. Sums are kept so callers can show rates or per-lesson averages. */
+    public record TrendPoint(LocalDate bucketStart, String label, int lessonCount,
+                             int presentCount, int attendanceCount, double earned, double possible) {
+        public double attendanceRate() {
+            return attendanceCount == 0 ? 0 : presentCount * 100.0 / attendanceCount;
+        }
+
+        public double scoreRate() {
+            return possible == 0 ? 0 : earned * 100.0 / possible;
+        }
+    }
+
+    /** Ranges up to this many days are drawn lesson by lesson. */
+    private static final long LESSON_RANGE_DAYS = 92;
+    /** Ranges up to this many days are drawn by week, longer ones by month. */
+    private static final long WEEK_RANGE_DAYS = 550;
+
+    private static final String STUDENT_BUCKET_INSERT =
+            "INSERT INTO student_rollups (student_id, group_id, bucket_type, bucket_start, lesson_count, present_count, earned, possible) " +
+            "SELECT student_id, ?, ?, ?, SUM(lc), SUM(pc), SUM(e), SUM(p) FROM (" +
+            "  SELECT a.student_id, 1 as lc, a.present as pc, 0 as e, 0 as p " +
+            "  FROM attendance a JOIN lessons l ON a.lesson_id = l.id " +
+            "  WHERE l.group_id = ? AND DATE(l.lesson_date) >= ? AND DATE(l.lesson_date) < ? AND a.present IS NOT NULL " +
+            "  UNION ALL " +
+            "  SELECT h.student_id, 0, 0, COALESCE(h.score, 0), l.homework_total_score " +
+            "  FROM homeworks h JOIN lessons l ON h.lesson_id = l.id " +
+            "  WHERE l.group_id = ? AND DATE(l.lesson_date) >= ? AND DATE(l.lesson_date) < ? " +
+            "  UNION ALL " +
+            "  SELECT tr.student_id, 0, 0, tr.total_score, ts.total_questions " +
+            "  FROM test_results tr JOIN test_sessions ts ON tr.test_session_id = ts.id JOIN lessons l ON ts.lesson_id = l.id " +
+            "  WHERE l.group_id = ? AND DATE(l.lesson_date) >= ? AND DATE(l.lesson_date) < ? " +
+            "  UNION ALL " +
+            "  SELECT qr.student_id, 0, 0, qr.total_score, qs.total_questions " +
+            "  FROM question_results qr JOIN question_sessions qs ON qr.question_session_id = qs.id JOIN lessons l ON qs.lesson_id = l.id " +
+            "  WHERE l.group_id = ? AND DATE(l.lesson_date) >= ? AND DATE(l.lesson_date) < ?" +
+            ") GROUP BY student_id";
+
+    private static final String GROUP_BUCKET_INSERT =
+            "INSERT INTO group_rollups (group_id, bucket_type, bucket_start, lesson_count, present_count, attendance_count, earned, possible) " +
+            "SELECT ?, ?, ?, " +
+            "(SELECT COUNT(*) FROM lessons l WHERE l.group_id = ? AND DATE(l.lesson_date) >= ? AND DATE(l.lesson_date) < ? " +
+            "  AND NOT EXISTS (SELECT 1 FROM attendance WHERE lesson_id = l.id AND present IS NULL)), " +
+            "COALESCE(SUM(present_count), 0), COALESCE(SUM(lesson_count), 0), COALESCE(SUM(earned), 0), COALESCE(SUM(possible), 0) " +
+            "FROM student_rollups WHERE group_id = ? AND bucket_type = ? AND bucket_start = ?";
+
+    private static volatile boolean backfillChecked = false;
+
+    /**
+     * Picks the bucket size for a visible date range so long histories render a few dozen points.
+     */
+    public static Bucket chooseBucket(LocalDate from, LocalDate to) {
+        long days = ChronoUnit.DAYS.between(from, to);
+        if (days <= LESSON_RANGE_DAYS) return Bucket.LESSON;
+        if (days <= WEEK_RANGE_DAYS) return Bucket.WEEK;
+        return Bucket.MONTH;
+    }
+
+    public static LocalDate bucketStart(Bucket bucket, LocalDate date) {
+        return switch (bucket) {
+            case WEEK -> date.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+            case MONTH -> date.withDayOfMonth(1);
+            case LESSON -> date;
+        };
+    }
+
+    private static LocalDate bucketEnd(Bucket bucket, LocalDate start) {
+        return switch (bucket) {
+            case WEEK -> start.plusWeeks(1);
+            case MONTH -> start.plusMonths(1);
+            case LESSON -> start.plusDays(1);
+        };
+    }
+
+    /**
+     * Recomputes the week and month buckets containing the given lesson date.
+     * Runs on the caller's connection so it joins the lesson save transaction.
+     */
+    public static void refreshLessonBuckets(Connection conn, int groupId, LocalDate lessonDate) throws SQLException {
+        refreshBucket(conn, groupId, Bucket.WEEK, bucketStart(Bucket.WEEK, lessonDate));
+        refreshBucket(conn, groupId, Bucket.MONTH, bucketStart(Bucket.MONTH, lessonDate));
+    }
+
+    private static void refreshBucket(Connection conn, int groupId, Bucket bucket, LocalDate start) throws SQLException {
+        String type = bucket.name();
+        String from = start.toString();
+        String to = bucketEnd(bucket, start).toString();
+
+        try (PreparedStatement delStudent = conn.prepareStatement(
+                "DELETE FROM student_rollups WHERE group_id = ? AND bucket_type = ? AND bucket_start = ?");
+             PreparedStatement delGroup = conn.prepareStatement(
+                "DELETE FROM group_rollups WHERE group_id = ? AND bucket_type = ? AND bucket_start = ?")) {
+            for (PreparedStatement del : new PreparedStatement[]{delStudent, delGroup}) {
+                del.setInt(1, groupId);
+                del.setString(2, type);
+                del.setString(3, from);
+                del.executeUpdate();
+            }
+        }
+
+        try (PreparedStatement pstmt = conn.prepareStatement(STUDENT_BUCKET_INSERT)) {
+            int i = 1;
+            pstmt.setInt(i++, groupId);
+            pstmt.setString(i++, type);
+            pstmt.setString(i++, from);
+            for (int part = 0; part < 4; part++) {
+                pstmt.setInt(i++, groupId);
+                pstmt.setString(i++, from);
+                pstmt.setString(i++, to);
+            }
+            pstmt.executeUpdate();
+        }
+
+        try (PreparedStatement pstmt = conn.prepareStatement(GROUP_BUCKET_INSERT)) {
+            pstmt.setInt(1, groupId);
+            pstmt.setString(2, type);
+            pstmt.setString(3, from);
+            pstmt.setInt(4, groupId);
+            pstmt.setString(5, from);
+            pstmt.setString(6, to);
+            pstmt.setInt(7, groupId);
+            pstmt.setString(8, type);
+            pstmt.setString(9, from);
+            pstmt.executeUpdate();
+        }
+    }
+
+    /**
+     * Rebuilds every bucket from scratch. Used once for databases that predate the rollup tables.
+     */
+    public static void rebuildAll() {
+        Connection conn = null;
+        try {
+            conn = DatabaseManager.getConnection();
+            conn.setAutoCommit(false);
+            try (Statement stmt = conn.createStatement()) {
+                stmt.executeUpdate("DELETE FROM student_rollups");
+                stmt.executeUpdate("DELETE FROM group_rollups");
+            }
+
+            List<Object[]> buckets = new ArrayList<>();
+            try (Statement stmt = conn.createStatement();
+                 // Planned lessons (attendance not marked yet) get buckets once they are saved
+                 ResultSet rs = stmt.executeQuery("SELECT DISTINCT group_id, DATE(lesson_date) FROM lessons l " +
+                         "WHERE NOT EXISTS (SELECT 1 FROM attendance WHERE lesson_id = l.id AND present IS NULL)")) {
+                while (rs.next()) {
+                    buckets.add(new Object[]{rs.getInt(1), LocalDate.parse(rs.getString(2))});
+                }
+            }
+
+            java.util.Set<String> done = new java.util.HashSet<>();
+            for (Object[] b : buckets) {
+                int groupId = (Integer) b[0];
+                LocalDate date = (LocalDate) b[1];
+                for (Bucket bucket : new Bucket[]{Bucket.WEEK, Bucket.MONTH}) {
+                    LocalDate start = bucketStart(bucket, date);
+                    if (done.add(groupId + "_" + bucket + "_" + start)) {
+                        refreshBucket(conn, groupId, bucket, start);
+                    }
+                }
+            }
+            conn.commit();
+            log.info("Rebuilt {} rollup buckets", done.size());
+        } catch (SQLException e) {
+            if (conn != null) {
+                try { conn.rollback(); } catch (SQLException ex) { log.error("Rollback failed", ex); }
+            }
+            log.error("Failed to rebuild rollups", e);
+        } finally {
+            if (conn != null) {
+                try { conn.setAutoCommit(true); } catch (SQLException e) { log.error("Failed to restore auto-commit", e); }
+            }
+        }
+    }
+
+    private static void ensureBackfilled() {
+        if (backfillChecked) return;
+        backfillChecked = true;
+        try {
+            Connection conn = DatabaseManager.getConnection();
+            boolean needsRebuild;
+            try (Statement stmt = conn.createStatement();
+                 ResultSet rs = stmt.executeQuery(
+                         "SELECT (SELECT COUNT(*) FROM lessons), (SELECT COUNT(*) FROM group_rollups)")) {
+                needsRebuild = rs.next() && rs.getInt(1) > 0 && rs.getInt(2) == 0;
+            }
+            if (needsRebuild) rebuildAll();
+        } catch (SQLException e) {
+            log.error("Failed to check rollup state", e);
+        }
+    }
+
+    /** Forces the backfill check to run again, e.g. after switching to another database folder. */
+    public static void resetBackfillCheck() {
+        backfillChecked = false;
+    }
+
+    public static List<TrendPoint> getGroupTrend(int groupId, Bucket bucket, LocalDate from, LocalDate to) {
+        if (bucket == Bucket.LESSON) {
+            return getLessonPoints(groupId, null, from, to);
+        }
+        ensureBackfilled();
+        String query = "SELECT bucket_start, lesson_count, present_count, attendance_count, earned, possible " +
+                "FROM group_rollups WHERE group_id = ? AND bucket_type = ? AND bucket_start >= ? AND bucket_start <= ? " +
+                "ORDER BY bucket_start";
+        return queryBuckets(query, groupId, null, bucket, from, to);
+    }
+
+    public static List<TrendPoint> getStudentTrend(int studentId, int groupId, Bucket bucket, LocalDate from, LocalDate to) {
+        if (bucket == Bucket.LESSON) {
+            return getLessonPoints(groupId, studentId, from, to);
+        }
+        ensureBackfilled();
+        String query = "SELECT bucket_start, lesson_count, present_count, lesson_count as attendance_count, earned, possible " +
+                "FROM student_rollups WHERE group_id = ? AND student_id = ? AND bucket_type = ? AND bucket_start >= ? AND bucket_start <= ? " +
+                "ORDER BY bucket_start";
+        return queryBuckets(query, groupId, studentId, bucket, from, to);
+    }
+
+    /** Trend for the visible range with the bucket size chosen automatically. */
+    public static List<TrendPoint> getGroupTrend(int groupId, LocalDate from, LocalDate to) {
+        return getGroupTrend(groupId, chooseBucket(from, to), from, to);
+    }
+
+    public static List<TrendPoint> getStudentTrend(int studentId, int groupId, LocalDate from, LocalDate to) {
+        return getStudentTrend(studentId, groupId, chooseBucket(from, to), from, to);
+    }
+
+    private static List<TrendPoint> queryBuckets(String query, int groupId, Integer studentId, Bucket bucket, LocalDate from, LocalDate to) {
+        List<TrendPoint> points = new ArrayList<>();
+        try {
+            Connection conn = DatabaseManager.getConnection();
+            try (PreparedStatement pstmt = conn.prepareStatement(query)) {
+                int i = 1;
+                pstmt.setInt(i++, groupId);
+                if (studentId != null) pstmt.setInt(i++, studentId);
+                pstmt.setString(i++, bucket.name());
+                pstmt.setString(i++, bucketStart(bucket, from).toString());
+                pstmt.setString(i, to.toString());
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        LocalDate start = LocalDate.parse(rs.getString("bucket_start"));
+                        points.add(new TrendPoint(start, label(bucket, start),
+                                rs.getInt("lesson_count"), rs.getInt("present_count"), rs.getInt("attendance_count"),
+                                rs.getDouble("earned"), rs.getDouble("possible")));
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            log.error("Failed to load rollup trend for group {}", groupId, e);
+        }
+        return points;
+    }
+
+    private static List<TrendPoint> getLessonPoints(int groupId, Integer studentId, LocalDate from, LocalDate to) {
+        List<TrendPoint> points = new ArrayList<>();
+        String studentFilter = studentId != null ? " AND student_id = ?" : "";
+        String query = "SELECT l.lesson_date, " +
+                "(SELECT COALESCE(SUM(present), 0) FROM attendance WHERE lesson_id = l.id" + studentFilter + ") as present_count, " +
+                "(SELECT COUNT(present) FROM attendance WHERE lesson_id = l.id" + studentFilter + ") as attendance_count, " +
+                "COALESCE((SELECT SUM(COALESCE(score, 0)) FROM homeworks WHERE lesson_id = l.id" + studentFilter + "), 0) + " +
+                "COALESCE((SELECT SUM(tr.total_score) FROM test_results tr JOIN test_sessions ts ON tr.test_session_id = ts.id WHERE ts.lesson_id = l.id" + studentFilter.replace("student_id", "tr.student_id") + "), 0) + " +
+                "COALESCE((SELECT SUM(qr.total_score) FROM question_results qr JOIN question_sessions qs ON qr.question_session_id = qs.id WHERE qs.lesson_id = l.id" + studentFilter.replace("student_id", "qr.student_id") + "), 0) as earned, " +
+                "COALESCE((SELECT COUNT(*) * l.homework_total_score FROM homeworks WHERE lesson_id = l.id" + studentFilter + "), 0) + " +
+                "COALESCE((SELECT SUM(ts.total_questions) FROM test_results tr JOIN test_sessions ts ON tr.test_session_id = ts.id WHERE ts.lesson_id = l.id" + studentFilter.replace("student_id", "tr.student_id") + "), 0) + " +
+                "COALESCE((SELECT SUM(qs.total_questions) FROM question_results qr JOIN question_sessions qs ON qr.question_session_id = qs.id WHERE qs.lesson_id = l.id" + studentFilter.replace("student_id", "qr.student_id") + "), 0) as possible " +
+                "FROM lessons l WHERE l.group_id = ? AND DATE(l.lesson_date) >= ? AND DATE(l.lesson_date) <= ? " +
+                "AND NOT EXISTS (SELECT 1 FROM attendance WHERE lesson_id = l.id AND present IS NULL) " +
+                "ORDER BY l.lesson_date";
+        try {
+            Connection conn = DatabaseManager.getConnection();
+            try (PreparedStatement pstmt = conn.prepareStatement(query)) {
+                int i = 1;
+                if (studentId != null) {
+                    for (int k = 0; k < 8; k++) pstmt.setInt(i++, studentId);
+                }
+                pstmt.setInt(i++, groupId);
+                pstmt.setString(i++, from.toString());
+                pstmt.setString(i, to.toString());
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        String date = rs.getString("lesson_date");
+                        LocalDate day = LocalDate.parse(date.substring(0, 10));
+                        String label = date.length() >= 16
+                                ? date.substring(8, 10) + "." + date.substring(5, 7) + " " + date.substring(11, 16)
+                                : label(Bucket.LESSON, day);
+                        points.add(new TrendPoint(day, label, 1,
+                                rs.getInt("present_count"), rs.getInt("attendance_count"),
+                                rs.getDouble("earned"), rs.getDouble("possible")));
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            log.error("Failed to load lesson trend for group {}", groupId, e);
+        }
+        return points;
+    }
+
+    private static String label(Bucket bucket, LocalDate start) {
+        return switch (bucket) {
+            case MONTH -> String.format("%02d.%d", start.getMonthValue(), start.getYear());
+            case WEEK, LESSON -> String.format("%02d.%02d.%02d", start.getDayOfMonth(), start.getMonthValue(), start.getYear() % 100);
+        };
+    }
+}
@@ -4,88 +4,155 @@ import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 import org.algo.mentor.config.DatabaseManager;
 import org.algo.mentor.models.Schedule;
+import org.algo.mentor.util.ScheduleConflicts;
+import org.algo.mentor.util.ScheduleIndex;
 
 import java.sql.*;
-import java.time.DayOfWeek;
-import java.time.LocalDate;
 import java.time.LocalDateTime;
-import java.time.LocalTime;
-import java.time.temporal.TemporalAdjusters;
-import java.util.Comparator;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
 
 public class ScheduleService {
+    private static final String FEED_CONSUMER = "schedule-index";
+    private static final Set<String> SOURCE_TABLES = Set.of("schedules", "groups");
+    private static final int MAX_CHECKED_BATCHES = 5;
+
+    /**
+     * Built lazily from the schedules table. Edits made here drop it right away; anything else
+     * that changes schedules or group names (imports, sync, cascading deletes) is picked up from
+     * the {@link ChangeFeed} on the next use.
+     */
+    private static ScheduleIndex index;
+    private static long indexSeq;
+
     public static ObservableList<Schedule> getAllSchedules() {
         return searchSchedules(-1);
     }
 
+    /** Schedules of a group (or all of them for -1), ordered by their next occurrence. */
     public static ObservableList<Schedule> searchSchedules(int groupId) {
         ObservableList<Schedule> schedules = FXCollections.observableArrayList();
-        try {
-            Connection conn = DatabaseManager.getConnection();
-            StringBuilder query = new StringBuilder(
-                "SELECT s.id, s.group_id, g.name as group_name, s.day_of_week, s.lesson_time " +
-                "FROM schedules s " +
-                "JOIN groups g ON s.group_id = g.id "
-            );
-            
-            if (groupId != -1) {
-                query.append("WHERE s.group_id = ? ");
+        for (Schedule s : getIndex().inNextOccurrenceOrder(LocalDateTime.now())) {
+            if (groupId == -1 || s.getGroupId() == groupId) {
+                schedules.add(s);
             }
-            
-            PreparedStatement pstmt = conn.prepareStatement(query.toString());
-            if (groupId != -1) {
-                pstmt.setInt(1, groupId);
+        }
+        return schedules;
+    }
+
+    public static LocalDateTime getNextOccurrence(Schedule s) {
+        return getIndex().nextOccurrence(s, LocalDateTime.now());
+    }
+
+    public static ScheduleIndex getIndex() {
+        boolean changed = false;
+        ScheduleIndex current;
+        synchronized (ScheduleService.class) {
+            long seq = ChangeFeed.currentSequence();
+            if (index != null && seq != indexSeq) {
+                if (changedSince(indexSeq)) {
+                    index = null;
+                    changed = true;
+                } else {
+                    indexSeq = seq;
+                }
             }
-            
-            ResultSet rs = pstmt.executeQuery();
-            while (rs.next()) {
-                schedules.add(new Schedule(
-                    rs.getInt("id"),
-                    rs.getInt("group_id"),
-                    rs.getString("group_name"),
-                    rs.getInt("day_of_week"),
-                    rs.getString("lesson_time")
-                ));
+            if (index == null) {
+                index = new ScheduleIndex(loadSchedules());
+                indexSeq = seq;
+            }
+            ChangeFeed.acknowledge(FEED_CONSUMER, indexSeq);
+            current = index;
+        }
+        // Outside the lock: planning the next reminder reads the index again
+        if (changed) ReminderScheduler.reschedule();
+        return current;
+    }
+
+    public static void invalidateIndex() {
+        synchronized (ScheduleService.class) {
+            index = null;
+        }
+        ReminderScheduler.reschedule();
+    }
+
+    private static boolean changedSince(long seq) {
+        long after = seq;
+        for (int i = 0; i < MAX_CHECKED_BATCHES; i++) {
+            ChangeFeed.Batch batch = ChangeFeed.since(after);
+            if (batch.gap()) return true;
+            for (String table : SOURCE_TABLES) {
+                if (batch.touches(table)) return true;
+            }
+            if (!batch.hasMore()) return false;
+            after = batch.lastSeq();
+        }
+        return true;
+    }
+
+    private static List<Schedule> loadSchedules() {
+        List<Schedule> schedules = new ArrayList<>();
+        String query = "SELECT s.id, s.group_id, g.name as group_name, s.day_of_week, s.lesson_time, s.duration_minutes, s.room " +
+                "FROM schedules s " +
+                "JOIN groups g ON s.group_id = g.id";
+        try {
+            Connection conn = DatabaseManager.getConnection();
+            try (PreparedStatement pstmt = conn.prepareStatement(query);
+                 ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    schedules.add(new Schedule(
+                        rs.getInt("id"),
+                        rs.getInt("group_id"),
+                        rs.getString("group_name"),
+                        rs.getInt("day_of_week"),
+                        rs.getString("lesson_time"),
+                        rs.getInt("duration_minutes"),
+                        rs.getString("room")
+                    ));
+                }
             }
-            rs.close();
-            pstmt.close();
-            
-            // Sort by next occurrence
-            schedules.sort(Comparator.comparing(ScheduleService::getNextOccurrence));
-            
         } catch (SQLException e) {
             e.printStackTrace();
         }
         return schedules;
     }
 
-    public static LocalDateTime getNextOccurrence(Schedule s) {
-        LocalDate now = LocalDate.now();
-        LocalTime time = LocalTime.parse(s.getLessonTime());
-        DayOfWeek targetDay = DayOfWeek.of(s.getDayOfWeek());
-        
-        LocalDate nextDate = now.with(TemporalAdjusters.nextOrSame(targetDay));
-        LocalDateTime next = LocalDateTime.of(nextDate, time);
-        
-        if (next.isBefore(LocalDateTime.now())) {
-            nextDate = now.with(TemporalAdjusters.next(targetDay));
-            next = LocalDateTime.of(nextDate, time);
+    /**
+     * Checker holding every stored lesson except those of {@code groupId} (the group being
+     * edited), so its new lessons can be checked one by one as the teacher changes them.
+     */
+    public static ScheduleConflicts conflictCheckerExcluding(int groupId) {
+        List<Schedule> others = new ArrayList<>();
+        for (Schedule s : getIndex().inNextOccurrenceOrder(LocalDateTime.now())) {
+            if (s.getGroupId() != groupId) others.add(s);
         }
-        
-        return next;
+        return new ScheduleConflicts(others);
+    }
+
+    /** Every overlapping pair of lessons across all groups. */
+    public static List<ScheduleConflicts.Conflict> validateAllSchedules() {
+        return new ScheduleConflicts(getIndex().inNextOccurrenceOrder(LocalDateTime.now())).validateAll();
     }
 
     public static boolean addSchedule(int groupId, int dayOfWeek, String time) {
+        return addSchedule(groupId, dayOfWeek, time, Schedule.DEFAULT_DURATION_MINUTES, null);
+    }
+
+    public static boolean addSchedule(int groupId, int dayOfWeek, String time, int durationMinutes, String room) {
         try {
             Connection conn = DatabaseManager.getConnection();
-            String query = "INSERT OR REPLACE INTO schedules (group_id, day_of_week, lesson_time) VALUES (?, ?, ?)";
+            String query = "INSERT OR REPLACE INTO schedules (group_id, day_of_week, lesson_time, duration_minutes, room) VALUES (?, ?, ?, ?, ?)";
             PreparedStatement pstmt = conn.prepareStatement(query);
             pstmt.setInt(1, groupId);
             pstmt.setInt(2, dayOfWeek);
             pstmt.setString(3, time);
+            pstmt.setInt(4, durationMinutes);
+            pstmt.setString(5, room == null || room.isBlank() ? null : room.trim());
             
             int affected = pstmt.executeUpdate();
             pstmt.close();
+            invalidateIndex();
             return affected > 0;
         } catch (SQLException e) {
             e.printStackTrace();
@@ -101,6 +168,7 @@ public class ScheduleService {
             pstmt.setInt(1, id);
             pstmt.executeUpdate();
             pstmt.close();
+            invalidateIndex();
         } catch (SQLException e) {
             e.printStackTrace();
         }
@@ -114,6 +182,7 @@ public class ScheduleService {
             pstmt.setInt(1, groupId);
             pstmt.executeUpdate();
             pstmt.close();
+            invalidateIndex();
         } catch (SQLException e) {
             e.printStackTrace();
         }
@@ -0,0 +1,74 @@
+package org.algo.mentor.services;
+
+import org.algo.mentor.config.DatabaseManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Key/value application settings stored in the app_settings table of the current database.
+ */
+public class SettingsService {
+
+    private static final Logger log = LoggerFactory.getLogger(SettingsService.class);
+
+    public static String get(String key, String defaultValue) {
+        try {
+            Connection conn = DatabaseManager.getConnection();
+            try (PreparedStatement pstmt = conn.prepareStatement("SELECT value FROM app_settings WHERE key = ?")) {
+                pstmt.setString(1, key);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    if (rs.next() && rs.getString(1) != null) return rs.getString(1);
+                }
+            }
+        } catch (SQLException e) {
+            log.error("Failed to read setting {}", key, e);
+        }
+        return defaultValue;
+    }
+
+    public static int getInt(String key, int defaultValue) {
+        try {
+            return Integer.parseInt(get(key, String.valueOf(defaultValue)));
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    public static long getLong(String key, long defaultValue) {
+        try {
+            return Long.parseLong(get(key, String.valueOf(defaultValue)));
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    public static double getDouble(String key, double defaultValue) {
+        try {
+            return Double.parseDouble(get(key, String.valueOf(defaultValue)));
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    public static boolean getBoolean(String key, boolean defaultValue) {
+        return Boolean.parseBoolean(get(key, String.valueOf(defaultValue)));
+    }
+
+    public static void put(String key, Object value) {
+        try {
+            Connection conn = DatabaseManager.getConnection();
+            try (PreparedStatement pstmt = conn.prepareStatement("INSERT OR REPLACE INTO app_settings (key, value) VALUES (?, ?)")) {
+                pstmt.setString(1, key);
+                pstmt.setString(2, value != null ? value.toString() : null);
+                pstmt.executeUpdate();
+            }
+        } catch (SQLException e) {
+            log.error("Failed to save setting {}", key, e);
+        }
+    }
+}
@@ -0,0 +1,745 @@
+package org.algo.mentor.services;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sqlite.SQLiteConfig;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compact copy of a whole database for moving it to another machine or into a test fixture.
+ * Unlike the database file it has no free or half-empty pages and no index pages; the indexes
+ * are rebuilt on import.
+ * <p>
+ * Layout ({@value #FILE_SUFFIX}): a header, then one section per table with its CREATE statement,
+ * its column names and its rows in blocks of up to {@value #BLOCK_ROWS}. A block stores each
+ * column on its own, length-prefixed, in the smallest of these encodings: integers as zigzag
+ * varint deltas from the previous value (ids, dates as numbers, flags), text with few distinct
+ * values as a dictionary plus varint indexes, lowercase hex text (the sync ids) as its bytes, other
+ * text length-prefixed, reals as 8 bytes, and
+ * anything mixed with a type tag per value. Nulls are a bitmap in front of the column. Indexes,
+ * triggers and the AUTOINCREMENT counters follow the tables.
+ * <p>
+ * Import creates a new database file: tables first, rows through batched inserts in one
+ * transaction, then the indexes and triggers, so rows are neither indexed one by one nor written
+ * to the change log.
+ */
+public class SnapshotService {
+
+    private static final Logger log = LoggerFactory.getLogger(SnapshotService.class);
+
+    public static final String FILE_SUFFIX = ".msnap";
+    private static final int MAGIC = 0x4D534E50; // "MSNP"
+    private static final int VERSION = 1;
+    private static final int BLOCK_ROWS = 8192;
+    private static final int INSERT_BATCH = 1000;
+    private static final int BUFFER_BYTES = 1 << 20;
+    private static final int IMPORT_CACHE_KIB = 256 * 1024;
+
+    private static final int SECTION_END = 0;
+    private static final int SECTION_TABLE = 1;
+    private static final int SECTION_SCHEMA = 2;
+    private static final int SECTION_SEQUENCE = 3;
+
+    private static final int ENC_INTEGER = 1;
+    private static final int ENC_REAL = 2;
+    private static final int ENC_DICTIONARY = 3;
+    private static final int ENC_TEXT = 4;
+    private static final int ENC_MIXED = 5;
+    private static final int ENC_HEX = 6;
+    private static final int HAS_NULLS = 0x80;
+
+    private static final int TAG_NULL = 0;
+    private static final int TAG_INTEGER = 1;
+    private static final int TAG_REAL = 2;
+    private static final int TAG_TEXT = 3;
+    private static final int TAG_BLOB = 4;
+
+    /** A rowid that is not also an INTEGER PRIMARY KEY column travels under this name. */
+    private static final String ROWID = "rowid";
+
+    public record ExportResult(Path file, int tables, long rows, long sizeBytes, long databaseBytes, long millis) {}
+
+    public record ImportResult(Path database, int tables, long rows, long millis) {}
+
+    /** Writes a snapshot of {@code database}, read in one transaction so it is consistent. */
+    public static ExportResult exportTo(Path database, Path file) throws SQLException, IOException {
+        long start = System.currentTimeMillis();
+        SQLiteConfig config = new SQLiteConfig();
+        config.setReadOnly(true);
+        Path tmp = file.resolveSibling(file.getFileName() + ".part");
+        int tables = 0;
+        long rows = 0;
+        try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + database, config.toProperties());
+             Sink out = new Sink(FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE))) {
+            conn.setAutoCommit(false);
+
+            Buf header = new Buf();
+            header.u32(MAGIC);
+            header.u8(VERSION);
+            header.varint(pragma(conn, "page_size"));
+            header.varint(System.currentTimeMillis());
+            out.write(header);
+
+            List<String[]> tableDefs = new ArrayList<>();
+            List<String> schema = new ArrayList<>();
+            try (Statement stmt = conn.createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT type, name, sql FROM sqlite_master WHERE sql IS NOT NULL " +
+                         "AND name NOT LIKE 'sqlite_%' ORDER BY CASE type WHEN 'table' THEN 0 WHEN 'index' THEN 1 ELSE 2 END, rowid")) {
+                while (rs.next()) {
+                    if (rs.getString(1).equals("table")) tableDefs.add(new String[]{rs.getString(2), rs.getString(3)});
+                    else schema.add(rs.getString(3));
+                }
+            }
+
+            for (String[] def : tableDefs) {
+                rows += writeTable(conn, out, def[0], def[1]);
+                tables++;
+            }
+
+            Buf section = new Buf();
+            section.u8(SECTION_SCHEMA);
+            section.varint(schema.size());
+            for (String sql : schema) section.str(sql);
+
+            List<Object[]> sequences = new ArrayList<>();
+            try (Statement stmt = conn.createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT name, seq FROM sqlite_sequence")) {
+                while (rs.next()) sequences.add(new Object[]{rs.getString(1), rs.getLong(2)});
+            } catch (SQLException e) {
+                // No AUTOINCREMENT table
+            }
+            section.u8(SECTION_SEQUENCE);
+            section.varint(sequences.size());
+            for (Object[] s : sequences) {
+                section.str((String) s[0]);
+                section.zigzag((Long) s[1]);
+            }
+            section.u8(SECTION_END);
+            out.write(section);
+            conn.rollback();
+        } catch (SQLException | IOException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+
+        ExportResult result = new ExportResult(file, tables, rows, Files.size(file), Files.size(database), System.currentTimeMillis() - start);
+        log.info("Snapshot of {} written to {}: {} tables, {} rows, {} bytes in {} ms", database, file,
+                tables, rows, result.sizeBytes(), result.millis());
+        return result;
+    }
+
+    /** Creates {@code database} from a snapshot; the file must not exist yet. */
+    public static ImportResult importTo(Path file, Path database) throws SQLException, IOException {
+        if (Files.exists(database)) {
+            throw new IOException(database + " already exists");
+        }
+        long start = System.currentTimeMillis();
+        int tables = 0;
+        long rows = 0;
+        boolean done = false;
+        try (Source in = new Source(FileChannel.open(file, StandardOpenOption.READ));
+             Connection conn = DriverManager.getConnection("jdbc:sqlite:" + database)) {
+            Buf header = in.read(5);
+            if (header.u32() != MAGIC) throw new IOException(file + " is not a snapshot");
+            int version = header.u8();
+            if (version != VERSION) throw new IOException("Unsupported snapshot version " + version);
+            long pageSize = in.varint();
+            in.varint(); // created at
+
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute("PRAGMA page_size = " + pageSize);
+                stmt.execute("PRAGMA auto_vacuum = INCREMENTAL");
+                // A new file that is deleted again if anything fails
+                stmt.execute("PRAGMA journal_mode = OFF");
+                stmt.execute("PRAGMA synchronous = OFF");
+                // Keeps the unique indexes filled during the inserts in memory
+                stmt.execute("PRAGMA cache_size = -" + IMPORT_CACHE_KIB);
+            }
+            conn.setAutoCommit(false);
+
+            while (true) {
+                int section = in.u8();
+                if (section == SECTION_TABLE) {
+                    rows += readTable(conn, in);
+                    tables++;
+                } else if (section == SECTION_SCHEMA) {
+                    long count = in.varint();
+                    try (Statement stmt = conn.createStatement()) {
+                        for (long i = 0; i < count; i++) stmt.execute(in.str());
+                    }
+                } else if (section == SECTION_SEQUENCE) {
+                    long count = in.varint();
+                    // Without an AUTOINCREMENT table there is no sqlite_sequence to write to
+                    if (count == 0) continue;
+                    try (PreparedStatement del = conn.prepareStatement("DELETE FROM sqlite_sequence WHERE name = ?");
+                         PreparedStatement ins = conn.prepareStatement("INSERT INTO sqlite_sequence (name, seq) VALUES (?, ?)")) {
+                        for (long i = 0; i < count; i++) {
+                            String name = in.str();
+                            long seq = in.zigzag();
+                            del.setString(1, name);
+                            del.executeUpdate();
+                            ins.setString(1, name);
+                            ins.setLong(2, seq);
+                            ins.executeUpdate();
+                        }
+                    }
+                } else if (section == SECTION_END) {
+                    break;
+                } else {
+                    throw new IOException("Unknown snapshot section " + section);
+                }
+            }
+            conn.commit();
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute("PRAGMA journal_mode = DELETE");
+            }
+            done = true;
+        } finally {
+            if (!done) Files.deleteIfExists(database);
+        }
+
+        ImportResult result = new ImportResult(database, tables, rows, System.currentTimeMillis() - start);
+        log.info("Snapshot {} imported into {}: {} tables, {} rows in {} ms", file, database, tables, rows, result.millis());
+        return result;
+    }
+
+    // ---- tables ----
+
+    private static long writeTable(Connection conn, Sink out, String table, String createSql) throws SQLException, IOException {
+        List<String> columns = new ArrayList<>();
+        if (!hasRowidAlias(conn, createSql, table)) columns.add(ROWID);
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("PRAGMA table_info(\"" + table + "\")")) {
+            while (rs.next()) columns.add(rs.getString("name"));
+        }
+
+        Buf section = new Buf();
+        section.u8(SECTION_TABLE);
+        section.str(table);
+        section.str(createSql);
+        section.varint(columns.size());
+        for (String c : columns) section.str(c);
+        out.write(section);
+
+        String select = "SELECT " + String.join(", ", columns.stream().map(SnapshotService::quote).toList()) +
+                " FROM " + quote(table) + (columns.get(0).equals(ROWID) ? " ORDER BY rowid" : "");
+        long rows = 0;
+        Object[][] block = new Object[columns.size()][BLOCK_ROWS];
+        int n = 0;
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery(select)) {
+            while (rs.next()) {
+                for (int c = 0; c < columns.size(); c++) block[c][n] = rs.getObject(c + 1);
+                if (++n == BLOCK_ROWS) {
+                    writeBlock(out, block, n);
+                    rows += n;
+                    n = 0;
+                }
+            }
+        }
+        if (n > 0) {
+            writeBlock(out, block, n);
+            rows += n;
+        }
+        Buf end = new Buf();
+        end.varint(0);
+        out.write(end);
+        return rows;
+    }
+
+    private static void writeBlock(Sink out, Object[][] block, int n) throws IOException {
+        Buf buf = new Buf();
+        buf.varint(n);
+        Buf column = new Buf();
+        for (Object[] values : block) {
+            column.reset();
+            int encoding = encodeColumn(column, values, n);
+            buf.u8(encoding);
+            buf.varint(column.size);
+            buf.bytes(column.data, 0, column.size);
+        }
+        Buf prefix = new Buf();
+        prefix.varint(buf.size);
+        out.write(prefix);
+        out.write(buf);
+    }
+
+    private static long readTable(Connection conn, Source in) throws SQLException, IOException {
+        String table = in.str();
+        String createSql = in.str();
+        int count = (int) in.varint();
+        List<String> columns = new ArrayList<>();
+        for (int i = 0; i < count; i++) columns.add(in.str());
+
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute(createSql);
+        }
+        String insert = "INSERT INTO " + quote(table) + " (" + String.join(", ", columns.stream().map(SnapshotService::quote).toList()) +
+                ") VALUES (" + String.join(", ", Collections.nCopies(count, "?")) + ")";
+        long rows = 0;
+        try (PreparedStatement pstmt = conn.prepareStatement(insert)) {
+            Object[][] block = new Object[count][];
+            int pending = 0;
+            while (true) {
+                long length = in.varint();
+                if (length == 0) break;
+                Buf buf = in.read((int) length);
+                int n = (int) buf.varint();
+                for (int c = 0; c < count; c++) {
+                    int encoding = buf.u8();
+                    int size = (int) buf.varint();
+                    block[c] = decodeColumn(buf.slice(size), encoding, n);
+                }
+                for (int r = 0; r < n; r++) {
+                    for (int c = 0; c < count; c++) pstmt.setObject(c + 1, block[c][r]);
+                    pstmt.addBatch();
+                    if (++pending == INSERT_BATCH) {
+                        pstmt.executeBatch();
+                        pending = 0;
+                    }
+                }
+                rows += n;
+            }
+            if (pending > 0) pstmt.executeBatch();
+        }
+        return rows;
+    }
+
+    // ---- column encodings ----
+
+    private static int encodeColumn(Buf out, Object[] values, int n) {
+        boolean nulls = false, integers = true, reals = true, texts = true, hex = true;
+        Map<String, Integer> dictionary = new HashMap<>();
+        int nonNull = 0;
+        for (int i = 0; i < n; i++) {
+            Object v = values[i];
+            if (v == null) {
+                nulls = true;
+                continue;
+            }
+            nonNull++;
+            integers &= v instanceof Integer || v instanceof Long;
+            reals &= v instanceof Double || v instanceof Float;
+            texts &= v instanceof String;
+            hex &= texts && isHex((String) v);
+            if (texts && dictionary.size() <= n / 2) dictionary.putIfAbsent((String) v, dictionary.size());
+        }
+
+        if (nulls) {
+            byte[] bitmap = new byte[(n + 7) / 8];
+            for (int i = 0; i < n; i++) {
+                if (values[i] == null) bitmap[i >> 3] |= (byte) (1 << (i & 7));
+            }
+            out.bytes(bitmap, 0, bitmap.length);
+        }
+        int flag = nulls ? HAS_NULLS : 0;
+
+        if (nonNull > 0 && integers) {
+            long previous = 0;
+            for (int i = 0; i < n; i++) {
+                if (values[i] == null) continue;
+                long v = ((Number) values[i]).longValue();
+                out.zigzag(v - previous);
+                previous = v;
+            }
+            return ENC_INTEGER | flag;
+        }
+        if (nonNull > 0 && reals) {
+            for (int i = 0; i < n; i++) {
+                if (values[i] != null) out.f64(((Number) values[i]).doubleValue());
+            }
+            return ENC_REAL | flag;
+        }
+        if (nonNull > 0 && texts && dictionary.size() <= n / 2) {
+            String[] words = new String[dictionary.size()];
+            dictionary.forEach((word, index) -> words[index] = word);
+            out.varint(words.length);
+            for (String word : words) out.str(word);
+            for (int i = 0; i < n; i++) {
+                if (values[i] != null) out.varint(dictionary.get((String) values[i]));
+            }
+            return ENC_DICTIONARY | flag;
+        }
+        if (nonNull > 0 && hex) {
+            for (int i = 0; i < n; i++) {
+                if (values[i] == null) continue;
+                String v = (String) values[i];
+                out.varint(v.length() / 2);
+                for (int c = 0; c < v.length(); c += 2) {
+                    out.u8(Character.digit(v.charAt(c), 16) << 4 | Character.digit(v.charAt(c + 1), 16));
+                }
+            }
+            return ENC_HEX | flag;
+        }
+        if (nonNull > 0 && texts) {
+            for (int i = 0; i < n; i++) {
+                if (values[i] != null) out.str((String) values[i]);
+            }
+            return ENC_TEXT | flag;
+        }
+        for (int i = 0; i < n; i++) {
+            Object v = values[i];
+            if (v == null) continue;
+            if (v instanceof Integer || v instanceof Long) {
+                out.u8(TAG_INTEGER);
+                out.zigzag(((Number) v).longValue());
+            } else if (v instanceof Double || v instanceof Float) {
+                out.u8(TAG_REAL);
+                out.f64(((Number) v).doubleValue());
+            } else if (v instanceof byte[] b) {
+                out.u8(TAG_BLOB);
+                out.varint(b.length);
+                out.bytes(b, 0, b.length);
+            } else {
+                out.u8(TAG_TEXT);
+                out.str(v.toString());
+            }
+        }
+        return ENC_MIXED | flag;
+    }
+
+    private static Object[] decodeColumn(Buf in, int encoding, int n) throws IOException {
+        Object[] values = new Object[n];
+        boolean[] isNull = new boolean[n];
+        if ((encoding & HAS_NULLS) != 0) {
+            byte[] bitmap = in.take((n + 7) / 8);
+            for (int i = 0; i < n; i++) isNull[i] = (bitmap[i >> 3] & (1 << (i & 7))) != 0;
+        }
+        switch (encoding & ~HAS_NULLS) {
+            case ENC_INTEGER -> {
+                long previous = 0;
+                for (int i = 0; i < n; i++) {
+                    if (isNull[i]) continue;
+                    previous += in.zigzag();
+                    values[i] = previous;
+                }
+            }
+            case ENC_REAL -> {
+                for (int i = 0; i < n; i++) {
+                    if (!isNull[i]) values[i] = in.f64();
+                }
+            }
+            case ENC_DICTIONARY -> {
+                String[] words = new String[(int) in.varint()];
+                for (int w = 0; w < words.length; w++) words[w] = in.str();
+                for (int i = 0; i < n; i++) {
+                    if (!isNull[i]) values[i] = words[(int) in.varint()];
+                }
+            }
+            case ENC_TEXT -> {
+                for (int i = 0; i < n; i++) {
+                    if (!isNull[i]) values[i] = in.str();
+                }
+            }
+            case ENC_HEX -> {
+                for (int i = 0; i < n; i++) {
+                    if (isNull[i]) continue;
+                    byte[] b = in.take((int) in.varint());
+                    char[] chars = new char[b.length * 2];
+                    for (int c = 0; c < b.length; c++) {
+                        chars[2 * c] = Character.forDigit((b[c] >> 4) & 0xF, 16);
+                        chars[2 * c + 1] = Character.forDigit(b[c] & 0xF, 16);
+                    }
+                    values[i] = new String(chars);
+                }
+            }
+            case ENC_MIXED -> {
+                for (int i = 0; i < n; i++) {
+                    if (isNull[i]) continue;
+                    int tag = in.u8();
+                    values[i] = switch (tag) {
+                        case TAG_INTEGER -> in.zigzag();
+                        case TAG_REAL -> in.f64();
+                        case TAG_TEXT -> in.str();
+                        case TAG_BLOB -> in.take((int) in.varint());
+                        case TAG_NULL -> null;
+                        default -> throw new IOException("Unknown value tag " + tag);
+                    };
+                }
+            }
+            default -> throw new IOException("Unknown column encoding " + encoding);
+        }
+        return values;
+    }
+
+    // ---- helpers ----
+
+    /** Whether the table's rowid is one of its columns (a single INTEGER PRIMARY KEY). */
+    private static boolean hasRowidAlias(Connection conn, String createSql, String table) throws SQLException {
+        if (createSql.toUpperCase().contains("WITHOUT ROWID")) return true;
+        int keys = 0;
+        boolean integer = false;
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("PRAGMA table_info(\"" + table + "\")")) {
+            while (rs.next()) {
+                if (rs.getInt("pk") > 0) {
+                    keys++;
+                    integer = "INTEGER".equalsIgnoreCase(rs.getString("type"));
+                }
+            }
+        }
+        return keys == 1 && integer;
+    }
+
+    /** Non-empty, even length and only 0-9 and a-f, so it packs into bytes and back unchanged. */
+    private static boolean isHex(String s) {
+        if (s.isEmpty() || s.length() % 2 != 0) return false;
+        for (int i = 0; i < s.length(); i++) {
+            char ch = s.charAt(i);
+            if ((ch < '0' || ch > '9') && (ch < 'a' || ch > 'f')) return false;
+        }
+        return true;
+    }
+
+    private static long pragma(Connection conn, String name) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("PRAGMA " + name)) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+
+    private static String quote(String identifier) {
+        return "\"" + identifier.replace("\"", "\"\"") + "\"";
+    }
+
+    /** A growable byte array with the snapshot's primitive encodings, read from the same position it was written. */
+    private static final class Buf {
+        byte[] data;
+        int size;
+        int pos;
+
+        Buf() {
+            data = new byte[256];
+        }
+
+        Buf(byte[] data, int size) {
+            this.data = data;
+            this.size = size;
+        }
+
+        void reset() {
+            size = 0;
+            pos = 0;
+        }
+
+        private void ensure(int extra) {
+            if (size + extra > data.length) data = Arrays.copyOf(data, Math.max(data.length * 2, size + extra));
+        }
+
+        void u8(int v) {
+            ensure(1);
+            data[size++] = (byte) v;
+        }
+
+        void u32(int v) {
+            ensure(4);
+            for (int shift = 24; shift >= 0; shift -= 8) data[size++] = (byte) (v >>> shift);
+        }
+
+        void varint(long v) {
+            ensure(10);
+            while ((v & ~0x7FL) != 0) {
+                data[size++] = (byte) ((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            data[size++] = (byte) v;
+        }
+
+        void zigzag(long v) {
+            varint((v << 1) ^ (v >> 63));
+        }
+
+        void f64(double v) {
+            long bits = Double.doubleToRawLongBits(v);
+            ensure(8);
+            for (int shift = 56; shift >= 0; shift -= 8) data[size++] = (byte) (bits >>> shift);
+        }
+
+        void bytes(byte[] b, int off, int len) {
+            ensure(len);
+            System.arraycopy(b, off, data, size, len);
+            size += len;
+        }
+
+        void str(String s) {
+            byte[] b = s.getBytes(StandardCharsets.UTF_8);
+            varint(b.length);
+            bytes(b, 0, b.length);
+        }
+
+        int u8() throws IOException {
+            need(1);
+            return data[pos++] & 0xFF;
+        }
+
+        int u32() throws IOException {
+            need(4);
+            int v = 0;
+            for (int i = 0; i < 4; i++) v = (v << 8) | (data[pos++] & 0xFF);
+            return v;
+        }
+
+        long varint() throws IOException {
+            long v = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = u8();
+                v |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) return v;
+            }
+            throw new IOException("Malformed varint");
+        }
+
+        long zigzag() throws IOException {
+            long v = varint();
+            return (v >>> 1) ^ -(v & 1);
+        }
+
+        double f64() throws IOException {
+            need(8);
+            long bits = 0;
+            for (int i = 0; i < 8; i++) bits = (bits << 8) | (data[pos++] & 0xFF);
+            return Double.longBitsToDouble(bits);
+        }
+
+        byte[] take(int len) throws IOException {
+            need(len);
+            byte[] b = Arrays.copyOfRange(data, pos, pos + len);
+            pos += len;
+            return b;
+        }
+
+        String str() throws IOException {
+            int len = (int) varint();
+            need(len);
+            String s = new String(data, pos, len, StandardCharsets.UTF_8);
+            pos += len;
+            return s;
+        }
+
+        Buf slice(int len) throws IOException {
+            return new Buf(take(len), len);
+        }
+
+        private void need(int len) throws IOException {
+            if (pos + len > size) throw new IOException("Snapshot is truncated");
+        }
+    }
+
+    /** Writes through a buffer to the file channel. */
+    private static final class Sink implements AutoCloseable {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+
+        Sink(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        void write(Buf b) throws IOException {
+            int off = 0;
+            while (off < b.size) {
+                int len = Math.min(buffer.remaining(), b.size - off);
+                buffer.put(b.data, off, len);
+                off += len;
+                if (!buffer.hasRemaining()) flush();
+            }
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) channel.write(buffer);
+            buffer.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                flush();
+                channel.force(false);
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+    /** Reads from the file channel through a buffer. */
+    private static final class Source implements AutoCloseable {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+
+        Source(FileChannel channel) {
+            this.channel = channel;
+            buffer.flip();
+        }
+
+        /** The next {@code len} bytes, to decode with {@link Buf}'s read methods. */
+        Buf read(int len) throws IOException {
+            byte[] b = new byte[len];
+            int off = 0;
+            while (off < len) {
+                if (!buffer.hasRemaining()) fill();
+                int n = Math.min(buffer.remaining(), len - off);
+                buffer.get(b, off, n);
+                off += n;
+            }
+            return new Buf(b, len);
+        }
+
+        int u8() throws IOException {
+            if (!buffer.hasRemaining()) fill();
+            return buffer.get() & 0xFF;
+        }
+
+        long varint() throws IOException {
+            long v = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = u8();
+                v |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) return v;
+            }
+            throw new IOException("Malformed varint");
+        }
+
+        long zigzag() throws IOException {
+            long v = varint();
+            return (v >>> 1) ^ -(v & 1);
+        }
+
+        String str() throws IOException {
+            int len = (int) varint();
+            return new String(read(len).data, 0, len, StandardCharsets.UTF_8);
+        }
+
+        private void fill() throws IOException {
+            buffer.clear();
+            int n = channel.read(buffer);
+            buffer.flip();
+            if (n <= 0) throw new IOException("Snapshot is truncated");
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
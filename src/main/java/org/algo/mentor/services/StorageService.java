@@ -0,0 +1,186 @@
+package org.algo.mentor.services;
+
+import org.algo.mentor.config.DatabaseManager;
+import org.algo.mentor.config.StorageProfile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Switching the {@link StorageProfile} of the open database, and a benchmark that runs the
+ * app's own report queries and typical writes against a copy of a database under each profile.
+ */
+public class StorageService {
+
+    private static final Logger log = LoggerFactory.getLogger(StorageService.class);
+
+    public static final int DEFAULT_ROUNDS = 5;
+    private static final int SINGLE_WRITES = 50;
+    private static final int BATCH_ROWS = 2000;
+    /** Reports are run far more often than bulk writes in this app. */
+    private static final double READ_WEIGHT = 0.7;
+    /** A safer profile is recommended unless a faster one beats it by more than this. */
+    private static final double SAFETY_MARGIN = 0.05;
+
+    /**
+     * Median times of one profile: {@code readMillis} for a round of report queries,
+     * {@code commitMillis} for one single-row commit, {@code batchMillis} for a transaction
+     * updating up to {@value #BATCH_ROWS} attendance rows.
+     */
+    public record ProfileResult(StorageProfile profile, double readMillis, double commitMillis, double batchMillis) {
+        public double score() {
+            return READ_WEIGHT * readMillis + (1 - READ_WEIGHT) * (commitMillis * SINGLE_WRITES + batchMillis);
+        }
+    }
+
+    public record BenchmarkResult(Path database, long sizeBytes, List<ProfileResult> results, StorageProfile recommended) {}
+
+    public static StorageProfile getActive() {
+        return StorageProfile.parse(SettingsService.get(StorageProfile.SETTING_KEY, null));
+    }
+
+    /**
+     * Stores and applies a profile on the open database, rebuilding the file if the page size
+     * changes. The connection is reopened first, as VACUUM fails while any statement is open.
+     */
+    public static void activate(StorageProfile profile) throws SQLException {
+        SettingsService.put(StorageProfile.SETTING_KEY, profile.name());
+        DatabaseManager.closeConnection();
+        ArchiveService.reset();
+        apply(DatabaseManager.getConnection(), profile);
+        log.info("Storage profile {} activated", profile);
+    }
+
+    /**
+     * Copies the database once and measures every profile on its own copy of it, so the results
+     * do not depend on which profile ran first and the original is never written to.
+     */
+    public static BenchmarkResult benchmark(Path database, int rounds) throws SQLException, IOException {
+        Path dir = Files.createTempDirectory("mentor-storage-");
+        try {
+            Path snapshot = dir.resolve("snapshot.db");
+            try (Connection source = DriverManager.getConnection("jdbc:sqlite:" + database);
+                 PreparedStatement pstmt = source.prepareStatement("VACUUM INTO ?")) {
+                pstmt.setString(1, snapshot.toString());
+                pstmt.executeUpdate();
+            }
+
+            List<ProfileResult> results = new ArrayList<>();
+            for (StorageProfile profile : StorageProfile.values()) {
+                Path copy = dir.resolve(profile.name().toLowerCase() + ".db");
+                Files.copy(snapshot, copy);
+                results.add(measure(copy, profile, Math.max(1, rounds)));
+            }
+
+            ProfileResult best = results.stream().min(Comparator.comparingDouble(ProfileResult::score)).orElseThrow();
+            StorageProfile recommended = best.profile();
+            for (ProfileResult r : results) {
+                if (r.profile().ordinal() < recommended.ordinal() && r.score() <= best.score() * (1 + SAFETY_MARGIN)) {
+                    recommended = r.profile();
+                }
+            }
+            BenchmarkResult result = new BenchmarkResult(database, Files.size(database), results, recommended);
+            log.info("Storage benchmark of {}: {} -> {}", database, results, recommended);
+            return result;
+        } finally {
+            try (Stream<Path> files = Files.list(dir)) {
+                for (Path p : files.toList()) Files.deleteIfExists(p);
+            }
+            Files.deleteIfExists(dir);
+        }
+    }
+
+    private static ProfileResult measure(Path file, StorageProfile profile, int rounds) throws SQLException {
+        try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + file)) {
+            apply(conn, profile);
+            // Warm-up so every profile is measured with its cache filled
+            readRound(conn);
+
+            double[] reads = new double[rounds];
+            double[] commits = new double[rounds];
+            double[] batches = new double[rounds];
+            for (int r = 0; r < rounds; r++) {
+                long t = System.nanoTime();
+                readRound(conn);
+                reads[r] = millisSince(t);
+
+                t = System.nanoTime();
+                try (PreparedStatement pstmt = conn.prepareStatement("INSERT OR REPLACE INTO app_settings (key, value) VALUES (?, ?)")) {
+                    for (int i = 0; i < SINGLE_WRITES; i++) {
+                        pstmt.setString(1, "storage.benchmark." + i);
+                        pstmt.setString(2, String.valueOf(r));
+                        pstmt.executeUpdate();
+                    }
+                }
+                commits[r] = millisSince(t) / SINGLE_WRITES;
+
+                t = System.nanoTime();
+                conn.setAutoCommit(false);
+                try (Statement stmt = conn.createStatement()) {
+                    stmt.executeUpdate("UPDATE attendance SET present = present WHERE id IN (SELECT id FROM attendance LIMIT " + BATCH_ROWS + ")");
+                    conn.commit();
+                } finally {
+                    conn.setAutoCommit(true);
+                }
+                batches[r] = millisSince(t);
+            }
+            return new ProfileResult(profile, median(reads), median(commits), median(batches));
+        }
+    }
+
+    /** The queries behind the reports screen and the attendance matrix. */
+    private static void readRound(Connection conn) throws SQLException {
+        ReportService.streamGroupTotals(conn, g -> {});
+        ReportService.streamStudentGroupTotals(conn, ArchiveService.Tables.mainOnly(), null, null, null, t -> {});
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT l.group_id, l.lesson_date, a.student_id, a.present " +
+                     "FROM lessons l JOIN attendance a ON a.lesson_id = l.id ORDER BY l.group_id, l.lesson_date")) {
+            while (rs.next()) {
+                rs.getInt(1);
+            }
+        }
+    }
+
+    private static void apply(Connection conn, StorageProfile profile) throws SQLException {
+        int pageSize;
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("PRAGMA page_size")) {
+            pageSize = rs.next() ? rs.getInt(1) : 0;
+        }
+        if (pageSize != profile.getPageSize()) {
+            // The page size of an existing file only changes with VACUUM, which WAL does not allow
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute("PRAGMA journal_mode = DELETE");
+                stmt.execute("PRAGMA page_size = " + profile.getPageSize());
+                stmt.execute("VACUUM");
+            }
+        }
+        profile.apply(conn);
+    }
+
+    private static double millisSince(long startNanos) {
+        return (System.nanoTime() - startNanos) / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    private static double median(double[] values) {
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+        int mid = sorted.length / 2;
+        return sorted.length % 2 == 1 ? sorted[mid] : (sorted[mid - 1] + sorted[mid]) / 2;
+    }
+}
@@ -8,6 +8,7 @@ import javafx.collections.ObservableList;
 import java.sql.*;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
+import java.util.function.Consumer;
 import org.algo.mentor.config.DatabaseManager;
 import org.algo.mentor.models.Student;
 
@@ -15,6 +16,75 @@ public class StudentService {
     private static final Logger logger = LoggerFactory.getLogger(StudentService.class);
     private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd");
 
+    /**
+     * One student row for roster exports. paymentCount counts rows in payments,
+     * paidMonthCount counts marks in monthly_payments.
+     */
+    public record RosterRow(int id, String firstName, String lastName, String phone, String telegramUsername,
+                            String parentName, String parentPhone, int paymentCount, int paidMonthCount) {
+        public String fullName() {
+            return firstName + " " + lastName;
+        }
+    }
+
+    private static final String ROSTER_QUERY = "SELECT s.id, s.first_name, s.last_name, s.phone, s.telegram_username, " +
+            "s.parent_name, s.parent_phone, COALESCE(p.cnt, 0) AS payment_count, COALESCE(mp.cnt, 0) AS paid_month_count, " +
+            "CASE WHEN mp.day1 > 0 THEN 1 WHEN mp.day15 > 0 THEN 2 ELSE 3 END AS payment_priority " +
+            "FROM students s " +
+            "LEFT JOIN (SELECT student_id, COUNT(*) AS cnt FROM payments GROUP BY student_id) p ON p.student_id = s.id " +
+            "LEFT JOIN (SELECT student_id, COUNT(*) AS cnt, SUM(payment_day = 1) AS day1, SUM(payment_day = 15) AS day15 " +
+            "           FROM monthly_payments GROUP BY student_id) mp ON mp.student_id = s.id ";
+
+    /**
+     * Streams every student, ordered by full name, straight from the result set on {@code conn}.
+     * Rows are handed to the consumer while the cursor is open, so nothing is buffered.
+     */
+    public static void streamAllStudentsRoster(Connection conn, Consumer<RosterRow> consumer) throws SQLException {
+        streamRoster(conn, ROSTER_QUERY + "ORDER BY (s.first_name || ' ' || s.last_name) COLLATE NOCASE", null, consumer);
+    }
+
+    /**
+     * Streams the students of a group: those paying on the 1st first, then on the 15th,
+     * then the rest, each by full name.
+     */
+    public static void streamGroupRoster(Connection conn, int groupId, Consumer<RosterRow> consumer) throws SQLException {
+        streamRoster(conn, ROSTER_QUERY + "JOIN student_groups sg ON sg.student_id = s.id AND sg.group_id = ? " +
+                "ORDER BY payment_priority, s.first_name || ' ' || s.last_name", groupId, consumer);
+    }
+
+    /** Row count of {@link #streamAllStudentsRoster} or, with a group id, of {@link #streamGroupRoster}. */
+    public static int countRoster(Connection conn, Integer groupId) throws SQLException {
+        String query = groupId == null
+                ? "SELECT COUNT(*) FROM students"
+                : "SELECT COUNT(*) FROM student_groups WHERE group_id = ?";
+        try (PreparedStatement pstmt = conn.prepareStatement(query)) {
+            if (groupId != null) pstmt.setInt(1, groupId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next() ? rs.getInt(1) : 0;
+            }
+        }
+    }
+
+    private static void streamRoster(Connection conn, String query, Integer groupId, Consumer<RosterRow> consumer) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement(query)) {
+            if (groupId != null) pstmt.setInt(1, groupId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    consumer.accept(new RosterRow(
+                            rs.getInt("id"),
+                            rs.getString("first_name"),
+                            rs.getString("last_name"),
+                            rs.getString("phone"),
+                            rs.getString("telegram_username"),
+                            rs.getString("parent_name"),
+                            rs.getString("parent_phone"),
+                            rs.getInt("payment_count"),
+                            rs.getInt("paid_month_count")));
+                }
+            }
+        }
+    }
+
     public static ObservableList<Student> getAllStudents() {
         ObservableList<Student> students = FXCollections.observableArrayList();
         try {
@@ -188,6 +258,7 @@ public class StudentService {
             pstmt.executeUpdate();
             pstmt.close();
             logger.debug("Added student {} to group {}", studentId, groupId);
+            RiskService.refreshStudent(studentId);
         } catch (SQLException e) {
             logger.error("Error adding student {} to group {}", studentId, groupId, e);
         }
@@ -204,6 +275,7 @@ public class StudentService {
             pstmt.executeUpdate();
             pstmt.close();
             logger.debug("Removed student {} from group {}", studentId, groupId);
+            RiskService.refreshStudent(studentId);
         } catch (SQLException e) {
             logger.error("Error removing student {} from group {}", studentId, groupId, e);
         }
@@ -250,6 +322,7 @@ public class StudentService {
             pstmt.executeUpdate();
             pstmt.close();
             logger.info("Updated student {} {}", firstName, lastName);
+            RiskService.refreshStudent(studentId);
         } catch (SQLException e) {
             logger.error("Error updating student {}", studentId, e);
         }
@@ -271,22 +344,10 @@ public class StudentService {
         }
     }
 
+    /** Deletes the student with their attendance, scores, payments and group memberships. */
     public static void deleteStudent(int studentId) {
         try {
-            Connection conn = DatabaseManager.getConnection();
-            
-            String query1 = "DELETE FROM student_groups WHERE student_id = ?";
-            PreparedStatement pstmt1 = conn.prepareStatement(query1);
-            pstmt1.setInt(1, studentId);
-            pstmt1.executeUpdate();
-            pstmt1.close();
-            
-            String query2 = "DELETE FROM students WHERE id = ?";
-            PreparedStatement pstmt2 = conn.prepareStatement(query2);
-            pstmt2.setInt(1, studentId);
-            pstmt2.executeUpdate();
-            pstmt2.close();
-            
+            CascadeService.delete("students", studentId);
             logger.info("Deleted student {}", studentId);
         } catch (SQLException e) {
             logger.error("Error deleting student {}", studentId, e);
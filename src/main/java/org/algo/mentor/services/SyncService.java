@@ -0,0 +1,963 @@
+package org.algo.mentor.services;
+
+import org.algo.mentor.config.DatabaseManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Offline delta sync between two installations (e.g. home and the centre) through bundle files.
+ * <p>
+ * Every row of a domain table has a {@code sync_meta} entry kept up to date by triggers: a global
+ * id, the time of its last change as version, the site that made it (NULL for this one) and a
+ * local sequence number. A bundle carries the rows whose sequence is past what the peer has
+ * confirmed, with foreign keys written as global ids, and the last sequence of the peer this side
+ * has applied, which is the peer's confirmation. A lost bundle is simply covered by the next one.
+ * <p>
+ * Conflicts go to the higher version, then the higher site id, so both sides pick the same
+ * winner whatever the import order. Pairing starts from copies of one database file: rows that
+ * existed before sync_meta have ids made of table and row id, which only match on copies. Until
+ * it is paired, an installation also puts content hashes of those rows into its bundles, and the
+ * first import is refused if any row that neither side has changed since differs, so two
+ * unrelated databases are never merged row by row.
+ */
+public class SyncService {
+
+    private static final Logger log = LoggerFactory.getLogger(SyncService.class);
+
+    private static final String SETTINGS_PREFIX = "sync.";
+    private static final String SITE_KEY = SETTINGS_PREFIX + "site_id";
+    private static final String PEER_KEY = SETTINGS_PREFIX + "peer_site_id";
+    /** Our last sequence the peer has confirmed. */
+    private static final String ACKED_KEY = SETTINGS_PREFIX + "acked_seq";
+    /** The peer's last sequence applied here. */
+    private static final String RECEIVED_KEY = SETTINGS_PREFIX + "received_seq";
+
+    public static final String FILE_SUFFIX = ".msync";
+    private static final int MAGIC = 0x4D53594E;
+    private static final int FORMAT_VERSION = 2;
+    private static final DateTimeFormatter FILE_TIME_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss-SSS");
+
+    private static final byte NULL = 0, LONG = 1, DOUBLE = 2, TEXT = 3, BLOB = 4, REF = 5;
+
+    /** Unique keys of tables whose rows can be created independently on both sides. */
+    private static final Map<String, List<String>> NATURAL_KEYS = Map.of(
+            "attendance", List.of("lesson_id", "student_id"),
+            "homeworks", List.of("lesson_id", "student_id"),
+            "test_results", List.of("test_session_id", "student_id"),
+            "question_results", List.of("question_session_id", "student_id"),
+            "schedules", List.of("group_id", "day_of_week"),
+            "monthly_payments", List.of("student_id", "year", "month", "payment_day"),
+            "student_groups", List.of("student_id", "group_id"));
+
+    public record ExportResult(Path file, int rows, long sizeBytes, long millis) {}
+
+    public record ImportResult(Path file, String peer, int applied, int skipped, int unresolved, long millis) {}
+
+    private record TableSpec(List<String> columns, Map<String, String> references) {}
+
+    private record Meta(String gid, long rowId, long version, String site, boolean deleted) {}
+
+    /** A row as carried in a bundle; an empty site means the sender. */
+    private record RowChange(String gid, long version, String site, boolean deleted, Object[] values) {}
+
+    private record Section(String table, List<String> columns, List<RowChange> rows) {}
+
+    /** Hashes of a table's rows that still have their backfilled id and version 0, by row id. */
+    private record Baseline(String table, List<String> columns, Map<Long, Long> hashes) {}
+
+    private record Bundle(String sender, long senderSeq, long ackSeq, List<Baseline> baselines, List<Section> sections) {}
+
+    /** A foreign key carried as the referenced row's global id. */
+    private record Ref(String gid) {}
+
+    /** This installation's id, created on first use. */
+    public static synchronized String getSiteId() {
+        String site = SettingsService.get(SITE_KEY, null);
+        if (site == null) {
+            site = UUID.randomUUID().toString().replace("-", "");
+            SettingsService.put(SITE_KEY, site);
+        }
+        return site;
+    }
+
+    /** The paired installation, or null before the first bundle from it was imported. */
+    public static String getPeerSiteId() {
+        return SettingsService.get(PEER_KEY, null);
+    }
+
+    /**
+     * Writes the rows the peer has not confirmed yet. {@code target} is either a directory, where a
+     * new {@code sync-<site>-<time>.msync} file is created, or the bundle file itself.
+     */
+    public static synchronized ExportResult exportTo(Path target) throws SQLException, IOException {
+        long started = System.nanoTime();
+        Connection conn = DatabaseManager.getConnection();
+        String site = getSiteId();
+        String peer = getPeerSiteId();
+        long since = SettingsService.getLong(ACKED_KEY, 0);
+        long upTo = localSequence(conn);
+
+        Path file = Files.isDirectory(target)
+                ? target.resolve("sync-" + site.substring(0, 8) + "-" + LocalDateTime.now().format(FILE_TIME_FORMAT) + FILE_SUFFIX)
+                : target;
+        Path part = file.resolveSibling(file.getFileName() + ".part");
+        Map<String, Map<Long, String>> gidCache = new HashMap<>();
+        int total = 0;
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new GZIPOutputStream(Files.newOutputStream(part))))) {
+                out.writeInt(MAGIC);
+                out.writeShort(FORMAT_VERSION);
+                writeString(out, site);
+                out.writeLong(upTo);
+                out.writeLong(SettingsService.getLong(RECEIVED_KEY, 0));
+
+                // Only needed for the peer's first import, which is when it checks the pairing
+                List<Baseline> baselines = peer == null ? baselines(conn) : List.of();
+                out.writeShort(baselines.size());
+                for (Baseline baseline : baselines) writeBaseline(out, baseline);
+
+                List<Section> sections = new ArrayList<>();
+                for (String table : DatabaseManager.DOMAIN_TABLES) {
+                    Section section = collect(conn, table, since, upTo, peer, gidCache);
+                    if (!section.rows().isEmpty()) sections.add(section);
+                }
+                out.writeShort(sections.size());
+                for (Section section : sections) {
+                    writeSection(out, section);
+                    total += section.rows().size();
+                }
+            }
+            Files.move(part, file, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(part);
+        }
+
+        ExportResult result = new ExportResult(file, total, Files.size(file),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+        log.info("Sync bundle {} written: {} rows after seq {}, {} bytes, {} ms", file, total, since, result.sizeBytes(), result.millis());
+        return result;
+    }
+
+    /** Imports every bundle in a directory that came from another installation, oldest first. */
+    public static List<ImportResult> importDirectory(Path dir) throws SQLException, IOException {
+        List<Path> files;
+        try (Stream<Path> list = Files.list(dir)) {
+            files = list.filter(p -> p.getFileName().toString().endsWith(FILE_SUFFIX)).sorted().toList();
+        }
+        String site = getSiteId();
+        List<ImportResult> results = new ArrayList<>();
+        for (Path file : files) {
+            if (site.equals(readSender(file))) continue;
+            results.add(importFrom(file));
+        }
+        return results;
+    }
+
+    /**
+     * Applies a bundle in one transaction. Bundles can be imported more than once and in any
+     * order; rows this side already has a newer version of are skipped.
+     */
+    public static synchronized ImportResult importFrom(Path file) throws SQLException, IOException {
+        long started = System.nanoTime();
+        Bundle bundle = read(file);
+        String site = getSiteId();
+        if (bundle.sender().equals(site)) {
+            throw new IllegalArgumentException("Bu paket shu o'rnatmaning o'zida yaratilgan");
+        }
+        String peer = getPeerSiteId();
+        if (peer != null && !peer.equals(bundle.sender())) {
+            throw new IllegalArgumentException("Paket boshqa o'rnatmadan: " + bundle.sender());
+        }
+
+        Importer importer = new Importer(DatabaseManager.getConnection(), site, bundle.sender());
+        Connection conn = importer.conn;
+        if (peer == null) checkPairing(conn, bundle.baselines());
+        try {
+            conn.setAutoCommit(false);
+            // Everything in an older bundle has been applied already
+            if (bundle.senderSeq() > SettingsService.getLong(RECEIVED_KEY, 0)) {
+                importer.apply(bundle.sections());
+                importer.touched.refreshDerived(conn);
+                SettingsService.put(RECEIVED_KEY, bundle.senderSeq());
+            }
+            SettingsService.put(PEER_KEY, bundle.sender());
+            if (bundle.ackSeq() > SettingsService.getLong(ACKED_KEY, 0)) {
+                SettingsService.put(ACKED_KEY, bundle.ackSeq());
+            }
+            conn.commit();
+        } catch (SQLException | RuntimeException e) {
+            try { conn.rollback(); } catch (SQLException ex) { log.error("Rollback failed", ex); }
+            throw e;
+        } finally {
+            conn.setAutoCommit(true);
+        }
+        importer.touched.refreshAfterCommit();
+
+        ImportResult result = new ImportResult(file, bundle.sender(), importer.applied, importer.skipped,
+                importer.unresolved, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+        log.info("Sync bundle {} imported: {} applied, {} skipped, {} unresolved, {} ms", file,
+                result.applied(), result.skipped(), result.unresolved(), result.millis());
+        return result;
+    }
+
+    /** The latest local sequence in {@code sync_meta}. */
+    public static long localSequence(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT COALESCE(MAX(local_seq), 0) FROM sync_meta")) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+
+    /**
+     * Drops the deletions recorded after {@code afterSeq}. Used when rows leave the database for
+     * another reason than being deleted (archiving), so the peer keeps its copies.
+     */
+    public static void forgetDeletions(Connection conn, long afterSeq) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement("DELETE FROM sync_meta WHERE local_seq > ? AND deleted = 1")) {
+            pstmt.setLong(1, afterSeq);
+            pstmt.executeUpdate();
+        }
+    }
+
+    /** The backfilled rows of every table, hashed over their own columns; memberships have no content beyond their id. */
+    private static List<Baseline> baselines(Connection conn) throws SQLException {
+        List<Baseline> baselines = new ArrayList<>();
+        for (String table : DatabaseManager.DOMAIN_TABLES) {
+            if (table.equals("student_groups")) continue;
+            List<String> columns = tableSpec(conn, table).columns();
+            Map<Long, Long> hashes = baselineHashes(conn, table, columns);
+            if (!hashes.isEmpty()) baselines.add(new Baseline(table, columns, hashes));
+        }
+        return baselines;
+    }
+
+    private static Map<Long, Long> baselineHashes(Connection conn, String table, List<String> columns) throws SQLException {
+        Map<Long, Long> hashes = new HashMap<>();
+        StringBuilder select = new StringBuilder("SELECT m.row_id");
+        for (String column : columns) select.append(", t.").append(column);
+        String query = select + " FROM sync_meta m JOIN " + table + " t ON t.rowid = m.row_id " +
+                "WHERE m.table_name = ? AND m.deleted = 0 AND m.version = 0 AND m.gid = m.table_name || ':' || m.row_id";
+        try (PreparedStatement pstmt = conn.prepareStatement(query)) {
+            pstmt.setString(1, table);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    Object[] values = new Object[columns.size()];
+                    for (int i = 0; i < values.length; i++) values[i] = rs.getObject(i + 2);
+                    hashes.put(rs.getLong(1), contentHash(values));
+                }
+            }
+        }
+        return hashes;
+    }
+
+    private static long contentHash(Object[] values) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        for (Object value : values) {
+            String text;
+            if (value == null) text = "N";
+            else if (value instanceof Integer || value instanceof Long) text = "L" + ((Number) value).longValue();
+            else if (value instanceof Number n) text = "D" + n.doubleValue();
+            else if (value instanceof byte[] bytes) text = "B" + HexFormat.of().formatHex(bytes);
+            else text = "T" + value;
+            digest.update(text.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+        }
+        return ByteBuffer.wrap(digest.digest()).getLong();
+    }
+
+    /**
+     * Refuses a first import from an installation that was not copied from this database: every
+     * backfilled row that is unchanged on both sides must have the same content. Rows changed or
+     * deleted on either side since, and tables whose columns differ, cannot be compared.
+     */
+    private static void checkPairing(Connection conn, List<Baseline> baselines) throws SQLException {
+        int compared = 0;
+        int mismatched = 0;
+        for (Baseline baseline : baselines) {
+            if (!DatabaseManager.DOMAIN_TABLES.contains(baseline.table())
+                    || !tableSpec(conn, baseline.table()).columns().containsAll(baseline.columns())) {
+                continue;
+            }
+            Map<Long, Long> local = baselineHashes(conn, baseline.table(), baseline.columns());
+            for (Map.Entry<Long, Long> e : baseline.hashes().entrySet()) {
+                Long hash = local.get(e.getKey());
+                if (hash == null) continue;
+                compared++;
+                if (!hash.equals(e.getValue())) mismatched++;
+            }
+        }
+        if (mismatched > 0) {
+            log.warn("Sync pairing refused: {} of {} shared rows differ", mismatched, compared);
+            throw new IllegalArgumentException("Paket boshqa ma'lumotlar bazasidan: " + compared +
+                    " ta umumiy yozuvdan " + mismatched + " tasi mos kelmadi. Juftlash bitta baza faylining nusxalaridan boshlanadi.");
+        }
+        log.info("Sync pairing checked: {} shared rows match", compared);
+    }
+
+    private static Section collect(Connection conn, String table, long since, long upTo, String peer,
+                                   Map<String, Map<Long, String>> gidCache) throws SQLException {
+        TableSpec spec = tableSpec(conn, table);
+        List<RowChange> rows = new ArrayList<>();
+        String metaQuery = "SELECT gid, row_id, version, site, deleted FROM sync_meta " +
+                "WHERE table_name = ? AND local_seq > ? AND local_seq <= ? AND (site IS NULL OR site <> ?) ORDER BY local_seq";
+        String rowQuery = "SELECT " + String.join(", ", spec.columns()) + " FROM " + table + " WHERE rowid = ?";
+        try (PreparedStatement meta = conn.prepareStatement(metaQuery);
+             PreparedStatement row = conn.prepareStatement(rowQuery)) {
+            meta.setString(1, table);
+            meta.setLong(2, since);
+            meta.setLong(3, upTo);
+            meta.setString(4, peer != null ? peer : "");
+            try (ResultSet rs = meta.executeQuery()) {
+                while (rs.next()) {
+                    String site = rs.getString("site");
+                    if (rs.getInt("deleted") == 1) {
+                        rows.add(new RowChange(rs.getString("gid"), rs.getLong("version"), site != null ? site : "", true, null));
+                        continue;
+                    }
+                    row.setLong(1, rs.getLong("row_id"));
+                    try (ResultSet values = row.executeQuery()) {
+                        if (!values.next()) continue;
+                        Object[] v = new Object[spec.columns().size()];
+                        for (int i = 0; i < v.length; i++) {
+                            Object value = values.getObject(i + 1);
+                            String refTable = spec.references().get(spec.columns().get(i));
+                            if (refTable != null && value != null) {
+                                String gid = gidOf(conn, refTable, ((Number) value).longValue(), gidCache);
+                                value = gid != null ? new Ref(gid) : null;
+                            }
+                            v[i] = value;
+                        }
+                        rows.add(new RowChange(rs.getString("gid"), rs.getLong("version"), site != null ? site : "", false, v));
+                    }
+                }
+            }
+        }
+        return new Section(table, spec.columns(), rows);
+    }
+
+    private static String gidOf(Connection conn, String table, long rowId, Map<String, Map<Long, String>> cache) throws SQLException {
+        Map<Long, String> byRow = cache.computeIfAbsent(table, t -> new HashMap<>());
+        if (byRow.containsKey(rowId)) return byRow.get(rowId);
+        String gid = null;
+        try (PreparedStatement pstmt = conn.prepareStatement(
+                "SELECT gid FROM sync_meta WHERE table_name = ? AND row_id = ? AND deleted = 0")) {
+            pstmt.setString(1, table);
+            pstmt.setLong(2, rowId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (rs.next()) gid = rs.getString(1);
+            }
+        }
+        byRow.put(rowId, gid);
+        return gid;
+    }
+
+    /** Columns except the row id ({@code id}), and the tables foreign-key columns point to. */
+    private static TableSpec tableSpec(Connection conn, String table) throws SQLException {
+        List<String> columns = new ArrayList<>();
+        String rowIdColumn = null;
+        int keyColumns = 0;
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("PRAGMA table_info(" + table + ")")) {
+            while (rs.next()) {
+                columns.add(rs.getString("name"));
+                if (rs.getInt("pk") > 0) {
+                    keyColumns++;
+                    if ("INTEGER".equalsIgnoreCase(rs.getString("type"))) rowIdColumn = rs.getString("name");
+                }
+            }
+        }
+        // Only a single INTEGER primary key is the row id; a composite key is data
+        if (keyColumns == 1 && rowIdColumn != null) columns.remove(rowIdColumn);
+        Map<String, String> references = new HashMap<>();
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("PRAGMA foreign_key_list(" + table + ")")) {
+            while (rs.next()) references.put(rs.getString("from"), rs.getString("table"));
+        }
+        return new TableSpec(columns, references);
+    }
+
+    private static void writeBaseline(DataOutputStream out, Baseline baseline) throws IOException {
+        writeString(out, baseline.table());
+        out.writeShort(baseline.columns().size());
+        for (String column : baseline.columns()) writeString(out, column);
+        out.writeInt(baseline.hashes().size());
+        for (Map.Entry<Long, Long> e : baseline.hashes().entrySet()) {
+            out.writeLong(e.getKey());
+            out.writeLong(e.getValue());
+        }
+    }
+
+    private static void writeSection(DataOutputStream out, Section section) throws IOException {
+        writeString(out, section.table());
+        out.writeShort(section.columns().size());
+        for (String column : section.columns()) writeString(out, column);
+        out.writeInt(section.rows().size());
+        for (RowChange row : section.rows()) {
+            writeString(out, row.gid());
+            out.writeLong(row.version());
+            writeString(out, row.site());
+            out.writeBoolean(row.deleted());
+            if (row.deleted()) continue;
+            for (Object value : row.values()) writeValue(out, value);
+        }
+    }
+
+    private static void writeValue(DataOutputStream out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(NULL);
+        } else if (value instanceof Ref ref) {
+            out.writeByte(REF);
+            writeString(out, ref.gid());
+        } else if (value instanceof Integer || value instanceof Long) {
+            out.writeByte(LONG);
+            out.writeLong(((Number) value).longValue());
+        } else if (value instanceof Number n) {
+            out.writeByte(DOUBLE);
+            out.writeDouble(n.doubleValue());
+        } else if (value instanceof byte[] bytes) {
+            out.writeByte(BLOB);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        } else {
+            out.writeByte(TEXT);
+            writeString(out, value.toString());
+        }
+    }
+
+    private static Bundle read(Path file) throws IOException {
+        try (DataInputStream in = open(file)) {
+            String sender = readString(in);
+            long senderSeq = in.readLong();
+            long ackSeq = in.readLong();
+            int baselineCount = in.readUnsignedShort();
+            List<Baseline> baselines = new ArrayList<>();
+            for (int b = 0; b < baselineCount; b++) {
+                String table = readString(in);
+                int columnCount = in.readUnsignedShort();
+                List<String> columns = new ArrayList<>();
+                for (int c = 0; c < columnCount; c++) columns.add(readString(in));
+                int rowCount = in.readInt();
+                Map<Long, Long> hashes = new HashMap<>();
+                for (int r = 0; r < rowCount; r++) hashes.put(in.readLong(), in.readLong());
+                baselines.add(new Baseline(table, columns, hashes));
+            }
+            int sectionCount = in.readUnsignedShort();
+            List<Section> sections = new ArrayList<>();
+            for (int s = 0; s < sectionCount; s++) {
+                String table = readString(in);
+                int columnCount = in.readUnsignedShort();
+                List<String> columns = new ArrayList<>();
+                for (int c = 0; c < columnCount; c++) columns.add(readString(in));
+                int rowCount = in.readInt();
+                List<RowChange> rows = new ArrayList<>(rowCount);
+                for (int r = 0; r < rowCount; r++) {
+                    String gid = readString(in);
+                    long version = in.readLong();
+                    String site = readString(in);
+                    boolean deleted = in.readBoolean();
+                    Object[] values = null;
+                    if (!deleted) {
+                        values = new Object[columnCount];
+                        for (int c = 0; c < columnCount; c++) values[c] = readValue(in);
+                    }
+                    rows.add(new RowChange(gid, version, site, deleted, values));
+                }
+                sections.add(new Section(table, columns, rows));
+            }
+            return new Bundle(sender, senderSeq, ackSeq, baselines, sections);
+        }
+    }
+
+    private static String readSender(Path file) throws IOException {
+        try (DataInputStream in = open(file)) {
+            return readString(in);
+        }
+    }
+
+    /** Opens a bundle positioned after the format header. */
+    private static DataInputStream open(Path file) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(Files.newInputStream(file))));
+        try {
+            if (in.readInt() != MAGIC) throw new IOException("Not a sync bundle: " + file);
+            int version = in.readUnsignedShort();
+            if (version != FORMAT_VERSION) throw new IOException("Unsupported sync bundle version " + version + ": " + file);
+            return in;
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    private static Object readValue(DataInputStream in) throws IOException {
+        byte tag = in.readByte();
+        return switch (tag) {
+            case NULL -> null;
+            case LONG -> in.readLong();
+            case DOUBLE -> in.readDouble();
+            case TEXT -> readString(in);
+            case BLOB -> {
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                yield bytes;
+            }
+            case REF -> new Ref(readString(in));
+            default -> throw new IOException("Unknown value tag " + tag);
+        };
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** Applies the sections of one bundle on the caller's transaction. */
+    private static class Importer {
+        final Connection conn;
+        final String site;
+        final String sender;
+        final Touched touched = new Touched();
+        int applied;
+        int skipped;
+        int unresolved;
+
+        Importer(Connection conn, String site, String sender) {
+            this.conn = conn;
+            this.site = site;
+            this.sender = sender;
+        }
+
+        void apply(List<Section> sections) throws SQLException {
+            Map<String, Section> byTable = new LinkedHashMap<>();
+            for (Section s : sections) byTable.put(s.table(), s);
+            List<String> order = DatabaseManager.DOMAIN_TABLES;
+            // Parents are written before children and deleted after them
+            for (String table : order) {
+                Section s = byTable.get(table);
+                if (s != null) applyUpserts(s);
+            }
+            for (int i = order.size() - 1; i >= 0; i--) {
+                Section s = byTable.get(order.get(i));
+                if (s != null) applyDeletes(s);
+            }
+        }
+
+        private void applyUpserts(Section section) throws SQLException {
+            String table = section.table();
+            TableSpec local = tableSpec(conn, table);
+            // Columns this side does not have (a newer peer) are left out
+            List<Integer> used = new ArrayList<>();
+            List<String> columns = new ArrayList<>();
+            for (int i = 0; i < section.columns().size(); i++) {
+                if (local.columns().contains(section.columns().get(i))) {
+                    used.add(i);
+                    columns.add(section.columns().get(i));
+                }
+            }
+            String insert = "INSERT INTO " + table + " (" + String.join(", ", columns) + ") VALUES (" +
+                    String.join(", ", Collections.nCopies(columns.size(), "?")) + ")";
+            String update = "UPDATE " + table + " SET " + String.join(" = ?, ", columns) + " = ? WHERE rowid = ?";
+
+            try (PreparedStatement ins = conn.prepareStatement(insert);
+                 PreparedStatement upd = conn.prepareStatement(update)) {
+                for (RowChange row : section.rows()) {
+                    if (row.deleted()) continue;
+                    Meta meta = meta(table, row.gid());
+                    if (meta != null && !wins(row, meta)) {
+                        skipped++;
+                        continue;
+                    }
+                    Map<String, Object> values = new LinkedHashMap<>();
+                    boolean resolved = true;
+                    for (int i : used) {
+                        Object value = row.values()[i];
+                        if (value instanceof Ref ref) {
+                            String refTable = local.references().get(section.columns().get(i));
+                            Meta target = refTable != null ? meta(refTable, ref.gid()) : null;
+                            if (target == null || target.deleted()) {
+                                resolved = false;
+                                break;
+                            }
+                            value = target.rowId();
+                        }
+                        values.put(section.columns().get(i), value);
+                    }
+                    if (!resolved) {
+                        log.warn("Skipped {} row {}: a referenced row is missing", table, row.gid());
+                        unresolved++;
+                        continue;
+                    }
+
+                    if (meta != null && !meta.deleted()) {
+                        Map<String, Object> current = readRow(table, meta.rowId());
+                        // The same write on both sides, typically rows of the file the pair started from
+                        if (row.version() == meta.version() && sameValues(current, values)) {
+                            skipped++;
+                            continue;
+                        }
+                        touched.add(conn, table, meta.rowId(), current);
+                        bind(upd, values).setLong(values.size() + 1, meta.rowId());
+                        upd.executeUpdate();
+                        stamp(table, row.gid(), row);
+                        touched.add(conn, table, meta.rowId(), values);
+                        applied++;
+                    } else {
+                        insert(ins, table, row, values);
+                    }
+                }
+            }
+        }
+
+        private void insert(PreparedStatement ins, String table, RowChange row, Map<String, Object> values) throws SQLException {
+            try {
+                bind(ins, values).executeUpdate();
+            } catch (SQLException e) {
+                List<String> key = NATURAL_KEYS.get(table);
+                if (key == null || e.getMessage() == null || !e.getMessage().contains("UNIQUE")) throw e;
+                mergeIntoExisting(table, key, row, values);
+                return;
+            }
+            long rowId;
+            try (Statement stmt = conn.createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT last_insert_rowid()")) {
+                rs.next();
+                rowId = rs.getLong(1);
+            }
+            // The insert trigger gave the row a fresh entry; it takes over the bundle's id instead
+            try (PreparedStatement pstmt = conn.prepareStatement("DELETE FROM sync_meta WHERE table_name = ? AND gid = ? AND deleted = 1")) {
+                pstmt.setString(1, table);
+                pstmt.setString(2, row.gid());
+                pstmt.executeUpdate();
+            }
+            try (PreparedStatement pstmt = conn.prepareStatement(
+                    "UPDATE sync_meta SET gid = ?, version = ?, site = ? WHERE table_name = ? AND row_id = ? AND deleted = 0")) {
+                pstmt.setString(1, row.gid());
+                pstmt.setLong(2, row.version());
+                pstmt.setString(3, siteOf(row));
+                pstmt.setString(4, table);
+                pstmt.setLong(5, rowId);
+                pstmt.executeUpdate();
+            }
+            touched.add(conn, table, rowId, values);
+            applied++;
+        }
+
+        /**
+         * Both sides created the same logical row (same unique key) under different ids. The row
+         * keeps the winner's values and id. A winning local row is still unsent or will be sent
+         * again, so the peer adopts its id in turn.
+         */
+        private void mergeIntoExisting(String table, List<String> key, RowChange row, Map<String, Object> values) throws SQLException {
+            long rowId;
+            String where = String.join(" = ? AND ", key) + " = ?";
+            try (PreparedStatement pstmt = conn.prepareStatement("SELECT rowid FROM " + table + " WHERE " + where)) {
+                for (int i = 0; i < key.size(); i++) pstmt.setObject(i + 1, values.get(key.get(i)));
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    if (!rs.next()) throw new SQLException("Unique conflict in " + table + " without a matching row");
+                    rowId = rs.getLong(1);
+                }
+            }
+            Meta existing = metaOfRow(table, rowId);
+            boolean remoteWins = existing == null || wins(row, existing);
+            if (remoteWins) {
+                touched.add(conn, table, rowId, readRow(table, rowId));
+                List<String> columns = new ArrayList<>(values.keySet());
+                try (PreparedStatement upd = conn.prepareStatement("UPDATE " + table + " SET " +
+                        String.join(" = ?, ", columns) + " = ? WHERE rowid = ?")) {
+                    bind(upd, values).setLong(values.size() + 1, rowId);
+                    upd.executeUpdate();
+                }
+                try (PreparedStatement pstmt = conn.prepareStatement(
+                        "UPDATE sync_meta SET version = ?, site = ? WHERE table_name = ? AND row_id = ? AND deleted = 0")) {
+                    pstmt.setLong(1, row.version());
+                    pstmt.setString(2, siteOf(row));
+                    pstmt.setString(3, table);
+                    pstmt.setLong(4, rowId);
+                    pstmt.executeUpdate();
+                }
+                touched.add(conn, table, rowId, values);
+                applied++;
+            } else {
+                skipped++;
+            }
+            if (remoteWins && existing != null) {
+                try (PreparedStatement del = conn.prepareStatement("DELETE FROM sync_meta WHERE table_name = ? AND gid = ? AND deleted = 1");
+                     PreparedStatement upd = conn.prepareStatement("UPDATE sync_meta SET gid = ? WHERE table_name = ? AND row_id = ? AND deleted = 0")) {
+                    del.setString(1, table);
+                    del.setString(2, row.gid());
+                    del.executeUpdate();
+                    upd.setString(1, row.gid());
+                    upd.setString(2, table);
+                    upd.setLong(3, rowId);
+                    upd.executeUpdate();
+                }
+            }
+        }
+
+        private void applyDeletes(Section section) throws SQLException {
+            String table = section.table();
+            for (RowChange row : section.rows()) {
+                if (!row.deleted()) continue;
+                Meta meta = meta(table, row.gid());
+                if (meta == null) {
+                    // Never seen here; the tombstone keeps an older copy from coming back later
+                    try (PreparedStatement pstmt = conn.prepareStatement(
+                            "INSERT INTO sync_meta (table_name, gid, row_id, version, site, deleted, local_seq) " +
+                                    "VALUES (?, ?, 0, ?, ?, 1, (SELECT COALESCE(MAX(local_seq), 0) + 1 FROM sync_meta))")) {
+                        pstmt.setString(1, table);
+                        pstmt.setString(2, row.gid());
+                        pstmt.setLong(3, row.version());
+                        pstmt.setString(4, siteOf(row));
+                        pstmt.executeUpdate();
+                    }
+                    applied++;
+                    continue;
+                }
+                if (!wins(row, meta)) {
+                    skipped++;
+                    continue;
+                }
+                if (!meta.deleted()) {
+                    touched.add(conn, table, meta.rowId(), readRow(table, meta.rowId()));
+                    // Rows added here since the peer deleted the parent go with it, and are
+                    // sent back as deletions on the next export
+                    touched.add(CascadeService.deleteWhere(conn, table, "rowid = ?", List.of(meta.rowId())));
+                }
+                stamp(table, row.gid(), row);
+                applied++;
+            }
+        }
+
+        /** Whether the incoming row beats the local one: higher version, then higher site id. */
+        private boolean wins(RowChange row, Meta local) {
+            if (row.version() != local.version()) return row.version() > local.version();
+            String localSite = local.site() != null ? local.site() : site;
+            return siteOf(row).compareTo(localSite) > 0;
+        }
+
+        private String siteOf(RowChange row) {
+            return row.site().isEmpty() ? sender : row.site();
+        }
+
+        private void stamp(String table, String gid, RowChange row) throws SQLException {
+            try (PreparedStatement pstmt = conn.prepareStatement(
+                    "UPDATE sync_meta SET version = ?, site = ? WHERE table_name = ? AND gid = ?")) {
+                pstmt.setLong(1, row.version());
+                pstmt.setString(2, siteOf(row));
+                pstmt.setString(3, table);
+                pstmt.setString(4, gid);
+                pstmt.executeUpdate();
+            }
+        }
+
+        private Meta meta(String table, String gid) throws SQLException {
+            return queryMeta("SELECT gid, row_id, version, site, deleted FROM sync_meta WHERE table_name = ? AND gid = ?", table, gid);
+        }
+
+        private Meta metaOfRow(String table, long rowId) throws SQLException {
+            return queryMeta("SELECT gid, row_id, version, site, deleted FROM sync_meta WHERE table_name = ? AND row_id = ? AND deleted = 0", table, rowId);
+        }
+
+        private Meta queryMeta(String query, String table, Object key) throws SQLException {
+            try (PreparedStatement pstmt = conn.prepareStatement(query)) {
+                pstmt.setString(1, table);
+                pstmt.setObject(2, key);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    if (!rs.next()) return null;
+                    return new Meta(rs.getString("gid"), rs.getLong("row_id"), rs.getLong("version"),
+                            rs.getString("site"), rs.getInt("deleted") == 1);
+                }
+            }
+        }
+
+        private Map<String, Object> readRow(String table, long rowId) throws SQLException {
+            Map<String, Object> row = new HashMap<>();
+            try (PreparedStatement pstmt = conn.prepareStatement("SELECT * FROM " + table + " WHERE rowid = ?")) {
+                pstmt.setLong(1, rowId);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    if (rs.next()) {
+                        for (int i = 1; i <= rs.getMetaData().getColumnCount(); i++) {
+                            row.put(rs.getMetaData().getColumnName(i), rs.getObject(i));
+                        }
+                    }
+                }
+            }
+            return row;
+        }
+
+        private static boolean sameValues(Map<String, Object> current, Map<String, Object> values) {
+            for (Map.Entry<String, Object> e : values.entrySet()) {
+                Object a = current.get(e.getKey());
+                Object b = e.getValue();
+                if (a == null || b == null) {
+                    if (a != b) return false;
+                } else if (a instanceof Number x && b instanceof Number y) {
+                    if (x.doubleValue() != y.doubleValue()) return false;
+                } else if (a instanceof byte[] x && b instanceof byte[] y) {
+                    if (!Arrays.equals(x, y)) return false;
+                } else if (!a.toString().equals(b.toString())) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static PreparedStatement bind(PreparedStatement pstmt, Map<String, Object> values) throws SQLException {
+            int i = 1;
+            for (Object value : values.values()) pstmt.setObject(i++, value);
+            return pstmt;
+        }
+    }
+
+    /**
+     * What an import changed, so rollups, score sketches, risk scores and the schedule index can
+     * be refreshed for just those lessons, groups and students.
+     */
+    private static class Touched {
+        private static final Set<String> LESSON_CHILDREN = Set.of("attendance", "homeworks", "test_sessions", "question_sessions");
+
+        final Set<Integer> lessons = new HashSet<>();
+        final Set<Integer> groups = new HashSet<>();
+        final Set<Integer> students = new HashSet<>();
+        final Set<String> buckets = new HashSet<>();
+        boolean schedules;
+
+        void add(Connection conn, String table, long rowId, Map<String, Object> row) throws SQLException {
+            switch (table) {
+                case "lessons" -> {
+                    lessons.add((int) rowId);
+                    addBucket(row.get("group_id"), row.get("lesson_date"));
+                }
+                case "test_results" -> addSessionLesson(conn, "test_sessions", row.get("test_session_id"));
+                case "question_results" -> addSessionLesson(conn, "question_sessions", row.get("question_session_id"));
+                case "groups" -> groups.add((int) rowId);
+                case "students" -> students.add((int) rowId);
+                case "schedules" -> schedules = true;
+                default -> {
+                    if (LESSON_CHILDREN.contains(table)) addInt(lessons, row.get("lesson_id"));
+                    else addInt(students, row.get("student_id"));
+                    if (table.equals("student_groups")) addInt(groups, row.get("group_id"));
+                }
+            }
+        }
+
+        /** Rebuilds rollup buckets and sketches inside the import transaction. */
+        void refreshDerived(Connection conn) throws SQLException {
+            for (int lessonId : lessons) {
+                try (PreparedStatement pstmt = conn.prepareStatement("SELECT group_id, lesson_date FROM lessons WHERE id = ?")) {
+                    pstmt.setInt(1, lessonId);
+                    try (ResultSet rs = pstmt.executeQuery()) {
+                        if (rs.next()) addBucket(rs.getObject(1), rs.getObject(2));
+                    }
+                }
+                DistributionService.refreshLesson(conn, lessonId);
+            }
+            for (String bucket : buckets) {
+                String[] parts = bucket.split("\\|");
+                int groupId = Integer.parseInt(parts[0]);
+                RollupService.refreshLessonBuckets(conn, groupId, LocalDate.parse(parts[1]));
+                groups.add(groupId);
+            }
+        }
+
+        void refreshAfterCommit() {
+            for (int groupId : groups) {
+                if (exists("groups", groupId)) RiskService.refreshGroup(groupId);
+                else RiskService.removeGroup(groupId);
+            }
+            for (int studentId : students) {
+                if (exists("students", studentId)) RiskService.refreshStudent(studentId);
+                else RiskService.removeStudent(studentId);
+            }
+            if (schedules || !groups.isEmpty()) ScheduleService.invalidateIndex();
+        }
+
+        void add(CascadeService.Deletion deletion) {
+            lessons.addAll(deletion.getLessons());
+            buckets.addAll(deletion.getBuckets());
+            groups.addAll(deletion.getGroups());
+            groups.addAll(deletion.getDeletedGroups());
+            students.addAll(deletion.getDeletedStudents());
+            if (deletion.touchesSchedules()) schedules = true;
+        }
+
+        private void addSessionLesson(Connection conn, String sessions, Object sessionId) throws SQLException {
+            if (sessionId == null) return;
+            try (PreparedStatement pstmt = conn.prepareStatement("SELECT lesson_id FROM " + sessions + " WHERE id = ?")) {
+                pstmt.setObject(1, sessionId);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    if (rs.next()) lessons.add(rs.getInt(1));
+                }
+            }
+        }
+
+        private void addBucket(Object groupId, Object lessonDate) {
+            if (groupId == null || lessonDate == null) return;
+            buckets.add(((Number) groupId).intValue() + "|" + lessonDate.toString().substring(0, 10));
+        }
+
+        private static void addInt(Set<Integer> set, Object value) {
+            if (value instanceof Number n) set.add(n.intValue());
+        }
+
+        private static boolean exists(String table, int id) {
+            try (PreparedStatement pstmt = DatabaseManager.getConnection().prepareStatement("SELECT 1 FROM " + table + " WHERE id = ?")) {
+                pstmt.setInt(1, id);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    return rs.next();
+                }
+            } catch (SQLException e) {
+                log.error("Failed to check {} {}", table, id, e);
+                return false;
+            }
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package org.algo.mentor.services;
+
+import org.algo.mentor.util.TableWriter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * CSV / XLSX exports of the report datasets. Every export writes rows straight from an open
+ * cursor into a {@link TableWriter}, so memory use stays flat however much history is exported.
+ * Callers pick the format, usually from the extension the user chose ({@link TableWriter.Format#forFile}),
+ * and pass the connection of the {@link ExportManager} job, so a long export never runs on the
+ * app's shared connection.
+ */
+public class TabularExportService {
+
+    /** Progress is reported every this many rows; the total is not known up front. */
+    private static final int PROGRESS_ROWS = 1000;
+
+    public static void exportGroupStatistics(File file, Connection conn, TableWriter.Format format, ExportManager.Progress progress) throws IOException {
+        try (RowSink sink = new RowSink(file, format, progress)) {
+            sink.header("Guruh", "O'quvchilar", "Davomat (%)", "O'zlashtirish (%)");
+            ReportService.streamGroupStatistics(conn, g ->
+                    sink.row(g.name(), g.studentCount(), round(g.avgAttendance()), round(g.avgScore())));
+        } catch (SQLException e) {
+            throw new IOException("Guruhlar statistikasini o'qib bo'lmadi", e);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    public static void exportStudentStatistics(int groupId, LocalDate fromDate, LocalDate toDate,
+                                               File file, Connection conn, TableWriter.Format format, ExportManager.Progress progress) throws IOException {
+        try (RowSink sink = new RowSink(file, format, progress)) {
+            sink.header("Reyting", "F.I.SH", "Davomat (%)", "Qoldirilgan", "O'zlashtirish (%)");
+            ReportService.streamStudentStatistics(conn, groupId, fromDate, toDate, s ->
+                    sink.row(s.rank(), s.fullName(), round(s.attendanceRate()), s.missedLessons(), round(s.avgScore())));
+        } catch (SQLException e) {
+            throw new IOException("O'quvchilar statistikasini o'qib bo'lmadi", e);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /** Per-lesson scores of every student; a null groupId exports all groups. */
+    public static void exportLessonScores(Integer groupId, LocalDate fromDate, LocalDate toDate,
+                                          File file, Connection conn, TableWriter.Format format, ExportManager.Progress progress) throws IOException {
+        try (RowSink sink = new RowSink(file, format, progress)) {
+            sink.header("Guruh", "O'quvchi", "Sana", "Holati", "Topshiriq", "Mavzu", "Jami", "Topdi");
+            ReportService.streamLessonScoreRows(conn, groupId, fromDate, toDate, r -> sink.row(
+                    r.groupName(), r.studentName(), displayDate(r.row().date()), r.row().status(), r.row().scoreType(),
+                    r.row().topic(), r.row().totalValue(), r.row().score()));
+        } catch (SQLException e) {
+            throw new IOException("Baholarni o'qib bo'lmadi", e);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /** Every payment and monthly payment mark, oldest first. */
+    public static void exportPaymentLedger(File file, Connection conn, TableWriter.Format format, ExportManager.Progress progress) throws IOException {
+        String query = "SELECT * FROM (" +
+                "  SELECT p.created_date AS entry_date, s.first_name || ' ' || s.last_name AS full_name, s.phone, " +
+                "         'To''lov' AS kind, p.amount, p.payment_from_date AS period_from, p.payment_to_date AS period_to " +
+                "  FROM payments p JOIN students s ON s.id = p.student_id " +
+                "  UNION ALL " +
+                "  SELECT printf('%04d-%02d-%02d', mp.year, mp.month, mp.payment_day), s.first_name || ' ' || s.last_name, s.phone, " +
+                "         'Oylik to''lov', NULL, printf('%04d-%02d', mp.year, mp.month), NULL " +
+                "  FROM monthly_payments mp JOIN students s ON s.id = mp.student_id" +
+                ") ORDER BY entry_date, full_name";
+
+        try (RowSink sink = new RowSink(file, format, progress)) {
+            sink.header("Sana", "O'quvchi", "Telefon", "Turi", "Summa", "Davr boshi", "Davr oxiri");
+            try (PreparedStatement pstmt = conn.prepareStatement(query);
+                 ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    double amount = rs.getDouble("amount");
+                    Double amountValue = rs.wasNull() ? null : amount;
+                    sink.row(rs.getString("entry_date"), rs.getString("full_name"), rs.getString("phone"),
+                            rs.getString("kind"), amountValue,
+                            rs.getString("period_from"), rs.getString("period_to"));
+                }
+            }
+        } catch (SQLException e) {
+            throw new IOException("To'lovlarni o'qib bo'lmadi", e);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /** One row per attendance record; a null groupId exports the history of all groups. */
+    public static void exportAttendanceHistory(Integer groupId, File file, Connection conn, TableWriter.Format format, ExportManager.Progress progress) throws IOException {
+        String query = "SELECT g.name AS group_name, s.first_name || ' ' || s.last_name AS full_name, replace(l.lesson_date, 'T', ' ') AS lesson_date, a.present " +
+                "FROM attendance a " +
+                "JOIN lessons l ON l.id = a.lesson_id " +
+                "JOIN groups g ON g.id = l.group_id " +
+                "JOIN students s ON s.id = a.student_id " +
+                "WHERE a.present IS NOT NULL AND (? IS NULL OR l.group_id = ?) " +
+                "ORDER BY g.name, g.id, l.lesson_date, full_name";
+
+        try (RowSink sink = new RowSink(file, format, progress)) {
+            sink.header("Guruh", "O'quvchi", "Dars sanasi", "Holati");
+            try (PreparedStatement pstmt = conn.prepareStatement(query)) {
+                pstmt.setObject(1, groupId);
+                pstmt.setObject(2, groupId);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        sink.row(rs.getString("group_name"), rs.getString("full_name"), rs.getString("lesson_date"),
+                                rs.getInt("present") == 1 ? "Kelgan" : "Kelmagan");
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            throw new IOException("Davomatni o'qib bo'lmadi", e);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * The attendance matrix of one group: a row per student, a column per lesson (+ / - / empty).
+     * Only the lesson list is held in memory; student rows are emitted as the cursor moves on.
+     */
+    public static void exportAttendanceMatrix(int groupId, File file, Connection conn, TableWriter.Format format, ExportManager.Progress progress) throws IOException {
+        try (RowSink sink = new RowSink(file, format, progress)) {
+
+            List<String> lessonDates = new ArrayList<>();
+            Map<Integer, Integer> columnByLesson = new HashMap<>();
+            try (PreparedStatement pstmt = conn.prepareStatement(
+                    "SELECT id, replace(lesson_date, 'T', ' ') AS lesson_date FROM lessons WHERE group_id = ? ORDER BY lesson_date, id")) {
+                pstmt.setInt(1, groupId);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        columnByLesson.put(rs.getInt("id"), lessonDates.size());
+                        lessonDates.add(rs.getString("lesson_date"));
+                    }
+                }
+            }
+
+            String[] header = new String[lessonDates.size() + 3];
+            header[0] = "O'quvchi";
+            for (int i = 0; i < lessonDates.size(); i++) header[i + 1] = lessonDates.get(i);
+            header[header.length - 2] = "Kelgan";
+            header[header.length - 1] = "Kelmagan";
+            sink.header(header);
+
+            String query = "SELECT s.id, s.first_name || ' ' || s.last_name AS full_name, a.lesson_id, a.present " +
+                    "FROM student_groups sg " +
+                    "JOIN students s ON s.id = sg.student_id " +
+                    "LEFT JOIN attendance a ON a.student_id = s.id " +
+                    "  AND a.lesson_id IN (SELECT id FROM lessons WHERE group_id = sg.group_id) " +
+                    "WHERE sg.group_id = ? " +
+                    "ORDER BY full_name, s.id";
+            try (PreparedStatement pstmt = conn.prepareStatement(query)) {
+                pstmt.setInt(1, groupId);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    Object[] row = null;
+                    int currentStudent = -1;
+                    int present = 0, absent = 0;
+                    while (rs.next()) {
+                        int studentId = rs.getInt("id");
+                        if (studentId != currentStudent) {
+                            if (row != null) sink.row(finishMatrixRow(row, present, absent));
+                            row = new Object[header.length];
+                            row[0] = rs.getString("full_name");
+                            present = 0;
+                            absent = 0;
+                            currentStudent = studentId;
+                        }
+                        Integer column = columnByLesson.get(rs.getInt("lesson_id"));
+                        if (column == null || rs.getObject("present") == null) continue;
+                        boolean isPresent = rs.getInt("present") == 1;
+                        row[column + 1] = isPresent ? "+" : "-";
+                        if (isPresent) present++; else absent++;
+                    }
+                    if (row != null) sink.row(finishMatrixRow(row, present, absent));
+                }
+            }
+        } catch (SQLException e) {
+            throw new IOException("Davomat jadvalini o'qib bo'lmadi", e);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static Object[] finishMatrixRow(Object[] row, int present, int absent) {
+        row[row.length - 2] = present;
+        row[row.length - 1] = absent;
+        return row;
+    }
+
+    /** Lesson dates are stored as ISO date-times; spreadsheets read "2024-09-02 14:00" better. */
+    private static String displayDate(String isoDateTime) {
+        return isoDateTime != null ? isoDateTime.replace('T', ' ') : null;
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 10) / 10.0;
+    }
+
+    /**
+     * Wraps a {@link TableWriter} so rows can be written from cursor callbacks, and reports
+     * progress (which is also where cancellation is picked up) every {@link #PROGRESS_ROWS} rows.
+     */
+    private static class RowSink implements AutoCloseable {
+        private final TableWriter writer;
+        private final ExportManager.Progress progress;
+        private long rows;
+
+        RowSink(File file, TableWriter.Format format, ExportManager.Progress progress) throws IOException {
+            this.writer = TableWriter.open(file.toPath(), format);
+            this.progress = progress;
+        }
+
+        void header(String... names) {
+            try {
+                writer.header(names);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        void row(Object... values) {
+            try {
+                writer.row(values);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            if (++rows % PROGRESS_ROWS == 0) progress.update(rows, -1);
+        }
+
+        @Override
+        public void close() throws IOException {
+            writer.close();
+        }
+    }
+}
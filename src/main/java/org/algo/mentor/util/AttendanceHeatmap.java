@@ -0,0 +1,189 @@
+package org.algo.mentor.util;
+
+import javafx.geometry.Orientation;
+import javafx.geometry.VPos;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.control.ScrollBar;
+import javafx.scene.control.Tooltip;
+import javafx.scene.layout.Region;
+import javafx.scene.paint.Color;
+import javafx.scene.text.Font;
+import javafx.scene.text.TextAlignment;
+import org.algo.mentor.services.AttendanceMatrixService;
+
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+
+/**
+ * Student x lesson heatmap drawn on a single canvas. Only the visible rows and columns
+ * are painted, so groups with years of lessons scroll without creating a node per cell.
+ */
+public class AttendanceHeatmap extends Region {
+
+    private static final double CELL = 18;
+    private static final double NAME_WIDTH = 200;
+    private static final double HEADER_HEIGHT = 48;
+    private static final DateTimeFormatter HEADER_FORMAT = DateTimeFormatter.ofPattern("dd.MM");
+    private static final DateTimeFormatter TOOLTIP_FORMAT = DateTimeFormatter.ofPattern("dd.MM.yyyy HH:mm");
+
+    private static final Color PRESENT = Color.web("#48bb78");
+    private static final Color ABSENT = Color.web("#f56565");
+    private static final Color NO_RECORD = Color.web("#edf2f7");
+    private static final Color TEXT = Color.web("#4a5568");
+    private static final Color GRID = Color.web("#ffffff");
+
+    private final Canvas canvas = new Canvas();
+    private final ScrollBar hbar = new ScrollBar();
+    private final ScrollBar vbar = new ScrollBar();
+    private final Tooltip tooltip = new Tooltip();
+
+    private AttendanceMatrixService.AttendanceMatrix matrix;
+
+    public AttendanceHeatmap() {
+        vbar.setOrientation(Orientation.VERTICAL);
+        hbar.valueProperty().addListener((obs, old, val) -> redraw());
+        vbar.valueProperty().addListener((obs, old, val) -> redraw());
+        getChildren().addAll(canvas, hbar, vbar);
+
+        setOnScroll(e -> {
+            ScrollBar bar = e.isShiftDown() || Math.abs(e.getDeltaX()) > Math.abs(e.getDeltaY()) ? hbar : vbar;
+            double delta = bar == hbar ? (e.getDeltaX() != 0 ? e.getDeltaX() : e.getDeltaY()) : e.getDeltaY();
+            bar.setValue(clamp(bar.getValue() - delta, bar.getMin(), bar.getMax()));
+            e.consume();
+        });
+
+        Tooltip.install(canvas, tooltip);
+        canvas.setOnMouseMoved(e -> {
+            String text = describe(e.getX(), e.getY());
+            if (text == null) {
+                tooltip.hide();
+            } else {
+                tooltip.setText(text);
+            }
+        });
+    }
+
+    public void setMatrix(AttendanceMatrixService.AttendanceMatrix matrix) {
+        this.matrix = matrix;
+        hbar.setValue(0);
+        vbar.setValue(0);
+        requestLayout();
+        redraw();
+    }
+
+    @Override
+    protected void layoutChildren() {
+        double barSize = 14;
+        double w = getWidth() - barSize;
+        double h = getHeight() - barSize;
+        canvas.setWidth(Math.max(0, w));
+        canvas.setHeight(Math.max(0, h));
+        canvas.relocate(0, 0);
+        hbar.resizeRelocate(0, h, Math.max(0, w), barSize);
+        vbar.resizeRelocate(w, 0, barSize, Math.max(0, h));
+        updateScrollRanges();
+        redraw();
+    }
+
+    private void updateScrollRanges() {
+        int columns = matrix == null ? 0 : matrix.lessonCount();
+        int rows = matrix == null ? 0 : matrix.getStudents().size();
+        double viewW = Math.max(0, canvas.getWidth() - NAME_WIDTH);
+        double viewH = Math.max(0, canvas.getHeight() - HEADER_HEIGHT);
+
+        hbar.setMax(Math.max(0, columns * CELL - viewW));
+        vbar.setMax(Math.max(0, rows * CELL - viewH));
+        hbar.setVisibleAmount(viewW);
+        vbar.setVisibleAmount(viewH);
+        hbar.setUnitIncrement(CELL);
+        vbar.setUnitIncrement(CELL);
+        hbar.setBlockIncrement(viewW);
+        vbar.setBlockIncrement(viewH);
+    }
+
+    private void redraw() {
+        GraphicsContext g = canvas.getGraphicsContext2D();
+        double width = canvas.getWidth();
+        double height = canvas.getHeight();
+        g.clearRect(0, 0, width, height);
+        if (matrix == null || matrix.lessonCount() == 0) return;
+
+        List<AttendanceMatrixService.LessonColumn> lessons = matrix.getLessons();
+        List<AttendanceMatrixService.StudentRow> students = matrix.getStudents();
+
+        double offsetX = hbar.getValue();
+        double offsetY = vbar.getValue();
+        int firstCol = (int) (offsetX / CELL);
+        int lastCol = Math.min(lessons.size() - 1, (int) ((offsetX + width - NAME_WIDTH) / CELL));
+        int firstRow = (int) (offsetY / CELL);
+        int lastRow = Math.min(students.size() - 1, (int) ((offsetY + height - HEADER_HEIGHT) / CELL));
+
+        // Cells
+        g.save();
+        g.beginPath();
+        g.rect(NAME_WIDTH, HEADER_HEIGHT, width - NAME_WIDTH, height - HEADER_HEIGHT);
+        g.clip();
+        for (int r = firstRow; r <= lastRow; r++) {
+            AttendanceMatrixService.StudentRow row = students.get(r);
+            double y = HEADER_HEIGHT + r * CELL - offsetY;
+            for (int c = firstCol; c <= lastCol; c++) {
+                double x = NAME_WIDTH + c * CELL - offsetX;
+                g.setFill(!row.isRecorded(c) ? NO_RECORD : row.isPresent(c) ? PRESENT : ABSENT);
+                g.fillRect(x, y, CELL, CELL);
+                g.setStroke(GRID);
+                g.strokeRect(x, y, CELL, CELL);
+            }
+        }
+        g.restore();
+
+        // Student names
+        g.save();
+        g.beginPath();
+        g.rect(0, HEADER_HEIGHT, NAME_WIDTH, height - HEADER_HEIGHT);
+        g.clip();
+        g.setFont(Font.font(12));
+        g.setFill(TEXT);
+        g.setTextAlign(TextAlignment.LEFT);
+        g.setTextBaseline(VPos.CENTER);
+        for (int r = firstRow; r <= lastRow; r++) {
+            double y = HEADER_HEIGHT + r * CELL - offsetY + CELL / 2;
+            g.fillText(students.get(r).getFullName(), 6, y, NAME_WIDTH - 12);
+        }
+        g.restore();
+
+        // Lesson dates, written vertically
+        g.save();
+        g.beginPath();
+        g.rect(NAME_WIDTH, 0, width - NAME_WIDTH, HEADER_HEIGHT);
+        g.clip();
+        g.setFont(Font.font(10));
+        g.setFill(TEXT);
+        g.setTextAlign(TextAlignment.LEFT);
+        g.setTextBaseline(VPos.CENTER);
+        for (int c = firstCol; c <= lastCol; c++) {
+            double x = NAME_WIDTH + c * CELL - offsetX + CELL / 2;
+            g.save();
+            g.translate(x, HEADER_HEIGHT - 4);
+            g.rotate(-90);
+            g.fillText(lessons.get(c).lessonDate().format(HEADER_FORMAT), 0, 0);
+            g.restore();
+        }
+        g.restore();
+    }
+
+    private String describe(double x, double y) {
+        if (matrix == null || x < NAME_WIDTH || y < HEADER_HEIGHT) return null;
+        int c = (int) ((x - NAME_WIDTH + hbar.getValue()) / CELL);
+        int r = (int) ((y - HEADER_HEIGHT + vbar.getValue()) / CELL);
+        if (c >= matrix.lessonCount() || r >= matrix.getStudents().size()) return null;
+
+        AttendanceMatrixService.StudentRow row = matrix.getStudents().get(r);
+        String status = !row.isRecorded(c) ? "Ma'lumot yo'q" : row.isPresent(c) ? "Keldi" : "Kelmadi";
+        return row.getFullName() + "\n" + matrix.getLessons().get(c).lessonDate().format(TOOLTIP_FORMAT) + " — " + status;
+    }
+
+    private static double clamp(double value, double min, double max) {
+        return Math.max(min, Math.min(max, value));
+    }
+}
@@ -0,0 +1,117 @@
+package org.algo.mentor.util;
+
+import javafx.beans.binding.Bindings;
+import javafx.collections.ListChangeListener;
+import javafx.concurrent.Worker;
+import javafx.geometry.Insets;
+import javafx.geometry.Pos;
+import javafx.scene.control.Button;
+import javafx.scene.control.Label;
+import javafx.scene.control.ListCell;
+import javafx.scene.control.ListView;
+import javafx.scene.control.ProgressBar;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.Priority;
+import javafx.scene.layout.Region;
+import javafx.scene.layout.VBox;
+import org.algo.mentor.services.ExportManager;
+
+/**
+ * Sidebar panel listing the export queue: progress, timing and cancel/retry for each job.
+ * Hidden while the queue is empty.
+ */
+public class ExportStatusPanel extends VBox {
+
+    private static final String LINK_STYLE = "-fx-background-color: transparent; -fx-text-fill: #3182ce; -fx-font-size: 11; -fx-padding: 0 4; -fx-cursor: hand;";
+
+    public ExportStatusPanel() {
+        super(6);
+        setPadding(new Insets(10, 15, 10, 15));
+        setStyle("-fx-border-color: #edf2f7; -fx-border-width: 1 0 0 0;");
+
+        Label title = new Label("Eksportlar");
+        title.setStyle("-fx-text-fill: #2d3748; -fx-font-size: 13; -fx-font-weight: bold;");
+        Region spacer = new Region();
+        HBox.setHgrow(spacer, Priority.ALWAYS);
+        Button clearBtn = new Button("Tozalash");
+        clearBtn.setStyle(LINK_STYLE);
+        clearBtn.setOnAction(e -> ExportManager.removeFinished());
+        HBox header = new HBox(title, spacer, clearBtn);
+        header.setAlignment(Pos.CENTER_LEFT);
+
+        ListView<ExportManager.ExportJob> list = new ListView<>(ExportManager.getJobs());
+        list.setPrefHeight(180);
+        list.setStyle("-fx-background-color: transparent; -fx-background-insets: 0;");
+        list.setCellFactory(lv -> new JobCell());
+
+        getChildren().addAll(header, list);
+
+        updateVisibility();
+        ExportManager.getJobs().addListener((ListChangeListener<ExportManager.ExportJob>) c -> updateVisibility());
+    }
+
+    private void updateVisibility() {
+        boolean any = !ExportManager.getJobs().isEmpty();
+        setVisible(any);
+        setManaged(any);
+    }
+
+    private static class JobCell extends ListCell<ExportManager.ExportJob> {
+        @Override
+        protected void updateItem(ExportManager.ExportJob job, boolean empty) {
+            super.updateItem(job, empty);
+            if (empty || job == null) {
+                setGraphic(null);
+                return;
+            }
+
+            Label name = new Label(job.getName());
+            name.setStyle("-fx-text-fill: #2d3748; -fx-font-size: 12;");
+            name.setMaxWidth(180);
+
+            ProgressBar bar = new ProgressBar();
+            bar.setMaxWidth(Double.MAX_VALUE);
+            bar.progressProperty().bind(job.progressProperty());
+            bar.visibleProperty().bind(job.stateProperty().isEqualTo(Worker.State.RUNNING));
+            bar.managedProperty().bind(bar.visibleProperty());
+
+            Label status = new Label();
+            status.setStyle("-fx-text-fill: #718096; -fx-font-size: 11;");
+            status.textProperty().bind(Bindings.createStringBinding(() -> describe(job),
+                    job.stateProperty(), job.messageProperty()));
+
+            Button cancelBtn = new Button("Bekor qilish");
+            cancelBtn.setStyle(LINK_STYLE);
+            cancelBtn.setOnAction(e -> job.cancel());
+            cancelBtn.visibleProperty().bind(Bindings.createBooleanBinding(() -> !job.isDone(), job.stateProperty()));
+            cancelBtn.managedProperty().bind(cancelBtn.visibleProperty());
+
+            Button retryBtn = new Button("Qayta");
+            retryBtn.setStyle(LINK_STYLE);
+            retryBtn.setOnAction(e -> ExportManager.retry(job));
+            retryBtn.visibleProperty().bind(job.stateProperty().isEqualTo(Worker.State.FAILED)
+                    .or(job.stateProperty().isEqualTo(Worker.State.CANCELLED)));
+            retryBtn.managedProperty().bind(retryBtn.visibleProperty());
+
+            Region spacer = new Region();
+            HBox.setHgrow(spacer, Priority.ALWAYS);
+            HBox footer = new HBox(4, status, spacer, cancelBtn, retryBtn);
+            footer.setAlignment(Pos.CENTER_LEFT);
+
+            VBox box = new VBox(3, name, bar, footer);
+            box.setMaxWidth(190);
+            setGraphic(box);
+        }
+
+        private static String describe(ExportManager.ExportJob job) {
+            String time = String.format("%.1f s", job.getElapsedMillis() / 1000.0);
+            return switch (job.getState()) {
+                case READY, SCHEDULED -> "Navbatda";
+                case RUNNING -> job.getMessage() + " · " + time;
+                case SUCCEEDED -> "Saqlandi · " + time;
+                case CANCELLED -> "Bekor qilindi";
+                case FAILED -> "Xatolik: " + (job.getException() != null ? job.getException().getMessage() : "");
+            };
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package org.algo.mentor.util;
+
+import javafx.beans.property.ReadOnlyObjectWrapper;
+import javafx.concurrent.Task;
+import javafx.geometry.Insets;
+import javafx.scene.control.*;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.Priority;
+import javafx.scene.layout.VBox;
+import javafx.stage.DirectoryChooser;
+import org.algo.mentor.services.FederationService;
+
+import java.io.File;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Branch comparison over several database folders: manages the registered folders and shows
+ * {@link FederationService#run()} as one row per branch plus the combined totals, and the best
+ * students across all branches.
+ */
+public class FederationDialog extends Dialog<Void> {
+
+    private static final int STUDENT_LIMIT = 50;
+
+    private record BranchRow(String name, FederationService.Totals totals, String error) {}
+
+    private final ListView<FederationService.Branch> folderList = new ListView<>();
+    private final TableView<BranchRow> branchTable = new TableView<>();
+    private final TableView<FederationService.BranchStudent> studentTable = new TableView<>();
+    private final Label statusLabel = new Label();
+    private final Button runButton = new Button("Hisoblash");
+
+    public FederationDialog() {
+        setTitle("Filiallar hisoboti");
+        setResizable(true);
+
+        folderList.setPrefHeight(110);
+        folderList.setCellFactory(lv -> new ListCell<>() {
+            @Override
+            protected void updateItem(FederationService.Branch item, boolean empty) {
+                super.updateItem(item, empty);
+                setText(empty || item == null ? null : item.name() + "  —  " + item.folder());
+            }
+        });
+
+        Button addButton = new Button("Papka qo'shish");
+        addButton.setOnAction(e -> onAddFolder());
+        Button removeButton = new Button("O'chirish");
+        // The first branch is the open database and cannot be removed
+        removeButton.disableProperty().bind(folderList.getSelectionModel().selectedIndexProperty().lessThan(1));
+        removeButton.setOnAction(e -> {
+            FederationService.removeFolder(folderList.getSelectionModel().getSelectedItem().folder());
+            refreshFolders();
+        });
+        runButton.setOnAction(e -> onRun());
+        statusLabel.setStyle("-fx-text-fill: #718096;");
+        HBox actions = new HBox(10, addButton, removeButton, runButton, statusLabel);
+
+        setupBranchTable();
+        setupStudentTable();
+
+        Label studentsTitle = new Label("Eng yaxshi o'quvchilar (barcha filiallar)");
+        studentsTitle.setStyle("-fx-font-weight: bold; -fx-text-fill: #2d3748;");
+        VBox content = new VBox(10, folderList, actions, branchTable, studentsTitle, studentTable);
+        content.setPadding(new Insets(10));
+        content.setPrefSize(820, 620);
+        VBox.setVgrow(studentTable, Priority.ALWAYS);
+
+        getDialogPane().setContent(content);
+        getDialogPane().getButtonTypes().add(ButtonType.CLOSE);
+        refreshFolders();
+    }
+
+    private void setupBranchTable() {
+        branchTable.setPrefHeight(170);
+        branchTable.setColumnResizePolicy(TableView.CONSTRAINED_RESIZE_POLICY);
+        branchTable.getColumns().addAll(List.of(
+                column("Filial", BranchRow::name),
+                column("Guruhlar", r -> r.totals().groups()),
+                column("O'quvchilar", r -> r.totals().students()),
+                percentColumn("Davomat", r -> r.totals().attendanceRate()),
+                percentColumn("O'zlashtirish", r -> r.totals().scoreRate()),
+                column("Holat", r -> r.error() != null ? "Xatolik: " + r.error() : "")));
+    }
+
+    private void setupStudentTable() {
+        studentTable.setColumnResizePolicy(TableView.CONSTRAINED_RESIZE_POLICY);
+        TableColumn<FederationService.BranchStudent, Integer> rankCol = new TableColumn<>("#");
+        rankCol.setCellValueFactory(cd -> new ReadOnlyObjectWrapper<>(studentTable.getItems().indexOf(cd.getValue()) + 1));
+        rankCol.setMaxWidth(50);
+        studentTable.getColumns().addAll(List.of(
+                rankCol,
+                column("Filial", FederationService.BranchStudent::branchName),
+                column("O'quvchi", FederationService.BranchStudent::fullName),
+                column("Guruh", FederationService.BranchStudent::groupNames),
+                percentColumn("Davomat", FederationService.BranchStudent::attendanceRate),
+                percentColumn("O'zlashtirish", FederationService.BranchStudent::scoreRate)));
+    }
+
+    private void onAddFolder() {
+        DirectoryChooser chooser = new DirectoryChooser();
+        chooser.setTitle("Filial ma'lumotlar bazasi papkasini tanlang");
+        File dir = chooser.showDialog(getDialogPane().getScene().getWindow());
+        if (dir == null) return;
+        try {
+            FederationService.addFolder(dir.toPath());
+            refreshFolders();
+        } catch (IllegalArgumentException ex) {
+            new Alert(Alert.AlertType.WARNING, ex.getMessage(), ButtonType.OK).showAndWait();
+        }
+    }
+
+    private void onRun() {
+        runButton.setDisable(true);
+        statusLabel.setText("Hisoblanmoqda...");
+        Task<FederationService.FederatedReport> task = new Task<>() {
+            @Override
+            protected FederationService.FederatedReport call() {
+                return FederationService.run();
+            }
+        };
+        task.setOnSucceeded(e -> {
+            FederationService.FederatedReport report = task.getValue();
+            branchTable.getItems().clear();
+            for (FederationService.BranchReport b : report.branches()) {
+                branchTable.getItems().add(new BranchRow(b.branch().name(), b.totals(), b.error()));
+            }
+            branchTable.getItems().add(new BranchRow("Jami", report.combined(), null));
+            List<FederationService.BranchStudent> ranked = report.rankedStudents();
+            studentTable.getItems().setAll(ranked.subList(0, Math.min(STUDENT_LIMIT, ranked.size())));
+            statusLabel.setText(report.branches().size() + " ta filial");
+            runButton.setDisable(false);
+        });
+        task.setOnFailed(e -> {
+            statusLabel.setText("Xatolik: " + task.getException().getMessage());
+            runButton.setDisable(false);
+        });
+        Thread thread = new Thread(task, "federation-report");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void refreshFolders() {
+        folderList.getItems().setAll(FederationService.getBranches());
+    }
+
+    private static <S, T> TableColumn<S, T> column(String title, Function<S, T> value) {
+        TableColumn<S, T> col = new TableColumn<>(title);
+        col.setCellValueFactory(cd -> new ReadOnlyObjectWrapper<>(value.apply(cd.getValue())));
+        return col;
+    }
+
+    private static <S> TableColumn<S, Double> percentColumn(String title, Function<S, Double> value) {
+        TableColumn<S, Double> col = column(title, value);
+        col.setCellFactory(tc -> new TableCell<>() {
+            @Override
+            protected void updateItem(Double item, boolean empty) {
+                super.updateItem(item, empty);
+                setText(empty || item == null ? null : String.format("%.1f%%", item));
+            }
+        });
+        return col;
+    }
+}
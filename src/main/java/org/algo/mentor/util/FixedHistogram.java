@@ -0,0 +1,118 @@
+package org.algo.mentor.util;
+
+import java.io.*;
+
+/**
+ * Equal-width histogram over a fixed range, plus count/sum/min/max.
+ * Histograms with the same layout merge by adding bucket counts.
+ */
+public class FixedHistogram {
+
+    private final double lower;
+    private final double upper;
+    private final long[] counts;
+    private long count;
+    private double sum;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+
+    public FixedHistogram(double lower, double upper, int buckets) {
+        if (buckets <= 0 || upper <= lower) {
+            throw new IllegalArgumentException("Invalid histogram layout");
+        }
+        this.lower = lower;
+        this.upper = upper;
+        this.counts = new long[buckets];
+    }
+
+    /** 0-100 in 10-point buckets, the layout used for percentage scores. */
+    public static FixedHistogram percent() {
+        return new FixedHistogram(0, 100, 10);
+    }
+
+    public void add(double value) {
+        if (Double.isNaN(value)) return;
+        int index = (int) ((value - lower) / (upper - lower) * counts.length);
+        index = Math.max(0, Math.min(counts.length - 1, index));
+        counts[index]++;
+        count++;
+        sum += value;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+    }
+
+    public void merge(FixedHistogram other) {
+        if (other.counts.length != counts.length || other.lower != lower || other.upper != upper) {
+            throw new IllegalArgumentException("Histogram layouts differ");
+        }
+        for (int i = 0; i < counts.length; i++) counts[i] += other.counts[i];
+        count += other.count;
+        sum += other.sum;
+        if (other.count > 0) {
+            min = Math.min(min, other.min);
+            max = Math.max(max, other.max);
+        }
+    }
+
+    public long[] counts() {
+        return counts.clone();
+    }
+
+    public double bucketLowerBound(int index) {
+        return lower + (upper - lower) * index / counts.length;
+    }
+
+    public int bucketCount() {
+        return counts.length;
+    }
+
+    public long count() {
+        return count;
+    }
+
+    public double mean() {
+        return count == 0 ? Double.NaN : sum / count;
+    }
+
+    public double min() {
+        return count == 0 ? Double.NaN : min;
+    }
+
+    public double max() {
+        return count == 0 ? Double.NaN : max;
+    }
+
+    public byte[] toBytes() {
+        try {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream(48 + counts.length * 8);
+            DataOutputStream out = new DataOutputStream(baos);
+            out.writeDouble(lower);
+            out.writeDouble(upper);
+            out.writeInt(counts.length);
+            for (long c : counts) out.writeLong(c);
+            out.writeLong(count);
+            out.writeDouble(sum);
+            out.writeDouble(min);
+            out.writeDouble(max);
+            out.flush();
+            return baos.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static FixedHistogram fromBytes(byte[] bytes) {
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+            FixedHistogram h = new FixedHistogram(in.readDouble(), in.readDouble(), in.readInt());
+            for (int i = 0; i < h.counts.length; i++) h.counts[i] = in.readLong();
+            h.count = in.readLong();
+            h.sum = in.readDouble();
+            h.min = in.readDouble();
+            h.max = in.readDouble();
+            return h;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
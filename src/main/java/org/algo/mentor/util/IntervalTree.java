@@ -0,0 +1,143 @@
+package org.algo.mentor.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Random;
+
+/**
+ * Treap of half-open int intervals {@code [start, end)} ordered by start, with every node
+ * carrying the largest end in its subtree. That lets an overlap query skip any subtree that
+ * ends before the query starts or begins after it ends, so it costs O(log n + k) for k hits.
+ */
+public class IntervalTree<T> {
+
+    private static final class Node<T> {
+        final int start;
+        final int end;
+        final long seq;
+        final T value;
+        final int priority;
+        int maxEnd;
+        Node<T> left, right;
+
+        Node(int start, int end, long seq, T value, int priority) {
+            this.start = start;
+            this.end = end;
+            this.seq = seq;
+            this.value = value;
+            this.priority = priority;
+            this.maxEnd = end;
+        }
+    }
+
+    private final Random random = new Random(0x5EED);
+    private Node<T> root;
+    private long nextSeq;
+    private int size;
+
+    public void add(int start, int end, T value) {
+        if (end <= start) throw new IllegalArgumentException("Empty interval [" + start + ", " + end + ")");
+        root = insert(root, new Node<>(start, end, nextSeq++, value, random.nextInt()));
+        size++;
+    }
+
+    /** Removes one interval with these bounds holding {@code value} (compared with equals). */
+    public boolean remove(int start, int end, T value) {
+        int before = size;
+        root = delete(root, start, end, value);
+        return size != before;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /** Values of all stored intervals that overlap {@code [start, end)}, in start order. */
+    public List<T> overlapping(int start, int end) {
+        List<T> result = new ArrayList<>();
+        collect(root, start, end, result);
+        return result;
+    }
+
+    private void collect(Node<T> n, int start, int end, List<T> out) {
+        if (n == null || n.maxEnd <= start) return;
+        collect(n.left, start, end, out);
+        if (n.start >= end) return;
+        if (n.end > start) out.add(n.value);
+        collect(n.right, start, end, out);
+    }
+
+    private Node<T> insert(Node<T> n, Node<T> node) {
+        if (n == null) return node;
+        if (compare(node.start, node.seq, n) < 0) {
+            n.left = insert(n.left, node);
+            if (n.left.priority > n.priority) n = rotateRight(n);
+        } else {
+            n.right = insert(n.right, node);
+            if (n.right.priority > n.priority) n = rotateLeft(n);
+        }
+        update(n);
+        return n;
+    }
+
+    private Node<T> delete(Node<T> n, int start, int end, T value) {
+        if (n == null) return null;
+        if (n.start == start && n.end == end && Objects.equals(n.value, value)) {
+            size--;
+            return merge(n.left, n.right);
+        }
+        // Intervals with an equal start can be on either side, so both may need a look
+        int before = size;
+        if (start <= n.start) n.left = delete(n.left, start, end, value);
+        if (size == before && start >= n.start) n.right = delete(n.right, start, end, value);
+        update(n);
+        return n;
+    }
+
+    private Node<T> merge(Node<T> a, Node<T> b) {
+        if (a == null) return b;
+        if (b == null) return a;
+        if (a.priority > b.priority) {
+            a.right = merge(a.right, b);
+            update(a);
+            return a;
+        }
+        b.left = merge(a, b.left);
+        update(b);
+        return b;
+    }
+
+    private static int compare(int start, long seq, Node<?> n) {
+        return start != n.start ? Integer.compare(start, n.start) : Long.compare(seq, n.seq);
+    }
+
+    private Node<T> rotateRight(Node<T> n) {
+        Node<T> l = n.left;
+        n.left = l.right;
+        l.right = n;
+        update(n);
+        update(l);
+        return l;
+    }
+
+    private Node<T> rotateLeft(Node<T> n) {
+        Node<T> r = n.right;
+        n.right = r.left;
+        r.left = n;
+        update(n);
+        update(r);
+        return r;
+    }
+
+    private static void update(Node<?> n) {
+        int max = n.end;
+        if (n.left != null && n.left.maxEnd > max) max = n.left.maxEnd;
+        if (n.right != null && n.right.maxEnd > max) max = n.right.maxEnd;
+        n.maxEnd = max;
+    }
+}
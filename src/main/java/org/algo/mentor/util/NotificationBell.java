@@ -0,0 +1,101 @@
+package org.algo.mentor.util;
+
+import javafx.beans.binding.Bindings;
+import javafx.collections.ListChangeListener;
+import javafx.geometry.Insets;
+import javafx.geometry.Pos;
+import javafx.geometry.Side;
+import javafx.scene.control.Button;
+import javafx.scene.control.ContextMenu;
+import javafx.scene.control.CustomMenuItem;
+import javafx.scene.control.Label;
+import javafx.scene.control.ScrollPane;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.VBox;
+import org.algo.mentor.services.NotificationCenter;
+
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Header button for the {@link NotificationCenter}: shows the unread count and opens a
+ * drop-down with the recent notifications. Opening it marks everything as read.
+ */
+public class NotificationBell extends HBox {
+
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("dd.MM HH:mm");
+    private static final String BUTTON_STYLE = "-fx-background-color: #f7fafc; -fx-text-fill: #4a5568; -fx-font-size: 13; -fx-background-radius: 8; -fx-padding: 8 14; -fx-cursor: hand;";
+
+    private final VBox listBox = new VBox(8);
+    private final ContextMenu menu = new ContextMenu();
+
+    public NotificationBell() {
+        setAlignment(Pos.CENTER);
+
+        Button button = new Button();
+        button.setStyle(BUTTON_STYLE);
+        button.textProperty().bind(Bindings.createStringBinding(() -> {
+            int unread = NotificationCenter.unreadCountProperty().get();
+            return unread > 0 ? "Eslatmalar (" + unread + ")" : "Eslatmalar";
+        }, NotificationCenter.unreadCountProperty()));
+
+        listBox.setPadding(new Insets(10));
+        listBox.setPrefWidth(320);
+        ScrollPane scroll = new ScrollPane(listBox);
+        scroll.setFitToWidth(true);
+        scroll.setMaxHeight(360);
+        scroll.setStyle("-fx-background-color: transparent; -fx-background: white;");
+
+        CustomMenuItem item = new CustomMenuItem(scroll, false);
+        menu.getItems().add(item);
+
+        button.setOnAction(e -> {
+            if (menu.isShowing()) {
+                menu.hide();
+                return;
+            }
+            rebuildList();
+            menu.show(button, Side.BOTTOM, 0, 4);
+            NotificationCenter.markAllRead();
+        });
+
+        NotificationCenter.getNotifications().addListener((ListChangeListener<NotificationCenter.Notification>) c -> {
+            if (menu.isShowing()) {
+                rebuildList();
+                NotificationCenter.markAllRead();
+            }
+        });
+
+        getChildren().add(button);
+    }
+
+    private void rebuildList() {
+        listBox.getChildren().clear();
+        if (NotificationCenter.getNotifications().isEmpty()) {
+            Label empty = new Label("Eslatmalar yo'q");
+            empty.setStyle("-fx-text-fill: #a0aec0; -fx-font-style: italic;");
+            listBox.getChildren().add(empty);
+            return;
+        }
+        for (NotificationCenter.Notification n : NotificationCenter.getNotifications()) {
+            Label title = new Label(n.title());
+            title.setWrapText(true);
+            title.setStyle("-fx-font-weight: bold; -fx-text-fill: " + colorFor(n.kind()) + ";");
+            Label message = new Label(n.message());
+            message.setWrapText(true);
+            message.setStyle("-fx-text-fill: #4a5568; -fx-font-size: 12;");
+            Label time = new Label(n.createdAt().format(TIME_FORMAT));
+            time.setStyle("-fx-text-fill: #a0aec0; -fx-font-size: 11;");
+            VBox row = new VBox(2, title, message, time);
+            row.setStyle("-fx-padding: 8; -fx-background-color: #f7fafc; -fx-background-radius: 6;");
+            listBox.getChildren().add(row);
+        }
+    }
+
+    private static String colorFor(NotificationCenter.Kind kind) {
+        return switch (kind) {
+            case LESSON -> "#3182ce";
+            case PAYMENT -> "#dd6b20";
+            case INFO -> "#2d3748";
+        };
+    }
+}
@@ -0,0 +1,162 @@
+package org.algo.mentor.util;
+
+import java.util.Random;
+
+/**
+ * Size-augmented treap over double keys with multiplicity.
+ * Answers "how many values are greater than x" (and how many distinct ones) in O(log n),
+ * which is what rank lookups with ties need.
+ */
+public class OrderStatisticTree {
+
+    private static final class Node {
+        final double key;
+        final int priority;
+        int count;
+        int size;
+        int distinct;
+        Node left, right;
+
+        Node(double key, int priority) {
+            this.key = key;
+            this.priority = priority;
+            this.count = 1;
+            this.size = 1;
+            this.distinct = 1;
+        }
+    }
+
+    private final Random random = new Random(0x5EED);
+    private Node root;
+
+    public void add(double key) {
+        root = insert(root, key);
+    }
+
+    public boolean remove(double key) {
+        int before = size();
+        root = delete(root, key);
+        return size() != before;
+    }
+
+    public int size() {
+        return size(root);
+    }
+
+    public int distinctSize() {
+        return distinct(root);
+    }
+
+    public void clear() {
+        root = null;
+    }
+
+    /** Number of stored values strictly greater than {@code key} (duplicates counted). */
+    public int countGreater(double key) {
+        int result = 0;
+        Node n = root;
+        while (n != null) {
+            int cmp = Double.compare(key, n.key);
+            if (cmp < 0) {
+                result += n.count + size(n.right);
+                n = n.left;
+            } else if (cmp > 0) {
+                n = n.right;
+            } else {
+                result += size(n.right);
+                break;
+            }
+        }
+        return result;
+    }
+
+    /** Number of distinct stored values strictly greater than {@code key}. */
+    public int countDistinctGreater(double key) {
+        int result = 0;
+        Node n = root;
+        while (n != null) {
+            int cmp = Double.compare(key, n.key);
+            if (cmp < 0) {
+                result += 1 + distinct(n.right);
+                n = n.left;
+            } else if (cmp > 0) {
+                n = n.right;
+            } else {
+                result += distinct(n.right);
+                break;
+            }
+        }
+        return result;
+    }
+
+    private Node insert(Node n, double key) {
+        if (n == null) return new Node(key, random.nextInt());
+        int cmp = Double.compare(key, n.key);
+        if (cmp == 0) {
+            n.count++;
+        } else if (cmp < 0) {
+            n.left = insert(n.left, key);
+            if (n.left.priority > n.priority) n = rotateRight(n);
+        } else {
+            n.right = insert(n.right, key);
+            if (n.right.priority > n.priority) n = rotateLeft(n);
+        }
+        update(n);
+        return n;
+    }
+
+    private Node delete(Node n, double key) {
+        if (n == null) return null;
+        int cmp = Double.compare(key, n.key);
+        if (cmp < 0) {
+            n.left = delete(n.left, key);
+        } else if (cmp > 0) {
+            n.right = delete(n.right, key);
+        } else if (n.count > 1) {
+            n.count--;
+        } else if (n.left == null) {
+            return n.right;
+        } else if (n.right == null) {
+            return n.left;
+        } else if (n.left.priority > n.right.priority) {
+            n = rotateRight(n);
+            n.right = delete(n.right, key);
+        } else {
+            n = rotateLeft(n);
+            n.left = delete(n.left, key);
+        }
+        update(n);
+        return n;
+    }
+
+    private Node rotateRight(Node n) {
+        Node l = n.left;
+        n.left = l.right;
+        l.right = n;
+        update(n);
+        update(l);
+        return l;
+    }
+
+    private Node rotateLeft(Node n) {
+        Node r = n.right;
+        n.right = r.left;
+        r.left = n;
+        update(n);
+        update(r);
+        return r;
+    }
+
+    private static void update(Node n) {
+        n.size = n.count + size(n.left) + size(n.right);
+        n.distinct = 1 + distinct(n.left) + distinct(n.right);
+    }
+
+    private static int size(Node n) {
+        return n == null ? 0 : n.size;
+    }
+
+    private static int distinct(Node n) {
+        return n == null ? 0 : n.distinct;
+    }
+}
@@ -0,0 +1,231 @@
+package org.algo.mentor.util;
+
+import com.itextpdf.io.font.constants.StandardFonts;
+import com.itextpdf.kernel.colors.Color;
+import com.itextpdf.kernel.colors.DeviceRgb;
+import com.itextpdf.kernel.font.PdfFont;
+import com.itextpdf.kernel.font.PdfFontFactory;
+import com.itextpdf.kernel.geom.Rectangle;
+import com.itextpdf.kernel.pdf.PdfDocument;
+import com.itextpdf.kernel.pdf.canvas.PdfCanvas;
+import com.itextpdf.kernel.pdf.xobject.PdfFormXObject;
+import com.itextpdf.layout.element.Image;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+
+/**
+ * Small vector chart renderer for PDF exports. Charts are drawn as paths into a form XObject
+ * and returned as a layout {@link Image}, so they scale without loss and need no JavaFX.
+ */
+public class PdfCharts {
+
+    public static final Color BLUE = new DeviceRgb(66, 153, 225);
+    public static final Color GREEN = new DeviceRgb(72, 187, 120);
+    public static final Color RED = new DeviceRgb(245, 101, 101);
+    public static final Color ORANGE = new DeviceRgb(237, 137, 54);
+    public static final Color GRAY = new DeviceRgb(160, 174, 192);
+
+    private static final Color AXIS = new DeviceRgb(203, 213, 224);
+    private static final Color TEXT = new DeviceRgb(74, 85, 104);
+
+    private static final float FONT_SIZE = 7;
+    private static final float LEGEND_HEIGHT = 16;
+
+    public record Series(String name, List<Double> values, Color color) {}
+
+    /** Pie chart with a legend on the right. Zero slices are listed in the legend but not drawn. */
+    public static Image pieChart(PdfDocument pdf, float width, float height,
+                                 String[] labels, double[] values, Color[] colors) {
+        PdfFormXObject form = new PdfFormXObject(new Rectangle(width, height));
+        PdfCanvas canvas = new PdfCanvas(form, pdf);
+        PdfFont font = font();
+
+        double total = 0;
+        for (double v : values) total += Math.max(0, v);
+
+        float radius = Math.min(height, width * 0.55f) / 2 - 4;
+        float cx = radius + 4;
+        float cy = height / 2;
+
+        canvas.saveState();
+        canvas.setStrokeColor(DeviceRgb.WHITE).setLineWidth(1);
+        if (total <= 0) {
+            canvas.setFillColor(AXIS).circle(cx, cy, radius).fill();
+        } else {
+            double start = 90;
+            for (int i = 0; i < values.length; i++) {
+                if (values[i] <= 0) continue;
+                double extent = -360 * values[i] / total;
+                canvas.setFillColor(colors[i % colors.length]);
+                if (Math.abs(extent) >= 359.999) {
+                    canvas.circle(cx, cy, radius).fill();
+                } else {
+                    canvas.moveTo(cx, cy)
+                            .arcContinuous(cx - radius, cy - radius, cx + radius, cy + radius, start, extent)
+                            .closePathFillStroke();
+                }
+                start += extent;
+            }
+        }
+        canvas.restoreState();
+
+        float legendX = cx + radius + 16;
+        float legendY = cy + values.length * LEGEND_HEIGHT / 2 - LEGEND_HEIGHT;
+        for (int i = 0; i < labels.length; i++) {
+            float y = legendY - i * LEGEND_HEIGHT;
+            canvas.saveState().setFillColor(colors[i % colors.length]).rectangle(legendX, y, 9, 9).fill().restoreState();
+            String percent = total > 0 ? String.format(" (%.0f%%)", values[i] * 100 / total) : "";
+            text(canvas, font, FONT_SIZE + 2, legendX + 14, y + 1, labels[i] + percent);
+        }
+
+        canvas.release();
+        return new Image(form);
+    }
+
+    /**
+     * Line chart over text categories with a value axis starting at zero.
+     * Every series must have one value per category.
+     */
+    public static Image lineChart(PdfDocument pdf, float width, float height,
+                                  List<String> categories, List<Series> series) {
+        PdfFormXObject form = new PdfFormXObject(new Rectangle(width, height));
+        PdfCanvas canvas = new PdfCanvas(form, pdf);
+        PdfFont font = font();
+
+        Plot plot = drawAxes(canvas, font, width, height, categories, series, false);
+        int n = categories.size();
+        for (Series s : series) {
+            canvas.saveState().setStrokeColor(s.color()).setFillColor(s.color()).setLineWidth(1.5f);
+            boolean started = false;
+            for (int i = 0; i < n && i < s.values().size(); i++) {
+                Double v = s.values().get(i);
+                if (v == null) continue;
+                if (started) canvas.lineTo(plot.x(i), plot.y(v)); else canvas.moveTo(plot.x(i), plot.y(v));
+                started = true;
+            }
+            if (started) canvas.stroke();
+            for (int i = 0; i < n && i < s.values().size(); i++) {
+                Double v = s.values().get(i);
+                if (v != null) canvas.circle(plot.x(i), plot.y(v), 1.8f).fill();
+            }
+            canvas.restoreState();
+        }
+
+        drawLegend(canvas, font, plot.left(), height - LEGEND_HEIGHT + 4, series);
+        canvas.release();
+        return new Image(form);
+    }
+
+    /** Grouped bar chart: one bar per series inside each category slot. */
+    public static Image barChart(PdfDocument pdf, float width, float height,
+                                 List<String> categories, List<Series> series) {
+        PdfFormXObject form = new PdfFormXObject(new Rectangle(width, height));
+        PdfCanvas canvas = new PdfCanvas(form, pdf);
+        PdfFont font = font();
+
+        Plot plot = drawAxes(canvas, font, width, height, categories, series, true);
+        float barWidth = series.isEmpty() ? 0 : plot.slot() * 0.7f / series.size();
+        for (int k = 0; k < series.size(); k++) {
+            Series s = series.get(k);
+            canvas.saveState().setFillColor(s.color());
+            for (int i = 0; i < categories.size() && i < s.values().size(); i++) {
+                Double v = s.values().get(i);
+                if (v == null || v <= 0) continue;
+                float x = plot.x(i) - plot.slot() * 0.35f + k * barWidth;
+                canvas.rectangle(x, plot.bottom(), barWidth, plot.y(v) - plot.bottom()).fill();
+            }
+            canvas.restoreState();
+        }
+
+        drawLegend(canvas, font, plot.left(), height - LEGEND_HEIGHT + 4, series);
+        canvas.release();
+        return new Image(form);
+    }
+
+    /** Maps category indexes and values to form coordinates. */
+    private record Plot(float left, float bottom, float plotW, float plotH, double top, int count, boolean slotted) {
+        float slot() {
+            return count == 0 ? plotW : plotW / count;
+        }
+
+        float x(int i) {
+            if (slotted) return left + slot() * (i + 0.5f);
+            return count > 1 ? left + i * plotW / (count - 1) : left + plotW / 2;
+        }
+
+        float y(double value) {
+            return bottom + (float) (plotH * value / top);
+        }
+    }
+
+    /** Draws the value grid and category labels, and returns the plot area. */
+    private static Plot drawAxes(PdfCanvas canvas, PdfFont font, float width, float height,
+                                 List<String> categories, List<Series> series, boolean slotted) {
+        double max = 0;
+        for (Series s : series) {
+            for (Double v : s.values()) if (v != null) max = Math.max(max, v);
+        }
+        double step = niceStep(max / 4);
+        double top = step * 4;
+
+        float left = 30, right = width - 8, bottom = 34, plotTop = height - LEGEND_HEIGHT - 6;
+        Plot plot = new Plot(left, bottom, right - left, plotTop - bottom, top, categories.size(), slotted);
+
+        canvas.saveState().setStrokeColor(AXIS).setLineWidth(0.5f);
+        for (int i = 0; i <= 4; i++) {
+            float y = plot.y(i * step);
+            canvas.moveTo(left, y).lineTo(right, y).stroke();
+            String label = formatValue(i * step);
+            text(canvas, font, FONT_SIZE, left - 4 - font.getWidth(label, FONT_SIZE), y - 2, label);
+        }
+        canvas.restoreState();
+
+        int n = categories.size();
+        int labelEvery = Math.max(1, (int) Math.ceil(n / (plot.plotW() / 34)));
+        for (int i = 0; i < n; i += labelEvery) {
+            canvas.saveState();
+            canvas.beginText().setFontAndSize(font, FONT_SIZE).setColor(TEXT, true)
+                    .setTextMatrix(0.7071f, -0.7071f, 0.7071f, 0.7071f, plot.x(i) - 4, bottom - 4)
+                    .showText(categories.get(i)).endText();
+            canvas.restoreState();
+        }
+        return plot;
+    }
+
+    private static void drawLegend(PdfCanvas canvas, PdfFont font, float x, float y, List<Series> series) {
+        for (Series s : series) {
+            canvas.saveState().setFillColor(s.color()).rectangle(x, y, 9, 6).fill().restoreState();
+            text(canvas, font, FONT_SIZE + 1, x + 12, y, s.name());
+            x += 12 + font.getWidth(s.name(), FONT_SIZE + 1) + 14;
+        }
+    }
+
+    private static void text(PdfCanvas canvas, PdfFont font, float size, float x, float y, String text) {
+        canvas.saveState();
+        canvas.beginText().setFontAndSize(font, size).setColor(TEXT, true)
+                .moveText(x, y).showText(text).endText();
+        canvas.restoreState();
+    }
+
+    private static double niceStep(double raw) {
+        if (raw <= 0) return 1;
+        double magnitude = Math.pow(10, Math.floor(Math.log10(raw)));
+        double fraction = raw / magnitude;
+        double nice = fraction <= 1 ? 1 : fraction <= 2 ? 2 : fraction <= 5 ? 5 : 10;
+        return nice * magnitude;
+    }
+
+    private static String formatValue(double value) {
+        return value == Math.rint(value) ? String.valueOf((long) value) : String.format("%.1f", value);
+    }
+
+    private static PdfFont font() {
+        try {
+            return PdfFontFactory.createFont(StandardFonts.HELVETICA);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package org.algo.mentor.util;
+
+import org.algo.mentor.models.Schedule;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Overlap checks for weekly schedules: one {@link IntervalTree} per weekday holding each
+ * lesson as {@code [start, start + duration)} in minutes of that day. A lesson running past
+ * midnight also gets its tail in the next day's tree (Sunday wraps to Monday).
+ * <p>
+ * Two lessons conflict when they overlap, belong to different groups and are not in two
+ * different rooms; lessons without a room are assumed to share the one teacher/classroom.
+ */
+public class ScheduleConflicts {
+
+    public record Conflict(Schedule first, Schedule second, int dayOfWeek, int fromMinute, int toMinute) {
+        public String describe() {
+            return String.format("%s (%s) va %s (%s): %s, %s-%s",
+                    first.getGroupName(), first.getLessonTime(),
+                    second.getGroupName(), second.getLessonTime(),
+                    dayName(dayOfWeek), formatMinute(fromMinute), formatMinute(toMinute));
+        }
+    }
+
+    private static final String[] DAY_NAMES = {"Dushanba", "Seshanba", "Chorshanba", "Payshanba", "Juma", "Shanba", "Yakshanba"};
+
+    private record Segment(Schedule schedule, int day, int start, int end) {}
+
+    private final List<IntervalTree<Schedule>> days = new ArrayList<>(7);
+    private final List<Schedule> schedules = new ArrayList<>();
+
+    public ScheduleConflicts(List<Schedule> schedules) {
+        for (int i = 0; i < 7; i++) days.add(new IntervalTree<>());
+        for (Schedule s : schedules) add(s);
+    }
+
+    public void add(Schedule s) {
+        List<Segment> segments = segments(s);
+        if (segments.isEmpty()) return;
+        for (Segment seg : segments) days.get(seg.day() - 1).add(seg.start(), seg.end(), s);
+        schedules.add(s);
+    }
+
+    public void remove(Schedule s) {
+        for (Segment seg : segments(s)) days.get(seg.day() - 1).remove(seg.start(), seg.end(), s);
+        schedules.remove(s);
+    }
+
+    /** Conflicts a candidate lesson would have with the stored ones (the candidate need not be stored). */
+    public List<Conflict> conflictsFor(Schedule candidate) {
+        List<Conflict> result = new ArrayList<>();
+        Set<Schedule> seen = new HashSet<>();
+        for (Segment seg : segments(candidate)) {
+            for (Schedule other : days.get(seg.day() - 1).overlapping(seg.start(), seg.end())) {
+                if (!clashes(candidate, other) || !seen.add(other)) continue;
+                result.add(conflict(candidate, other, seg));
+            }
+        }
+        return result;
+    }
+
+    /** Every conflicting pair among the stored lessons, each reported once. */
+    public List<Conflict> validateAll() {
+        List<Conflict> result = new ArrayList<>();
+        Set<Long> reported = new HashSet<>();
+        for (Schedule s : schedules) {
+            for (Segment seg : segments(s)) {
+                for (Schedule other : days.get(seg.day() - 1).overlapping(seg.start(), seg.end())) {
+                    if (other == s || !clashes(s, other)) continue;
+                    int a = Math.min(s.getId(), other.getId()), b = Math.max(s.getId(), other.getId());
+                    if (!reported.add(((long) a << 32) | (b & 0xffffffffL))) continue;
+                    result.add(conflict(s, other, seg));
+                }
+            }
+        }
+        return result;
+    }
+
+    private static boolean clashes(Schedule a, Schedule b) {
+        if (a.getGroupId() == b.getGroupId()) return false;
+        return isBlank(a.getRoom()) || isBlank(b.getRoom()) || a.getRoom().trim().equalsIgnoreCase(b.getRoom().trim());
+    }
+
+    private static Conflict conflict(Schedule s, Schedule other, Segment seg) {
+        Segment otherSeg = null;
+        for (Segment o : segments(other)) {
+            if (o.day() == seg.day() && o.start() < seg.end() && o.end() > seg.start()) otherSeg = o;
+        }
+        int from = otherSeg != null ? Math.max(seg.start(), otherSeg.start()) : seg.start();
+        int to = otherSeg != null ? Math.min(seg.end(), otherSeg.end()) : seg.end();
+        return new Conflict(s, other, seg.day(), from, to);
+    }
+
+    /** The lesson as one or two same-day segments; empty when its day/time is invalid. */
+    private static List<Segment> segments(Schedule s) {
+        List<Segment> result = new ArrayList<>(2);
+        int minuteOfWeek = ScheduleIndex.minuteOfWeek(s);
+        if (minuteOfWeek < 0) return result;
+        int duration = Math.max(1, Math.min(s.getDurationMinutes(), ScheduleIndex.MINUTES_PER_DAY));
+        int day = s.getDayOfWeek();
+        int start = minuteOfWeek % ScheduleIndex.MINUTES_PER_DAY;
+        int end = start + duration;
+        result.add(new Segment(s, day, start, Math.min(end, ScheduleIndex.MINUTES_PER_DAY)));
+        if (end > ScheduleIndex.MINUTES_PER_DAY) {
+            result.add(new Segment(s, day % 7 + 1, 0, end - ScheduleIndex.MINUTES_PER_DAY));
+        }
+        return result;
+    }
+
+    private static boolean isBlank(String value) {
+        return value == null || value.isBlank();
+    }
+
+    private static String dayName(int day) {
+        return day >= 1 && day <= 7 ? DAY_NAMES[day - 1] : "";
+    }
+
+    public static String formatMinute(int minuteOfDay) {
+        return String.format("%02d:%02d", minuteOfDay / 60 % 24, minuteOfDay % 60);
+    }
+}
@@ -0,0 +1,175 @@
+package org.algo.mentor.util;
+
+import org.algo.mentor.models.Schedule;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.time.temporal.TemporalAdjusters;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Weekly schedules with their lesson times parsed once into minute-of-week offsets
+ * (Monday 00:00 = 0). Queries convert "now" to a minute-of-week a single time and then work
+ * on plain ints: the entries are kept sorted, so "today" is a range scan and "next N" /
+ * "in range" pull occurrences off a priority queue that re-queues each entry a week later.
+ * The index is immutable; rebuild it when schedules change.
+ */
+public class ScheduleIndex {
+
+    private static final Logger log = LoggerFactory.getLogger(ScheduleIndex.class);
+
+    public static final int MINUTES_PER_DAY = 24 * 60;
+    public static final int MINUTES_PER_WEEK = 7 * MINUTES_PER_DAY;
+
+    public record Occurrence(Schedule schedule, LocalDateTime at) {}
+
+    private record Entry(Schedule schedule, int minuteOfWeek) {}
+
+    private final Entry[] entries;
+    private final Map<Integer, Entry> byId = new HashMap<>();
+
+    public ScheduleIndex(List<Schedule> schedules) {
+        List<Entry> parsed = new ArrayList<>(schedules.size());
+        for (Schedule s : schedules) {
+            int minute = minuteOfWeek(s);
+            if (minute < 0) {
+                log.warn("Skipping schedule {} with invalid day/time: {} {}", s.getId(), s.getDayOfWeek(), s.getLessonTime());
+                continue;
+            }
+            Entry entry = new Entry(s, minute);
+            parsed.add(entry);
+            byId.put(s.getId(), entry);
+        }
+        entries = parsed.toArray(new Entry[0]);
+        Arrays.sort(entries, Comparator.comparingInt(Entry::minuteOfWeek).thenComparing(e -> e.schedule().getGroupName(),
+                Comparator.nullsLast(Comparator.naturalOrder())));
+    }
+
+    public int size() {
+        return entries.length;
+    }
+
+    /** Minute-of-week of a schedule, or -1 when its day or time cannot be parsed. */
+    public static int minuteOfWeek(Schedule s) {
+        if (s.getDayOfWeek() < 1 || s.getDayOfWeek() > 7 || s.getLessonTime() == null) return -1;
+        try {
+            LocalTime time = LocalTime.parse(s.getLessonTime().trim());
+            return (s.getDayOfWeek() - 1) * MINUTES_PER_DAY + time.getHour() * 60 + time.getMinute();
+        } catch (DateTimeParseException e) {
+            return -1;
+        }
+    }
+
+    public static int minuteOfWeek(LocalDateTime at) {
+        return (at.getDayOfWeek().getValue() - 1) * MINUTES_PER_DAY + at.getHour() * 60 + at.getMinute();
+    }
+
+    /**
+     * Next start of the schedule at or after {@code now} (a lesson starting this very minute
+     * still counts as upcoming). Schedules not in the index are computed from their own fields.
+     */
+    public LocalDateTime nextOccurrence(Schedule s, LocalDateTime now) {
+        Entry entry = byId.get(s.getId());
+        boolean indexed = entry != null && entry.schedule().getDayOfWeek() == s.getDayOfWeek()
+                && entry.schedule().getLessonTime().equals(s.getLessonTime());
+        int minute = indexed ? entry.minuteOfWeek() : minuteOfWeek(s);
+        if (minute < 0) return null;
+        return at(weekStart(now), minute + (minute < minuteOfWeek(now) ? MINUTES_PER_WEEK : 0));
+    }
+
+    /** All schedules ordered by their next occurrence after {@code now}: one rotation of the sorted array. */
+    public List<Schedule> inNextOccurrenceOrder(LocalDateTime now) {
+        List<Schedule> result = new ArrayList<>(entries.length);
+        int start = firstAtOrAfter(minuteOfWeek(now)) % Math.max(1, entries.length);
+        for (int i = 0; i < entries.length; i++) {
+            result.add(entries[(start + i) % entries.length].schedule());
+        }
+        return result;
+    }
+
+    /** Lessons on {@code date}'s weekday, in time order. */
+    public List<Occurrence> lessonsOn(LocalDate date) {
+        int dayStart = (date.getDayOfWeek().getValue() - 1) * MINUTES_PER_DAY;
+        LocalDateTime midnight = date.atStartOfDay();
+        List<Occurrence> result = new ArrayList<>();
+        for (int i = firstAtOrAfter(dayStart); i < entries.length && entries[i].minuteOfWeek() < dayStart + MINUTES_PER_DAY; i++) {
+            result.add(new Occurrence(entries[i].schedule(), midnight.plusMinutes(entries[i].minuteOfWeek() - dayStart)));
+        }
+        return result;
+    }
+
+    /** The next {@code count} lesson starts at or after {@code now}, wrapping into later weeks as needed. */
+    public List<Occurrence> next(LocalDateTime now, int count) {
+        List<Occurrence> result = new ArrayList<>(Math.max(0, count));
+        if (entries.length == 0 || count <= 0) return result;
+        LocalDateTime weekStart = weekStart(now);
+        PriorityQueue<long[]> queue = seed(minuteOfWeek(now));
+        while (result.size() < count) {
+            long[] head = queue.poll();
+            result.add(new Occurrence(entries[(int) head[1]].schedule(), at(weekStart, head[0])));
+            head[0] += MINUTES_PER_WEEK;
+            queue.add(head);
+        }
+        return result;
+    }
+
+    /** Every lesson start in {@code [from, to)}, in time order. */
+    public List<Occurrence> between(LocalDateTime from, LocalDateTime to) {
+        List<Occurrence> result = new ArrayList<>();
+        if (entries.length == 0 || !from.isBefore(to)) return result;
+        LocalDateTime weekStart = weekStart(from);
+        long end = ChronoUnit.MINUTES.between(weekStart, to);
+        PriorityQueue<long[]> queue = seed(minuteOfWeek(from));
+        while (queue.peek()[0] < end) {
+            long[] head = queue.poll();
+            result.add(new Occurrence(entries[(int) head[1]].schedule(), at(weekStart, head[0])));
+            head[0] += MINUTES_PER_WEEK;
+            queue.add(head);
+        }
+        return result;
+    }
+
+    /**
+     * Queue of {minutes since weekStart, entry index} holding each entry's first start at or
+     * after {@code fromMinute}. Ties keep the array order, which is already sorted.
+     */
+    private PriorityQueue<long[]> seed(int fromMinute) {
+        PriorityQueue<long[]> queue = new PriorityQueue<>(entries.length,
+                (a, b) -> a[0] != b[0] ? Long.compare(a[0], b[0]) : Long.compare(a[1], b[1]));
+        for (int i = 0; i < entries.length; i++) {
+            int minute = entries[i].minuteOfWeek();
+            queue.add(new long[]{minute < fromMinute ? minute + MINUTES_PER_WEEK : minute, i});
+        }
+        return queue;
+    }
+
+    private int firstAtOrAfter(int minute) {
+        int lo = 0, hi = entries.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (entries[mid].minuteOfWeek() < minute) lo = mid + 1;
+            else hi = mid;
+        }
+        return hi;
+    }
+
+    private static LocalDateTime weekStart(LocalDateTime at) {
+        return at.toLocalDate().with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY)).atStartOfDay();
+    }
+
+    private static LocalDateTime at(LocalDateTime weekStart, long minutes) {
+        return weekStart.plusMinutes(minutes);
+    }
+}
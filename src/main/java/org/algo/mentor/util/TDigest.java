@@ -0,0 +1,209 @@
+package org.algo.mentor.util;
+
+import java.io.*;
+import java.util.Arrays;
+
+/**
+ * Merging t-digest for streaming quantile estimates.
+ * Digests built separately (per session, per group) can be merged without the raw values.
+ */
+public class TDigest {
+
+    public static final double DEFAULT_COMPRESSION = 100;
+
+    private final double compression;
+    private double[] means;
+    private double[] weights;
+    private int size;
+
+    private final double[] bufferMeans;
+    private final double[] bufferWeights;
+    private int bufferSize;
+
+    private double totalWeight;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+
+    public TDigest() {
+        this(DEFAULT_COMPRESSION);
+    }
+
+    public TDigest(double compression) {
+        this.compression = compression;
+        int capacity = (int) Math.ceil(compression) * 2 + 10;
+        this.means = new double[capacity];
+        this.weights = new double[capacity];
+        this.bufferMeans = new double[capacity * 4];
+        this.bufferWeights = new double[capacity * 4];
+    }
+
+    public void add(double value) {
+        add(value, 1);
+    }
+
+    public void add(double value, double weight) {
+        if (Double.isNaN(value) || weight <= 0) return;
+        if (bufferSize == bufferMeans.length) compress();
+        bufferMeans[bufferSize] = value;
+        bufferWeights[bufferSize] = weight;
+        bufferSize++;
+        totalWeight += weight;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+    }
+
+    public void merge(TDigest other) {
+        other.compress();
+        for (int i = 0; i < other.size; i++) {
+            add(other.means[i], other.weights[i]);
+        }
+        if (other.totalWeight > 0) {
+            min = Math.min(min, other.min);
+            max = Math.max(max, other.max);
+        }
+    }
+
+    public double count() {
+        return totalWeight;
+    }
+
+    public double min() {
+        return totalWeight == 0 ? Double.NaN : min;
+    }
+
+    public double max() {
+        return totalWeight == 0 ? Double.NaN : max;
+    }
+
+    /** Estimated value at quantile {@code q} in [0, 1]; NaN when empty. */
+    public double quantile(double q) {
+        compress();
+        if (size == 0) return Double.NaN;
+        if (size == 1) return means[0];
+        q = Math.max(0, Math.min(1, q));
+
+        double index = q * totalWeight;
+        if (index <= weights[0] / 2) {
+            return min + (means[0] - min) * (index / (weights[0] / 2));
+        }
+
+        double cumulative = weights[0] / 2;
+        for (int i = 0; i < size - 1; i++) {
+            double step = (weights[i] + weights[i + 1]) / 2;
+            if (index <= cumulative + step) {
+                double t = (index - cumulative) / step;
+                return means[i] + t * (means[i + 1] - means[i]);
+            }
+            cumulative += step;
+        }
+
+        double tail = weights[size - 1] / 2;
+        double t = tail == 0 ? 1 : Math.min(1, (index - cumulative) / tail);
+        return means[size - 1] + t * (max - means[size - 1]);
+    }
+
+    private void compress() {
+        if (bufferSize == 0) return;
+
+        int n = size + bufferSize;
+        double[] allMeans = new double[n];
+        double[] allWeights = new double[n];
+        System.arraycopy(means, 0, allMeans, 0, size);
+        System.arraycopy(weights, 0, allWeights, 0, size);
+        System.arraycopy(bufferMeans, 0, allMeans, size, bufferSize);
+        System.arraycopy(bufferWeights, 0, allWeights, size, bufferSize);
+        bufferSize = 0;
+
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) order[i] = i;
+        Arrays.sort(order, (a, b) -> Double.compare(allMeans[a], allMeans[b]));
+
+        double total = 0;
+        for (int i = 0; i < n; i++) total += allWeights[i];
+
+        double[] newMeans = new double[n];
+        double[] newWeights = new double[n];
+        int out = 0;
+        double curMean = allMeans[order[0]];
+        double curWeight = allWeights[order[0]];
+        double weightSoFar = 0;
+        double qLimit = qFromK(kFromQ(0) + 1);
+
+        for (int i = 1; i < n; i++) {
+            int idx = order[i];
+            double q = (weightSoFar + curWeight + allWeights[idx]) / total;
+            if (q <= qLimit) {
+                curWeight += allWeights[idx];
+                curMean += (allMeans[idx] - curMean) * allWeights[idx] / curWeight;
+            } else {
+                newMeans[out] = curMean;
+                newWeights[out] = curWeight;
+                out++;
+                weightSoFar += curWeight;
+                qLimit = qFromK(kFromQ(weightSoFar / total) + 1);
+                curMean = allMeans[idx];
+                curWeight = allWeights[idx];
+            }
+        }
+        newMeans[out] = curMean;
+        newWeights[out] = curWeight;
+        out++;
+
+        if (out > means.length) {
+            means = new double[out];
+            weights = new double[out];
+        }
+        System.arraycopy(newMeans, 0, means, 0, out);
+        System.arraycopy(newWeights, 0, weights, 0, out);
+        size = out;
+    }
+
+    private double kFromQ(double q) {
+        return compression / (2 * Math.PI) * Math.asin(2 * q - 1);
+    }
+
+    private double qFromK(double k) {
+        if (k >= compression / 4) return 1;
+        return (Math.sin(k * 2 * Math.PI / compression) + 1) / 2;
+    }
+
+    public byte[] toBytes() {
+        compress();
+        try {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream(16 + size * 16);
+            DataOutputStream out = new DataOutputStream(baos);
+            out.writeDouble(compression);
+            out.writeDouble(min);
+            out.writeDouble(max);
+            out.writeInt(size);
+            for (int i = 0; i < size; i++) {
+                out.writeDouble(means[i]);
+                out.writeDouble(weights[i]);
+            }
+            out.flush();
+            return baos.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static TDigest fromBytes(byte[] bytes) {
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+            TDigest digest = new TDigest(in.readDouble());
+            double min = in.readDouble();
+            double max = in.readDouble();
+            int n = in.readInt();
+            for (int i = 0; i < n; i++) {
+                digest.add(in.readDouble(), in.readDouble());
+            }
+            if (n > 0) {
+                digest.min = min;
+                digest.max = max;
+            }
+            return digest;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package org.algo.mentor.util;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Row-at-a-time writer for tabular exports. Rows go straight to the file, so callers can feed
+ * it from an open result set without building a list first.
+ * Cell values may be {@code null}, numbers (written as numbers) or anything else (written as text).
+ */
+public interface TableWriter extends AutoCloseable {
+
+    enum Format {
+        CSV("csv"),
+        XLSX("xlsx");
+
+        private final String extension;
+
+        Format(String extension) {
+            this.extension = extension;
+        }
+
+        public String getExtension() {
+            return extension;
+        }
+
+        /** XLSX for *.xlsx files, CSV otherwise. */
+        public static Format forFile(Path file) {
+            return file.getFileName().toString().toLowerCase().endsWith(".xlsx") ? XLSX : CSV;
+        }
+    }
+
+    void header(String... names) throws IOException;
+
+    void row(Object... values) throws IOException;
+
+    @Override
+    void close() throws IOException;
+
+    static TableWriter open(Path file, Format format) throws IOException {
+        FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        try {
+            return format == Format.XLSX ? new XlsxTableWriter(channel) : new CsvTableWriter(channel);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+}